@@ -1,15 +1,16 @@
 package de.qabel.core.config;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * https://github.com/Qabel/qabel-doc/wiki/Qabel-Client-Configuration#accounts
  */
 public class Accounts {
 
-	private final Set<Account> accounts = new HashSet<Account>();
+	private final Set<Account> accounts = new CopyOnWriteArraySet<Account>();
 
 	/**
 	 * Returns unmodifiable set of contained accounts
@@ -32,6 +33,15 @@ public class Accounts {
 		return this.accounts.remove(account);
 	}
 
+	/**
+	 * Atomically adds all given accounts which are not contained yet.
+	 * @param accounts Accounts to add.
+	 * @return true if at least one was added.
+	 */
+	public boolean addAll(Collection<? extends Account> accounts) {
+		return this.accounts.addAll(accounts);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
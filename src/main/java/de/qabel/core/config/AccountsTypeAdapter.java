@@ -10,15 +10,14 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class AccountsTypeAdapter extends TypeAdapter<Accounts> {
+	private final TypeAdapter<Account> adapter = new Gson().getAdapter(Account.class);
 
 	@Override
 	public void write(JsonWriter out, Accounts value) throws IOException {
 		out.beginArray();
-		Gson gson = new Gson();
 		Set<Account> set = value.getAccounts();
-		TypeAdapter<Account> adapter = gson.getAdapter(Account.class);
 		for(Account account : set) {
-			adapter.write(out, account);
+			this.adapter.write(out, account);
 		}
 		out.endArray();
 		return;
@@ -31,14 +30,12 @@ public class AccountsTypeAdapter extends TypeAdapter<Accounts> {
 			return null;
 		}
 		
-		Gson gson = new Gson();
 		Accounts accounts = new Accounts();
-		TypeAdapter<Account> adapter = gson.getAdapter(Account.class);
 		Account account = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			account = adapter.read(in);
+			account = this.adapter.read(in);
 			accounts.add(account);
 		}
 		in.endArray();
@@ -5,8 +5,10 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
@@ -18,15 +20,14 @@ import de.qabel.core.drop.DropURL;
 import de.qabel.core.exceptions.QblDropInvalidURL;
 
 public class ContactTypeAdapter extends TypeAdapter<Contact> {
+	private final static Logger logger = LogManager.getLogger(ContactTypeAdapter.class.getName());
+	private final TypeAdapter<QblPrimaryPublicKey> primaryKeyAdapter = new QblPrimaryPublicKeyTypeAdapter();
+	private final TypeAdapter<URL> urlAdapter = new Gson().getAdapter(URL.class);
 
 	@Override
 	public void write(JsonWriter out, Contact value) throws IOException {
-		GsonBuilder builder = new GsonBuilder();
 		out.beginObject();
 		out.name("keys");
-		builder.registerTypeAdapter(QblPrimaryPublicKey.class, new QblPrimaryPublicKeyTypeAdapter());
-		Gson gson = builder.create();
-		TypeAdapter<QblPrimaryPublicKey> primaryKeyAdapter = gson.getAdapter(QblPrimaryPublicKey.class);
 		primaryKeyAdapter.write(out, value.getPrimaryPublicKey());
 		
 		out.name("my_identity");
@@ -35,7 +36,6 @@ public class ContactTypeAdapter extends TypeAdapter<Contact> {
 		out.name("drop_urls");
 		out.beginArray();
 		Collection<DropURL> dropUrls = value.getDropUrls();
-		TypeAdapter<URL> urlAdapter = gson.getAdapter(URL.class);
 		for(DropURL url : dropUrls) {
 			urlAdapter.write(out, url.getUrl());
 		}
@@ -72,8 +72,7 @@ public class ContactTypeAdapter extends TypeAdapter<Contact> {
 		while(in.hasNext()) {
 			switch(in.nextName()) {
 			case "keys":
-				QblPrimaryPublicKeyTypeAdapter publicKeyTypeAdapter = new QblPrimaryPublicKeyTypeAdapter();
-				qppk = publicKeyTypeAdapter.read(in);
+				qppk = primaryKeyAdapter.read(in);
 				break;
 			case "my_identity":
 				contactOwnerKeyId = in.nextString();
@@ -85,8 +84,7 @@ public class ContactTypeAdapter extends TypeAdapter<Contact> {
 					try {
 						dropURLs.add(new DropURL(in.nextString()));
 					} catch (QblDropInvalidURL e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+						logger.warn("Skipping invalid drop URL of contact", e);
 					}
 				}
 				in.endArray();
@@ -109,6 +107,9 @@ public class ContactTypeAdapter extends TypeAdapter<Contact> {
 			case "deleted":
 				syncItem.setDeleted(in.nextLong());
 				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
 		in.endObject();
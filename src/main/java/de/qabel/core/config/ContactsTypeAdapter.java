@@ -1,24 +1,24 @@
 package de.qabel.core.config;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
-import com.google.gson.Gson;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class ContactsTypeAdapter extends TypeAdapter<Contacts> {
+	private final TypeAdapter<Contact> adapter = new ContactTypeAdapter();
 
 	@Override
 	public void write(JsonWriter out, Contacts value) throws IOException {
 		out.beginArray();
-		Gson gson = new Gson();
 		Set<Contact> set = value.getContacts();
-		TypeAdapter<Contact> adapter = gson.getAdapter(Contact.class);
 		for(Contact contact : set) {
-			adapter.write(out, contact);
+			this.adapter.write(out, contact);
 		}
 		out.endArray();
 		return;
@@ -31,17 +31,20 @@ public class ContactsTypeAdapter extends TypeAdapter<Contacts> {
 			return null;
 		}
 		
-		Gson gson = new Gson();
 		Contacts contacts = new Contacts();
-		TypeAdapter<Contact> adapter = gson.getAdapter(Contact.class);
+		List<Contact> readContacts = new ArrayList<>();
 		Contact contact = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			contact = adapter.read(in);
-			contacts.add(contact);
+			contact = this.adapter.read(in);
+			if (contact != null) {
+				readContacts.add(contact);
+			}
 		}
 		in.endArray();
+		// published with a single copy of the table
+		contacts.addAll(readContacts);
 		
 		return contacts;
 	}
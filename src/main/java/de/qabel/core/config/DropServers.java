@@ -1,8 +1,9 @@
 package de.qabel.core.config;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * https://github.com/Qabel/qabel-doc/wiki/Qabel-Client-Configuration#drop-servers
@@ -15,7 +16,7 @@ public class DropServers {
 	 *           dropServers        &gt;       dropServer
 	 * </pre>
 	 */
-	private final Set<DropServer> dropServers = new HashSet<DropServer>();
+	private final Set<DropServer> dropServers = new CopyOnWriteArraySet<DropServer>();
 
 	/**
 	 * @return Returns unmodifiable set of contained drop servers
@@ -42,6 +43,15 @@ public class DropServers {
 		return this.dropServers.remove(dropServer);
 	}
 
+	/**
+	 * Atomically adds all given drop servers which are not contained yet.
+	 * @param dropServers Drop servers to add.
+	 * @return true if at least one was added.
+	 */
+	public boolean addAll(Collection<? extends DropServer> dropServers) {
+		return this.dropServers.addAll(dropServers);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -10,15 +10,14 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class DropServersTypeAdapter extends TypeAdapter<DropServers> {
+	private final TypeAdapter<DropServer> adapter = new Gson().getAdapter(DropServer.class);
 
 	@Override
 	public void write(JsonWriter out, DropServers value) throws IOException {
 		out.beginArray();
-		Gson gson = new Gson();
 		Set<DropServer> set = value.getDropServers();
-		TypeAdapter<DropServer> adapter = gson.getAdapter(DropServer.class);
 		for(DropServer dropServer : set) {
-			adapter.write(out, dropServer);
+			this.adapter.write(out, dropServer);
 		}
 		out.endArray();
 		return;
@@ -31,14 +30,12 @@ public class DropServersTypeAdapter extends TypeAdapter<DropServers> {
 			return null;
 		}
 		
-		Gson gson = new Gson();
 		DropServers dropServers = new DropServers();
-		TypeAdapter<DropServer> adapter = gson.getAdapter(DropServer.class);
 		DropServer dropServer = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			dropServer = adapter.read(in);
+			dropServer = this.adapter.read(in);
 			dropServers.add(dropServer);
 		}
 		in.endArray();
@@ -55,6 +55,15 @@ public abstract class Entity extends SyncSettingItem {
 		return this.getPrimaryPublicKey().getReadableKeyIdentifier();
 	}
 
+	/**
+	 * Returns the key identifier as long. The key identifier consists of the right-most 64 bit of the public fingerprint
+	 * 
+	 * @return key identifier
+	 */
+	public long getKeyId() {
+		return this.getPrimaryPublicKey().getKeyId();
+	}
+
 	public Set<DropURL> getDropUrls() {
 		return Collections.unmodifiableSet(dropUrls);
 	}
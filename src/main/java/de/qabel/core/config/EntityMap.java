@@ -1,57 +1,255 @@
 package de.qabel.core.config;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * EntityMaps provide funcionality to lookup an Enity based
  * on its key identifier.
- * 
+ * <p>
+ * Entities are stored in an open addressing hash table keyed by the 64 bit
+ * key identifier as primitive long. Thus lookups neither parse nor hash
+ * strings and no entry objects are allocated per entity.
+ * <p>
+ * EntityMaps are thread-safe. The table is copied on write and published
+ * atomically, so lookups and iterations never lock and always see a
+ * consistent snapshot. Writers are serialized; addAll() and removeAll()
+ * apply many changes with a single copy. Loaders which interleave many
+ * single changes use a {@link Batch}, which modifies an unpublished table in
+ * place and publishes it once.
+ *
  * @see Entity
  */
 abstract public class EntityMap<T extends Entity> {
-	private final Map<String, T> entities = new HashMap<>();
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int KEY_IDENTIFIER_LENGTH = 16;
 
 	/**
-	 * Returns unmodifiable set of contained contacts
-	 * 
+	 * Current table. Published tables are never modified.
+	 */
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+	/**
+	 * Unpublished table of the running batch, only accessed by its owner.
+	 */
+	private Table batchTable;
+	private volatile Thread batchOwner;
+
+	/**
+	 * Changes of one thread which are published together. While a batch is
+	 * open, writes of the owning thread modify an unpublished table without
+	 * copying it, lookups of the owning thread see these changes and other
+	 * threads see the table from before the batch. Writers of other threads
+	 * wait until the batch is closed.
+	 */
+	public final class Batch implements AutoCloseable {
+		private Batch() {
+		}
+
+		/**
+		 * Publishes the changes of the batch.
+		 */
+		@Override
+		public void close() {
+			synchronized (EntityMap.this) {
+				if (batchOwner != Thread.currentThread()) {
+					throw new IllegalStateException("Batch is not owned by the current thread");
+				}
+				table = batchTable;
+				batchTable = null;
+				batchOwner = null;
+				EntityMap.this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Starts a batch of changes by the current thread.
+	 * @return batch to close to publish the changes
+	 * @throws IllegalStateException if the current thread already has an open batch
+	 */
+	public synchronized Batch startBatch() {
+		awaitWriteAccess();
+		if (batchOwner != null) {
+			throw new IllegalStateException("Batch already started");
+		}
+		batchTable = table.copy();
+		batchOwner = Thread.currentThread();
+		return new Batch();
+	}
+
+	/**
+	 * Waits until no other thread has an open batch. Must be called with the
+	 * lock held.
+	 */
+	private void awaitWriteAccess() {
+		boolean interrupted = false;
+		while (batchOwner != null && batchOwner != Thread.currentThread()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the table the current thread reads: the unpublished table of
+	 * its own batch or the published table.
+	 */
+	private Table readTable() {
+		if (batchOwner == Thread.currentThread()) {
+			return batchTable;
+		}
+		return table;
+	}
+
+	/**
+	 * Returns an unmodifiable snapshot of the contained contacts. Later
+	 * modifications of the EntityMap do not affect the snapshot. Creating
+	 * the snapshot does not copy the entities.
+	 *
 	 * @return Set<Contact>
 	 */
 	public Set<T> getEntities() {
-		return Collections.unmodifiableSet(new HashSet<>(entities.values()));
+		if (batchOwner == Thread.currentThread()) {
+			// the batch table is modified in place
+			return new EntitiesView(batchTable.copy());
+		}
+		return new EntitiesView(table);
 	}
 
-	public boolean add(T entity) {
-		if (this.entities.containsKey(entity.getKeyIdentifier())) {
+	/**
+	 * Returns the number of contained entities.
+	 * @return number of entities
+	 */
+	public int size() {
+		return readTable().size;
+	}
+
+	public synchronized boolean add(T entity) {
+		awaitWriteAccess();
+		if (batchOwner != null) {
+			return batchTable.put(entity.getKeyId(), entity);
+		}
+		Table current = table;
+		if (current.get(entity.getKeyId()) != null) {
 			return false;
 		}
-		else {
-			this.entities.put(entity.getKeyIdentifier(), entity);
-			return true;
+		Table updated = current.copy();
+		updated.put(entity.getKeyId(), entity);
+		table = updated;
+		return true;
+	}
+
+	/**
+	 * Atomically adds all entities whose key identifier is not contained yet.
+	 * @param entities Entities to add.
+	 * @return number of added entities
+	 */
+	public synchronized int addAll(Collection<? extends T> entities) {
+		awaitWriteAccess();
+		// sized for all entities, so the copy is not resized while adding
+		Table updated = batchOwner != null ? batchTable : table.copy(table.size + entities.size());
+		int added = 0;
+		for (T entity : entities) {
+			if (updated.put(entity.getKeyId(), entity)) {
+				added++;
+			}
+		}
+		if (added > 0 && batchOwner == null) {
+			table = updated;
 		}
+		return added;
 	}
 
-	public boolean remove(T entity) {
-		return (entity != null && this.entities.remove(entity.getKeyIdentifier()) != null);
+	public synchronized boolean remove(T entity) {
+		if (entity == null) {
+			return false;
+		}
+		awaitWriteAccess();
+		if (batchOwner != null) {
+			return batchTable.remove(entity.getKeyId());
+		}
+		Table current = table;
+		if (current.get(entity.getKeyId()) == null) {
+			return false;
+		}
+		Table updated = current.copy();
+		updated.remove(entity.getKeyId());
+		table = updated;
+		return true;
 	}
-	
+
+	/**
+	 * Atomically removes all given entities.
+	 * @param entities Entities to remove.
+	 * @return number of removed entities
+	 */
+	public synchronized int removeAll(Collection<? extends T> entities) {
+		awaitWriteAccess();
+		Table updated = batchOwner != null ? batchTable : table.copy();
+		int removed = 0;
+		for (T entity : entities) {
+			if (entity != null && updated.remove(entity.getKeyId())) {
+				removed++;
+			}
+		}
+		if (removed > 0 && batchOwner == null) {
+			table = updated;
+		}
+		return removed;
+	}
+
 	/**
 	 * Get entity by key identifier (right most 64 bit of the identity's public fingerprint)
 	 * @param keyIdentifier
 	 * @return entity to which the key identifier is mapped or null if there is no mapping for this key identifier
 	 */
 	public T getByKeyIdentifier(String keyIdentifier) {
-		return this.entities.get(keyIdentifier);
+		if (keyIdentifier == null || keyIdentifier.length() != KEY_IDENTIFIER_LENGTH) {
+			return null;
+		}
+		long keyId = 0;
+		for (int i = 0; i < KEY_IDENTIFIER_LENGTH; i++) {
+			int digit = Character.digit(keyIdentifier.charAt(i), 16);
+			if (digit < 0) {
+				return null;
+			}
+			keyId = (keyId << 4) | digit;
+		}
+		return getByKeyId(keyId);
+	}
+
+	/**
+	 * Get entity by key identifier as long
+	 * @param keyId
+	 * @return entity to which the key identifier is mapped or null if there is no mapping for this key identifier
+	 * @see Entity#getKeyId()
+	 */
+	@SuppressWarnings("unchecked")
+	public T getByKeyId(long keyId) {
+		return (T) readTable().get(keyId);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((entities == null) ? 0 : entities.hashCode());
+		Table current = readTable();
+		int entitiesHash = 0;
+		for (int i = 0; i < current.values.length; i++) {
+			if (current.values[i] != null) {
+				long keyId = current.keys[i];
+				entitiesHash += (int) (keyId ^ (keyId >>> 32)) ^ current.values[i].hashCode();
+			}
+		}
+		result = prime * result + entitiesHash;
 		return result;
 	}
 
@@ -63,12 +261,198 @@ abstract public class EntityMap<T extends Entity> {
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
-		EntityMap<T> other = (EntityMap<T>) obj;
-		if (entities == null) {
-			if (other.entities != null)
-				return false;
-		} else if (!entities.equals(other.entities))
+		EntityMap<?> other = (EntityMap<?>) obj;
+		Table current = readTable();
+		Table otherTable = other.readTable();
+		if (current.size != otherTable.size)
 			return false;
+		for (int i = 0; i < current.values.length; i++) {
+			if (current.values[i] != null && !current.values[i].equals(otherTable.get(current.keys[i])))
+				return false;
+		}
 		return true;
 	}
+
+	/**
+	 * Open addressing hash table with linear probing. A slot is used if its
+	 * value is not null.
+	 */
+	private static final class Table {
+		private long[] keys;
+		private Entity[] values;
+		private int size;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			values = new Entity[capacity];
+		}
+
+		private Table(Table other) {
+			keys = other.keys.clone();
+			values = other.values.clone();
+			size = other.size;
+		}
+
+		Table copy() {
+			return new Table(this);
+		}
+
+		/**
+		 * Copies the table with enough capacity for the expected number of
+		 * entries.
+		 */
+		Table copy(int expectedSize) {
+			int capacity = values.length;
+			while (expectedSize * 4 > capacity * 3) {
+				capacity *= 2;
+			}
+			if (capacity == values.length) {
+				return copy();
+			}
+			Table copy = new Table(this);
+			copy.resize(capacity);
+			return copy;
+		}
+
+		Entity get(long keyId) {
+			return values[findSlot(keyId)];
+		}
+
+		/**
+		 * Adds the entity if the key identifier is not contained yet.
+		 */
+		boolean put(long keyId, Entity entity) {
+			int slot = findSlot(keyId);
+			if (values[slot] != null) {
+				return false;
+			}
+			keys[slot] = keyId;
+			values[slot] = entity;
+			size++;
+			if (size * 4 > values.length * 3) {
+				resize(values.length * 2);
+			}
+			return true;
+		}
+
+		/**
+		 * Empties the slot of the key identifier and moves following entries
+		 * of the probe sequence back, so no tombstones are required.
+		 */
+		boolean remove(long keyId) {
+			int hole = findSlot(keyId);
+			if (values[hole] == null) {
+				return false;
+			}
+			int mask = values.length - 1;
+			int next = (hole + 1) & mask;
+			while (values[next] != null) {
+				int home = hash(keys[next]) & mask;
+				// move the entry if its home slot is not cyclically within (hole, next]
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					keys[hole] = keys[next];
+					values[hole] = values[next];
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			values[hole] = null;
+			size--;
+			return true;
+		}
+
+		/**
+		 * Returns the slot containing the key identifier or the empty slot
+		 * terminating its probe sequence.
+		 */
+		private int findSlot(long keyId) {
+			int mask = values.length - 1;
+			int slot = hash(keyId) & mask;
+			while (values[slot] != null && keys[slot] != keyId) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void resize(int capacity) {
+			long[] oldKeys = keys;
+			Entity[] oldValues = values;
+			keys = new long[capacity];
+			values = new Entity[capacity];
+			for (int i = 0; i < oldValues.length; i++) {
+				if (oldValues[i] != null) {
+					int slot = findSlot(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		private static int hash(long keyId) {
+			// key identifiers are taken from a digest, but mix anyway to spread
+			// identifiers which only differ in the upper bits
+			long h = keyId * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	/**
+	 * Unmodifiable view of a table snapshot.
+	 */
+	private class EntitiesView extends AbstractSet<T> {
+		private final Table snapshot;
+
+		EntitiesView(Table snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public int size() {
+			return snapshot.size;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Entity)) {
+				return false;
+			}
+			return o.equals(snapshot.get(((Entity) o).getKeyId()));
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private final Entity[] values = snapshot.values;
+				private int next = advance(0);
+
+				private int advance(int slot) {
+					while (slot < values.length && values[slot] == null) {
+						slot++;
+					}
+					return slot;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next < values.length;
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if (next >= values.length) {
+						throw new NoSuchElementException();
+					}
+					T entity = (T) values[next];
+					next = advance(next + 1);
+					return entity;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
 }
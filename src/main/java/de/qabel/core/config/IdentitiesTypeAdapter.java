@@ -3,28 +3,20 @@ package de.qabel.core.config;
 import java.io.IOException;
 import java.util.Set;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
-import de.qabel.core.crypto.QblPrimaryKeyPair;
-import de.qabel.core.crypto.QblPrimaryKeyPairTypeAdapter;
-
 public class IdentitiesTypeAdapter extends TypeAdapter<Identities> {
+	private final TypeAdapter<Identity> adapter = new IdentityTypeAdapter();
 
 	@Override
 	public void write(JsonWriter out, Identities value) throws IOException {
 		out.beginArray();
-		GsonBuilder builder = new GsonBuilder();
-		builder.registerTypeAdapter(QblPrimaryKeyPair.class, new QblPrimaryKeyPairTypeAdapter());
-		Gson gson = builder.create();
 		Set<Identity> set = value.getIdentities();
-		TypeAdapter<Identity> adapter = gson.getAdapter(Identity.class);
 		for(Identity identity : set) {
-			adapter.write(out, identity);
+			this.adapter.write(out, identity);
 		}
 		out.endArray();
 		return;
@@ -37,15 +29,12 @@ public class IdentitiesTypeAdapter extends TypeAdapter<Identities> {
 			return null;
 		}
 		
-		GsonBuilder builder = new GsonBuilder();
-		builder.registerTypeAdapter(QblPrimaryKeyPair.class, new QblPrimaryKeyPairTypeAdapter());
-		Gson gson = builder.create();		Identities identities = new Identities();
-		TypeAdapter<Identity> adapter = gson.getAdapter(Identity.class);
+		Identities identities = new Identities();
 		Identity identity = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			identity = adapter.read(in);
+			identity = this.adapter.read(in);
 			identities.add(identity);
 		}
 		in.endArray();
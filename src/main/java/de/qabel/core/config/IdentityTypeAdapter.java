@@ -0,0 +1,27 @@
+package de.qabel.core.config;
+
+import java.io.IOException;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+import de.qabel.core.crypto.QblPrimaryKeyPairTypeAdapter;
+
+public class IdentityTypeAdapter extends TypeAdapter<Identity> {
+	private final TypeAdapter<Identity> defaultAdapter = new GsonBuilder()
+			.registerTypeAdapter(QblPrimaryKeyPair.class, new QblPrimaryKeyPairTypeAdapter())
+			.create().getAdapter(Identity.class);
+
+	@Override
+	public void write(JsonWriter out, Identity value) throws IOException {
+		defaultAdapter.write(out, value);
+	}
+
+	@Override
+	public Identity read(JsonReader in) throws IOException {
+		return defaultAdapter.read(in);
+	}
+}
@@ -1,17 +1,21 @@
 package de.qabel.core.config;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * https://github.com/Qabel/qabel-doc/wiki/Qabel-Client-Configuration#storage-servers
  */
 public class StorageServers {
 
-	private final Map<String,StorageServer> storageServers = new HashMap<String,StorageServer>();
+	/**
+	 * Storage servers by url. Lookups do not lock, modifications are
+	 * serialized by synchronizing on this object.
+	 */
+	private final Map<String,StorageServer> storageServers = new ConcurrentHashMap<String,StorageServer>();
 
 	/**
 	 * Returns an unmodifiable set of contained storage servers
@@ -30,7 +34,7 @@ public class StorageServers {
 	 * @param storageServer StorageServer to add.
 	 * @return true if successfully added, false if already contained
 	 */
-	public boolean add(StorageServer storageServer) {
+	public synchronized boolean add(StorageServer storageServer) {
 		if (this.storageServers.containsValue(storageServer)) {
 			return false;
 		}
@@ -43,7 +47,7 @@ public class StorageServers {
 	 * @param storageServer StorageServer to remove.
 	 * @return true if storageServer was contained in list, false if not
 	 */
-	public boolean remove(StorageServer storageServer) {
+	public synchronized boolean remove(StorageServer storageServer) {
 		return storageServer != null
 				&& this.storageServers.remove(storageServer.getUrl().toString()) != null;
 	}
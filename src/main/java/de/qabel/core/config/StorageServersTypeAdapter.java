@@ -10,15 +10,14 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class StorageServersTypeAdapter extends TypeAdapter<StorageServers> {
+	private final TypeAdapter<StorageServer> adapter = new Gson().getAdapter(StorageServer.class);
 
 	@Override
 	public void write(JsonWriter out, StorageServers value) throws IOException {
 		out.beginArray();
-		Gson gson = new Gson();
 		Set<StorageServer> set = value.getStorageServers();
-		TypeAdapter<StorageServer> adapter = gson.getAdapter(StorageServer.class);
 		for(StorageServer storageServer : set) {
-			adapter.write(out, storageServer);
+			this.adapter.write(out, storageServer);
 		}
 		out.endArray();
 		return;
@@ -31,14 +30,12 @@ public class StorageServersTypeAdapter extends TypeAdapter<StorageServers> {
 			return null;
 		}
 		
-		Gson gson = new Gson();
 		StorageServers storageServers = new StorageServers();
-		TypeAdapter<StorageServer> adapter = gson.getAdapter(StorageServer.class);
 		StorageServer storageServer = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			storageServer = adapter.read(in);
+			storageServer = this.adapter.read(in);
 			storageServers.add(storageServer);
 		}
 		in.endArray();
@@ -1,15 +1,16 @@
 package de.qabel.core.config;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * https://github.com/Qabel/qabel-doc/wiki/Qabel-Client-Configuration#storage-volumes
  */
 public class StorageVolumes {
 
-	private final Set<StorageVolume> storageVolumes = new HashSet<StorageVolume>();
+	private final Set<StorageVolume> storageVolumes = new CopyOnWriteArraySet<StorageVolume>();
 
 	/**
 	 * Returns an unmodifiable set of contained storage volumes
@@ -37,6 +38,15 @@ public class StorageVolumes {
 		return this.storageVolumes.remove(storageVolume);
 	}
 
+	/**
+	 * Atomically adds all given storage volumes which are not contained yet.
+	 * @param storageVolumes Storage volumes to add.
+	 * @return true if at least one was added.
+	 */
+	public boolean addAll(Collection<? extends StorageVolume> storageVolumes) {
+		return this.storageVolumes.addAll(storageVolumes);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
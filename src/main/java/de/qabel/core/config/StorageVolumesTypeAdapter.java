@@ -9,14 +9,14 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class StorageVolumesTypeAdapter extends TypeAdapter<StorageVolumes> {
+	private final TypeAdapter<StorageVolume> adapter = new StorageVolumeTypeAdapter();
 
 	@Override
 	public void write(JsonWriter out, StorageVolumes value) throws IOException {
 		out.beginArray();
 		Set<StorageVolume> set = value.getStorageVolumes();
-		TypeAdapter<StorageVolume> adapter = new StorageVolumeTypeAdapter();
 		for(StorageVolume storageVolume : set) {
-			adapter.write(out, storageVolume);
+			this.adapter.write(out, storageVolume);
 		}
 		out.endArray();
 		return;
@@ -30,12 +30,11 @@ public class StorageVolumesTypeAdapter extends TypeAdapter<StorageVolumes> {
 		}
 		
 		StorageVolumes storageVolumes = new StorageVolumes();
-		TypeAdapter<StorageVolume> adapter = new StorageVolumeTypeAdapter();
 		StorageVolume storageVolume = null; 
 		
 		in.beginArray();
 		while(in.hasNext()) {
-			storageVolume = adapter.read(in);
+			storageVolume = this.adapter.read(in);
 			storageVolumes.add(storageVolume);
 		}
 		in.endArray();
@@ -0,0 +1,296 @@
+package de.qabel.core.config;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Kinds of SyncSettingItems contained in SyncedSettings. Each kind defines
+ * the key identifying an item across devices, how items are looked up and
+ * modified in SyncedSettings and how single items are serialized.
+ * <p>
+ * Types are declared in the order in which changes have to be applied:
+ * storage volumes refer to storage servers and contacts to identities.
+ */
+enum SyncItemType {
+	ACCOUNT("account") {
+		private final TypeAdapter<Account> adapter = new Gson().getAdapter(Account.class);
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			Account account = (Account) item;
+			return account.getProvider() + "/" + account.getUser();
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getAccounts().getAccounts();
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			settings.getAccounts().add((Account) item);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getAccounts().remove((Account) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (Account) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	},
+	DROP_SERVER("drop_server") {
+		private final TypeAdapter<DropServer> adapter = new Gson().getAdapter(DropServer.class);
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			return String.valueOf(((DropServer) item).getUrl());
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getDropServers().getDropServers();
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			settings.getDropServers().add((DropServer) item);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getDropServers().remove((DropServer) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (DropServer) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	},
+	STORAGE_SERVER("storage_server") {
+		private final TypeAdapter<StorageServer> adapter = new Gson().getAdapter(StorageServer.class);
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			return String.valueOf(((StorageServer) item).getUrl());
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getStorageServers().getStorageServers();
+		}
+
+		@Override
+		SyncSettingItem find(SyncedSettings settings, String key) {
+			return settings.getStorageServers().getStorageServerByUrl(key);
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			settings.getStorageServers().add((StorageServer) item);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getStorageServers().remove((StorageServer) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (StorageServer) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	},
+	STORAGE_VOLUME("storage_volume") {
+		private final TypeAdapter<StorageVolume> adapter = new StorageVolumeTypeAdapter();
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			return ((StorageVolume) item).getPublicIdentifier();
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getStorageVolumes().getStorageVolumes();
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			StorageVolume volume = (StorageVolume) item;
+			volume.setStorageServer(settings.getStorageServers().getStorageServerByUrl(
+					volume.getServerUrlString()));
+			settings.getStorageVolumes().add(volume);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getStorageVolumes().remove((StorageVolume) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (StorageVolume) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	},
+	IDENTITY("identity") {
+		private final TypeAdapter<Identity> adapter = new IdentityTypeAdapter();
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			return ((Identity) item).getKeyIdentifier();
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getIdentities().getIdentities();
+		}
+
+		@Override
+		SyncSettingItem find(SyncedSettings settings, String key) {
+			return settings.getIdentities().getByKeyIdentifier(key);
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			settings.getIdentities().add((Identity) item);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getIdentities().remove((Identity) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (Identity) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	},
+	CONTACT("contact") {
+		private final TypeAdapter<Contact> adapter = new ContactTypeAdapter();
+
+		@Override
+		String getKey(SyncSettingItem item) {
+			return ((Contact) item).getKeyIdentifier();
+		}
+
+		@Override
+		Collection<? extends SyncSettingItem> getItems(SyncedSettings settings) {
+			return settings.getContacts().getContacts();
+		}
+
+		@Override
+		SyncSettingItem find(SyncedSettings settings, String key) {
+			return settings.getContacts().getByKeyIdentifier(key);
+		}
+
+		@Override
+		void add(SyncedSettings settings, SyncSettingItem item) {
+			Contact contact = (Contact) item;
+			contact.setContactOwner(settings.getIdentities().getByKeyIdentifier(
+					contact.getContactOwnerKeyId()));
+			settings.getContacts().add(contact);
+		}
+
+		@Override
+		void remove(SyncedSettings settings, SyncSettingItem item) {
+			settings.getContacts().remove((Contact) item);
+		}
+
+		@Override
+		void write(JsonWriter out, SyncSettingItem item) throws IOException {
+			adapter.write(out, (Contact) item);
+		}
+
+		@Override
+		SyncSettingItem read(JsonReader in) throws IOException {
+			return adapter.read(in);
+		}
+	};
+
+	private final String jsonName;
+
+	private SyncItemType(String jsonName) {
+		this.jsonName = jsonName;
+	}
+
+	/**
+	 * Returns the name of the type in serialized changesets.
+	 */
+	String getJsonName() {
+		return jsonName;
+	}
+
+	/**
+	 * Returns the type with the given name in serialized changesets.
+	 * @return type or null if the name is unknown
+	 */
+	static SyncItemType fromJsonName(String jsonName) {
+		for (SyncItemType type : values()) {
+			if (type.jsonName.equals(jsonName)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the key which identifies the item across devices.
+	 */
+	abstract String getKey(SyncSettingItem item);
+
+	/**
+	 * Returns all items of this type contained in the settings.
+	 */
+	abstract Collection<? extends SyncSettingItem> getItems(SyncedSettings settings);
+
+	/**
+	 * Returns the item with the given key or null if the settings do not contain it.
+	 */
+	SyncSettingItem find(SyncedSettings settings, String key) {
+		for (SyncSettingItem item : getItems(settings)) {
+			if (getKey(item).equals(key)) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	abstract void add(SyncedSettings settings, SyncSettingItem item);
+
+	abstract void remove(SyncedSettings settings, SyncSettingItem item);
+
+	abstract void write(JsonWriter out, SyncSettingItem item) throws IOException;
+
+	abstract SyncSettingItem read(JsonReader in) throws IOException;
+}
@@ -1,19 +1,22 @@
 package de.qabel.core.config;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import com.google.gson.JsonParseException;
 
 public class SyncedSettings {
-	private Set<SyncedModuleSettings> syncedModuleSettings;
-	private Identities identities;
-	private Accounts accounts;
-	private Contacts contacts;
-	private DropServers dropServers;
-	private StorageServers storageServers;
-	private StorageVolumes storageVolumes;
+	private final Set<SyncedModuleSettings> syncedModuleSettings =
+			new CopyOnWriteArraySet<SyncedModuleSettings>();
+	private volatile Identities identities;
+	private volatile Accounts accounts;
+	private volatile Contacts contacts;
+	private volatile DropServers dropServers;
+	private volatile StorageServers storageServers;
+	private volatile StorageVolumes storageVolumes;
 	
 	/**
 	 * Creates an instance of SyncedSettings
@@ -32,9 +35,6 @@ public class SyncedSettings {
 	 * @return Set<SyncedModuleSettings>
 	 */
 	public Set<SyncedModuleSettings> getSyncedModuleSettings() {
-		if (this.syncedModuleSettings == null) {
-			this.syncedModuleSettings = new HashSet<SyncedModuleSettings>();
-		}
 		return this.syncedModuleSettings;
 	}
 
@@ -91,8 +91,17 @@ public class SyncedSettings {
 	 * @throws IOException
 	 */
 	public String toJson() throws IOException {
-		SyncedSettingsTypeAdapter adapter = new SyncedSettingsTypeAdapter();
-		return adapter.toJson(this);
+		return new SyncedSettingsTypeAdapter().toJson(this);
+	}
+
+	/**
+	 * Serializes this class as Json directly to a Writer without building
+	 * the whole Json String in memory.
+	 * @param writer Writer to serialize to. It is not closed.
+	 * @throws IOException
+	 */
+	public void toJson(Writer writer) throws IOException {
+		new SyncedSettingsTypeAdapter().toJson(writer, this);
 	}
 
 	/**
@@ -103,8 +112,18 @@ public class SyncedSettings {
 	 * @throws JsonParseException
 	 */
 	public static SyncedSettings fromJson(String json) throws IOException, JsonParseException {
-		SyncedSettingsTypeAdapter adapter = new SyncedSettingsTypeAdapter();
-		return adapter.fromJson(json);
+		return new SyncedSettingsTypeAdapter().fromJson(json);
+	}
+
+	/**
+	 * Deserializes Json read from a Reader
+	 * @param reader Reader to deserialize from. It is not closed.
+	 * @return SyncedSettings
+	 * @throws IOException
+	 * @throws JsonParseException
+	 */
+	public static SyncedSettings fromJson(Reader reader) throws IOException, JsonParseException {
+		return new SyncedSettingsTypeAdapter().fromJson(reader);
 	}
 
 	@Override
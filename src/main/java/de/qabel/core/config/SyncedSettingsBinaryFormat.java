@@ -0,0 +1,431 @@
+package de.qabel.core.config;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import de.qabel.core.crypto.QblKeyBinaryFormat;
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+import de.qabel.core.crypto.QblPrimaryPublicKey;
+import de.qabel.core.drop.DropURL;
+import de.qabel.core.exceptions.QblDropInvalidURL;
+
+/**
+ * Compact binary alternative to the Json serialization of SyncedSettings,
+ * meant for fast startup with many contacts.
+ * <p>
+ * A file starts with the magic bytes "QBLS" and a major and minor version of
+ * two bytes each. Sections follow, each consisting of a one byte tag, a four
+ * byte length and the payload. Readers skip sections with unknown tags, so
+ * new sections only require a new minor version. Files with a different
+ * major version are rejected.
+ * <p>
+ * Identities and contacts are written as length-prefixed records with keys
+ * stored as raw big-endian numbers. Accounts, servers and storage volumes
+ * are small and embedded as Json of their type adapters. All numbers are big-endian.
+ * <p>
+ * Files are memory mapped for reading. Public keys of contacts are
+ * materialized lazily, so reading mainly costs copying the key bytes.
+ */
+public class SyncedSettingsBinaryFormat {
+	private final static Logger logger = LogManager.getLogger(SyncedSettingsBinaryFormat.class.getName());
+
+	private static final byte[] MAGIC = { 'Q', 'B', 'L', 'S' };
+	public static final short MAJOR_VERSION = 1;
+	/**
+	 * Minor version 1 appends the Curve25519 keys to the keys of identities
+	 * and contacts, readers of version 0 ignore them.
+	 */
+	public static final short MINOR_VERSION = 1;
+
+	private static final byte SECTION_ACCOUNTS = 1;
+	private static final byte SECTION_DROP_SERVERS = 2;
+	private static final byte SECTION_STORAGE_SERVERS = 3;
+	private static final byte SECTION_STORAGE_VOLUMES = 4;
+	private static final byte SECTION_IDENTITIES = 5;
+	private static final byte SECTION_CONTACTS = 6;
+
+	private final QblKeyBinaryFormat keyFormat = new QblKeyBinaryFormat();
+	private final TypeAdapter<Accounts> accountsAdapter = new AccountsTypeAdapter();
+	private final TypeAdapter<DropServers> dropServersAdapter = new DropServersTypeAdapter();
+	private final TypeAdapter<StorageServers> storageServersAdapter = new StorageServersTypeAdapter();
+	private final TypeAdapter<StorageVolumes> storageVolumesAdapter = new StorageVolumesTypeAdapter();
+	private final TypeAdapter<SyncedSettings> settingsAdapter = new SyncedSettingsTypeAdapter();
+
+	/**
+	 * Writes the settings to a stream.
+	 * @param settings Settings to write.
+	 * @param stream Stream to write to. It is not closed.
+	 * @throws IOException
+	 */
+	public void write(SyncedSettings settings, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.write(MAGIC);
+		out.writeShort(MAJOR_VERSION);
+		out.writeShort(MINOR_VERSION);
+
+		writeJsonSection(out, SECTION_ACCOUNTS, accountsAdapter, settings.getAccounts());
+		writeJsonSection(out, SECTION_DROP_SERVERS, dropServersAdapter, settings.getDropServers());
+		writeJsonSection(out, SECTION_STORAGE_SERVERS, storageServersAdapter, settings.getStorageServers());
+		writeJsonSection(out, SECTION_STORAGE_VOLUMES, storageVolumesAdapter, settings.getStorageVolumes());
+
+		ByteArrayOutputStream section = new ByteArrayOutputStream();
+		DataOutputStream sectionOut = new DataOutputStream(section);
+		Collection<Identity> identities = settings.getIdentities().getIdentities();
+		sectionOut.writeInt(identities.size());
+		for (Identity identity : identities) {
+			writeRecord(sectionOut, identity);
+		}
+		writeSection(out, SECTION_IDENTITIES, section);
+
+		section.reset();
+		Collection<Contact> contacts = settings.getContacts().getContacts();
+		sectionOut.writeInt(contacts.size());
+		for (Contact contact : contacts) {
+			writeRecord(sectionOut, contact);
+		}
+		writeSection(out, SECTION_CONTACTS, section);
+
+		out.flush();
+	}
+
+	/**
+	 * Writes the settings to a file.
+	 * @param settings Settings to write.
+	 * @param file File to write to. It is replaced if it exists.
+	 * @throws IOException
+	 */
+	public void write(SyncedSettings settings, File file) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			write(settings, out);
+		}
+	}
+
+	/**
+	 * Reads settings from a memory mapped file.
+	 * @param file File written by {@link #write(SyncedSettings, File)}.
+	 * @return SyncedSettings
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public SyncedSettings read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads settings from a buffer.
+	 * @param buffer Buffer positioned at the start of the serialized settings.
+	 * @return SyncedSettings
+	 * @throws IOException if the buffer is malformed
+	 */
+	public SyncedSettings read(ByteBuffer buffer) throws IOException {
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException("Not a binary settings file");
+				}
+			}
+			short majorVersion = buffer.getShort();
+			buffer.getShort();
+			if (majorVersion != MAJOR_VERSION) {
+				throw new IOException("Unsupported binary settings version " + majorVersion);
+			}
+
+			SyncedSettings settings = new SyncedSettings();
+			while (buffer.hasRemaining()) {
+				byte tag = buffer.get();
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					throw new IOException("Invalid section length " + length);
+				}
+				ByteBuffer section = buffer.slice();
+				section.limit(length);
+				buffer.position(buffer.position() + length);
+				readSection(settings, tag, section);
+			}
+
+			for (Contact contact : settings.getContacts().getContacts()) {
+				contact.setContactOwner(settings.getIdentities().getByKeyIdentifier(
+						contact.getContactOwnerKeyId()));
+			}
+			StorageVolumes storageVolumes = settings.getStorageVolumes();
+			for (StorageVolume volume : storageVolumes.getStorageVolumes()) {
+				// remove and re-insert updated volume to update hash
+				storageVolumes.remove(volume);
+				volume.setStorageServer(settings.getStorageServers().getStorageServerByUrl(
+						volume.getServerUrlString()));
+				storageVolumes.add(volume);
+			}
+			return settings;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated binary settings", e);
+		}
+	}
+
+	/**
+	 * Converts settings serialized as Json to the binary format.
+	 * @param json Json file to read.
+	 * @param binary Binary file to write. It is replaced if it exists.
+	 * @throws IOException
+	 * @throws JsonParseException if the Json is malformed
+	 */
+	public void convertJsonToBinary(File json, File binary) throws IOException, JsonParseException {
+		SyncedSettings settings;
+		try (Reader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(json), StandardCharsets.UTF_8))) {
+			settings = settingsAdapter.read(new JsonReader(reader));
+		}
+		if (settings == null) {
+			throw new JsonParseException("Incomplete settings in " + json);
+		}
+		write(settings, binary);
+	}
+
+	/**
+	 * Converts settings in the binary format to Json.
+	 * @param binary Binary file to read.
+	 * @param json Json file to write. It is replaced if it exists.
+	 * @throws IOException
+	 */
+	public void convertBinaryToJson(File binary, File json) throws IOException {
+		SyncedSettings settings = read(binary);
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(json), StandardCharsets.UTF_8))) {
+			JsonWriter out = new JsonWriter(writer);
+			settingsAdapter.write(out, settings);
+			out.flush();
+		}
+	}
+
+	private void readSection(SyncedSettings settings, byte tag, ByteBuffer section) throws IOException {
+		switch (tag) {
+		case SECTION_ACCOUNTS:
+			settings.setAccounts(readJsonSection(section, accountsAdapter));
+			break;
+		case SECTION_DROP_SERVERS:
+			settings.setDropServers(readJsonSection(section, dropServersAdapter));
+			break;
+		case SECTION_STORAGE_SERVERS:
+			settings.setStorageServers(readJsonSection(section, storageServersAdapter));
+			break;
+		case SECTION_STORAGE_VOLUMES:
+			settings.setStorageVolumes(readJsonSection(section, storageVolumesAdapter));
+			break;
+		case SECTION_IDENTITIES:
+			Identities identities = new Identities();
+			int identityCount = readCount(section);
+			List<Identity> readIdentities = new ArrayList<>(identityCount);
+			for (int i = 0; i < identityCount; i++) {
+				Identity identity = readIdentity(readRecord(section));
+				if (identity != null) {
+					readIdentities.add(identity);
+				}
+			}
+			identities.addAll(readIdentities);
+			settings.setIdentities(identities);
+			break;
+		case SECTION_CONTACTS:
+			Contacts contacts = new Contacts();
+			int contactCount = readCount(section);
+			List<Contact> readContacts = new ArrayList<>(contactCount);
+			for (int i = 0; i < contactCount; i++) {
+				Contact contact = readContact(readRecord(section));
+				if (contact != null) {
+					readContacts.add(contact);
+				}
+			}
+			contacts.addAll(readContacts);
+			settings.setContacts(contacts);
+			break;
+		default:
+			logger.debug("Skipping unknown section " + tag);
+			break;
+		}
+	}
+
+	private <T> void writeJsonSection(DataOutputStream out, byte tag, TypeAdapter<T> adapter, T value)
+			throws IOException {
+		StringWriter json = new StringWriter();
+		adapter.write(new JsonWriter(json), value);
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+		out.writeByte(tag);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private <T> T readJsonSection(ByteBuffer section, TypeAdapter<T> adapter) throws IOException {
+		String json = StandardCharsets.UTF_8.decode(section).toString();
+		T value = adapter.read(new JsonReader(new StringReader(json)));
+		if (value == null) {
+			throw new IOException("Incomplete section");
+		}
+		return value;
+	}
+
+	private void writeSection(DataOutputStream out, byte tag, ByteArrayOutputStream section)
+			throws IOException {
+		out.writeByte(tag);
+		out.writeInt(section.size());
+		section.writeTo(out);
+	}
+
+	private void writeRecord(DataOutputStream out, Identity identity) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream recordOut = new DataOutputStream(record);
+		writeString(recordOut, identity.getAlias());
+		writeEntity(recordOut, identity);
+		keyFormat.writePrimaryKeyPair(recordOut, identity.getPrimaryKeyPair());
+		out.writeInt(record.size());
+		record.writeTo(out);
+	}
+
+	private Identity readIdentity(ByteBuffer record) throws IOException {
+		String alias = readString(record);
+		Collection<DropURL> dropUrls = readDropUrls(record);
+		SyncSettingItem syncItem = readSyncSettingItem(record);
+		QblPrimaryKeyPair keyPair = keyFormat.readPrimaryKeyPair(record);
+		if (keyPair == null) {
+			return null;
+		}
+		Identity identity = new Identity(alias, dropUrls, keyPair);
+		copySyncSettingItem(syncItem, identity);
+		return identity;
+	}
+
+	private void writeRecord(DataOutputStream out, Contact contact) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream recordOut = new DataOutputStream(record);
+		writeString(recordOut, contact.getContactOwnerKeyId());
+		writeEntity(recordOut, contact);
+		keyFormat.writePrimaryPublicKey(recordOut, contact.getPrimaryPublicKey());
+		out.writeInt(record.size());
+		record.writeTo(out);
+	}
+
+	private Contact readContact(ByteBuffer record) throws IOException {
+		String ownerKeyId = readString(record);
+		Collection<DropURL> dropUrls = readDropUrls(record);
+		SyncSettingItem syncItem = readSyncSettingItem(record);
+		QblPrimaryPublicKey key = keyFormat.readPrimaryPublicKey(record);
+		Contact contact = new Contact(ownerKeyId, dropUrls, key);
+		copySyncSettingItem(syncItem, contact);
+		return contact;
+	}
+
+	/**
+	 * Writes the drop urls and the SyncSettingItem properties of an entity.
+	 */
+	private void writeEntity(DataOutputStream out, Entity entity) throws IOException {
+		Collection<DropURL> dropUrls = entity.getDropUrls();
+		out.writeInt(dropUrls.size());
+		for (DropURL url : dropUrls) {
+			writeString(out, url.toString());
+		}
+		out.writeInt(entity.getId());
+		out.writeLong(entity.getCreated());
+		out.writeLong(entity.getUpdated());
+		out.writeLong(entity.getDeleted());
+	}
+
+	private Collection<DropURL> readDropUrls(ByteBuffer in) throws IOException {
+		int count = readCount(in);
+		Collection<DropURL> dropUrls = new ArrayList<DropURL>(count);
+		for (int i = 0; i < count; i++) {
+			String url = readString(in);
+			try {
+				dropUrls.add(new DropURL(url));
+			} catch (QblDropInvalidURL | MalformedURLException e) {
+				logger.error("Read drop url is invalid: " + url, e);
+			}
+		}
+		return dropUrls;
+	}
+
+	private SyncSettingItem readSyncSettingItem(ByteBuffer in) {
+		SyncSettingItem syncItem = new SyncSettingItem();
+		syncItem.setId(in.getInt());
+		syncItem.setCreated(in.getLong());
+		syncItem.setUpdated(in.getLong());
+		syncItem.setDeleted(in.getLong());
+		return syncItem;
+	}
+
+	private void copySyncSettingItem(SyncSettingItem from, SyncSettingItem to) {
+		to.setId(from.getId());
+		to.setCreated(from.getCreated());
+		to.setUpdated(from.getUpdated());
+		to.setDeleted(from.getDeleted());
+	}
+
+	/**
+	 * Returns the next length-prefixed record as a buffer of its own, so a
+	 * record is never read beyond its end.
+	 */
+	private ByteBuffer readRecord(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new IOException("Invalid record length " + length);
+		}
+		ByteBuffer record = in.slice();
+		record.limit(length);
+		in.position(in.position() + length);
+		return record;
+	}
+
+	private int readCount(ByteBuffer in) throws IOException {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining()) {
+			throw new IOException("Invalid count " + count);
+		}
+		return count;
+	}
+
+	private void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
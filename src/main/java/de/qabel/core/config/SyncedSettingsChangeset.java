@@ -0,0 +1,227 @@
+package de.qabel.core.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Changes of SyncedSettings within a period of time. A changeset contains
+ * the added or updated items and tombstones of deleted items.
+ *
+ * @see SyncedSettingsDelta
+ */
+public class SyncedSettingsChangeset {
+	private final long since;
+	private final long until;
+	private final List<Change> changes;
+
+	SyncedSettingsChangeset(long since, long until, List<Change> changes) {
+		this.since = since;
+		this.until = until;
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	/**
+	 * Returns the time after which changes are contained.
+	 * @return milliseconds since the epoch
+	 */
+	public long getSince() {
+		return since;
+	}
+
+	/**
+	 * Returns the time the changeset has been created. Passed as since to
+	 * the next changeset, it results in all changes that are not contained
+	 * in this one.
+	 * @return milliseconds since the epoch
+	 */
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * Returns the number of contained changes.
+	 * @return number of updated items and tombstones
+	 */
+	public int size() {
+		return changes.size();
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	List<Change> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Serializes this changeset to a Json String
+	 * @return Json String
+	 * @throws IOException
+	 */
+	public String toJson() throws IOException {
+		StringWriter writer = new StringWriter();
+		toJson(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Serializes this changeset as Json to a Writer
+	 * @param writer Writer to serialize to. It is not closed.
+	 * @throws IOException
+	 */
+	public void toJson(Writer writer) throws IOException {
+		JsonWriter out = new JsonWriter(writer);
+		out.beginObject();
+		out.name("since").value(since);
+		out.name("until").value(until);
+		out.name("changes");
+		out.beginArray();
+		for (Change change : changes) {
+			out.beginObject();
+			out.name("type").value(change.type.getJsonName());
+			out.name("key").value(change.key);
+			if (change.isTombstone()) {
+				out.name("deleted").value(change.deleted);
+			} else {
+				out.name("item");
+				change.type.write(out, change.item);
+			}
+			out.endObject();
+		}
+		out.endArray();
+		out.endObject();
+		out.flush();
+	}
+
+	/**
+	 * Deserializes a Json String
+	 * @param json Json to deserialize
+	 * @return SyncedSettingsChangeset
+	 * @throws IOException
+	 * @throws JsonParseException
+	 */
+	public static SyncedSettingsChangeset fromJson(String json) throws IOException, JsonParseException {
+		return fromJson(new StringReader(json));
+	}
+
+	/**
+	 * Deserializes Json read from a Reader. Changes of unknown item types are skipped.
+	 * @param reader Reader to deserialize from. It is not closed.
+	 * @return SyncedSettingsChangeset
+	 * @throws IOException
+	 * @throws JsonParseException
+	 */
+	public static SyncedSettingsChangeset fromJson(Reader reader) throws IOException, JsonParseException {
+		JsonReader in = new JsonReader(reader);
+		long since = 0;
+		long until = 0;
+		List<Change> changes = new ArrayList<>();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "since":
+				since = in.nextLong();
+				break;
+			case "until":
+				until = in.nextLong();
+				break;
+			case "changes":
+				in.beginArray();
+				while (in.hasNext()) {
+					Change change = readChange(in);
+					if (change != null) {
+						changes.add(change);
+					}
+				}
+				in.endArray();
+				break;
+			default:
+				in.skipValue();
+				break;
+			}
+		}
+		in.endObject();
+		return new SyncedSettingsChangeset(since, until, changes);
+	}
+
+	private static Change readChange(JsonReader in) throws IOException {
+		String typeName = null;
+		String key = null;
+		long deleted = 0;
+		SyncSettingItem item = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "type":
+				typeName = in.nextString();
+				break;
+			case "key":
+				key = in.nextString();
+				break;
+			case "deleted":
+				deleted = in.nextLong();
+				break;
+			case "item":
+				SyncItemType type = SyncItemType.fromJsonName(typeName);
+				if (type == null || in.peek() == JsonToken.NULL) {
+					in.skipValue();
+				} else {
+					item = type.read(in);
+				}
+				break;
+			default:
+				in.skipValue();
+				break;
+			}
+		}
+		in.endObject();
+		SyncItemType type = SyncItemType.fromJsonName(typeName);
+		if (type == null) {
+			return null;
+		}
+		if (key == null || (item == null && deleted == 0)) {
+			throw new JsonParseException("Incomplete change of type " + typeName);
+		}
+		return new Change(type, key, item, deleted);
+	}
+
+	/**
+	 * Change of a single item, either the new state of the item or a tombstone.
+	 */
+	static class Change {
+		final SyncItemType type;
+		final String key;
+		final SyncSettingItem item;
+		final long deleted;
+
+		Change(SyncItemType type, String key, SyncSettingItem item, long deleted) {
+			this.type = type;
+			this.key = key;
+			this.item = item;
+			this.deleted = deleted;
+		}
+
+		boolean isTombstone() {
+			return item == null;
+		}
+
+		/**
+		 * Returns the time of the change, used to resolve conflicts.
+		 */
+		long getTime() {
+			return isTombstone() ? deleted : SyncedSettingsDelta.getModificationTime(item);
+		}
+	}
+}
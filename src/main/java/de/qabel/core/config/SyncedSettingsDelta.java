@@ -0,0 +1,213 @@
+package de.qabel.core.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.qabel.core.config.SyncedSettingsChangeset.Change;
+
+/**
+ * Synchronizes SyncedSettings between devices by exchanging changesets
+ * instead of the complete settings.
+ * <p>
+ * An item is identified across devices by a key depending on its type, e.g.
+ * the key identifier of contacts and identities or the url of servers. Its
+ * modification time is the latest of its created, updated and deleted
+ * timestamps, so applications have to set the updated timestamp when they
+ * modify an item. Items removed from the settings are remembered as
+ * tombstones with the time the removal has been noticed.
+ * <p>
+ * Conflicts are resolved by the modification time, the latest change wins.
+ * A deletion wins over an update with the same time, on two updates with the
+ * same time the local item is kept.
+ */
+public class SyncedSettingsDelta {
+	private final SyncedSettings settings;
+	/**
+	 * Times of deletions by item key, per item type.
+	 */
+	private final Map<SyncItemType, Map<String, Long>> tombstones = new EnumMap<>(SyncItemType.class);
+	/**
+	 * Keys of the items contained in the settings when deletions have been tracked last.
+	 */
+	private final Map<SyncItemType, Set<String>> knownKeys = new EnumMap<>(SyncItemType.class);
+
+	/**
+	 * Creates a delta sync for the given settings. Items removed from the
+	 * settings afterwards are tracked as deleted.
+	 * @param settings Settings to synchronize.
+	 */
+	public SyncedSettingsDelta(SyncedSettings settings) {
+		this.settings = settings;
+		for (SyncItemType type : SyncItemType.values()) {
+			tombstones.put(type, new HashMap<String, Long>());
+			knownKeys.put(type, currentKeys(type));
+		}
+	}
+
+	/**
+	 * Creates a changeset of all items which have been modified or deleted
+	 * at or after the given time. The changeset's until time should be used as
+	 * since time of the next changeset for the same device.
+	 *
+	 * @param since Time in milliseconds since the epoch, 0 for all items.
+	 * @return changeset
+	 */
+	public synchronized SyncedSettingsChangeset createChangeset(long since) {
+		long now = System.currentTimeMillis();
+		trackDeletions(now);
+		List<Change> changes = new ArrayList<>();
+		for (SyncItemType type : SyncItemType.values()) {
+			for (SyncSettingItem item : type.getItems(settings)) {
+				String key = type.getKey(item);
+				if (item.getDeleted() > 0) {
+					if (item.getDeleted() >= since) {
+						changes.add(new Change(type, key, null, item.getDeleted()));
+					}
+				} else if (getModificationTime(item) >= since) {
+					changes.add(new Change(type, key, item, 0));
+				}
+			}
+			for (Map.Entry<String, Long> tombstone : tombstones.get(type).entrySet()) {
+				if (tombstone.getValue() >= since) {
+					changes.add(new Change(type, tombstone.getKey(), null, tombstone.getValue()));
+				}
+			}
+		}
+		return new SyncedSettingsChangeset(since, now, changes);
+	}
+
+	/**
+	 * Merges a changeset received from another device into the settings.
+	 *
+	 * @param changeset Changeset to merge.
+	 * @return number of changes which modified the settings
+	 */
+	public synchronized int merge(SyncedSettingsChangeset changeset) {
+		trackDeletions(System.currentTimeMillis());
+		List<Change> changes = new ArrayList<>(changeset.getChanges());
+		// apply referenced items first, e.g. identities before the contacts they own
+		Collections.sort(changes, new Comparator<Change>() {
+			@Override
+			public int compare(Change c1, Change c2) {
+				return c1.type.compareTo(c2.type);
+			}
+		});
+		int applied = 0;
+		// contacts and identities are published once after all changes
+		EntityMap<Identity>.Batch identities = settings.getIdentities().startBatch();
+		try {
+			EntityMap<Contact>.Batch contacts = settings.getContacts().startBatch();
+			try {
+				for (Change change : changes) {
+					if (apply(change)) {
+						applied++;
+					}
+				}
+			} finally {
+				contacts.close();
+			}
+		} finally {
+			identities.close();
+		}
+		for (SyncItemType type : SyncItemType.values()) {
+			knownKeys.put(type, currentKeys(type));
+		}
+		return applied;
+	}
+
+	/**
+	 * Forgets tombstones of deletions before the given time. Devices which
+	 * did not sync since then will not learn about these deletions.
+	 * @param before Time in milliseconds since the epoch.
+	 * @return number of removed tombstones
+	 */
+	public synchronized int pruneTombstones(long before) {
+		int pruned = 0;
+		for (Map<String, Long> typeTombstones : tombstones.values()) {
+			Iterator<Long> iterator = typeTombstones.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next() < before) {
+					iterator.remove();
+					pruned++;
+				}
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * Returns the time of the last modification of an item.
+	 * @param item Item to get the modification time of.
+	 * @return latest of the created, updated and deleted timestamps
+	 */
+	public static long getModificationTime(SyncSettingItem item) {
+		return Math.max(item.getCreated(), Math.max(item.getUpdated(), item.getDeleted()));
+	}
+
+	private boolean apply(Change change) {
+		Map<String, Long> typeTombstones = tombstones.get(change.type);
+		SyncSettingItem local = change.type.find(settings, change.key);
+		long time = change.getTime();
+		if (change.isTombstone()) {
+			Long tombstone = typeTombstones.get(change.key);
+			if (tombstone == null || tombstone < time) {
+				typeTombstones.put(change.key, time);
+			}
+			if (local != null && getModificationTime(local) <= time) {
+				change.type.remove(settings, local);
+				return true;
+			}
+			return false;
+		}
+		if (local != null) {
+			if (getModificationTime(local) >= time) {
+				return false;
+			}
+			change.type.remove(settings, local);
+		} else {
+			Long tombstone = typeTombstones.get(change.key);
+			if (tombstone != null && tombstone >= time) {
+				return false;
+			}
+		}
+		typeTombstones.remove(change.key);
+		change.type.add(settings, change.item);
+		return true;
+	}
+
+	/**
+	 * Records tombstones for items which have been removed from the settings
+	 * since the last call.
+	 */
+	private void trackDeletions(long now) {
+		for (SyncItemType type : SyncItemType.values()) {
+			Set<String> current = currentKeys(type);
+			Map<String, Long> typeTombstones = tombstones.get(type);
+			for (String key : knownKeys.get(type)) {
+				if (!current.contains(key)) {
+					typeTombstones.put(key, now);
+				}
+			}
+			for (String key : current) {
+				typeTombstones.remove(key);
+			}
+			knownKeys.put(type, current);
+		}
+	}
+
+	private Set<String> currentKeys(SyncItemType type) {
+		Set<String> keys = new HashSet<>();
+		for (SyncSettingItem item : type.getItems(settings)) {
+			keys.add(type.getKey(item));
+		}
+		return keys;
+	}
+}
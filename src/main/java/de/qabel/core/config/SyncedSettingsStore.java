@@ -0,0 +1,388 @@
+package de.qabel.core.config;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Persists SyncedSettings in a file. A full save streams the settings to the
+ * file. Afterwards saveChanges() only appends the contacts and identities
+ * which have been added, removed or updated since the last save to a journal
+ * next to the file. The journal is replayed on load and merged into the file
+ * by the next full save.
+ * <p>
+ * Changes of accounts, servers and storage volumes are rare and small, they
+ * always cause a full save.
+ */
+public class SyncedSettingsStore {
+	private final static Logger logger = LogManager.getLogger(SyncedSettingsStore.class.getName());
+
+	public static final String JOURNAL_SUFFIX = ".journal";
+	private static final String TEMP_SUFFIX = ".tmp";
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+	private static final String OP = "op";
+	private static final String OP_PUT = "put";
+	private static final String OP_REMOVE = "remove";
+	private static final String TYPE = "type";
+	private static final String TYPE_CONTACT = "contact";
+	private static final String TYPE_IDENTITY = "identity";
+	private static final String ITEM = "item";
+	private static final String KEY_ID = "key_id";
+
+	private final File file;
+	private final File journalFile;
+	private final TypeAdapter<Contact> contactAdapter = new ContactTypeAdapter();
+	private final TypeAdapter<Identity> identityAdapter = new IdentityTypeAdapter();
+	private final TypeAdapter<Accounts> accountsAdapter = new AccountsTypeAdapter();
+	private final TypeAdapter<DropServers> dropServersAdapter = new DropServersTypeAdapter();
+	private final TypeAdapter<StorageServers> storageServersAdapter = new StorageServersTypeAdapter();
+	private final TypeAdapter<StorageVolumes> storageVolumesAdapter = new StorageVolumesTypeAdapter();
+	private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	/**
+	 * State of the settings as persisted by the last save, used to find changes.
+	 */
+	private SyncedSettings persistedSettings;
+	private Contacts persistedContactsMap;
+	private Identities persistedIdentitiesMap;
+	private Set<Contact> persistedContacts = Collections.emptySet();
+	private Set<Identity> persistedIdentities = Collections.emptySet();
+	private String persistedOtherSettings;
+	private long checkpoint;
+	private int journalRecords;
+
+	/**
+	 * Creates a store for the given file. The journal is stored in the same directory.
+	 * @param file File to store the settings in.
+	 */
+	public SyncedSettingsStore(File file) {
+		this.file = file;
+		this.journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public File getJournalFile() {
+		return journalFile;
+	}
+
+	/**
+	 * Sets the number of journal records after which saveChanges() performs
+	 * a full save instead of appending to the journal.
+	 * @param compactionThreshold maximum number of journal records
+	 */
+	public synchronized void setCompactionThreshold(int compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Loads the settings and replays the journal.
+	 * @return loaded settings or new empty settings if the file does not exist
+	 * @throws IOException if the file could not be read
+	 * @throws JsonParseException if the file is not valid
+	 */
+	public synchronized SyncedSettings load() throws IOException, JsonParseException {
+		SyncedSettings settings;
+		if (file.exists()) {
+			try (Reader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), StandardCharsets.UTF_8))) {
+				settings = SyncedSettings.fromJson(reader);
+			}
+			if (settings == null) {
+				throw new JsonParseException("Settings file " + file + " is incomplete.");
+			}
+		} else {
+			settings = new SyncedSettings();
+		}
+		journalRecords = replayJournal(settings);
+		remember(settings);
+		return settings;
+	}
+
+	/**
+	 * Saves the complete settings. The settings are streamed to a temporary
+	 * file which replaces the previous file afterwards, then the journal is deleted.
+	 * @param settings Settings to save.
+	 * @throws IOException if the settings could not be written
+	 */
+	public synchronized void save(SyncedSettings settings) throws IOException {
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		try (FileOutputStream out = new FileOutputStream(tempFile)) {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			settings.toJson(writer);
+			writer.flush();
+			out.getFD().sync();
+		}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.deleteIfExists(journalFile.toPath());
+		journalRecords = 0;
+		remember(settings);
+	}
+
+	/**
+	 * Persists the changes since the last load or save. Added, updated and
+	 * removed contacts and identities are appended to the journal. A full save
+	 * is performed instead if the settings have not been loaded or saved by this
+	 * store before, if other parts of the settings changed or if the journal
+	 * exceeds the compaction threshold.
+	 * <p>
+	 * An entity counts as updated if it has been replaced by a different entity
+	 * or if one of its created, updated or deleted timestamps is not older than
+	 * the last save.
+	 *
+	 * @param settings Settings to save.
+	 * @return number of appended journal records or -1 if a full save has been performed
+	 * @throws IOException if the changes could not be written
+	 */
+	public synchronized int saveChanges(SyncedSettings settings) throws IOException {
+		if (settings != persistedSettings
+				|| settings.getContacts() != persistedContactsMap
+				|| settings.getIdentities() != persistedIdentitiesMap
+				|| !serializeOtherSettings(settings).equals(persistedOtherSettings)) {
+			save(settings);
+			return -1;
+		}
+		long now = System.currentTimeMillis();
+		Set<Contact> contacts = settings.getContacts().getContacts();
+		Set<Identity> identities = settings.getIdentities().getIdentities();
+		StringWriter records = new StringWriter();
+		int count = 0;
+		for (Identity identity : identities) {
+			if (isChanged(identity, persistedIdentities)) {
+				writeRecord(records, OP_PUT, TYPE_IDENTITY, identity);
+				count++;
+			}
+		}
+		for (Identity identity : persistedIdentities) {
+			if (settings.getIdentities().getByKeyId(identity.getKeyId()) == null) {
+				writeRecord(records, OP_REMOVE, TYPE_IDENTITY, identity);
+				count++;
+			}
+		}
+		for (Contact contact : contacts) {
+			if (isChanged(contact, persistedContacts)) {
+				writeRecord(records, OP_PUT, TYPE_CONTACT, contact);
+				count++;
+			}
+		}
+		for (Contact contact : persistedContacts) {
+			if (settings.getContacts().getByKeyId(contact.getKeyId()) == null) {
+				writeRecord(records, OP_REMOVE, TYPE_CONTACT, contact);
+				count++;
+			}
+		}
+		if (journalRecords + count > compactionThreshold) {
+			save(settings);
+			return -1;
+		}
+		if (count > 0) {
+			try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				writer.write(records.toString());
+				writer.flush();
+				out.getFD().sync();
+			}
+			journalRecords += count;
+		}
+		persistedContacts = contacts;
+		persistedIdentities = identities;
+		checkpoint = now;
+		return count;
+	}
+
+	private void remember(SyncedSettings settings) throws IOException {
+		persistedSettings = settings;
+		persistedContactsMap = settings.getContacts();
+		persistedIdentitiesMap = settings.getIdentities();
+		persistedContacts = persistedContactsMap.getContacts();
+		persistedIdentities = persistedIdentitiesMap.getIdentities();
+		persistedOtherSettings = serializeOtherSettings(settings);
+		checkpoint = System.currentTimeMillis();
+	}
+
+	private boolean isChanged(Entity entity, Set<? extends Entity> persisted) {
+		return !persisted.contains(entity)
+				|| entity.getCreated() >= checkpoint
+				|| entity.getUpdated() >= checkpoint
+				|| entity.getDeleted() >= checkpoint;
+	}
+
+	private void writeRecord(Writer records, String op, String type, Entity entity) throws IOException {
+		JsonWriter out = new JsonWriter(records);
+		out.beginObject();
+		out.name(OP).value(op);
+		out.name(TYPE).value(type);
+		if (op.equals(OP_REMOVE)) {
+			out.name(KEY_ID).value(entity.getKeyIdentifier());
+		} else if (type.equals(TYPE_CONTACT)) {
+			out.name(ITEM);
+			contactAdapter.write(out, (Contact) entity);
+		} else {
+			out.name(ITEM);
+			identityAdapter.write(out, (Identity) entity);
+		}
+		out.endObject();
+		out.flush();
+		records.write('\n');
+	}
+
+	/**
+	 * Applies the records of the journal to the settings. An incomplete last
+	 * record, left by an interrupted write, is ignored.
+	 * @return number of applied records
+	 */
+	private int replayJournal(SyncedSettings settings) throws IOException {
+		if (!journalFile.exists()) {
+			return 0;
+		}
+		// contacts and identities are published once after all records
+		EntityMap<Identity>.Batch identities = settings.getIdentities().startBatch();
+		try {
+			EntityMap<Contact>.Batch contacts = settings.getContacts().startBatch();
+			try {
+				return applyRecords(settings);
+			} finally {
+				contacts.close();
+			}
+		} finally {
+			identities.close();
+		}
+	}
+
+	private int applyRecords(SyncedSettings settings) throws IOException {
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					applyRecord(settings, line);
+					count++;
+				} catch (IOException | IllegalStateException | JsonParseException e) {
+					if (reader.readLine() == null) {
+						logger.warn("Ignoring incomplete last record of settings journal.", e);
+						break;
+					}
+					throw new JsonParseException("Settings journal " + journalFile + " is corrupted.", e);
+				}
+			}
+		}
+		return count;
+	}
+
+	private void applyRecord(SyncedSettings settings, String line) throws IOException {
+		JsonReader in = new JsonReader(new StringReader(line));
+		String op = null;
+		String type = null;
+		String keyIdentifier = null;
+		Entity item = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case OP:
+				op = in.nextString();
+				break;
+			case TYPE:
+				type = in.nextString();
+				break;
+			case KEY_ID:
+				keyIdentifier = in.nextString();
+				break;
+			case ITEM:
+				if (TYPE_CONTACT.equals(type)) {
+					item = contactAdapter.read(in);
+				} else if (TYPE_IDENTITY.equals(type)) {
+					item = identityAdapter.read(in);
+				} else {
+					throw new JsonParseException("Unknown journal record type " + type);
+				}
+				break;
+			default:
+				in.skipValue();
+				break;
+			}
+		}
+		in.endObject();
+
+		EntityMap<? extends Entity> entities;
+		if (TYPE_CONTACT.equals(type)) {
+			entities = settings.getContacts();
+		} else if (TYPE_IDENTITY.equals(type)) {
+			entities = settings.getIdentities();
+		} else {
+			throw new JsonParseException("Unknown journal record type " + type);
+		}
+		if (OP_REMOVE.equals(op) && keyIdentifier != null) {
+			removeByKeyIdentifier(entities, keyIdentifier);
+		} else if (OP_PUT.equals(op) && item != null) {
+			removeByKeyIdentifier(entities, item.getKeyIdentifier());
+			if (item instanceof Contact) {
+				Contact contact = (Contact) item;
+				contact.setContactOwner(settings.getIdentities().getByKeyIdentifier(
+						contact.getContactOwnerKeyId()));
+				settings.getContacts().add(contact);
+			} else {
+				settings.getIdentities().add((Identity) item);
+			}
+		} else {
+			throw new JsonParseException("Invalid journal record " + op);
+		}
+	}
+
+	private static <T extends Entity> void removeByKeyIdentifier(EntityMap<T> entities, String keyIdentifier) {
+		T entity = entities.getByKeyIdentifier(keyIdentifier);
+		if (entity != null) {
+			entities.remove(entity);
+		}
+	}
+
+	/**
+	 * Serializes the parts of the settings which are not journaled.
+	 */
+	private String serializeOtherSettings(SyncedSettings settings) throws IOException {
+		StringWriter writer = new StringWriter();
+		JsonWriter out = new JsonWriter(writer);
+		out.beginArray();
+		accountsAdapter.write(out, settings.getAccounts());
+		dropServersAdapter.write(out, settings.getDropServers());
+		storageServersAdapter.write(out, settings.getStorageServers());
+		storageVolumesAdapter.write(out, settings.getStorageVolumes());
+		out.endArray();
+		out.flush();
+		return writer.toString();
+	}
+}
@@ -10,6 +10,12 @@ import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class SyncedSettingsTypeAdapter extends TypeAdapter<SyncedSettings> {
+	private final TypeAdapter<Accounts> accountsAdapter = new AccountsTypeAdapter();
+	private final TypeAdapter<Contacts> contactsAdapter = new ContactsTypeAdapter();
+	private final TypeAdapter<Identities> identitiesAdapter = new IdentitiesTypeAdapter();
+	private final TypeAdapter<DropServers> dropServersAdapter = new DropServersTypeAdapter();
+	private final TypeAdapter<StorageServers> storageServersAdapter = new StorageServersTypeAdapter();
+	private final TypeAdapter<StorageVolumes> storageVolumesAdapter = new StorageVolumesTypeAdapter();
 
 	@Override
 	public void write(JsonWriter out, SyncedSettings value) throws IOException {
@@ -17,38 +23,26 @@ public class SyncedSettingsTypeAdapter extends TypeAdapter<SyncedSettings> {
 				
 		// Accounts
 		out.name("accounts");
-		TypeAdapter<Accounts> accountsAdapter = 
-				new AccountsTypeAdapter();
 		accountsAdapter.write(out, value.getAccounts());
 		
 		// Contacts
 		out.name("contacts");
-		TypeAdapter<Contacts> contactsAdapter =
-				new ContactsTypeAdapter();
 		contactsAdapter.write(out, value.getContacts());
 		
 		// Identities
 		out.name("identities");
-		TypeAdapter<Identities> identitiesAdapter = 
-				new IdentitiesTypeAdapter();
 		identitiesAdapter.write(out, value.getIdentities());
 		
 		// DropServers
 		out.name("drop_servers");
-		TypeAdapter<DropServers> dropServersAdapter = 
-				new DropServersTypeAdapter();
 		dropServersAdapter.write(out, value.getDropServers());
 		
 		// StorageServers
 		out.name("storage_servers");
-		TypeAdapter<StorageServers> storageServersAdapter = 
-				new StorageServersTypeAdapter();
 		storageServersAdapter.write(out, value.getStorageServers());
 		
 		// StorageVolumes
 		out.name("storage_volumes");
-		TypeAdapter<StorageVolumes> storageVolumesAdapter =
-				new StorageVolumesTypeAdapter();
 		storageVolumesAdapter.write(out, value.getStorageVolumes());
 		
 		// SyncedModuleSettings
@@ -83,33 +77,21 @@ public class SyncedSettingsTypeAdapter extends TypeAdapter<SyncedSettings> {
 		while(in.hasNext()) {
 			switch(in.nextName()) {
 			case "accounts":
-				TypeAdapter<Accounts> accountsAdapter = 
-						new AccountsTypeAdapter();
 				accounts = accountsAdapter.read(in);		
 				break;
 			case "contacts":
-				TypeAdapter<Contacts> contactsAdapter = 
-						new ContactsTypeAdapter();
 				contacts = contactsAdapter.read(in);
 				break;
 			case "identities":
-				TypeAdapter<Identities> identitiesAdapter = 
-						new IdentitiesTypeAdapter();
 				identities = identitiesAdapter.read(in);
 				break;
 			case "drop_servers":
-				TypeAdapter<DropServers> dropServersAdapter = 
-						new DropServersTypeAdapter();
 				dropServers = dropServersAdapter.read(in);
 				break;
 			case "storage_servers":
-				TypeAdapter<StorageServers> storageServersAdapter = 
-						new StorageServersTypeAdapter();
 				storageServers = storageServersAdapter.read(in);
 				break;
 			case "storage_volumes":
-				TypeAdapter<StorageVolumes> storageVolumesAdapter =
-						new StorageVolumesTypeAdapter();
 				storageVolumes = storageVolumesAdapter.read(in);
 				break;
 			case "module_data":
@@ -10,6 +10,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
 import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
 import de.qabel.core.drop.DropDeserializer;
 import de.qabel.core.drop.DropMessage;
 import de.qabel.core.drop.DropSerializer;
@@ -25,6 +26,8 @@ public abstract class AbstractBinaryDropMessage {
 			.getLogger(AbstractBinaryDropMessage.class.getName());
 
 	private byte[] plainPayload;
+	private Identity decryptedFor;
+	private byte[] decryptedPayload;
 
 	public AbstractBinaryDropMessage(DropMessage<?> dropMessage)
 			throws QblDropPayloadSizeException {
@@ -106,6 +109,25 @@ public abstract class AbstractBinaryDropMessage {
 
 	abstract byte[] disassembleRawMessageFrom(Contact sender);
 
+	/**
+	 * Decrypts the message with the keys of the recipient without checking
+	 * the signature.
+	 *
+	 * @return raw plaintext or null if the message is not for the recipient.
+	 */
+	abstract byte[] decryptRawMessageFor(Identity recipient);
+
+	abstract boolean verifySignatureFrom(Contact sender);
+
+	/**
+	 * Returns the signed region of the binary message, which identifies the
+	 * message independent of its signature. The returned array must not be
+	 * modified.
+	 *
+	 * @return signed data of the assembled or received message.
+	 */
+	abstract public byte[] getSignedData();
+
 	/**
 	 * Disassemble binary transport message assuming it sent by the given
 	 * sender.
@@ -120,6 +142,50 @@ public abstract class AbstractBinaryDropMessage {
 			// tried wrong sender
 			return null;
 		}
+		return toDropMessage(rawPlainText);
+	}
+
+	/**
+	 * Decrypts the message for one of our identities, the first step of
+	 * {@link #disassembleDecryptedMessageFrom(Contact)}. The message is
+	 * decrypted once per identity and can then be checked against all
+	 * contacts of the identity without further decryptions.
+	 *
+	 * @param recipient Identity which may be the recipient.
+	 * @return true if the message could be decrypted for the identity.
+	 */
+	public boolean decryptFor(Identity recipient) {
+		decryptedFor = null;
+		decryptedPayload = decryptRawMessageFor(recipient);
+		if (decryptedPayload == null) {
+			return false;
+		}
+		decryptedFor = recipient;
+		return true;
+	}
+
+	/**
+	 * Disassembles the message decrypted by {@link #decryptFor(Identity)}
+	 * assuming it was sent by the given contact of the identity.
+	 *
+	 * @param sender Assumed sender, a contact of the identity the message has been decrypted for.
+	 * @return Disassembled drop message or null if the message is not signed
+	 *         by the sender or cannot be deserialized.
+	 * @throws IllegalStateException if the message has not been decrypted for the owner of the sender.
+	 */
+	public DropMessage<?> disassembleDecryptedMessageFrom(Contact sender) {
+		// compared by key, the owner may be another instance of the same identity
+		if (decryptedPayload == null || sender.getContactOwner() == null
+				|| sender.getContactOwner().getKeyId() != decryptedFor.getKeyId()) {
+			throw new IllegalStateException("Message not decrypted for the owner of the sender");
+		}
+		if (!verifySignatureFrom(sender)) {
+			return null;
+		}
+		return toDropMessage(decryptedPayload);
+	}
+
+	private static DropMessage<?> toDropMessage(byte[] rawPlainText) {
 		DropMessage<?> dropMessage = deserialize(new String(
 				discardPaddingBytes(rawPlainText)));
 		if (dropMessage == null) {
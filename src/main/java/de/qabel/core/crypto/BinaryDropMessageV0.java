@@ -11,6 +11,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
 import de.qabel.core.drop.DropMessage;
 import de.qabel.core.exceptions.QblDropInvalidMessageSizeException;
 import de.qabel.core.exceptions.QblDropPayloadSizeException;
@@ -58,6 +59,11 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
 		return new byte[] { VERSION };
 	}
 
+	@Override
+	public byte[] getSignedData() {
+		return signedData;
+	}
+
 	@Override
 	int getPayloadSize() {
 		return PAYLOAD_SIZE;
@@ -96,22 +102,35 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
 	}
 
 	public byte[] disassembleRawMessageFrom(Contact sender) {
+		if (!verifySignatureFrom(sender)) {
+			return null;
+		}
+		return decryptRawMessageFor(sender.getContactOwner());
+	}
+
+	@Override
+	boolean verifySignatureFrom(Contact sender) {
 		CryptoUtils cu = new CryptoUtils();
 		try {
 			if (!cu.validateSignature(signedData, signature, sender
 					.getSignPublicKeys().get(0))) {
 				logger.debug("Invalid signature.");
-				return null;
+				return false;
 			}
 		} catch (InvalidKeyException e) {
 			logger.debug("Invalid signing key");
-			return null;
+			return false;
 		}
+		return true;
+	}
 
+	@Override
+	byte[] decryptRawMessageFor(Identity recipient) {
+		CryptoUtils cu = new CryptoUtils();
 		// Decrypt RSA encrypted AES key and decrypt encrypted data with AES key
 		byte[] rawAesKey;
 		try {
-			rawAesKey = cu.rsaDecrypt(encKey, sender.getContactOwner()
+			rawAesKey = cu.rsaDecrypt(encKey, recipient
 					.getPrimaryKeyPair().getQblEncPrivateKeys().get(0));
 		} catch (InvalidKeyException e) {
 			logger.debug("Invalid decryption key");
@@ -119,7 +138,7 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
 		}
 		if (rawAesKey == null) {
 			// decryption failed
-			logger.debug("Message not meant for this sender");
+			logger.debug("Message not meant for this recipient");
 			return null;
 		}
 
@@ -0,0 +1,207 @@
+package de.qabel.core.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
+import de.qabel.core.drop.DropMessage;
+import de.qabel.core.exceptions.QblDropInvalidMessageSizeException;
+import de.qabel.core.exceptions.QblDropPayloadSizeException;
+import de.qabel.core.exceptions.QblVersionMismatchException;
+
+/**
+ * Drop message in binary transport format version 1, based on the
+ * Curve25519 crypto suite.
+ * <p>
+ * Format: version | ephemeral X25519 public key | nonce | AES-GCM encrypted
+ * payload | GCM tag | Ed25519 signature of all preceding bytes. The AES key
+ * is derived from the X25519 agreement of the ephemeral key and the
+ * recipient's agreement key.
+ */
+public class BinaryDropMessageV1 extends AbstractBinaryDropMessage {
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = 1;
+	private static final int PAYLOAD_SIZE = 2048;
+	private static final int GCM_TAG_SIZE_BYTE = 16;
+	private static final int ENC_MESSAGE_SIZE = CryptoUtils.SYMM_NONCE_SIZE_BYTE
+			+ PAYLOAD_SIZE + GCM_TAG_SIZE_BYTE;
+	private static final byte[] KEY_INFO = "Qabel drop message v1"
+			.getBytes(StandardCharsets.US_ASCII);
+	private byte[] ephemeralKey, encMessage, signature, signedData;
+
+	private static final Logger logger = LogManager
+			.getLogger(BinaryDropMessageV1.class.getName());
+
+	public BinaryDropMessageV1(DropMessage<?> dropMessage)
+			throws QblDropPayloadSizeException {
+		super(dropMessage);
+	}
+
+	public BinaryDropMessageV1(byte[] binaryMessage)
+			throws QblVersionMismatchException, QblDropInvalidMessageSizeException {
+		super(binaryMessage);
+		ephemeralKey = Arrays.copyOfRange(binaryMessage, HEADER_SIZE, HEADER_SIZE
+				+ Curve25519Utils.KEY_SIZE_BYTE);
+		encMessage = Arrays.copyOfRange(binaryMessage, HEADER_SIZE
+				+ Curve25519Utils.KEY_SIZE_BYTE, HEADER_SIZE
+				+ Curve25519Utils.KEY_SIZE_BYTE + ENC_MESSAGE_SIZE);
+		signature = Arrays.copyOfRange(binaryMessage, getTotalSize()
+				- Curve25519Utils.SIGNATURE_SIZE_BYTE, getTotalSize());
+		signedData = Arrays.copyOfRange(binaryMessage, 0, getTotalSize()
+				- Curve25519Utils.SIGNATURE_SIZE_BYTE);
+	}
+
+	/**
+	 * Checks whether messages between the contact and its owner can use this
+	 * format, i.e. if both have Curve25519 keys.
+	 * @param contact Contact to exchange messages with.
+	 * @return true if version 1 can be used
+	 */
+	public static boolean isSupportedFor(Contact contact) {
+		return getECPublicKey(contact) != null && getECKeyPair(contact) != null;
+	}
+
+	@Override
+	public byte getVersion() {
+		return VERSION;
+	}
+
+	byte[] getHeader() {
+		return new byte[] { VERSION };
+	}
+
+	@Override
+	public byte[] getSignedData() {
+		return signedData;
+	}
+
+	@Override
+	int getPayloadSize() {
+		return PAYLOAD_SIZE;
+	}
+
+	@Override
+	int getTotalSize() {
+		return HEADER_SIZE + Curve25519Utils.KEY_SIZE_BYTE + ENC_MESSAGE_SIZE
+				+ Curve25519Utils.SIGNATURE_SIZE_BYTE;
+	}
+
+	/**
+	 * Assembles a binary transport message for the given recipient.
+	 *
+	 * @param recipient Recipient of the message.
+	 * @return assembled binary message.
+	 * @throws IllegalArgumentException if recipient or owner have no
+	 *         Curve25519 keys, see {@link #isSupportedFor(Contact)}
+	 */
+	@Override
+	public byte[] assembleMessageFor(Contact recipient) {
+		QblECPublicKey recipientKey = getECPublicKey(recipient);
+		QblECKeyPair ownerKeyPair = getECKeyPair(recipient);
+		if (recipientKey == null || ownerKeyPair == null) {
+			throw new IllegalArgumentException("Contact does not support drop message version 1");
+		}
+
+		QblECKeyPair ephemeralKeyPair = new QblECKeyPair();
+		ephemeralKey = ephemeralKeyPair.getQblECPublicKey().getAgreementKey();
+		byte[] recipientAgreementKey = recipientKey.getAgreementKey();
+		byte[] secret = Curve25519Utils.agree(ephemeralKeyPair.getAgreementPrivateKey(),
+				recipientAgreementKey);
+		if (secret == null) {
+			throw new IllegalArgumentException("Invalid agreement key of recipient");
+		}
+
+		CryptoUtils cu = new CryptoUtils();
+		try {
+			encMessage = cu.encryptAuthenticatedSymmetric(getPaddedMessage(),
+					deriveKey(secret, ephemeralKey, recipientAgreementKey));
+		} catch (InvalidKeyException e) {
+			// should not happen
+			logger.error("Invalid key", e);
+			throw new RuntimeException(e);
+		}
+		signedData = ArrayUtils.addAll(ArrayUtils.addAll(getHeader(), ephemeralKey), encMessage);
+		signature = Curve25519Utils.sign(ownerKeyPair.getSigningPrivateKey(), signedData);
+
+		return ArrayUtils.addAll(signedData, signature);
+	}
+
+	@Override
+	byte[] disassembleRawMessageFrom(Contact sender) {
+		if (!verifySignatureFrom(sender)) {
+			return null;
+		}
+		Identity owner = sender.getContactOwner();
+		if (owner == null) {
+			logger.debug("No Curve25519 keys for sender.");
+			return null;
+		}
+		return decryptRawMessageFor(owner);
+	}
+
+	@Override
+	boolean verifySignatureFrom(Contact sender) {
+		QblECPublicKey senderKey = getECPublicKey(sender);
+		if (senderKey == null) {
+			logger.debug("No Curve25519 keys for sender.");
+			return false;
+		}
+		if (!Curve25519Utils.verify(senderKey.getSigningKey(), signedData, signature)) {
+			logger.debug("Invalid signature.");
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	byte[] decryptRawMessageFor(Identity recipient) {
+		QblECKeyPair ownerKeyPair = recipient.getPrimaryKeyPair().getECKeyPair();
+		if (ownerKeyPair == null) {
+			logger.debug("No Curve25519 keys for recipient.");
+			return null;
+		}
+		byte[] secret = Curve25519Utils.agree(ownerKeyPair.getAgreementPrivateKey(), ephemeralKey);
+		if (secret == null) {
+			logger.debug("Invalid ephemeral key");
+			return null;
+		}
+		byte[] agreementKey = ownerKeyPair.getQblECPublicKey().getAgreementKey();
+		try {
+			return new CryptoUtils().decryptAuthenticatedSymmetricAndValidateTag(encMessage,
+					deriveKey(secret, ephemeralKey, agreementKey));
+		} catch (InvalidKeyException e) {
+			logger.debug("Invalid AES key");
+			return null;
+		}
+	}
+
+	/**
+	 * Derives the message key, bound to both public keys of the agreement.
+	 */
+	private static SecretKey deriveKey(byte[] secret, byte[] ephemeralKey,
+			byte[] recipientAgreementKey) {
+		byte[] info = ArrayUtils.addAll(ArrayUtils.addAll(KEY_INFO, ephemeralKey),
+				recipientAgreementKey);
+		return Curve25519Utils.deriveSymmetricKey(secret, info);
+	}
+
+	private static QblECPublicKey getECPublicKey(Contact contact) {
+		return contact.getPrimaryPublicKey().getECPublicKey();
+	}
+
+	private static QblECKeyPair getECKeyPair(Contact contact) {
+		Identity owner = contact.getContactOwner();
+		if (owner == null) {
+			return null;
+		}
+		return owner.getPrimaryKeyPair().getECKeyPair();
+	}
+}
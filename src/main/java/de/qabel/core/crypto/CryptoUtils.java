@@ -37,6 +37,8 @@ import org.apache.logging.log4j.*;
 import org.bouncycastle.crypto.DataLengthException;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import de.qabel.core.metrics.Metrics;
+
 public class CryptoUtils {
 
 	private final static String CRYPTOGRAPHIC_PROVIDER = "BC"; // BouncyCastle
@@ -207,6 +209,7 @@ public class CryptoUtils {
 	 */
 	byte[] rsaSign(byte[] data, RSAPrivateKey signatureKey) {
 		byte[] sign = null;
+		long start = System.nanoTime();
 		try {
 			signer.initSign(signatureKey);
 			signer.update(data);
@@ -215,6 +218,8 @@ public class CryptoUtils {
 			logger.error("Invalid key!");
 		} catch (SignatureException e) {
 			logger.error("Signature exception!");
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_RSA_SIGN).updateSince(start);
 		}
 		return sign;
 	}
@@ -234,6 +239,7 @@ public class CryptoUtils {
 	boolean rsaValidateSignature(byte[] data, byte[] signature,
 			RSAPublicKey signatureKey) throws InvalidKeyException {
 		boolean isValid = false;
+		long start = System.nanoTime();
 		try {
 			signer.initVerify(signatureKey);
 			signer.update(data);
@@ -243,6 +249,8 @@ public class CryptoUtils {
 			throw new InvalidKeyException("Invalid RSA public key!");
 		} catch (SignatureException e) {
 			logger.error("Signature exception!");
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_RSA_VERIFY).updateSince(start);
 		}
 		return isValid;
 	}
@@ -280,6 +288,7 @@ public class CryptoUtils {
 	byte[] rsaEncryptForRecipient(byte[] message,
 			QblEncPublicKey reciPubKey) throws InvalidKeyException {
 		byte[] cipherText = null;
+		long start = System.nanoTime();
 		try {
 			asymmetricCipher.init(Cipher.ENCRYPT_MODE,
 					reciPubKey.getRSAPublicKey(), secRandom);
@@ -291,6 +300,8 @@ public class CryptoUtils {
 			logger.error("Illegal block size!");
 		} catch (BadPaddingException e) {
 			logger.error("Bad padding!");
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_RSA_ENCRYPT).updateSince(start);
 		}
 		return cipherText;
 	}
@@ -308,6 +319,7 @@ public class CryptoUtils {
 	byte[] rsaDecrypt(byte[] cipherText, RSAPrivateKey privKey)
 			throws InvalidKeyException {
 		byte[] plaintext = null;
+		long start = System.nanoTime();
 		try {
 			asymmetricCipher.init(Cipher.DECRYPT_MODE, privKey, secRandom);
 			plaintext = asymmetricCipher.doFinal(cipherText);
@@ -324,6 +336,8 @@ public class CryptoUtils {
 			// This exception only occurs with Bouncy Castle while decrypting
 			// with a wrong private key
 			return null;
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_RSA_DECRYPT).updateSince(start);
 		}
 
 		return plaintext;
@@ -386,6 +400,7 @@ public class CryptoUtils {
 
 		iv = new IvParameterSpec(ivOS.toByteArray());
 
+		long start = System.nanoTime();
 		try {
 			symmetricCipher.init(Cipher.ENCRYPT_MODE, key, iv);
 			cipherText.write(symmetricCipher.doFinal(plainText));
@@ -399,6 +414,8 @@ public class CryptoUtils {
 			logger.error(e);
 		} catch (IOException e) {
 			logger.debug("Encryption: Output Stream cannot be written to.", e);
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_AES_ENCRYPT).updateSince(start);
 		}
 
 		return cipherText.toByteArray();
@@ -443,6 +460,7 @@ public class CryptoUtils {
 
 		iv = new IvParameterSpec(ivOS.toByteArray());
 
+		long start = System.nanoTime();
 		try {
 			symmetricCipher.init(Cipher.DECRYPT_MODE, key, iv);
 			plainText = symmetricCipher.doFinal(encryptedPlainText);
@@ -454,6 +472,8 @@ public class CryptoUtils {
 		} catch (BadPaddingException e) {
 			// We do not use padding, so this should not be thrown
 			logger.error(e);
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_AES_DECRYPT).updateSince(start);
 		}
 		return plainText;
 	}
@@ -558,8 +578,7 @@ public class CryptoUtils {
 			bs.read(encryptedAesKey);
 			bs.read(aesCipherText);
 		} catch (IOException e) {
-			logger.error("IOException while reading from ByteArrayInputStream");
-			e.printStackTrace();
+			logger.error("IOException while reading from ByteArrayInputStream", e);
 		}
 
 		// Decrypt RSA encrypted AES key and decrypt encrypted data with AES key
@@ -665,6 +684,7 @@ public class CryptoUtils {
 
 		iv = new IvParameterSpec(nonce);
 
+		long start = System.nanoTime();
 		try {
 			gcmCipher.init(Cipher.ENCRYPT_MODE, key, iv);
 		} catch (InvalidAlgorithmParameterException e) {
@@ -681,6 +701,8 @@ public class CryptoUtils {
 		} catch (IOException e) {
 			// Will not happen since cipherText is not modified outside of this function
 			logger.error(e);
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_AES_ENCRYPT).updateSince(start);
 		}
 
 		return cipherText.toByteArray();
@@ -720,6 +742,7 @@ public class CryptoUtils {
 
 		iv = new IvParameterSpec(nonce);
 
+		long start = System.nanoTime();
 		try {
 			gcmCipher.init(Cipher.DECRYPT_MODE, key, iv);
 			plainText = gcmCipher.doFinal(encryptedPlainText);
@@ -732,6 +755,8 @@ public class CryptoUtils {
 		} catch (BadPaddingException e) {
 			logger.error("Decryption: Authentication tag is invalid!", e);
 			return null;
+		} finally {
+			Metrics.histogram(Metrics.CRYPTO_AES_DECRYPT).updateSince(start);
 		}
 		return plainText;
 	}
@@ -0,0 +1,121 @@
+package de.qabel.core.crypto;
+
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bouncycastle.crypto.agreement.X25519Agreement;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+
+/**
+ * Elliptic curve primitives of the Curve25519 crypto suite: X25519 key
+ * agreement, Ed25519 signatures and HKDF key derivation. Keys are handled
+ * in their raw 32 byte encoding. All methods are thread-safe.
+ */
+class Curve25519Utils {
+	private final static Logger logger = LogManager.getLogger(Curve25519Utils.class.getName());
+
+	static final int KEY_SIZE_BYTE = 32;
+	static final int SIGNATURE_SIZE_BYTE = 64;
+	private static final int AES_KEY_SIZE_BYTE = 32;
+
+	private static final SecureRandom secRandom = new SecureRandom();
+
+	private Curve25519Utils() {
+	}
+
+	/**
+	 * Generates a new X25519 private key
+	 * @return raw private key
+	 */
+	static byte[] generateAgreementPrivateKey() {
+		return new X25519PrivateKeyParameters(secRandom).getEncoded();
+	}
+
+	/**
+	 * Generates a new Ed25519 private key
+	 * @return raw private key
+	 */
+	static byte[] generateSigningPrivateKey() {
+		return new Ed25519PrivateKeyParameters(secRandom).getEncoded();
+	}
+
+	static byte[] getAgreementPublicKey(byte[] privateKey) {
+		return new X25519PrivateKeyParameters(privateKey, 0).generatePublicKey().getEncoded();
+	}
+
+	static byte[] getSigningPublicKey(byte[] privateKey) {
+		return new Ed25519PrivateKeyParameters(privateKey, 0).generatePublicKey().getEncoded();
+	}
+
+	/**
+	 * Calculates the X25519 shared secret
+	 * @param privateKey Own raw private key.
+	 * @param publicKey Raw public key of the other party.
+	 * @return shared secret or null if the public key is invalid
+	 */
+	static byte[] agree(byte[] privateKey, byte[] publicKey) {
+		X25519Agreement agreement = new X25519Agreement();
+		agreement.init(new X25519PrivateKeyParameters(privateKey, 0));
+		byte[] secret = new byte[agreement.getAgreementSize()];
+		try {
+			agreement.calculateAgreement(new X25519PublicKeyParameters(publicKey, 0), secret, 0);
+		} catch (IllegalStateException e) {
+			// public key of small order results in an all-zero secret
+			logger.debug("X25519 agreement failed", e);
+			return null;
+		}
+		return secret;
+	}
+
+	/**
+	 * Derives an AES key from a shared secret with HKDF-SHA512
+	 * @param secret Shared secret.
+	 * @param info Context the key is bound to.
+	 * @return AES key
+	 */
+	static SecretKey deriveSymmetricKey(byte[] secret, byte[] info) {
+		HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA512Digest());
+		hkdf.init(new HKDFParameters(secret, null, info));
+		byte[] key = new byte[AES_KEY_SIZE_BYTE];
+		hkdf.generateBytes(key, 0, key.length);
+		return new SecretKeySpec(key, CryptoUtils.SYMM_KEY_ALGORITHM);
+	}
+
+	/**
+	 * Signs data with Ed25519
+	 * @param privateKey Raw signing private key.
+	 * @param data Data to sign.
+	 * @return signature of {@link #SIGNATURE_SIZE_BYTE} bytes
+	 */
+	static byte[] sign(byte[] privateKey, byte[] data) {
+		Ed25519Signer signer = new Ed25519Signer();
+		signer.init(true, new Ed25519PrivateKeyParameters(privateKey, 0));
+		signer.update(data, 0, data.length);
+		return signer.generateSignature();
+	}
+
+	/**
+	 * Validates an Ed25519 signature
+	 * @param publicKey Raw signing public key.
+	 * @param data Signed data.
+	 * @param signature Signature to validate.
+	 * @return is signature valid
+	 */
+	static boolean verify(byte[] publicKey, byte[] data, byte[] signature) {
+		Ed25519Signer signer = new Ed25519Signer();
+		signer.init(false, new Ed25519PublicKeyParameters(publicKey, 0));
+		signer.update(data, 0, data.length);
+		return signer.verifySignature(signature);
+	}
+}
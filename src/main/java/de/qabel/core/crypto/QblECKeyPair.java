@@ -0,0 +1,72 @@
+package de.qabel.core.crypto;
+
+import java.util.Arrays;
+
+/**
+ * Key pairs of the Curve25519 crypto suite: an X25519 key pair for key
+ * agreement and an Ed25519 key pair for signatures.
+ */
+public class QblECKeyPair {
+	private final byte[] agreementPrivateKey;
+	private final byte[] signingPrivateKey;
+	private final QblECPublicKey qblECPublicKey;
+
+	QblECKeyPair() {
+		this(Curve25519Utils.generateAgreementPrivateKey(),
+				Curve25519Utils.generateSigningPrivateKey());
+	}
+
+	QblECKeyPair(byte[] agreementPrivateKey, byte[] signingPrivateKey) {
+		if (agreementPrivateKey.length != Curve25519Utils.KEY_SIZE_BYTE
+				|| signingPrivateKey.length != Curve25519Utils.KEY_SIZE_BYTE) {
+			throw new IllegalArgumentException("Curve25519 keys have to be "
+					+ Curve25519Utils.KEY_SIZE_BYTE + " bytes long");
+		}
+		this.agreementPrivateKey = agreementPrivateKey.clone();
+		this.signingPrivateKey = signingPrivateKey.clone();
+		qblECPublicKey = new QblECPublicKey(
+				Curve25519Utils.getAgreementPublicKey(agreementPrivateKey),
+				Curve25519Utils.getSigningPublicKey(signingPrivateKey));
+	}
+
+	/**
+	 * Returns the public keys
+	 * @return public keys
+	 */
+	public QblECPublicKey getQblECPublicKey() {
+		return qblECPublicKey;
+	}
+
+	byte[] getAgreementPrivateKey() {
+		return agreementPrivateKey.clone();
+	}
+
+	byte[] getSigningPrivateKey() {
+		return signingPrivateKey.clone();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(agreementPrivateKey);
+		result = prime * result + Arrays.hashCode(signingPrivateKey);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		QblECKeyPair other = (QblECKeyPair) obj;
+		if (!Arrays.equals(agreementPrivateKey, other.agreementPrivateKey))
+			return false;
+		if (!Arrays.equals(signingPrivateKey, other.signingPrivateKey))
+			return false;
+		return true;
+	}
+}
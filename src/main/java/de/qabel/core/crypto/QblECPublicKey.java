@@ -0,0 +1,88 @@
+package de.qabel.core.crypto;
+
+import java.util.Arrays;
+
+/**
+ * Public keys of the Curve25519 crypto suite: an X25519 key for key
+ * agreement and an Ed25519 key for signatures. Like sub-keys they are
+ * certified by a signature of the RSA primary key.
+ */
+public class QblECPublicKey {
+	private final byte[] agreementKey;
+	private final byte[] signingKey;
+	private final byte[] publicKeyFingerprint;
+	private byte[] primaryKeySignature;
+
+	QblECPublicKey(byte[] agreementKey, byte[] signingKey) {
+		if (agreementKey.length != Curve25519Utils.KEY_SIZE_BYTE
+				|| signingKey.length != Curve25519Utils.KEY_SIZE_BYTE) {
+			throw new IllegalArgumentException("Curve25519 keys have to be "
+					+ Curve25519Utils.KEY_SIZE_BYTE + " bytes long");
+		}
+		this.agreementKey = agreementKey.clone();
+		this.signingKey = signingKey.clone();
+		publicKeyFingerprint = QblKeyFactory.getInstance().getFingerprint(agreementKey, signingKey);
+	}
+
+	QblECPublicKey(byte[] agreementKey, byte[] signingKey, byte[] primaryKeySignature) {
+		this(agreementKey, signingKey);
+		this.primaryKeySignature = primaryKeySignature;
+	}
+
+	/**
+	 * Returns the raw X25519 public key
+	 * @return key agreement public key
+	 */
+	public byte[] getAgreementKey() {
+		return agreementKey.clone();
+	}
+
+	/**
+	 * Returns the raw Ed25519 public key
+	 * @return signature public key
+	 */
+	public byte[] getSigningKey() {
+		return signingKey.clone();
+	}
+
+	byte[] getPublicKeyFingerprint() {
+		return publicKeyFingerprint;
+	}
+
+	/**
+	 * Returns the signature of the primary key certifying these keys
+	 * @return signature or null if not signed yet
+	 */
+	byte[] getPrimaryKeySignature() {
+		return primaryKeySignature;
+	}
+
+	void setPrimaryKeySignature(byte[] primaryKeySignature) {
+		this.primaryKeySignature = primaryKeySignature;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(agreementKey);
+		result = prime * result + Arrays.hashCode(signingKey);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		QblECPublicKey other = (QblECPublicKey) obj;
+		if (!Arrays.equals(agreementKey, other.agreementKey))
+			return false;
+		if (!Arrays.equals(signingKey, other.signingKey))
+			return false;
+		return true;
+	}
+}
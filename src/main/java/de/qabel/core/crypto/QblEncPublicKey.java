@@ -1,5 +1,6 @@
 package de.qabel.core.crypto;
 
+import java.math.BigInteger;
 import java.security.interfaces.RSAPublicKey;
 
 /**
@@ -15,4 +16,8 @@ public class QblEncPublicKey extends QblSubPublicKey {
 	QblEncPublicKey(RSAPublicKey publicKey, byte[] primaryKeySignature) {
 		super(publicKey, primaryKeySignature);
 	}
+
+	QblEncPublicKey(BigInteger modulus, BigInteger publicExponent, byte[] primaryKeySignature) {
+		super(modulus, publicExponent, primaryKeySignature);
+	}
 }
@@ -0,0 +1,270 @@
+package de.qabel.core.crypto;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.crypto.QblPrimaryPublicKey.PendingSubKey;
+
+/**
+ * Binary serialization of Qabel keys. Numbers are written as unsigned
+ * big-endian magnitudes and byte arrays with a preceding 4 byte length, so
+ * keys can be read directly from a (memory mapped) ByteBuffer without
+ * converting decimal or hex strings.
+ * <p>
+ * Read public keys are materialized lazily like the ones read by
+ * {@link QblPrimaryPublicKeyTypeAdapter}.
+ */
+public class QblKeyBinaryFormat {
+	private final static Logger logger = LogManager.getLogger(QblKeyBinaryFormat.class
+			.getName());
+
+	private static final byte ENC_KEY = 0;
+	private static final byte SIGN_KEY = 1;
+	private static final byte NO_EC_KEY = 0;
+	private static final byte EC_KEY = 1;
+	/**
+	 * Upper bound for the length of a single number or signature, protects
+	 * against allocating huge arrays for corrupt input.
+	 */
+	private static final int MAX_BYTES_LENGTH = 1 << 16;
+
+	/**
+	 * Writes a primary public key including its sub keys.
+	 * @param out Output to write to.
+	 * @param key Key to write.
+	 * @throws IOException
+	 */
+	public void writePrimaryPublicKey(DataOutput out, QblPrimaryPublicKey key) throws IOException {
+		writeNumber(out, key.getModulus());
+		writeNumber(out, key.getPublicExponent());
+
+		List<PendingSubKey> pendingSubKeys = key.getPendingSubKeys();
+		if (pendingSubKeys != null) {
+			// sub keys have not been used, write them without validating
+			out.writeInt(pendingSubKeys.size());
+			for (PendingSubKey subKey : pendingSubKeys) {
+				out.writeByte(subKey.isEncryptionKey() ? ENC_KEY : SIGN_KEY);
+				writeNumber(out, subKey.getModulus());
+				writeNumber(out, subKey.getPublicExponent());
+				writeBytes(out, subKey.getPrimaryKeySignature());
+			}
+			writeECPublicKey(out, key.peekECPublicKey());
+			return;
+		}
+
+		List<QblEncPublicKey> encPublicKeys = key.getEncPublicKeys();
+		List<QblSignPublicKey> signPublicKeys = key.getSignPublicKeys();
+		out.writeInt(encPublicKeys.size() + signPublicKeys.size());
+		for (QblEncPublicKey subKey : encPublicKeys) {
+			out.writeByte(ENC_KEY);
+			writeSubKey(out, subKey);
+		}
+		for (QblSignPublicKey subKey : signPublicKeys) {
+			out.writeByte(SIGN_KEY);
+			writeSubKey(out, subKey);
+		}
+		writeECPublicKey(out, key.getECPublicKey());
+	}
+
+	/**
+	 * Reads a primary public key written by
+	 * {@link #writePrimaryPublicKey(DataOutput, QblPrimaryPublicKey)}. The
+	 * sub keys are validated when they are used first.
+	 * <p>
+	 * The Curve25519 keys have been appended in a later version of the
+	 * format, so the key has to end with the buffer: a buffer ending before
+	 * them is a key without Curve25519 keys.
+	 * @param in Buffer positioned at the key.
+	 * @return primary public key
+	 * @throws IOException if the input is truncated or malformed
+	 */
+	public QblPrimaryPublicKey readPrimaryPublicKey(ByteBuffer in) throws IOException {
+		try {
+			QblPrimaryPublicKey key = new QblPrimaryPublicKey(readNumber(in), readNumber(in));
+			int count = readCount(in);
+			for (int i = 0; i < count; i++) {
+				boolean encryptionKey = readSubKeyType(in) == ENC_KEY;
+				key.addPendingSubKey(new PendingSubKey(encryptionKey,
+						readNumber(in), readNumber(in), readBytes(in)));
+			}
+			if (in.hasRemaining() && readECKeyFlag(in) == EC_KEY) {
+				key.setPendingECPublicKey(new QblECPublicKey(readBytes(in), readBytes(in), readBytes(in)));
+			}
+			return key;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated public key", e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid EC public key", e);
+		}
+	}
+
+	/**
+	 * Writes a primary key pair including its sub key pairs.
+	 * @param out Output to write to.
+	 * @param keyPair Key pair to write.
+	 * @throws IOException
+	 */
+	public void writePrimaryKeyPair(DataOutput out, QblPrimaryKeyPair keyPair) throws IOException {
+		writeKeyPair(out, keyPair.getQblPrimaryPublicKey(), keyPair);
+
+		List<QblEncKeyPair> encKeyPairs = keyPair.getEncKeyPairs();
+		out.writeInt(encKeyPairs.size());
+		for (QblEncKeyPair pair : encKeyPairs) {
+			writeKeyPair(out, pair.getQblEncPublicKey(), pair);
+		}
+
+		List<QblSignKeyPair> signKeyPairs = keyPair.getSignKeyPairs();
+		out.writeInt(signKeyPairs.size());
+		for (QblSignKeyPair pair : signKeyPairs) {
+			writeKeyPair(out, pair.getQblSignPublicKey(), pair);
+		}
+
+		QblECKeyPair ecKeyPair = keyPair.getECKeyPair();
+		if (ecKeyPair == null) {
+			out.writeByte(NO_EC_KEY);
+		} else {
+			out.writeByte(EC_KEY);
+			writeBytes(out, ecKeyPair.getAgreementPrivateKey());
+			writeBytes(out, ecKeyPair.getSigningPrivateKey());
+		}
+	}
+
+	/**
+	 * Reads a primary key pair written by
+	 * {@link #writePrimaryKeyPair(DataOutput, QblPrimaryKeyPair)}. Like
+	 * public keys, the key pair has to end with the buffer.
+	 * @param in Buffer positioned at the key pair.
+	 * @return primary key pair or null if the keys are invalid
+	 * @throws IOException if the input is truncated or malformed
+	 */
+	public QblPrimaryKeyPair readPrimaryKeyPair(ByteBuffer in) throws IOException {
+		QblKeyFactory keyFactory = QblKeyFactory.getInstance();
+		try {
+			BigInteger modulus = readNumber(in);
+			BigInteger publicExponent = readNumber(in);
+			BigInteger privateExponent = readNumber(in);
+			QblPrimaryKeyPair primaryKeyPair =
+					keyFactory.createQblPrimaryKeyPair(modulus, privateExponent, publicExponent);
+
+			int encCount = readCount(in);
+			for (int i = 0; i < encCount; i++) {
+				modulus = readNumber(in);
+				publicExponent = readNumber(in);
+				privateExponent = readNumber(in);
+				primaryKeyPair.attachEncKeyPair(
+						keyFactory.createQblEncKeyPair(modulus, privateExponent, publicExponent));
+			}
+
+			int signCount = readCount(in);
+			for (int i = 0; i < signCount; i++) {
+				modulus = readNumber(in);
+				publicExponent = readNumber(in);
+				privateExponent = readNumber(in);
+				primaryKeyPair.attachSignKeyPair(
+						keyFactory.createQblSignKeyPair(modulus, privateExponent, publicExponent));
+			}
+
+			if (in.hasRemaining() && readECKeyFlag(in) == EC_KEY) {
+				primaryKeyPair.attachECKeyPair(new QblECKeyPair(readBytes(in), readBytes(in)));
+			}
+			return primaryKeyPair;
+		} catch (InvalidKeySpecException e) {
+			logger.error("Read key pair is invalid!", e);
+			return null;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated key pair", e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid EC key pair", e);
+		}
+	}
+
+	private void writeSubKey(DataOutput out, QblSubPublicKey key) throws IOException {
+		writeNumber(out, key.getModulus());
+		writeNumber(out, key.getPublicExponent());
+		writeBytes(out, key.getPrimaryKeySignature());
+	}
+
+	private void writeKeyPair(DataOutput out, QblPublicKey publicKey, QblKeyPair keyPair)
+			throws IOException {
+		writeNumber(out, publicKey.getModulus());
+		writeNumber(out, publicKey.getPublicExponent());
+		writeNumber(out, keyPair.getRSAPrivateKey().getPrivateExponent());
+	}
+
+	private void writeECPublicKey(DataOutput out, QblECPublicKey key) throws IOException {
+		if (key == null) {
+			out.writeByte(NO_EC_KEY);
+			return;
+		}
+		out.writeByte(EC_KEY);
+		writeBytes(out, key.getAgreementKey());
+		writeBytes(out, key.getSigningKey());
+		writeBytes(out, key.getPrimaryKeySignature());
+	}
+
+	private byte readECKeyFlag(ByteBuffer in) throws IOException {
+		byte flag = in.get();
+		if (flag != NO_EC_KEY && flag != EC_KEY) {
+			throw new IOException("Unknown EC key flag " + flag);
+		}
+		return flag;
+	}
+
+	private byte readSubKeyType(ByteBuffer in) throws IOException {
+		byte type = in.get();
+		if (type != ENC_KEY && type != SIGN_KEY) {
+			throw new IOException("Unknown sub key type " + type);
+		}
+		return type;
+	}
+
+	private int readCount(ByteBuffer in) throws IOException {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining()) {
+			throw new IOException("Invalid number of keys " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the unsigned big-endian magnitude of a non-negative number.
+	 */
+	private void writeNumber(DataOutput out, BigInteger number) throws IOException {
+		byte[] bytes = number.toByteArray();
+		if (bytes.length > 1 && bytes[0] == 0) {
+			// strip the sign byte
+			out.writeInt(bytes.length - 1);
+			out.write(bytes, 1, bytes.length - 1);
+		} else {
+			writeBytes(out, bytes);
+		}
+	}
+
+	private BigInteger readNumber(ByteBuffer in) throws IOException {
+		return new BigInteger(1, readBytes(in));
+	}
+
+	private void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private byte[] readBytes(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length < 0 || length > MAX_BYTES_LENGTH || length > in.remaining()) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+}
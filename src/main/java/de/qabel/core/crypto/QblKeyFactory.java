@@ -1,12 +1,11 @@
 package de.qabel.core.crypto;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Security;
@@ -32,30 +31,81 @@ public class QblKeyFactory {
 	private final static String CRYPTOGRAPHIC_PROVIDER = "BC"; // BouncyCastle
 	private final static String KEY_ALGORITHM = "RSA";
 	private final static int RSA_KEY_SIZE_BIT = 2048;
-	private KeyFactory keyFactory;
-	private KeyPairGenerator keyPairGen;
-	private CryptoUtils cryptoUtils;
+	private final static String FINGERPRINT_DIGEST_ALGORITHM = "SHA-512";
+	/**
+	 * Keys of contacts are created lazily from any thread and KeyFactory is
+	 * not thread-safe, so every thread uses its own instance.
+	 */
+	private final ThreadLocal<KeyFactory> keyFactory = new ThreadLocal<KeyFactory>() {
+		@Override
+		protected KeyFactory initialValue() {
+			try {
+				return KeyFactory.getInstance(KEY_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				logger.error("Cannot find selected algorithm! " + e.getMessage());
+				throw new RuntimeException("Cannot find selected algorithm!", e);
+			}
+		}
+	};
+	/**
+	 * Key pairs are generated concurrently by the key pool, so every thread
+	 * uses its own generator.
+	 */
+	private final ThreadLocal<KeyPairGenerator> keyPairGen = new ThreadLocal<KeyPairGenerator>() {
+		@Override
+		protected KeyPairGenerator initialValue() {
+			try {
+				KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM,
+						CRYPTOGRAPHIC_PROVIDER);
+				generator.initialize(RSA_KEY_SIZE_BIT);
+				return generator;
+			} catch (NoSuchAlgorithmException e) {
+				logger.error("Cannot find selected algorithm! " + e.getMessage());
+				throw new RuntimeException("Cannot find selected algorithm!", e);
+			} catch (NoSuchProviderException e) {
+				logger.error("Cannot find selected provider! " + e.getMessage());
+				throw new RuntimeException("Cannot find selected provider!", e);
+			}
+		}
+	};
+	private volatile QblKeyPool keyPool;
+	/**
+	 * CryptoUtils hold Signature instances which are not thread-safe, so
+	 * every thread signs and validates sub keys with its own instance.
+	 */
+	private final ThreadLocal<CryptoUtils> cryptoUtils = new ThreadLocal<CryptoUtils>() {
+		@Override
+		protected CryptoUtils initialValue() {
+			return new CryptoUtils();
+		}
+	};
+	private final QblSubKeySignatureCache signatureCache = new QblSubKeySignatureCache();
+	/**
+	 * Digest used to calculate fingerprints. MessageDigest is not thread-safe,
+	 * so every thread uses its own instance instead of locking the factory.
+	 */
+	private final ThreadLocal<MessageDigest> fingerprintDigest = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance(FINGERPRINT_DIGEST_ALGORITHM, CRYPTOGRAPHIC_PROVIDER);
+			} catch (NoSuchAlgorithmException e) {
+				logger.error("Cannot find selected algorithm! " + e.getMessage());
+				throw new RuntimeException("Cannot find selected algorithm!", e);
+			} catch (NoSuchProviderException e) {
+				logger.error("Cannot find selected provider! " + e.getMessage());
+				throw new RuntimeException("Cannot find selected provider!", e);
+			}
+		}
+	};
 
 	private final static Logger logger = LogManager
 			.getLogger(QblKeyFactory.class.getName());
 
 	private QblKeyFactory() {
-		try {
-			Security.addProvider(new BouncyCastleProvider());
-			
-			cryptoUtils = new CryptoUtils();
-			
-			keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
-			keyPairGen = KeyPairGenerator.getInstance(KEY_ALGORITHM,
-					CRYPTOGRAPHIC_PROVIDER);
-			keyPairGen.initialize(RSA_KEY_SIZE_BIT);
-		} catch (NoSuchAlgorithmException e) {
-			logger.error("Cannot find selected algorithm! " + e.getMessage());
-			throw new RuntimeException("Cannot find selected algorithm!", e);
-		} catch (NoSuchProviderException e) {
-			logger.error("Cannot find selected provider! " + e.getMessage());
-			throw new RuntimeException("Cannot find selected provider!", e);
-		}
+		Security.addProvider(new BouncyCastleProvider());
+		// fail early if the algorithm is not available
+		keyFactory.get();
 	}
 
 	public static QblKeyFactory getInstance() {
@@ -63,12 +113,45 @@ public class QblKeyFactory {
 	}
 
 	/**
-	 * Returns a new KeyPair
+	 * Returns a new KeyPair, taken from the key pool if one is set
 	 * 
 	 * @return KeyPair
 	 */
 	KeyPair generateKeyPair() {
-		return keyPairGen.generateKeyPair();
+		QblKeyPool pool = keyPool;
+		if (pool != null) {
+			return pool.take();
+		}
+		return generateFreshKeyPair();
+	}
+
+	/**
+	 * Generates a new KeyPair on the calling thread
+	 * 
+	 * @return KeyPair
+	 */
+	KeyPair generateFreshKeyPair() {
+		return keyPairGen.get().generateKeyPair();
+	}
+
+	/**
+	 * Sets a pool of pre-generated key pairs used for all new keys. The
+	 * previous pool is not shut down.
+	 * 
+	 * @param keyPool
+	 *            Pool to take key pairs from or null to generate them on demand
+	 */
+	public void setKeyPool(QblKeyPool keyPool) {
+		this.keyPool = keyPool;
+	}
+
+	/**
+	 * Returns the pool of pre-generated key pairs
+	 * 
+	 * @return key pool or null if key pairs are generated on demand
+	 */
+	public QblKeyPool getKeyPool() {
+		return keyPool;
 	}
 	
 	/**
@@ -80,16 +163,18 @@ public class QblKeyFactory {
 	 *            Primary key pair to sign with
 	 * @return byte[ ] with the signature. Can be null.
 	 */
-	synchronized byte[] rsaSignKeyPair(QblKeyPair qkp, QblPrimaryKeyPair qpkp) {
+	byte[] rsaSignKeyPair(QblKeyPair qkp, QblPrimaryKeyPair qpkp) {
 
 		if (qkp == null || qpkp == null) {
 			return null;
 		}
-		return cryptoUtils.rsaSign(qkp.getPublicKeyFingerprint(), qpkp.getRSAPrivateKey());
+		return cryptoUtils.get().rsaSign(qkp.getPublicKeyFingerprint(), qpkp.getRSAPrivateKey());
 	}
 
 	/**
-	 * Validates a signature from a sub-public key with a primary public key
+	 * Validates a signature from a sub-public key with a primary public key.
+	 * Successfully validated signatures are remembered in the signature
+	 * cache and not validated again.
 	 * 
 	 * @param subKey
 	 *            Sub-public key to validate
@@ -98,30 +183,107 @@ public class QblKeyFactory {
 	 * @return is signature valid
 	 * @throws InvalidKeyException
 	 */
-	synchronized boolean rsaValidateKeySignature(QblSubPublicKey subKey,
+	boolean rsaValidateKeySignature(QblSubPublicKey subKey,
 			QblPrimaryPublicKey primaryKey) throws InvalidKeyException {
 
 		if (subKey == null || primaryKey == null) {
 			return false;
 		}
-		return cryptoUtils.rsaValidateSignature(subKey.getPublicKeyFingerprint(),
-				subKey.getPrimaryKeySignature(), primaryKey.getRSAPublicKey());
+		return validateSignatureCached(primaryKey, subKey.getPublicKeyFingerprint(),
+				subKey.getPrimaryKeySignature());
+	}
+
+	private boolean validateSignatureCached(QblPrimaryPublicKey primaryKey,
+			byte[] subKeyFingerprint, byte[] signature) throws InvalidKeyException {
+		if (signature == null) {
+			return false;
+		}
+		byte[] primaryFingerprint = primaryKey.getPublicKeyFingerprint();
+		if (signatureCache.isVerified(primaryFingerprint, subKeyFingerprint, signature)) {
+			return true;
+		}
+		boolean valid = cryptoUtils.get().rsaValidateSignature(subKeyFingerprint,
+				signature, primaryKey.getRSAPublicKey());
+		if (valid) {
+			signatureCache.putVerified(primaryFingerprint, subKeyFingerprint, signature);
+		}
+		return valid;
+	}
+
+	/**
+	 * Signs the Curve25519 public keys with a primary key
+	 * 
+	 * @param ecPublicKey
+	 *            Curve25519 public keys to sign
+	 * @param qpkp
+	 *            Primary key pair to sign with
+	 * @return byte[ ] with the signature. Can be null.
+	 */
+	byte[] rsaSignECKey(QblECPublicKey ecPublicKey, QblPrimaryKeyPair qpkp) {
+		if (ecPublicKey == null || qpkp == null) {
+			return null;
+		}
+		return cryptoUtils.get().rsaSign(ecPublicKey.getPublicKeyFingerprint(), qpkp.getRSAPrivateKey());
+	}
+
+	/**
+	 * Validates the signature of Curve25519 public keys with a primary public
+	 * key. Like sub-key signatures, validated signatures are cached.
+	 * 
+	 * @param ecPublicKey
+	 *            Curve25519 public keys to validate
+	 * @param primaryKey
+	 *            Primary public key to validate signature with
+	 * @return is signature valid
+	 * @throws InvalidKeyException
+	 */
+	boolean rsaValidateECKeySignature(QblECPublicKey ecPublicKey,
+			QblPrimaryPublicKey primaryKey) throws InvalidKeyException {
+		if (ecPublicKey == null || primaryKey == null) {
+			return false;
+		}
+		return validateSignatureCached(primaryKey, ecPublicKey.getPublicKeyFingerprint(),
+				ecPublicKey.getPrimaryKeySignature());
+	}
+
+	/**
+	 * Returns the cache of validated sub key signatures. Applications can
+	 * persist it to skip the validation of known contacts on the next start.
+	 * 
+	 * @return signature cache
+	 */
+	public QblSubKeySignatureCache getSignatureCache() {
+		return signatureCache;
 	}
 	
 	/**
 	 * Generates the public key fingerprint as a SHA512 digest
 	 * of the public key modulus and exponent
 	 */
-	synchronized byte[] getFingerprint(RSAPublicKey publicKey) {
-		ByteArrayOutputStream bs = new ByteArrayOutputStream();
-		try {
-			bs.write((publicKey.getPublicExponent().toByteArray()));
-			bs.write((publicKey.getModulus().toByteArray()));
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return cryptoUtils.getSHA512sum(bs.toByteArray());
+	byte[] getFingerprint(RSAPublicKey publicKey) {
+		return getFingerprint(publicKey.getModulus(), publicKey.getPublicExponent());
+	}
+
+	/**
+	 * Generates the public key fingerprint as a SHA512 digest
+	 * of the public key modulus and exponent
+	 */
+	byte[] getFingerprint(BigInteger modulus, BigInteger publicExponent) {
+		MessageDigest digest = fingerprintDigest.get();
+		digest.update(publicExponent.toByteArray());
+		digest.update(modulus.toByteArray());
+		return digest.digest();
+	}
+
+	/**
+	 * Generates the fingerprint of Curve25519 public keys as a SHA512 digest
+	 * of the key agreement and the signature key
+	 */
+	byte[] getFingerprint(byte[] agreementKey, byte[] signingKey) {
+		MessageDigest digest = fingerprintDigest.get();
+		digest.update(agreementKey);
+		digest.update(signingKey);
+		return digest.digest();
 	}
 	
 	/**
@@ -137,7 +299,7 @@ public class QblKeyFactory {
 	 */
 	private RSAPrivateKey generateRSAPrivateKey(BigInteger modulus,
 			BigInteger privateExponent) throws InvalidKeySpecException {
-		return (RSAPrivateKey) keyFactory
+		return (RSAPrivateKey) keyFactory.get()
 				.generatePrivate(new RSAPrivateKeySpec(modulus, privateExponent));
 	}
 
@@ -152,9 +314,9 @@ public class QblKeyFactory {
 	 * @throws InvalidKeySpecException
 	 *             if modulus or exponent are invalid for RSA keys
 	 */
-	private RSAPublicKey generateRSAPublicKey(BigInteger modulus,
+	RSAPublicKey generateRSAPublicKey(BigInteger modulus,
 			BigInteger publicExponent) throws InvalidKeySpecException {
-		return (RSAPublicKey) keyFactory.generatePublic(new RSAPublicKeySpec(
+		return (RSAPublicKey) keyFactory.get().generatePublic(new RSAPublicKeySpec(
 				modulus, publicExponent));
 	}
 
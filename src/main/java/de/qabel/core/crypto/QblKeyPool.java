@@ -0,0 +1,142 @@
+package de.qabel.core.crypto;
+
+import java.security.KeyPair;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pool of RSA key pairs generated ahead of time by low priority background
+ * threads. Generating a QblPrimaryKeyPair needs three key pairs, which takes
+ * seconds when they are generated on demand.
+ * <p>
+ * A pool is used after it has been set with
+ * {@link QblKeyFactory#setKeyPool(QblKeyPool)}. Every taken key pair is
+ * replaced in the background. If the pool is empty, the key pair is
+ * generated on the calling thread instead of waiting for the pool.
+ */
+public class QblKeyPool {
+	private final static Logger logger = LogManager.getLogger(QblKeyPool.class.getName());
+
+	/**
+	 * Key pairs for two identities
+	 */
+	public static final int DEFAULT_DEPTH = 6;
+
+	private final int depth;
+	private final BlockingQueue<KeyPair> keyPairs = new LinkedBlockingQueue<KeyPair>();
+	/**
+	 * Number of key pairs which are being generated or waiting for a thread.
+	 */
+	private final AtomicInteger scheduled = new AtomicInteger();
+	private final ExecutorService executor;
+	private volatile boolean shutdown;
+
+	/**
+	 * Creates a pool of {@link #DEFAULT_DEPTH} key pairs, generated by one
+	 * thread per available processor.
+	 */
+	public QblKeyPool() {
+		this(DEFAULT_DEPTH, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a pool and starts filling it.
+	 * @param depth Number of key pairs to keep available.
+	 * @param threads Number of threads generating key pairs in parallel.
+	 */
+	public QblKeyPool(int depth, int threads) {
+		if (depth < 0 || threads < 1) {
+			throw new IllegalArgumentException("Invalid depth or number of threads");
+		}
+		this.depth = depth;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "qabel-key-pool-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		fill();
+	}
+
+	/**
+	 * Takes a key pair out of the pool and schedules its replacement.
+	 * @return pre-generated key pair or a key pair generated on the calling
+	 *         thread if the pool is empty
+	 */
+	KeyPair take() {
+		KeyPair keyPair = keyPairs.poll();
+		fill();
+		if (keyPair == null) {
+			logger.debug("Key pool is empty, generating key pair on demand");
+			keyPair = QblKeyFactory.getInstance().generateFreshKeyPair();
+		}
+		return keyPair;
+	}
+
+	/**
+	 * Returns the number of key pairs available without waiting.
+	 * @return available key pairs
+	 */
+	public int size() {
+		return keyPairs.size();
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Stops the generation of key pairs. Key pairs already in the pool can
+	 * still be taken.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Schedules the generation of key pairs until the pool holds or
+	 * will hold depth key pairs.
+	 */
+	private void fill() {
+		while (!shutdown) {
+			int pending = scheduled.get();
+			if (keyPairs.size() + pending >= depth) {
+				return;
+			}
+			if (!scheduled.compareAndSet(pending, pending + 1)) {
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							keyPairs.add(QblKeyFactory.getInstance().generateFreshKeyPair());
+						} catch (RuntimeException e) {
+							logger.error("Cannot generate key pair for the pool!", e);
+						} finally {
+							scheduled.decrementAndGet();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				scheduled.decrementAndGet();
+				return;
+			}
+		}
+	}
+}
@@ -21,6 +21,10 @@ public class QblPrimaryKeyPair extends QblKeyPair {
 	private List<QblSignKeyPair> signKeyPairs;
 	private List<RSAPrivateKey> signPrivateKeys;
 	private List<QblSignPublicKey> signPublicKeys;
+	/**
+	 * Keys of the Curve25519 crypto suite or null if not generated
+	 */
+	private QblECKeyPair ecKeyPair;
 	
 	QblPrimaryKeyPair() {
 		super();
@@ -39,6 +43,7 @@ public class QblPrimaryKeyPair extends QblKeyPair {
 		
 		generateEncKeyPair();
 		generateSignKeyPair();
+		generateECKeyPair();
 	}
 
 	QblPrimaryKeyPair(RSAPrivateKey privateKey, RSAPublicKey publicKey) {
@@ -117,6 +122,37 @@ public class QblPrimaryKeyPair extends QblKeyPair {
 		}
 	}
 
+	/**
+	 * Generates new keys of the Curve25519 crypto suite, replacing existing ones.
+	 */
+	public void generateECKeyPair() {
+		attachECKeyPair(new QblECKeyPair());
+	}
+
+	/**
+	 * Signs and attaches keys of the Curve25519 crypto suite, replacing existing ones.
+	 * @param ecKeyPair Keys to attach.
+	 */
+	public void attachECKeyPair(QblECKeyPair ecKeyPair) {
+		QblECPublicKey ecPublicKey = ecKeyPair.getQblECPublicKey();
+		ecPublicKey.setPrimaryKeySignature(QblKeyFactory.getInstance()
+				.rsaSignECKey(ecPublicKey, this));
+		this.ecKeyPair = ecKeyPair;
+		try {
+			qblPrimaryPublicKey.attachECPublicKey(ecPublicKey);
+		} catch (InvalidKeyException e) {
+			throw new RuntimeException("Newly created EC key has invalid signature.", e);
+		}
+	}
+
+	/**
+	 * Returns the keys of the Curve25519 crypto suite
+	 * @return keys or null if none have been generated
+	 */
+	public QblECKeyPair getECKeyPair() {
+		return ecKeyPair;
+	}
+
 	public List<QblEncKeyPair> getEncKeyPairs() {
 		return encKeyPairs;
 	}
@@ -187,6 +223,8 @@ public class QblPrimaryKeyPair extends QblKeyPair {
 						.hashCode());
 		result = prime * result
 				+ ((signKeyPairs == null) ? 0 : signKeyPairs.hashCode());
+		result = prime * result
+				+ ((ecKeyPair == null) ? 0 : ecKeyPair.hashCode());
 		return result;
 	}
 
@@ -214,6 +252,11 @@ public class QblPrimaryKeyPair extends QblKeyPair {
 				return false;
 		} else if (!signKeyPairs.equals(other.signKeyPairs))
 			return false;
+		if (ecKeyPair == null) {
+			if (other.ecKeyPair != null)
+				return false;
+		} else if (!ecKeyPair.equals(other.ecKeyPair))
+			return false;
 		return true;
 	}
 }
@@ -6,12 +6,19 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair> {
+	private final static Logger logger = LogManager.getLogger(QblPrimaryKeyPairTypeAdapter.class
+			.getName());
 
 	@Override
 	public void write(JsonWriter out, QblPrimaryKeyPair value) throws IOException {
@@ -61,6 +68,17 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 			out.endObject();
 		}
 		out.endArray();
+
+		QblECKeyPair ecKeyPair = value.getECKeyPair();
+		if (ecKeyPair != null) {
+			out.name("ec_key");
+			out.beginObject();
+			out.name("agreement_private_key");
+			out.value(DatatypeConverter.printHexBinary(ecKeyPair.getAgreementPrivateKey()));
+			out.name("signing_private_key");
+			out.value(DatatypeConverter.printHexBinary(ecKeyPair.getSigningPrivateKey()));
+			out.endObject();
+		}
 		
 		out.endObject();
 		
@@ -77,6 +95,7 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 		QblPrimaryKeyPair primaryKeyPair = null;
 		List<QblEncKeyPair> encKeyPairs = null;
 		List<QblSignKeyPair> signKeyPairs = null;
+		QblECKeyPair ecKeyPair = null;
 		if(in.peek() == JsonToken.NULL) {
 			in.nextNull();
 			return null;
@@ -109,6 +128,14 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 				}
 				in.endArray();
 				break;
+			case "ec_key":
+				in.beginObject();
+				ecKeyPair = readECKeyPair(in);
+				in.endObject();
+				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
 		in.endObject();
@@ -123,6 +150,9 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 		for(QblSignKeyPair pair : signKeyPairs) {
 			primaryKeyPair.attachSignKeyPair(pair);
 		}
+		if (ecKeyPair != null) {
+			primaryKeyPair.attachECKeyPair(ecKeyPair);
+		}
 		
 		return primaryKeyPair;
 	}
@@ -153,12 +183,40 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 		try {
 			return keyFactory.createQblPrimaryKeyPair(new BigInteger(modulus), new BigInteger(privateExponent), new BigInteger(publicExponent));
 		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Read QblPrimaryKeyPair is invalid!", e);
 		}
 		return null;
 	}
 	
+	private QblECKeyPair readECKeyPair(JsonReader in) throws IOException {
+		String agreementPrivateKey = null;
+		String signingPrivateKey = null;
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+			case "agreement_private_key":
+				agreementPrivateKey = in.nextString();
+				break;
+			case "signing_private_key":
+				signingPrivateKey = in.nextString();
+				break;
+			default:
+				in.skipValue();
+				break;
+			}
+		}
+
+		if(agreementPrivateKey == null || signingPrivateKey == null) {
+			return null;
+		}
+		try {
+			return new QblECKeyPair(DatatypeConverter.parseHexBinary(agreementPrivateKey),
+					DatatypeConverter.parseHexBinary(signingPrivateKey));
+		} catch (IllegalArgumentException e) {
+			logger.error("Read EC key pair is invalid!", e);
+			return null;
+		}
+	}
+	
 	private QblEncKeyPair readEncKeyPair(JsonReader in) throws IOException {
 		QblKeyFactory keyFactory = QblKeyFactory.getInstance();
 		String modulus = null;
@@ -185,8 +243,7 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 		try {
 			return keyFactory.createQblEncKeyPair(new BigInteger(modulus), new BigInteger(privateExponent), new BigInteger(publicExponent));
 		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Read QblEncKeyPair is invalid!", e);
 		}
 		return null;
 	}
@@ -216,8 +273,7 @@ public class QblPrimaryKeyPairTypeAdapter extends TypeAdapter<QblPrimaryKeyPair>
 		try {
 			return keyFactory.createQblSignKeyPair(new BigInteger(modulus), new BigInteger(privateExponent), new BigInteger(publicExponent));
 		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Read QblSignKeyPair is invalid!", e);
 		}
 		return null;
 	}
@@ -1,21 +1,42 @@
 package de.qabel.core.crypto;
 
+import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.bind.DatatypeConverter;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * A QblPrimaryPublicKey represents a contact. This primary public key can be
  * used to identify valid encryption and signature sub-keys.
+ * <p>
+ * Keys are equal if their primary keys are equal. The sub keys are
+ * certified by the primary key and not compared, so equality and hash code
+ * neither validate pending sub keys nor change when they are attached.
  */
 public class QblPrimaryPublicKey extends QblPublicKey {
 
 	private List<QblEncPublicKey> encPublicKeys;
 	private List<QblSignPublicKey> signPublicKeys;
+	/**
+	 * Serialized sub keys which have not been validated and attached yet or
+	 * null if all sub keys are attached.
+	 */
+	private transient List<PendingSubKey> pendingSubKeys;
+	/**
+	 * Keys of the Curve25519 crypto suite or null if the contact does not
+	 * support it.
+	 */
+	private QblECPublicKey ecPublicKey;
+	/**
+	 * Read Curve25519 keys which have not been validated yet.
+	 */
+	private transient QblECPublicKey pendingECPublicKey;
 	
 	private final static Logger logger = LogManager.getLogger(QblPrimaryPublicKey.class
 			.getName());
@@ -26,6 +47,128 @@ public class QblPrimaryPublicKey extends QblPublicKey {
 		signPublicKeys = new ArrayList<QblSignPublicKey>();
 	}
 
+	QblPrimaryPublicKey(BigInteger modulus, BigInteger publicExponent) {
+		super(modulus, publicExponent);
+		encPublicKeys = new ArrayList<QblEncPublicKey>();
+		signPublicKeys = new ArrayList<QblSignPublicKey>();
+	}
+
+	/**
+	 * Adds a serialized sub key. It is parsed, validated and attached when
+	 * the sub keys are accessed first, so loading many keys stays cheap.
+	 *
+	 * @param subKey Serialized sub key.
+	 */
+	synchronized void addPendingSubKey(PendingSubKey subKey) {
+		if (pendingSubKeys == null) {
+			pendingSubKeys = new ArrayList<PendingSubKey>();
+		}
+		pendingSubKeys.add(subKey);
+	}
+
+	/**
+	 * Returns the serialized sub keys if none of them has been accessed yet.
+	 * They can be serialized again without parsing them.
+	 *
+	 * @return copy of the pending sub keys or null if the sub keys have been attached.
+	 */
+	synchronized List<PendingSubKey> getPendingSubKeys() {
+		if (pendingSubKeys == null) {
+			return null;
+		}
+		return new ArrayList<PendingSubKey>(pendingSubKeys);
+	}
+
+	/**
+	 * Sets read Curve25519 keys. They are validated and attached together
+	 * with the pending sub keys.
+	 *
+	 * @param ecPublicKey Read Curve25519 keys.
+	 */
+	synchronized void setPendingECPublicKey(QblECPublicKey ecPublicKey) {
+		pendingECPublicKey = ecPublicKey;
+	}
+
+	/**
+	 * Returns the Curve25519 keys without validating pending ones, so they can
+	 * be serialized again without validation.
+	 *
+	 * @return attached or pending keys or null if there are none
+	 */
+	synchronized QblECPublicKey peekECPublicKey() {
+		return ecPublicKey != null ? ecPublicKey : pendingECPublicKey;
+	}
+
+	/**
+	 * Validates and attaches the pending sub keys. Invalid sub keys are dropped.
+	 */
+	private synchronized void attachPendingSubKeys() {
+		QblECPublicKey pendingEC = pendingECPublicKey;
+		if (pendingEC != null) {
+			pendingECPublicKey = null;
+			try {
+				if (!setValidECPublicKey(pendingEC)) {
+					logger.error("Read EC public key is invalid!");
+				}
+			} catch (InvalidKeyException e) {
+				logger.error("Read EC public key is invalid!", e);
+			}
+		}
+		List<PendingSubKey> pending = pendingSubKeys;
+		if (pending == null) {
+			return;
+		}
+		pendingSubKeys = null;
+		for (PendingSubKey subKey : pending) {
+			try {
+				boolean attached;
+				if (subKey.isEncryptionKey()) {
+					attached = attachEncPublicKey(new QblEncPublicKey(subKey.getModulus(),
+							subKey.getPublicExponent(), subKey.getPrimaryKeySignature()));
+				} else {
+					attached = attachSignPublicKey(new QblSignPublicKey(subKey.getModulus(),
+							subKey.getPublicExponent(), subKey.getPrimaryKeySignature()));
+				}
+				if (!attached) {
+					logger.error("Read public key is invalid!");
+				}
+			} catch (InvalidKeyException | IllegalArgumentException e) {
+				logger.error("Read public key is invalid!", e);
+			}
+		}
+	}
+
+	/**
+	 * Attach the keys of the Curve25519 crypto suite, replacing existing ones
+	 *
+	 * @param ecPublicKey Curve25519 keys to attach.
+	 * @return keys are valid and successfully attached
+	 * @throws InvalidKeyException
+	 */
+	public synchronized boolean attachECPublicKey(QblECPublicKey ecPublicKey) throws InvalidKeyException {
+		attachPendingSubKeys();
+		return setValidECPublicKey(ecPublicKey);
+	}
+
+	private boolean setValidECPublicKey(QblECPublicKey ecPublicKey) throws InvalidKeyException {
+		if (QblKeyFactory.getInstance().rsaValidateECKeySignature(ecPublicKey, this)) {
+			this.ecPublicKey = ecPublicKey;
+			return true;
+		}
+		logger.debug("Didn't attach QblECPublicKey due to invalid signature");
+		return false;
+	}
+
+	/**
+	 * Returns the keys of the Curve25519 crypto suite
+	 *
+	 * @return keys or null if the owner of this key does not support the suite
+	 */
+	public synchronized QblECPublicKey getECPublicKey() {
+		attachPendingSubKeys();
+		return ecPublicKey;
+	}
+
 	/**
 	 * Attach a new encryption public key to the list of known public keys
 	 * 
@@ -34,7 +177,8 @@ public class QblPrimaryPublicKey extends QblPublicKey {
 	 *         public keys
 	 * @throws InvalidKeyException 
 	 */
-	public boolean attachEncPublicKey(QblEncPublicKey encPublicKey) throws InvalidKeyException {
+	public synchronized boolean attachEncPublicKey(QblEncPublicKey encPublicKey) throws InvalidKeyException {
+		attachPendingSubKeys();
 		if (QblKeyFactory.getInstance().rsaValidateKeySignature(encPublicKey,
 				this)) {
 			encPublicKeys.add(encPublicKey);
@@ -52,7 +196,8 @@ public class QblPrimaryPublicKey extends QblPublicKey {
 	 *         public keys
 	 * @throws InvalidKeyException 
 	 */
-	public boolean attachSignPublicKey(QblSignPublicKey signPublicKey) throws InvalidKeyException {
+	public synchronized boolean attachSignPublicKey(QblSignPublicKey signPublicKey) throws InvalidKeyException {
+		attachPendingSubKeys();
 		if (QblKeyFactory.getInstance().rsaValidateKeySignature(signPublicKey,
 				this)) {
 			signPublicKeys.add(signPublicKey);
@@ -63,43 +208,79 @@ public class QblPrimaryPublicKey extends QblPublicKey {
 	}
 	
 	public List<QblEncPublicKey> getEncPublicKeys(){
+		attachPendingSubKeys();
 		return encPublicKeys;
 	}
 
 	public List<QblSignPublicKey> getSignPublicKeys(){
+		attachPendingSubKeys();
 		return signPublicKeys;
 	}
 
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result
-				+ ((encPublicKeys == null) ? 0 : encPublicKeys.hashCode());
-		result = prime * result
-				+ ((signPublicKeys == null) ? 0 : signPublicKeys.hashCode());
-		return result;
-	}
+	/**
+	 * Sub key in its serialized form: either decimal modulus and exponent and
+	 * the hex encoded signature created by the primary key, or the already
+	 * decoded values read from a binary format.
+	 */
+	static class PendingSubKey {
+		private final boolean encryptionKey;
+		private final String modulus;
+		private final String publicExponent;
+		private final String primaryKeySignature;
+		private final BigInteger decodedModulus;
+		private final BigInteger decodedPublicExponent;
+		private final byte[] decodedPrimaryKeySignature;
 
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		QblPrimaryPublicKey other = (QblPrimaryPublicKey) obj;
-		if (encPublicKeys == null) {
-			if (other.encPublicKeys != null)
-				return false;
-		} else if (!encPublicKeys.equals(other.encPublicKeys))
-			return false;
-		if (signPublicKeys == null) {
-			if (other.signPublicKeys != null)
-				return false;
-		} else if (!signPublicKeys.equals(other.signPublicKeys))
-			return false;
-		return true;
+		PendingSubKey(boolean encryptionKey, String modulus, String publicExponent,
+				String primaryKeySignature) {
+			this.encryptionKey = encryptionKey;
+			this.modulus = modulus;
+			this.publicExponent = publicExponent;
+			this.primaryKeySignature = primaryKeySignature;
+			this.decodedModulus = null;
+			this.decodedPublicExponent = null;
+			this.decodedPrimaryKeySignature = null;
+		}
+
+		PendingSubKey(boolean encryptionKey, BigInteger modulus, BigInteger publicExponent,
+				byte[] primaryKeySignature) {
+			this.encryptionKey = encryptionKey;
+			this.modulus = null;
+			this.publicExponent = null;
+			this.primaryKeySignature = null;
+			this.decodedModulus = modulus;
+			this.decodedPublicExponent = publicExponent;
+			this.decodedPrimaryKeySignature = primaryKeySignature;
+		}
+
+		boolean isEncryptionKey() {
+			return encryptionKey;
+		}
+
+		String getSerializedModulus() {
+			return modulus != null ? modulus : decodedModulus.toString();
+		}
+
+		String getSerializedPublicExponent() {
+			return publicExponent != null ? publicExponent : decodedPublicExponent.toString();
+		}
+
+		String getSerializedPrimaryKeySignature() {
+			return primaryKeySignature != null ? primaryKeySignature
+					: DatatypeConverter.printHexBinary(decodedPrimaryKeySignature);
+		}
+
+		BigInteger getModulus() {
+			return decodedModulus != null ? decodedModulus : new BigInteger(modulus);
+		}
+
+		BigInteger getPublicExponent() {
+			return decodedPublicExponent != null ? decodedPublicExponent : new BigInteger(publicExponent);
+		}
+
+		byte[] getPrimaryKeySignature() {
+			return decodedPrimaryKeySignature != null ? decodedPrimaryKeySignature.clone()
+					: DatatypeConverter.parseHexBinary(primaryKeySignature);
+		}
 	}
 }
@@ -2,12 +2,6 @@ package de.qabel.core.crypto;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.RSAPublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,12 +15,20 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
+import de.qabel.core.crypto.QblPrimaryPublicKey.PendingSubKey;
+
+/**
+ * Serializes QblPrimaryPublicKeys including their sub keys. Read keys are
+ * materialized lazily: only the fingerprint of the primary key is calculated
+ * while reading, the RSA keys are created and the sub keys are validated
+ * when they are used first.
+ */
 public class QblPrimaryPublicKeyTypeAdapter extends TypeAdapter<QblPrimaryPublicKey> {
 
 	private final static Logger logger = LogManager.getLogger(QblPrimaryPublicKeyTypeAdapter.class
 			.getName());
 
-	
+
 	@Override
 	public void write(JsonWriter out, QblPrimaryPublicKey value) throws IOException {
 		out.beginObject();
@@ -37,47 +39,92 @@ public class QblPrimaryPublicKeyTypeAdapter extends TypeAdapter<QblPrimaryPublic
 		out.name("exponent");
 		out.value(value.getPublicExponent().toString());
 		out.endObject();
-		
+
+		List<PendingSubKey> pendingSubKeys = value.getPendingSubKeys();
+		if (pendingSubKeys != null) {
+			// sub keys have not been used, write them without parsing
+			out.name("public_enc_keys");
+			writePendingSubKeys(out, pendingSubKeys, true);
+			out.name("public_sign_keys");
+			writePendingSubKeys(out, pendingSubKeys, false);
+			writeECPublicKey(out, value.peekECPublicKey());
+			out.endObject();
+			return;
+		}
+
 		List<QblEncPublicKey> encPublicKeys = value.getEncPublicKeys();
 		out.name("public_enc_keys");
 		out.beginArray();
 		for(QblEncPublicKey key : encPublicKeys) {
-			out.beginObject();
-			out.name("modulus");
-			out.value(key.getModulus().toString());
-			out.name("exponent");
-			out.value(key.getPublicExponent().toString());
-			out.name("signature");
-			out.value(getStringFromByteArray(key.getPrimaryKeySignature()));
-			out.endObject();
+			writeSubKey(out, key);
 		}
 		out.endArray();
-		
+
 		List<QblSignPublicKey> signPublicKeys = value.getSignPublicKeys();
 		out.name("public_sign_keys");
 		out.beginArray();
 		for(QblSignPublicKey key : signPublicKeys) {
-			out.beginObject();
-			out.name("modulus");
-			out.value(key.getModulus().toString());
-			out.name("exponent");
-			out.value(key.getPublicExponent().toString());
-			out.name("signature");
-			out.value(getStringFromByteArray(key.getPrimaryKeySignature()));		
-			out.endObject();
+			writeSubKey(out, key);
 		}
 		out.endArray();
-		
-		out.endObject();		
-		
+
+		writeECPublicKey(out, value.getECPublicKey());
+
+		out.endObject();
+
 		return;
 	}
 
+	private void writeSubKey(JsonWriter out, QblSubPublicKey key) throws IOException {
+		out.beginObject();
+		out.name("modulus");
+		out.value(key.getModulus().toString());
+		out.name("exponent");
+		out.value(key.getPublicExponent().toString());
+		out.name("signature");
+		out.value(getStringFromByteArray(key.getPrimaryKeySignature()));
+		out.endObject();
+	}
+
+	private void writeECPublicKey(JsonWriter out, QblECPublicKey key) throws IOException {
+		if (key == null) {
+			return;
+		}
+		out.name("public_ec_key");
+		out.beginObject();
+		out.name("agreement_key");
+		out.value(getStringFromByteArray(key.getAgreementKey()));
+		out.name("signing_key");
+		out.value(getStringFromByteArray(key.getSigningKey()));
+		out.name("signature");
+		out.value(getStringFromByteArray(key.getPrimaryKeySignature()));
+		out.endObject();
+	}
+
+	private void writePendingSubKeys(JsonWriter out, List<PendingSubKey> subKeys, boolean encryptionKeys)
+			throws IOException {
+		out.beginArray();
+		for (PendingSubKey key : subKeys) {
+			if (key.isEncryptionKey() == encryptionKeys) {
+				out.beginObject();
+				out.name("modulus");
+				out.value(key.getSerializedModulus());
+				out.name("exponent");
+				out.value(key.getSerializedPublicExponent());
+				out.name("signature");
+				out.value(key.getSerializedPrimaryKeySignature());
+				out.endObject();
+			}
+		}
+		out.endArray();
+	}
+
 	@Override
 	public QblPrimaryPublicKey read(JsonReader in) throws IOException {
 		QblPrimaryPublicKey primaryPublicKey = null;
-		List<QblEncPublicKey> encPublicKeys = null;
-		List<QblSignPublicKey> signPublicKeys = null;
+		List<PendingSubKey> encPublicKeys = null;
+		List<PendingSubKey> signPublicKeys = null;
+		QblECPublicKey ecPublicKey = null;
 		if(in.peek() == JsonToken.NULL) {
 			in.nextNull();
 			return null;
@@ -91,46 +138,38 @@ public class QblPrimaryPublicKeyTypeAdapter extends TypeAdapter<QblPrimaryPublic
 				in.endObject();
 				break;
 			case "public_enc_keys":
-				encPublicKeys = new ArrayList<QblEncPublicKey>();
-				in.beginArray();
-				while(in.hasNext()) {
-					in.beginObject();
-					encPublicKeys.add(readEncPublicKey(in));
-					in.endObject();
-				}
-				in.endArray();
+				encPublicKeys = readSubKeys(in, true);
 				break;
 			case "public_sign_keys":
-				signPublicKeys = new ArrayList<QblSignPublicKey>();
-				in.beginArray();
-				while(in.hasNext()) {
-					in.beginObject();
-					signPublicKeys.add(readSignPublicKey(in));
-					in.endObject();
-				}
-				in.endArray();
-				break;				
+				signPublicKeys = readSubKeys(in, false);
+				break;
+			case "public_ec_key":
+				in.beginObject();
+				ecPublicKey = readECPublicKey(in);
+				in.endObject();
+				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
 		in.endObject();
 		if(!(primaryPublicKey == null || encPublicKeys == null || signPublicKeys == null)) {
-			try {
-				for(QblEncPublicKey key : encPublicKeys) {
-					primaryPublicKey.attachEncPublicKey(key);
-				}
-				for(QblSignPublicKey key : signPublicKeys) {
-					primaryPublicKey.attachSignPublicKey(key);
-				}
-			} catch (InvalidKeyException e) {
-				logger.error("Read public key is invalid!");			
+			for(PendingSubKey key : encPublicKeys) {
+				primaryPublicKey.addPendingSubKey(key);
+			}
+			for(PendingSubKey key : signPublicKeys) {
+				primaryPublicKey.addPendingSubKey(key);
+			}
+			if (ecPublicKey != null) {
+				primaryPublicKey.setPendingECPublicKey(ecPublicKey);
 			}
 		}
-		
+
 		return primaryPublicKey;
 	}
-	
+
 	private QblPrimaryPublicKey readPrimaryPublicKey(JsonReader in) throws IOException {
-		QblPrimaryPublicKey primaryPublicKey = null;
 		String modulus = null;
 		String exponent = null;
 		while(in.hasNext()) {
@@ -141,32 +180,40 @@ public class QblPrimaryPublicKeyTypeAdapter extends TypeAdapter<QblPrimaryPublic
 			case "exponent":
 				exponent = in.nextString();
 				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
-		
+
 		if(modulus == null || exponent == null) {
 			return null;
 		}
 
-		KeyFactory kf;
-		RSAPublicKey rsaPubKey = null;
 		try {
-			kf = KeyFactory.getInstance("RSA");
-			rsaPubKey = (RSAPublicKey) kf.generatePublic(new RSAPublicKeySpec(new BigInteger(modulus), new BigInteger(exponent)));
-		} catch (NoSuchAlgorithmException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return new QblPrimaryPublicKey(new BigInteger(modulus), new BigInteger(exponent));
+		} catch (NumberFormatException e) {
+			logger.error("Read public key is invalid!", e);
+			return null;
 		}
-		
-		primaryPublicKey = new QblPrimaryPublicKey(rsaPubKey);
-		return primaryPublicKey;
 	}
-	
-	private QblEncPublicKey readEncPublicKey(JsonReader in) throws IOException {
-		QblEncPublicKey encPublicKey = null;
+
+	private List<PendingSubKey> readSubKeys(JsonReader in, boolean encryptionKeys) throws IOException {
+		List<PendingSubKey> subKeys = new ArrayList<PendingSubKey>();
+		in.beginArray();
+		while(in.hasNext()) {
+			in.beginObject();
+			PendingSubKey subKey = readSubKey(in, encryptionKeys);
+			if (subKey != null) {
+				subKeys.add(subKey);
+			}
+			in.endObject();
+		}
+		in.endArray();
+		return subKeys;
+	}
+
+	private PendingSubKey readSubKey(JsonReader in, boolean encryptionKey) throws IOException {
 		String modulus = null;
 		String exponent = null;
 		String signature = null;
@@ -180,78 +227,55 @@ public class QblPrimaryPublicKeyTypeAdapter extends TypeAdapter<QblPrimaryPublic
 				break;
 			case "signature":
 				signature = in.nextString();
+				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
-		
+
 		if(modulus == null || exponent == null || signature == null) {
 			return null;
 		}
-		
-		KeyFactory kf;
-		RSAPublicKey rsaPubKey = null;
-		try {
-			kf = KeyFactory.getInstance("RSA");
-			rsaPubKey = (RSAPublicKey) kf.generatePublic(new RSAPublicKeySpec(new BigInteger(modulus), new BigInteger(exponent)));
-		} catch (NoSuchAlgorithmException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		encPublicKey = new QblEncPublicKey(rsaPubKey);
-		encPublicKey.setPrimaryKeySignature(getByteArrayFromString(signature));
-		return encPublicKey;
+		return new PendingSubKey(encryptionKey, modulus, exponent, signature);
 	}
-	
-	private QblSignPublicKey readSignPublicKey(JsonReader in) throws IOException {
-		QblSignPublicKey signPublicKey = null;
-		String modulus = null;
-		String exponent = null;
+
+	private QblECPublicKey readECPublicKey(JsonReader in) throws IOException {
+		String agreementKey = null;
+		String signingKey = null;
 		String signature = null;
 		while(in.hasNext()) {
 			switch(in.nextName()) {
-			case "modulus":
-				modulus = in.nextString();
+			case "agreement_key":
+				agreementKey = in.nextString();
 				break;
-			case "exponent":
-				exponent = in.nextString();
+			case "signing_key":
+				signingKey = in.nextString();
 				break;
 			case "signature":
 				signature = in.nextString();
+				break;
+			default:
+				in.skipValue();
+				break;
 			}
 		}
-		
-		if(modulus == null || exponent == null || signature == null) {
+
+		if(agreementKey == null || signingKey == null || signature == null) {
 			return null;
 		}
-		
-		KeyFactory kf;
-		RSAPublicKey rsaPubKey = null;
 		try {
-			kf = KeyFactory.getInstance("RSA");
-			rsaPubKey = (RSAPublicKey) kf.generatePublic(new RSAPublicKeySpec(new BigInteger(modulus), new BigInteger(exponent)));
-		} catch (NoSuchAlgorithmException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InvalidKeySpecException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return new QblECPublicKey(DatatypeConverter.parseHexBinary(agreementKey),
+					DatatypeConverter.parseHexBinary(signingKey),
+					DatatypeConverter.parseHexBinary(signature));
+		} catch (IllegalArgumentException e) {
+			logger.error("Read EC public key is invalid!", e);
+			return null;
 		}
-		
-		signPublicKey = new QblSignPublicKey(rsaPubKey);
-		signPublicKey.setPrimaryKeySignature(getByteArrayFromString(signature));
-		return signPublicKey;
 	}
-	
+
 	private String getStringFromByteArray(byte[] bytes) {
 		String hex = DatatypeConverter.printHexBinary(bytes);
 		return hex;
 	}
-	
-	private byte[] getByteArrayFromString(String str) {
-		byte[] bytes = DatatypeConverter.parseHexBinary(str);
-		return bytes;
-	}
-}
\ No newline at end of file
+}
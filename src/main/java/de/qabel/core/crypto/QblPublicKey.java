@@ -2,24 +2,72 @@ package de.qabel.core.crypto;
 
 import java.math.BigInteger;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 
 import javax.xml.bind.DatatypeConverter;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 /**
  * Abstract super class for all Qbl...PublicKey types 
  *
  */
 abstract class QblPublicKey {
+	private final static Logger logger = LogManager.getLogger(QblPublicKey.class.getName());
+
+	private static final int KEY_IDENTIFIER_SIZE_BYTE = 8;
 
-	private RSAPublicKey publicKey;
+	private BigInteger modulus;
+	private BigInteger publicExponent;
+	/**
+	 * Javax RSA public key, created from modulus and exponent when it is used first.
+	 */
+	private transient volatile RSAPublicKey publicKey;
 	private byte[] publicKeyFingerprint;
+	/**
+	 * Key identifier as long and as interned hex string. Both are derived from
+	 * the fingerprint once and are not serialized. readableKeyIdentifier is
+	 * written last and guards keyId.
+	 */
+	private transient long keyId;
+	private transient volatile String readableKeyIdentifier;
 
 	QblPublicKey(RSAPublicKey publicKey) {
-		super();
+		this(publicKey.getModulus(), publicKey.getPublicExponent());
 		this.publicKey = publicKey;
-		publicKeyFingerprint = 
-				QblKeyFactory.getInstance().getFingerprint(publicKey);
+	}
+
+	/**
+	 * Creates a public key from modulus and exponent. Only the fingerprint is
+	 * calculated immediately, the Javax RSA public key is created when it is
+	 * used first.
+	 */
+	QblPublicKey(BigInteger modulus, BigInteger publicExponent) {
+		super();
+		this.modulus = modulus;
+		this.publicExponent = publicExponent;
+		publicKeyFingerprint =
+				QblKeyFactory.getInstance().getFingerprint(modulus, publicExponent);
+		initKeyIdentifier();
+	}
+
+	/**
+	 * Derives the cached key identifiers from the fingerprint. Objects created
+	 * by reflective deserialization skip the constructor, so this is called
+	 * lazily as well. Concurrent calls compute identical values.
+	 */
+	private String initKeyIdentifier() {
+		byte[] publicFingerPrint = getPublicKeyFingerprint();
+		long id = 0;
+		for (int i = publicFingerPrint.length - KEY_IDENTIFIER_SIZE_BYTE; i < publicFingerPrint.length; i++) {
+			id = (id << 8) | (publicFingerPrint[i] & 0xff);
+		}
+		keyId = id;
+		String readable = DatatypeConverter.printHexBinary(getKeyIdentifier()).intern();
+		readableKeyIdentifier = readable;
+		return readable;
 	}
 
 	/**
@@ -27,7 +75,17 @@ abstract class QblPublicKey {
 	 * @return Javax RSA public key
 	 */
 	public RSAPublicKey getRSAPublicKey(){
-		return publicKey;
+		RSAPublicKey key = publicKey;
+		if (key == null) {
+			try {
+				key = QblKeyFactory.getInstance().generateRSAPublicKey(modulus, publicExponent);
+			} catch (InvalidKeySpecException e) {
+				logger.error("Public key is invalid! " + e.getMessage());
+				throw new RuntimeException("Public key is invalid!", e);
+			}
+			publicKey = key;
+		}
+		return key;
 	}
 	
 	/**
@@ -35,7 +93,7 @@ abstract class QblPublicKey {
 	 * @return public key modulus
 	 */
 	public BigInteger getModulus() {
-		return publicKey.getModulus();
+		return modulus;
 	}
 
 	/**
@@ -43,7 +101,7 @@ abstract class QblPublicKey {
 	 * @return public key exponent
 	 */
 	public BigInteger getPublicExponent() {
-		return publicKey.getPublicExponent();
+		return publicExponent;
 	}
 
 	/**
@@ -62,7 +120,20 @@ abstract class QblPublicKey {
 	public byte[] getKeyIdentifier() {
 		byte[] publicFingerPrint = getPublicKeyFingerprint();
 		return Arrays.copyOfRange(publicFingerPrint,
-				publicFingerPrint.length - 8, publicFingerPrint.length);
+				publicFingerPrint.length - KEY_IDENTIFIER_SIZE_BYTE, publicFingerPrint.length);
+	}
+
+	/**
+	 * Get the key identifier of this public key as long. The bytes of the
+	 * key identifier are interpreted in big-endian order.
+	 *
+	 * @return key identifier
+	 */
+	public long getKeyId() {
+		if (readableKeyIdentifier == null) {
+			initKeyIdentifier();
+		}
+		return keyId;
 	}
 
 	/**
@@ -71,7 +142,11 @@ abstract class QblPublicKey {
 	 * @return key identifier as readable HEX string
 	 */
 	public String getReadableKeyIdentifier() {
-		return DatatypeConverter.printHexBinary(getKeyIdentifier());
+		String readable = readableKeyIdentifier;
+		if (readable == null) {
+			readable = initKeyIdentifier();
+		}
+		return readable;
 	}
 
 	@Override
@@ -79,7 +154,9 @@ abstract class QblPublicKey {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
-				+ ((publicKey == null) ? 0 : publicKey.hashCode());
+				+ ((modulus == null) ? 0 : modulus.hashCode());
+		result = prime * result
+				+ ((publicExponent == null) ? 0 : publicExponent.hashCode());
 		result = prime * result + Arrays.hashCode(publicKeyFingerprint);
 		return result;
 	}
@@ -93,10 +170,15 @@ abstract class QblPublicKey {
 		if (getClass() != obj.getClass())
 			return false;
 		QblPublicKey other = (QblPublicKey) obj;
-		if (publicKey == null) {
-			if (other.publicKey != null)
+		if (modulus == null) {
+			if (other.modulus != null)
+				return false;
+		} else if (!modulus.equals(other.modulus))
+			return false;
+		if (publicExponent == null) {
+			if (other.publicExponent != null)
 				return false;
-		} else if (!publicKey.equals(other.publicKey))
+		} else if (!publicExponent.equals(other.publicExponent))
 			return false;
 		if (!Arrays.equals(publicKeyFingerprint, other.publicKeyFingerprint))
 			return false;
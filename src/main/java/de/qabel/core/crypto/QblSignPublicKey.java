@@ -1,5 +1,6 @@
 package de.qabel.core.crypto;
 
+import java.math.BigInteger;
 import java.security.interfaces.RSAPublicKey;
 
 /**
@@ -14,4 +15,8 @@ public class QblSignPublicKey extends QblSubPublicKey {
 	QblSignPublicKey(RSAPublicKey publicKey, byte[] primaryKeySignature) {
 		super(publicKey, primaryKeySignature);
 	}
+
+	QblSignPublicKey(BigInteger modulus, BigInteger publicExponent, byte[] primaryKeySignature) {
+		super(modulus, publicExponent, primaryKeySignature);
+	}
 }
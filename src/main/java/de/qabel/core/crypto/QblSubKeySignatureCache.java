@@ -0,0 +1,161 @@
+package de.qabel.core.crypto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers sub keys whose signature by a primary key has been verified, so
+ * the RSA verification runs once per sub key instead of every time a contact
+ * is loaded. Entries are keyed by the fingerprints of the primary and the
+ * sub key and hold the verified signature, a sub key presented with another
+ * signature is verified again. Only successful verifications are cached.
+ * <p>
+ * The cache can be saved to and loaded from a file. Entries of a loaded file
+ * are trusted, so the file needs the same protection as the settings.
+ */
+public class QblSubKeySignatureCache {
+	public static final int DEFAULT_CAPACITY = 10000;
+	private static final int FILE_VERSION = 1;
+	private static final int MAX_FINGERPRINT_LENGTH = 1024;
+
+	private final int capacity;
+	private final Map<ByteBuffer, byte[]> verified;
+
+	/**
+	 * Creates a cache with {@link #DEFAULT_CAPACITY}
+	 */
+	public QblSubKeySignatureCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a cache which evicts the least recently used entries when it
+	 * holds more than capacity entries.
+	 * @param capacity Maximum number of entries.
+	 */
+	public QblSubKeySignatureCache(final int capacity) {
+		this.capacity = capacity;
+		verified = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+				return size() > QblSubKeySignatureCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Checks whether the signature of a sub key has been verified before.
+	 * @param primaryFingerprint Fingerprint of the signing primary key.
+	 * @param subKeyFingerprint Fingerprint of the sub key.
+	 * @param signature Signature of the sub key.
+	 * @return signature has been verified
+	 */
+	public synchronized boolean isVerified(byte[] primaryFingerprint, byte[] subKeyFingerprint,
+			byte[] signature) {
+		byte[] verifiedSignature = verified.get(key(primaryFingerprint, subKeyFingerprint));
+		return verifiedSignature != null && Arrays.equals(verifiedSignature, signature);
+	}
+
+	/**
+	 * Records a successfully verified signature of a sub key.
+	 * @param primaryFingerprint Fingerprint of the signing primary key.
+	 * @param subKeyFingerprint Fingerprint of the sub key.
+	 * @param signature Verified signature of the sub key.
+	 */
+	public synchronized void putVerified(byte[] primaryFingerprint, byte[] subKeyFingerprint,
+			byte[] signature) {
+		verified.put(key(primaryFingerprint, subKeyFingerprint), signature.clone());
+	}
+
+	public synchronized int size() {
+		return verified.size();
+	}
+
+	public synchronized void clear() {
+		verified.clear();
+	}
+
+	/**
+	 * Writes all entries to a file.
+	 * @param file File to write to. It is replaced if it exists.
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		List<Map.Entry<ByteBuffer, byte[]>> entries;
+		synchronized (this) {
+			entries = new ArrayList<Map.Entry<ByteBuffer, byte[]>>(verified.entrySet());
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)))) {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<ByteBuffer, byte[]> entry : entries) {
+				byte[] key = entry.getKey().array();
+				out.writeInt(key.length);
+				out.write(key);
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Adds the entries of a file written by {@link #save(File)}.
+	 * @param file File to read.
+	 * @return number of loaded entries
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public int load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported signature cache version " + version);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				byte[] key = readBytes(in);
+				byte[] signature = readBytes(in);
+				synchronized (this) {
+					verified.put(ByteBuffer.wrap(key), signature);
+				}
+			}
+			return count;
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_FINGERPRINT_LENGTH) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Joins both fingerprints, ByteBuffer compares and hashes the content.
+	 */
+	private static ByteBuffer key(byte[] primaryFingerprint, byte[] subKeyFingerprint) {
+		byte[] key = Arrays.copyOf(primaryFingerprint,
+				primaryFingerprint.length + subKeyFingerprint.length);
+		System.arraycopy(subKeyFingerprint, 0, key, primaryFingerprint.length,
+				subKeyFingerprint.length);
+		return ByteBuffer.wrap(key);
+	}
+}
@@ -1,5 +1,6 @@
 package de.qabel.core.crypto;
 
+import java.math.BigInteger;
 import java.security.interfaces.RSAPublicKey;
 
 /**
@@ -19,6 +20,11 @@ abstract class QblSubPublicKey extends QblPublicKey {
 		setPrimaryKeySignature(primaryKeySignature);
 	}
 
+	QblSubPublicKey(BigInteger modulus, BigInteger publicExponent, byte[] primaryKeySignature) {
+		super(modulus, publicExponent);
+		setPrimaryKeySignature(primaryKeySignature);
+	}
+
 	/**
 	 * Returns the signature for this sub-public key created by the primary
 	 * private key
@@ -0,0 +1,112 @@
+package de.qabel.core.drop;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Bloom filter over message digests. The digests are uniformly distributed
+ * already, so the bit positions are derived from the first 16 bytes of the
+ * digest by double hashing instead of hashing again.
+ */
+class BloomFilter {
+	private static final int MAX_BITS = 1 << 30;
+
+	private final long[] bits;
+	private final int numBits;
+	private final int numHashes;
+	private int insertions;
+
+	/**
+	 * Creates a filter sized for the given number of digests.
+	 * @param expectedInsertions Number of digests to add.
+	 * @param falsePositiveRate Probability of a false positive with expectedInsertions digests.
+	 */
+	BloomFilter(int expectedInsertions, double falsePositiveRate) {
+		if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Invalid bloom filter parameters");
+		}
+		double ln2 = Math.log(2);
+		long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+		numBits = (int) Math.min(Math.max(m, 64), MAX_BITS);
+		numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * ln2));
+		bits = new long[(numBits + 63) / 64];
+	}
+
+	private BloomFilter(int numBits, int numHashes, int insertions, long[] bits) {
+		this.numBits = numBits;
+		this.numHashes = numHashes;
+		this.insertions = insertions;
+		this.bits = bits;
+	}
+
+	/**
+	 * Adds a digest.
+	 * @param digest Digest of at least 16 bytes.
+	 */
+	void put(byte[] digest) {
+		long h1 = readLong(digest, 0);
+		long h2 = readLong(digest, 8);
+		for (int i = 0; i < numHashes; i++) {
+			int index = index(h1 + i * h2);
+			bits[index >>> 6] |= 1L << index;
+		}
+		insertions++;
+	}
+
+	/**
+	 * Checks whether a digest may have been added.
+	 * @param digest Digest of at least 16 bytes.
+	 * @return false if the digest has definitely not been added
+	 */
+	boolean mightContain(byte[] digest) {
+		long h1 = readLong(digest, 0);
+		long h2 = readLong(digest, 8);
+		for (int i = 0; i < numHashes; i++) {
+			int index = index(h1 + i * h2);
+			if ((bits[index >>> 6] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int getInsertions() {
+		return insertions;
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(numBits);
+		out.writeInt(numHashes);
+		out.writeInt(insertions);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	static BloomFilter readFrom(DataInputStream in) throws IOException {
+		int numBits = in.readInt();
+		int numHashes = in.readInt();
+		int insertions = in.readInt();
+		if (numBits < 64 || numBits > MAX_BITS || numHashes < 1 || numHashes > 64 || insertions < 0) {
+			throw new IOException("Invalid bloom filter header");
+		}
+		long[] bits = new long[(numBits + 63) / 64];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+		return new BloomFilter(numBits, numHashes, insertions, bits);
+	}
+
+	private int index(long hash) {
+		return (int) ((hash & Long.MAX_VALUE) % numBits);
+	}
+
+	private static long readLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			value = (value << 8) | (bytes[i] & 0xff);
+		}
+		return value;
+	}
+}
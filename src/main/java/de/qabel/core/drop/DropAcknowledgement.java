@@ -0,0 +1,26 @@
+package de.qabel.core.drop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Drop protocol message acknowledging the receipt of drop messages. One
+ * acknowledgement covers all messages received from a contact since the
+ * last acknowledgement was sent.
+ */
+public class DropAcknowledgement extends ModelObject {
+	private List<String> acknowledgeIds;
+
+	public DropAcknowledgement(Collection<String> acknowledgeIds) {
+		this.acknowledgeIds = new ArrayList<>(acknowledgeIds);
+	}
+
+	/**
+	 * Returns the acknowledge ids of the received messages.
+	 * @return acknowledge ids
+	 */
+	public List<String> getAcknowledgeIds() {
+		return acknowledgeIds;
+	}
+}
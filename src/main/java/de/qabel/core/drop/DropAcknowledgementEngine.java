@@ -0,0 +1,396 @@
+package de.qabel.core.drop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.exceptions.QblDropPayloadSizeException;
+
+/**
+ * Correlates sent drop messages with their acknowledgements and sends
+ * acknowledgements for received messages.
+ * <p>
+ * Pending acknowledgements are kept in a table keyed by acknowledge id and
+ * contact and expire on a {@link TimerWheel}. Acknowledgements for received
+ * messages are collected per contact and sent in batches, so one
+ * {@link DropAcknowledgement} acknowledges all messages received from the
+ * contact within the batch delay.
+ */
+public class DropAcknowledgementEngine {
+	private final static Logger logger = LogManager.getLogger(DropAcknowledgementEngine.class.getName());
+
+	public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 10 * 60 * 1000;
+	public static final long DEFAULT_BATCH_DELAY_MILLIS = 2 * 1000;
+	/**
+	 * Number of acknowledge ids which are sent in one batch at most. 40
+	 * UUIDs fit into the payload of a binary drop message.
+	 */
+	public static final int MAX_BATCH_SIZE = 40;
+
+	private static final long TICK_MILLIS = 100;
+	private static final int TICKS_PER_WHEEL = 512;
+
+	/**
+	 * Future of the acknowledgement of a message sent to one contact. The
+	 * result is true if the acknowledgement arrived and false if it timed
+	 * out or the message could not be sent.
+	 */
+	public static class AcknowledgementFuture implements Future<Boolean> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicBoolean completed = new AtomicBoolean();
+		private volatile Boolean acknowledged;
+		private volatile boolean cancelled;
+		private volatile TimerWheel.Timeout timeout;
+		private volatile Runnable onCompletion;
+
+		boolean complete(boolean result) {
+			if (!completed.compareAndSet(false, true)) {
+				return false;
+			}
+			acknowledged = result;
+			finish();
+			return true;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!completed.compareAndSet(false, true)) {
+				return false;
+			}
+			cancelled = true;
+			finish();
+			return true;
+		}
+
+		/**
+		 * Cleans up before waiting threads are released, so they see the
+		 * acknowledgement removed from the pending table.
+		 */
+		private void finish() {
+			TimerWheel.Timeout t = timeout;
+			if (t != null) {
+				t.cancel();
+			}
+			Runnable r = onCompletion;
+			if (r != null) {
+				r.run();
+			}
+			done.countDown();
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Boolean get() throws InterruptedException, ExecutionException {
+			done.await();
+			return getResult();
+		}
+
+		@Override
+		public Boolean get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return getResult();
+		}
+
+		private Boolean getResult() {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			return acknowledged;
+		}
+	}
+
+	/**
+	 * Acknowledge ids waiting to be sent to one contact.
+	 */
+	private static class Batch {
+		private final Contact contact;
+		private final Set<String> acknowledgeIds = new LinkedHashSet<>();
+		private TimerWheel.Timeout flushTimeout;
+
+		Batch(Contact contact) {
+			this.contact = contact;
+		}
+	}
+
+	private final DropController controller;
+	private final TimerWheel timer = new TimerWheel(TICK_MILLIS, TICKS_PER_WHEEL);
+	private final ThreadPoolExecutor sender;
+	private final ConcurrentMap<String, ConcurrentMap<String, AcknowledgementFuture>> pending =
+			new ConcurrentHashMap<>();
+	private final Map<String, Batch> batches = new HashMap<>();
+	private volatile long batchDelayMillis = DEFAULT_BATCH_DELAY_MILLIS;
+
+	/**
+	 * Creates an engine which sends acknowledgements via the given controller.
+	 * @param controller Controller to send acknowledgements with.
+	 */
+	public DropAcknowledgementEngine(DropController controller) {
+		this.controller = controller;
+		sender = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "qabel-drop-ack-sender");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		sender.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Registers a message sent to a contact whose acknowledgement is
+	 * expected.
+	 * @param acknowledgeId Acknowledge id of the message.
+	 * @param contact Contact the message is sent to.
+	 * @param timeoutMillis Time to wait for the acknowledgement.
+	 * @return future which is completed when the acknowledgement arrives or times out
+	 */
+	public AcknowledgementFuture expect(final String acknowledgeId, Contact contact, long timeoutMillis) {
+		if (DropMessage.NOACK.equals(acknowledgeId)) {
+			throw new IllegalArgumentException("Message does not request an acknowledgement");
+		}
+		final String contactKeyId = contact.getKeyIdentifier();
+		final AcknowledgementFuture future = new AcknowledgementFuture();
+		future.onCompletion = new Runnable() {
+			@Override
+			public void run() {
+				removePending(acknowledgeId, contactKeyId, future);
+			}
+		};
+		AcknowledgementFuture previous;
+		synchronized (pending) {
+			ConcurrentMap<String, AcknowledgementFuture> futures = pending.get(acknowledgeId);
+			if (futures == null) {
+				futures = new ConcurrentHashMap<>();
+				pending.put(acknowledgeId, futures);
+			}
+			previous = futures.put(contactKeyId, future);
+		}
+		if (previous != null) {
+			previous.cancel(false);
+		}
+		future.timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (future.complete(false)) {
+					logger.info("No acknowledgement for " + acknowledgeId + " from " + contactKeyId);
+				}
+			}
+		}, timeoutMillis);
+		return future;
+	}
+
+	/**
+	 * Resolves the pending acknowledgement of a message which could not be
+	 * sent to the contact.
+	 * @param acknowledgeId Acknowledge id of the message.
+	 * @param contact Contact the message was sent to.
+	 */
+	void sendFailed(String acknowledgeId, Contact contact) {
+		ConcurrentMap<String, AcknowledgementFuture> futures = pending.get(acknowledgeId);
+		if (futures != null) {
+			AcknowledgementFuture future = futures.get(contact.getKeyIdentifier());
+			if (future != null) {
+				future.complete(false);
+			}
+		}
+	}
+
+	/**
+	 * Handles a received acknowledgement, completing the futures of the
+	 * acknowledged messages and confirming their delivery in the outbox of
+	 * the controller.
+	 * @param sender Contact which sent the acknowledgement.
+	 * @param acknowledgement Received acknowledgement.
+	 * @return number of pending acknowledgements which have been resolved
+	 */
+	public int onAcknowledgement(Contact sender, DropAcknowledgement acknowledgement) {
+		String contactKeyId = sender.getKeyIdentifier();
+		DropOutbox outbox = controller.getOutbox();
+		int resolved = 0;
+		for (String acknowledgeId : acknowledgement.getAcknowledgeIds()) {
+			if (DropMessage.NOACK.equals(acknowledgeId)) {
+				continue;
+			}
+			ConcurrentMap<String, AcknowledgementFuture> futures = pending.get(acknowledgeId);
+			AcknowledgementFuture future = futures == null ? null : futures.get(contactKeyId);
+			if (future != null && future.complete(true)) {
+				resolved++;
+			}
+			if (outbox != null) {
+				outbox.confirmDelivery(acknowledgeId, contactKeyId);
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Queues the acknowledgement of a received message. Acknowledgements
+	 * for the same contact are sent together after the batch delay, or
+	 * immediately when {@link #MAX_BATCH_SIZE} ids are queued.
+	 * @param contact Contact which sent the message.
+	 * @param acknowledgeId Acknowledge id of the received message.
+	 */
+	public void queueAcknowledgement(final Contact contact, String acknowledgeId) {
+		if (DropMessage.NOACK.equals(acknowledgeId)) {
+			return;
+		}
+		final String contactKeyId = contact.getKeyIdentifier();
+		Batch full = null;
+		synchronized (batches) {
+			Batch batch = batches.get(contactKeyId);
+			if (batch == null) {
+				batch = new Batch(contact);
+				batches.put(contactKeyId, batch);
+				batch.flushTimeout = timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush(contactKeyId);
+					}
+				}, batchDelayMillis);
+			}
+			batch.acknowledgeIds.add(acknowledgeId);
+			if (batch.acknowledgeIds.size() >= MAX_BATCH_SIZE) {
+				batches.remove(contactKeyId);
+				batch.flushTimeout.cancel();
+				full = batch;
+			}
+		}
+		if (full != null) {
+			submit(full);
+		}
+	}
+
+	/**
+	 * Sends all queued acknowledgements without waiting for the batch delay.
+	 */
+	public void flush() {
+		List<String> contactKeyIds;
+		synchronized (batches) {
+			contactKeyIds = new ArrayList<>(batches.keySet());
+		}
+		for (String contactKeyId : contactKeyIds) {
+			flush(contactKeyId);
+		}
+	}
+
+	/**
+	 * Returns the number of messages whose acknowledgement is awaited.
+	 * @return number of pending acknowledgements
+	 */
+	public int getPendingCount() {
+		int count = 0;
+		for (Map<String, AcknowledgementFuture> futures : pending.values()) {
+			count += futures.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the time received acknowledge ids are collected before they are
+	 * sent.
+	 * @param batchDelayMillis Delay in milliseconds.
+	 */
+	public void setBatchDelay(long batchDelayMillis) {
+		this.batchDelayMillis = batchDelayMillis;
+	}
+
+	/**
+	 * Stops the timer and the sender thread. Queued acknowledgements are
+	 * not sent and pending futures are not completed anymore.
+	 */
+	public void shutdown() {
+		timer.stop();
+		sender.shutdownNow();
+	}
+
+	private void flush(String contactKeyId) {
+		Batch batch;
+		synchronized (batches) {
+			batch = batches.remove(contactKeyId);
+		}
+		if (batch != null) {
+			batch.flushTimeout.cancel();
+			submit(batch);
+		}
+	}
+
+	private void submit(final Batch batch) {
+		try {
+			sender.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(batch.contact, batch.acknowledgeIds);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.debug("Acknowledgement engine is shut down, "
+					+ batch.acknowledgeIds.size() + " acknowledgements dropped");
+		}
+	}
+
+	private void send(Contact contact, Collection<String> acknowledgeIds) {
+		DropMessage<DropAcknowledgement> message = new DropMessage<>(
+				contact.getContactOwner(), new DropAcknowledgement(acknowledgeIds));
+		try {
+			if (controller.getOutbox() != null) {
+				controller.sendQueued(message, contact);
+			} else if (!controller.sendAndForget(message, contact).isSuccess()) {
+				logger.warn("Sending " + acknowledgeIds.size() + " acknowledgements to "
+						+ contact.getKeyIdentifier() + " failed");
+			}
+		} catch (QblDropPayloadSizeException | IOException e) {
+			logger.error("Cannot send acknowledgements to " + contact.getKeyIdentifier(), e);
+		} catch (RuntimeException e) {
+			logger.error("Sending acknowledgements to " + contact.getKeyIdentifier() + " failed", e);
+		}
+	}
+
+	private void removePending(String acknowledgeId, String contactKeyId, AcknowledgementFuture future) {
+		synchronized (pending) {
+			ConcurrentMap<String, AcknowledgementFuture> futures = pending.get(acknowledgeId);
+			if (futures == null) {
+				return;
+			}
+			futures.remove(contactKeyId, future);
+			if (futures.isEmpty()) {
+				pending.remove(acknowledgeId);
+			}
+		}
+	}
+}
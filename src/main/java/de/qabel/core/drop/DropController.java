@@ -1,9 +1,15 @@
 package de.qabel.core.drop;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
-import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -15,15 +21,32 @@ import de.qabel.core.crypto.*;
 import de.qabel.core.exceptions.QblDropInvalidMessageSizeException;
 import de.qabel.core.exceptions.QblDropPayloadSizeException;
 import de.qabel.core.exceptions.QblVersionMismatchException;
+import de.qabel.core.http.BlockingTaskExecutor;
 import de.qabel.core.http.DropHTTP;
+import de.qabel.core.http.DropTransport;
 import de.qabel.core.http.HTTPResult;
+import de.qabel.core.metrics.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class DropController {
+	/**
+	 * Default deadline for polling all drop servers at the same time.
+	 */
+	public static final long DEFAULT_POLL_TIMEOUT_MILLIS = 60 * 1000;
+
 	Map<Class<? extends ModelObject>, Set<DropCallback<? extends ModelObject>>> mCallbacks;
 	private DropServers mDropServers;
 	private Contacts mContacts;
+	private DropServerHealthTracker healthTracker = new DropServerHealthTracker();
+	private DropOutbox outbox;
+	private DropMessageDeduplicator deduplicator = new DropMessageDeduplicator();
+	private DropReceivePipeline receivePipeline;
+	private DropTransport transport;
+	private BlockingTaskExecutor taskExecutor;
+	private long pollTimeoutMillis = DEFAULT_POLL_TIMEOUT_MILLIS;
+	private final DropAcknowledgementEngine acknowledgementEngine = new DropAcknowledgementEngine(this);
+	private long acknowledgementTimeoutMillis = DropAcknowledgementEngine.DEFAULT_ACK_TIMEOUT_MILLIS;
 	GsonBuilder gb;
 	Gson gson;
 
@@ -56,12 +79,22 @@ public class DropController {
 
 	/**
 	 * Handles a received DropMessage. Puts this DropMessage into the registered
-	 * Queues.
+	 * Queues. Acknowledgements are handled internally, other messages from
+	 * contacts are acknowledged if the sender requested it.
 	 * 
 	 * @param dm
 	 *            DropMessage which should be handled
 	 */
 	public void handleDrop(DropMessage<? extends ModelObject> dm) {
+		if (dm.getSender() instanceof Contact) {
+			Contact sender = (Contact) dm.getSender();
+			if (dm.getData() instanceof DropAcknowledgement) {
+				acknowledgementEngine.onAcknowledgement(sender, (DropAcknowledgement) dm.getData());
+				return;
+			}
+			acknowledgementEngine.queueAcknowledgement(sender, dm.getAcknowledgeID());
+		}
+
 		Class<? extends ModelObject> cls = dm.getModelObject();
 		Set<DropCallback<? extends ModelObject>> typeCallbacks = mCallbacks
 				.get(cls);
@@ -85,19 +118,336 @@ public class DropController {
 
 	/**
 	 * retrieves new DropMessages from server and calls the corresponding
-	 * listeners
+	 * listeners. Servers which are down are skipped until they are due for
+	 * a probe, their status flag is updated after polling.
+	 * <p>
+	 * Without a receive pipeline, the polls of all servers are started with
+	 * {@link DropTransport#receiveMessagesAsync(URL, long)} before the
+	 * first result is collected, so a non-blocking transport like
+	 * {@link de.qabel.core.http.NioDropTransport} polls them at the same
+	 * time on its own thread. The blocking {@link DropHTTP} and the pipeline
+	 * use the task executor if it is set.
 	 */
 	public void retrieve() {
+		probeDropServers();
 		HashSet<DropServer> servers = new HashSet<DropServer>(getDropServers()
 				.getDropServers());
+		if (taskExecutor != null && (receivePipeline != null || getPollTransport() instanceof DropHTTP)) {
+			retrieveConcurrently(servers);
+			return;
+		}
+		if (receivePipeline == null) {
+			retrieveAsync(servers);
+			return;
+		}
 		for (DropServer server : servers) {
-			DropController drop = new DropController();
-			Collection<DropMessage<?>> results = drop
-					.retrieve(server.getUrl(), getContacts().getContacts());
-			for (DropMessage<? extends ModelObject> dm : results) {
+			URL url = server.getUrl();
+			if (healthTracker.tryAcquire(url)) {
+				try {
+					for (DropMessage<? extends ModelObject> dm : poll(getPollTransport(), url)) {
+						handleDrop(dm);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					healthTracker.recordFailure(url);
+					return;
+				}
+			}
+			server.setActive(healthTracker.isAvailable(url));
+		}
+	}
+
+	/**
+	 * Polls all drop servers at the same time with the task executor. Polls
+	 * which have not finished within the poll timeout are cancelled. The
+	 * retrieved messages are handled by the calling thread.
+	 */
+	private void retrieveConcurrently(Collection<DropServer> servers) {
+		Map<DropServer, Future<Collection<DropMessage<?>>>> polls = new LinkedHashMap<>();
+		try (BlockingTaskExecutor.TaskScope<Collection<DropMessage<?>>> scope =
+				taskExecutor.openScope(pollTimeoutMillis)) {
+			for (DropServer server : servers) {
+				final URL url = server.getUrl();
+				if (!healthTracker.tryAcquire(url)) {
+					server.setActive(healthTracker.isAvailable(url));
+					continue;
+				}
+				final DropTransport pollTransport = getPollTransport();
+				Runnable abort = null;
+				if (pollTransport instanceof DropHTTP) {
+					// a shared transport is only left by interrupting the poll
+					abort = new Runnable() {
+						@Override
+						public void run() {
+							((DropHTTP) pollTransport).abort();
+						}
+					};
+				}
+				polls.put(server, scope.fork(new Callable<Collection<DropMessage<?>>>() {
+					@Override
+					public Collection<DropMessage<?>> call() throws InterruptedException {
+						return poll(pollTransport, url);
+					}
+				}, abort));
+			}
+			scope.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (DropServer server : polls.keySet()) {
+				healthTracker.recordFailure(server.getUrl());
+			}
+			return;
+		}
+		for (Map.Entry<DropServer, Future<Collection<DropMessage<?>>>> poll : polls.entrySet()) {
+			URL url = poll.getKey().getUrl();
+			try {
+				for (DropMessage<? extends ModelObject> dm : poll.getValue().get()) {
+					handleDrop(dm);
+				}
+			} catch (CancellationException e) {
+				logger.warn("Polling " + url + " did not finish in time");
+				healthTracker.recordFailure(url);
+			} catch (ExecutionException e) {
+				logger.error("Polling " + url + " failed", e.getCause());
+				healthTracker.recordFailure(url);
+			} catch (InterruptedException e) {
+				// all polls are done after joining
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupt should not happen", e);
+			}
+			poll.getKey().setActive(healthTracker.isAvailable(url));
+		}
+	}
+
+	/**
+	 * Starts the polls of all drop servers and collects their results
+	 * afterwards. Polls which have not finished within the poll timeout are
+	 * cancelled. The retrieved messages are handled by the calling thread.
+	 */
+	private void retrieveAsync(Collection<DropServer> servers) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollTimeoutMillis);
+		List<PendingPoll> polls = new ArrayList<>();
+		for (DropServer server : servers) {
+			URL url = server.getUrl();
+			if (!healthTracker.tryAcquire(url)) {
+				server.setActive(healthTracker.isAvailable(url));
+				continue;
+			}
+			polls.add(new PendingPoll(server, getPollTransport()));
+		}
+		ReceiveContext context = new ReceiveContext(getContacts().getContacts());
+		for (int i = 0; i < polls.size(); i++) {
+			PendingPoll poll = polls.get(i);
+			URL url = poll.server.getUrl();
+			HTTPResult<Collection<byte[]>> result;
+			try {
+				if (pollTimeoutMillis > 0) {
+					result = poll.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} else {
+					result = poll.future.get();
+				}
+			} catch (TimeoutException | CancellationException e) {
+				poll.future.cancel(true);
+				logger.warn("Polling " + url + " did not finish in time");
+				healthTracker.recordFailure(url);
+				poll.server.setActive(healthTracker.isAvailable(url));
+				continue;
+			} catch (ExecutionException e) {
+				logger.error("Polling " + url + " failed", e.getCause());
+				healthTracker.recordFailure(url);
+				poll.server.setActive(healthTracker.isAvailable(url));
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (PendingPoll pending : polls.subList(i, polls.size())) {
+					pending.future.cancel(true);
+					healthTracker.recordFailure(pending.server.getUrl());
+				}
+				return;
+			}
+			healthTracker.recordResult(url, result.getResponseCode(), poll.getLatencyMillis());
+			for (DropMessage<? extends ModelObject> dm : decryptMessages(result.getData(), context)) {
 				handleDrop(dm);
 			}
+			poll.server.setActive(healthTracker.isAvailable(url));
+		}
+	}
+
+	/**
+	 * Poll started by {@link #retrieveAsync(Collection)}.
+	 */
+	private static class PendingPoll {
+		final DropServer server;
+		final Future<HTTPResult<Collection<byte[]>>> future;
+		private final long startNanos;
+		/**
+		 * End of a poll which was done when it had been started, as the
+		 * polls of blocking transports are, otherwise 0.
+		 */
+		private final long doneNanos;
+
+		PendingPoll(DropServer server, DropTransport transport) {
+			this.server = server;
+			startNanos = System.nanoTime();
+			future = transport.receiveMessagesAsync(server.getUrl(), 0);
+			doneNanos = future.isDone() ? System.nanoTime() : 0;
 		}
+
+		long getLatencyMillis() {
+			long end = doneNanos != 0 ? doneNanos : System.nanoTime();
+			return (end - startNanos) / 1000000;
+		}
+	}
+
+	/**
+	 * Polls one drop server. With a receive pipeline the messages are
+	 * handled by the pipeline, otherwise they are returned.
+	 * @param transport Transport to download the messages with, if no pipeline is set.
+	 * @param url URL of the drop.
+	 * @return messages still to be handled
+	 * @throws InterruptedException if waiting for the pipeline has been interrupted
+	 */
+	private Collection<DropMessage<?>> poll(DropTransport transport, URL url) throws InterruptedException {
+		if (receivePipeline != null) {
+			long start = System.nanoTime();
+			recordResult(url, receivePipeline.retrieve(url, getContacts().getContacts()), start);
+			return Collections.emptyList();
+		}
+		return retrieve(transport, url, getContacts().getContacts());
+	}
+
+	/**
+	 * Returns the transport for one poll, a new {@link DropHTTP} if no
+	 * transport is set, so each poll can be aborted on its own.
+	 */
+	private DropTransport getPollTransport() {
+		return transport != null ? transport : new DropHTTP();
+	}
+
+	/**
+	 * Sends a request to every drop server which is down and due for a
+	 * probe, so recovered servers are used again.
+	 */
+	public void probeDropServers() {
+		DropTransport http = getPollTransport();
+		for (DropServerHealth health : healthTracker.getServersToProbe()) {
+			URL url = health.getProbeUrl();
+			if (!healthTracker.tryAcquire(url)) {
+				continue;
+			}
+			long start = System.nanoTime();
+			HTTPResult<?> result = http.head(url, 0);
+			recordResult(url, result, start);
+		}
+	}
+
+	public DropOutbox getOutbox() {
+		return outbox;
+	}
+
+	/**
+	 * Sets the outbox used by {@link #sendQueued(DropMessage, Contact)}.
+	 * @param outbox Outbox to queue messages in.
+	 */
+	public void setOutbox(DropOutbox outbox) {
+		this.outbox = outbox;
+	}
+
+	public DropReceivePipeline getReceivePipeline() {
+		return receivePipeline;
+	}
+
+	/**
+	 * Sets the pipeline {@link #retrieve()} receives messages with. Without
+	 * a pipeline, messages are downloaded, decrypted and handled one after
+	 * another.
+	 * @param receivePipeline Pipeline to use or null.
+	 */
+	public void setReceivePipeline(DropReceivePipeline receivePipeline) {
+		this.receivePipeline = receivePipeline;
+	}
+
+	public DropTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Sets the transport drop servers are polled and probed with, e.g. a
+	 * {@link de.qabel.core.http.NioDropTransport} shared by all polls.
+	 * Without a transport, every poll uses a new {@link DropHTTP}.
+	 * @param transport Transport to use or null.
+	 */
+	public void setTransport(DropTransport transport) {
+		this.transport = transport;
+	}
+
+	public BlockingTaskExecutor getTaskExecutor() {
+		return taskExecutor;
+	}
+
+	/**
+	 * Sets the executor {@link #retrieve()} polls the drop servers with. With
+	 * an executor all servers are polled at the same time, otherwise one
+	 * after another.
+	 * @param taskExecutor Executor to use or null.
+	 */
+	public void setTaskExecutor(BlockingTaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	public long getPollTimeout() {
+		return pollTimeoutMillis;
+	}
+
+	/**
+	 * Sets the deadline for polling all drop servers at the same time.
+	 * @param pollTimeoutMillis Timeout in milliseconds, 0 for no deadline.
+	 */
+	public void setPollTimeout(long pollTimeoutMillis) {
+		this.pollTimeoutMillis = pollTimeoutMillis;
+	}
+
+	public DropMessageDeduplicator getDeduplicator() {
+		return deduplicator;
+	}
+
+	/**
+	 * Sets the index of processed messages, e.g. one loaded from a file
+	 * after a restart.
+	 * @param deduplicator Index of processed messages.
+	 */
+	public void setDeduplicator(DropMessageDeduplicator deduplicator) {
+		this.deduplicator = deduplicator;
+	}
+
+	public DropAcknowledgementEngine getAcknowledgementEngine() {
+		return acknowledgementEngine;
+	}
+
+	public long getAcknowledgementTimeout() {
+		return acknowledgementTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time {@link #send(DropMessage, Collection)} waits for
+	 * acknowledgements.
+	 * @param acknowledgementTimeoutMillis Timeout in milliseconds.
+	 */
+	public void setAcknowledgementTimeout(long acknowledgementTimeoutMillis) {
+		this.acknowledgementTimeoutMillis = acknowledgementTimeoutMillis;
+	}
+
+	public DropServerHealthTracker getHealthTracker() {
+		return healthTracker;
+	}
+
+	/**
+	 * Sets the tracker for the health of drop servers, e.g. to share it
+	 * between controllers.
+	 * @param healthTracker Health tracker to use.
+	 */
+	public void setHealthTracker(DropServerHealthTracker healthTracker) {
+		this.healthTracker = healthTracker;
 	}
 
 	public DropServers getDropServers() {
@@ -120,10 +470,12 @@ public class DropController {
 	private final static Logger logger = LogManager.getLogger(DropController.class.getName());
 
 	/**
-	 * Sends the message and waits for acknowledgement.
-	 * Uses sendAndForget() for now.
+	 * Sends the message with acknowledging enabled. The acknowledgement of
+	 * every contact can be awaited with
+	 * {@link DropResultContact#getAcknowledgement()}, which yields false if
+	 * the message could not be sent or the acknowledgement did not arrive
+	 * within the acknowledgement timeout.
 	 * 
-	 * TODO: implement
 	 * @param message  Message to send
 	 * @param contacts Contacts to send message to
 	 * @return DropResult which tell you the state of the sending
@@ -131,7 +483,31 @@ public class DropController {
 	 */
 	public DropResult send(DropMessage<? extends ModelObject> message, Collection<Contact> contacts)
 			throws QblDropPayloadSizeException {
-		return sendAndForget(message, contacts);
+		message.enableAcknowledgeing(true);
+		String acknowledgeId = message.getAcknowledgeID();
+		Map<Contact, Future<Boolean>> acknowledgements = new HashMap<>();
+		for (Contact contact : contacts) {
+			// registered before sending, the acknowledgement may arrive at any time
+			acknowledgements.put(contact, acknowledgementEngine.expect(
+					acknowledgeId, contact, acknowledgementTimeoutMillis));
+		}
+		DropResult result;
+		try {
+			result = sendAndForget(message, contacts);
+		} catch (QblDropPayloadSizeException | RuntimeException e) {
+			for (Future<Boolean> acknowledgement : acknowledgements.values()) {
+				acknowledgement.cancel(false);
+			}
+			throw e;
+		}
+		for (DropResultContact contactResult : result.getList()) {
+			Contact contact = contactResult.getContact();
+			contactResult.setAcknowledgement(acknowledgements.get(contact));
+			if (!contactResult.isSuccess()) {
+				acknowledgementEngine.sendFailed(acknowledgeId, contact);
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -170,7 +546,13 @@ public class DropController {
 	}
 
 	/**
-	 * Sends the message to one contact and does not wait for acknowledgement
+	 * Sends the message to one contact and does not wait for acknowledgement.
+	 * The message is sent in binary format version 1 if the contact and its
+	 * owner have Curve25519 keys, else in version 0.
+	 * <p>
+	 * The message is sent to the drops on healthy servers first. Drops on
+	 * servers which are down are only used if no other drop accepted the
+	 * message.
 	 *
 	 * @param message Message to send
 	 * @param contact Contact to send message to
@@ -185,68 +567,279 @@ public class DropController {
 		result = new DropResultContact(contact);
 		http = new DropHTTP();
 
-		BinaryDropMessageV0 binaryMessage = new BinaryDropMessageV0(message);
-		for (DropURL u : contact.getDropUrls()) {
-			HTTPResult<?> dropResult = http.send(u.getUrl(), binaryMessage.assembleMessageFor(contact));
-			result.addErrorCode(dropResult.getResponseCode());
+		byte[] assembledMessage = createBinaryMessage(message, contact).assembleMessageFor(contact);
+		List<DropURL> skipped = new ArrayList<DropURL>();
+		for (DropURL u : healthTracker.prioritize(contact.getDropUrls())) {
+			if (!healthTracker.tryAcquire(u.getUrl())) {
+				skipped.add(u);
+				continue;
+			}
+			sendToDrop(http, u.getUrl(), assembledMessage, result);
+		}
+		if (!result.isSuccess()) {
+			// last resort, servers may have recovered before being probed
+			for (DropURL u : skipped) {
+				sendToDrop(http, u.getUrl(), assembledMessage, result);
+			}
 		}
 		
 		return result;
 	}
 
 	/**
-	 * Retrieves a drop message from given URL
+	 * Queues the message for one contact in the outbox, which sends it in the
+	 * background and retries failed sends. If acknowledging is enabled for the
+	 * message, it is kept in the outbox until the acknowledgement has been
+	 * received from the contact.
+	 *
+	 * @param message Message to send
+	 * @param contact Contact to send message to
+	 * @return outbox entry of the message
+	 * @throws QblDropPayloadSizeException
+	 * @throws IOException if the message cannot be stored in the outbox
+	 * @throws IllegalStateException if no outbox has been set
+	 */
+	public <T extends ModelObject> DropOutbox.Entry sendQueued(DropMessage<T> message, Contact contact)
+			throws QblDropPayloadSizeException, IOException {
+		if (outbox == null) {
+			throw new IllegalStateException("No outbox set");
+		}
+		return outbox.enqueue(contact.getDropUrls(),
+				createBinaryMessage(message, contact).assembleMessageFor(contact),
+				message.getAcknowledgeID(), contact.getKeyIdentifier());
+	}
+
+	/**
+	 * Creates the binary message in the best format supported by the contact.
+	 */
+	private static AbstractBinaryDropMessage createBinaryMessage(DropMessage<?> message, Contact contact)
+			throws QblDropPayloadSizeException {
+		if (BinaryDropMessageV1.isSupportedFor(contact)) {
+			return new BinaryDropMessageV1(message);
+		}
+		return new BinaryDropMessageV0(message);
+	}
+
+	private void sendToDrop(DropHTTP http, URL url, byte[] message, DropResultContact result) {
+		long start = System.nanoTime();
+		HTTPResult<?> dropResult = http.send(url, message);
+		recordResult(url, dropResult, start);
+		result.addErrorCode(dropResult.getResponseCode());
+		Metrics.counter(dropResult.isOk() ? Metrics.DROP_MESSAGES_SENT
+				: Metrics.DROP_MESSAGES_SEND_FAILED).inc();
+	}
+
+	private void recordResult(URL url, HTTPResult<?> result, long startNanos) {
+		healthTracker.recordResult(url, result.getResponseCode(),
+				(System.nanoTime() - startNanos) / 1000000);
+	}
+
+	/**
+	 * Contacts prepared for the decryption of retrieved messages.
+	 */
+	static class ReceiveContext {
+		private final byte[] contactsDigest;
+		private final Collection<List<Contact>> contactsByOwner;
+
+		ReceiveContext(Collection<Contact> contacts) {
+			contactsDigest = DropMessageDeduplicator.digestContacts(contacts);
+			contactsByOwner = groupByOwner(contacts);
+		}
+
+		/**
+		 * Groups contacts by their owning identity, so a message is decrypted
+		 * once per identity and its signature is only checked against the
+		 * contacts of the identity which could decrypt it.
+		 */
+		private static Collection<List<Contact>> groupByOwner(Collection<Contact> contacts) {
+			Map<String, List<Contact>> contactsByOwner = new LinkedHashMap<>();
+			for (Contact contact : contacts) {
+				if (contact.getContactOwner() == null) {
+					logger.warn("Contact " + contact.getKeyIdentifier() + " has no owner, skipped.");
+					continue;
+				}
+				String ownerKeyId = contact.getContactOwner().getKeyIdentifier();
+				List<Contact> ownerContacts = contactsByOwner.get(ownerKeyId);
+				if (ownerContacts == null) {
+					ownerContacts = new ArrayList<>();
+					contactsByOwner.put(ownerKeyId, ownerContacts);
+				}
+				ownerContacts.add(contact);
+			}
+			return contactsByOwner.values();
+		}
+	}
+
+	/**
+	 * Retrieves a drop message from given URL. Every message is hashed before
+	 * any signature check, messages which have been processed before or which
+	 * none of the contacts could decrypt before are discarded without
+	 * cryptographic operations.
 	 *
 	 * @param url      URL where to retrieve the drop from
 	 * @param contacts Contacts to check the signature with
 	 * @return Retrieved, encrypted Dropmessages.
 	 */
 	public Collection<DropMessage<?>> retrieve(URL url, Collection<Contact> contacts) {
-		DropHTTP http = new DropHTTP();
-		HTTPResult<Collection<byte[]>> cipherMessages = http.receiveMessages(url);
-		Collection<DropMessage<?>> plainMessages = new ArrayList<>();
+		try {
+			return retrieve(getPollTransport(), url, contacts);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ArrayList<>();
+		}
+	}
 
-		List<Contact> ccc = new ArrayList<Contact>(contacts);
-		Collections.shuffle(ccc, new SecureRandom());
+	private Collection<DropMessage<?>> retrieve(DropTransport transport, URL url, Collection<Contact> contacts)
+			throws InterruptedException {
+		final List<byte[]> cipherMessages = new ArrayList<>();
+		long start = System.nanoTime();
+		HTTPResult<Integer> result = transport.receiveMessages(url, 0, new DropTransport.MessageReceiver() {
+			@Override
+			public void onMessage(byte[] message) {
+				cipherMessages.add(message);
+			}
+		});
+		recordResult(url, result, start);
+		return decryptMessages(cipherMessages, new ReceiveContext(contacts));
+	}
+
+	/**
+	 * Parses and decrypts downloaded messages. Messages which have been
+	 * processed before or which none of the contacts could decrypt before
+	 * are discarded without cryptographic operations.
+	 *
+	 * @param cipherMessages Downloaded messages.
+	 * @param context Contacts to decrypt the messages with.
+	 * @return decrypted messages
+	 */
+	private Collection<DropMessage<?>> decryptMessages(Collection<byte[]> cipherMessages, ReceiveContext context) {
+		Collection<DropMessage<?>> plainMessages = new ArrayList<>();
+		for (byte[] cipherMessage : cipherMessages) {
+			AbstractBinaryDropMessage binMessage = parseMessage(cipherMessage);
+			if (binMessage == null) {
+				continue;
+			}
+			byte[] digest = DropMessageDeduplicator.digest(binMessage.getSignedData());
+			byte[] messageDigest = DropMessageDeduplicator.digest(cipherMessage);
+			if (isKnownMessage(digest, messageDigest, context)) {
+				continue;
+			}
+			DropMessage<?> dropMessage = decryptMessage(binMessage, digest, messageDigest, context);
+			if (dropMessage != null) {
+				plainMessages.add(dropMessage);
+			}
+		}
+		return plainMessages;
+	}
 
-		for (byte[] cipherMessage : cipherMessages.getData()) {
-			AbstractBinaryDropMessage binMessage;
-			byte binaryFormatVersion = cipherMessage[0];
-			
+	/**
+	 * Parses a downloaded message in its binary format. This is a cheap
+	 * structural check without cryptographic operations.
+	 *
+	 * @param cipherMessage Downloaded message.
+	 * @return binary message or null if it is malformed
+	 */
+	AbstractBinaryDropMessage parseMessage(byte[] cipherMessage) {
+		Metrics.counter(Metrics.DROP_MESSAGES_RECEIVED).inc();
+		byte binaryFormatVersion = cipherMessage.length > 0 ? cipherMessage[0] : -1;
+		try {
 			switch (binaryFormatVersion) {
 			case 0:
-				try {
-					binMessage = new BinaryDropMessageV0(cipherMessage);
-				} catch (QblVersionMismatchException e) {
-					logger.error("Version mismatch in binary drop message", e);
-					throw new RuntimeException("Version mismatch should not happen", e);
-				} catch (QblDropInvalidMessageSizeException e) {
-					logger.info("Binary drop message version 0 with unexpected size discarded.");
-					// Invalid message uploads may happen with malicious intent
-					// or by broken clients. Skip.
-					continue;
-				}
-				break;
+				return new BinaryDropMessageV0(cipherMessage);
+			case 1:
+				return new BinaryDropMessageV1(cipherMessage);
 			default:
 				logger.warn("Unknown binary drop message version " + binaryFormatVersion);
 				// cannot handle this message -> skip
+				Metrics.counter(Metrics.DROP_MESSAGES_DISCARDED).inc();
+				return null;
+			}
+		} catch (QblVersionMismatchException e) {
+			logger.error("Version mismatch in binary drop message", e);
+			throw new RuntimeException("Version mismatch should not happen", e);
+		} catch (QblDropInvalidMessageSizeException e) {
+			logger.info("Binary drop message version " + binaryFormatVersion
+					+ " with unexpected size discarded.");
+			// Invalid message uploads may happen with malicious intent
+			// or by broken clients. Skip.
+			Metrics.counter(Metrics.DROP_MESSAGES_DISCARDED).inc();
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether a message has been processed before or could not be
+	 * decrypted with the same contacts before.
+	 *
+	 * @param digest Digest of the signed data of the message.
+	 * @param messageDigest Digest of the whole message including its signature.
+	 * @param context Contacts to decrypt the message with.
+	 * @return true if the message can be skipped
+	 */
+	boolean isKnownMessage(byte[] digest, byte[] messageDigest, ReceiveContext context) {
+		if (deduplicator.contains(digest)) {
+			Metrics.counter(Metrics.DROP_MESSAGES_DUPLICATE).inc();
+			return true;
+		}
+		if (deduplicator.isNotForUs(messageDigest, context.contactsDigest)) {
+			Metrics.counter(Metrics.DROP_MESSAGES_NOT_FOR_US).inc();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Decrypts a message and registers its sender. The message is recorded
+	 * in the deduplicator, so it is not processed again. Only messages with a
+	 * valid signature are recorded by the digest of their signed data, others
+	 * are recorded by the digest of the whole message, so a copy with a
+	 * forged signature does not suppress the original message.
+	 *
+	 * @param binMessage Parsed message.
+	 * @param digest Digest of the signed data of the message.
+	 * @param messageDigest Digest of the whole message including its signature.
+	 * @param context Contacts to decrypt the message with.
+	 * @return decrypted message or null if it is not from one of the contacts
+	 *         or has been decrypted concurrently
+	 */
+	DropMessage<?> decryptMessage(AbstractBinaryDropMessage binMessage, byte[] digest,
+			byte[] messageDigest, ReceiveContext context) {
+		int attempts = 0;
+		DropMessage<?> decrypted = null;
+		boolean spoofed = false;
+		for (List<Contact> identityContacts : context.contactsByOwner) {
+			attempts++;
+			if (!binMessage.decryptFor(identityContacts.get(0).getContactOwner())) {
 				continue;
 			}
-			for (Contact c : contacts) {
-				DropMessage<?> dropMessage = binMessage.disassembleMessageFrom(c);
+			// only the contacts of the recipient identity can be the sender
+			for (Contact c : identityContacts) {
+				DropMessage<?> dropMessage = binMessage.disassembleDecryptedMessageFrom(c);
 				if (dropMessage != null) {
 					boolean unspoofed = dropMessage.registerSender(c);
 					if (!unspoofed) {
 						logger.info("Spoofing of sender infomation detected."
 								+ " Claim: " + dropMessage.getSenderKeyId()
 								+ " Signer: " + c.getKeyIdentifier());
+						spoofed = true;
 						break;
 					}
-					plainMessages.add(dropMessage);
+					decrypted = dropMessage;
 					break; // sender found for this message
 				}
 			}
+			break; // a message is only decryptable for one identity
 		}
-		return plainMessages;
+		Metrics.histogram(Metrics.DROP_TRIAL_DECRYPTIONS).update(attempts);
+		if (decrypted == null && !spoofed) {
+			deduplicator.addNotForUs(messageDigest, context.contactsDigest);
+		} else if (!deduplicator.add(digest) && decrypted != null) {
+			// the same message has been retrieved from another drop meanwhile
+			Metrics.counter(Metrics.DROP_MESSAGES_DUPLICATE).inc();
+			return null;
+		}
+		Metrics.counter(decrypted != null ? Metrics.DROP_MESSAGES_DECRYPTED
+				: Metrics.DROP_MESSAGES_DISCARDED).inc();
+		return decrypted;
 	}
 }
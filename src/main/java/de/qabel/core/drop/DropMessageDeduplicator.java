@@ -0,0 +1,313 @@
+package de.qabel.core.drop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.qabel.core.config.Contact;
+
+/**
+ * Remembers the digests of processed drop messages, so messages which are
+ * retrieved again are discarded before any decryption is attempted.
+ * <p>
+ * Messages which could not be decrypted with any contact are remembered in
+ * a separate LRU set together with a digest of the tried contacts, so they
+ * are skipped as long as the contacts do not change. They are identified by
+ * the digest of the whole message, because their signature has not been
+ * verified: a copy with a forged signature must not suppress the original.
+ * <p>
+ * The most recent digests are kept in an LRU set. Older digests are
+ * remembered by two generations of bloom filters: when the current
+ * generation is full it replaces the previous one, so the memory is
+ * bounded and the oldest digests are forgotten eventually. A new message
+ * is mistaken for a duplicate with a probability of about
+ * 2 * {@link #FALSE_POSITIVE_RATE}.
+ * <p>
+ * The index can be saved to and loaded from a file to survive restarts.
+ */
+public class DropMessageDeduplicator {
+	public static final int DEFAULT_CAPACITY = 10000;
+	/**
+	 * False positive rate of one bloom filter generation.
+	 */
+	public static final double FALSE_POSITIVE_RATE = 1e-6;
+	/**
+	 * Number of digests per bloom filter generation, relative to the
+	 * capacity of the LRU set.
+	 */
+	private static final int GENERATION_FACTOR = 4;
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int DIGEST_SIZE = 32;
+	private static final int FILE_VERSION = 1;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final int capacity;
+	private final int generationSize;
+	private final Map<ByteBuffer, Boolean> recent;
+	private final Map<ByteBuffer, ByteBuffer> notForUs;
+	private BloomFilter current;
+	private BloomFilter previous;
+
+	/**
+	 * Creates an index with {@link #DEFAULT_CAPACITY}
+	 */
+	public DropMessageDeduplicator() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an index which keeps the given number of digests exactly.
+	 * @param capacity Size of the LRU set.
+	 */
+	public DropMessageDeduplicator(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		this.capacity = capacity;
+		generationSize = capacity * GENERATION_FACTOR;
+		recent = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+				return size() > DropMessageDeduplicator.this.capacity;
+			}
+		};
+		notForUs = new LinkedHashMap<ByteBuffer, ByteBuffer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ByteBuffer> eldest) {
+				return size() > DropMessageDeduplicator.this.capacity;
+			}
+		};
+		current = newGeneration();
+	}
+
+	/**
+	 * Calculates the digest identifying a message.
+	 * @param message Raw binary message.
+	 * @return SHA-256 digest
+	 */
+	public static byte[] digest(byte[] message) {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(message);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 should be available", e);
+		}
+	}
+
+	/**
+	 * Checks whether a message has been processed.
+	 * @param digest Digest of the message.
+	 * @return true if the message has (most likely) been processed before
+	 */
+	public synchronized boolean contains(byte[] digest) {
+		if (recent.get(ByteBuffer.wrap(digest)) != null) {
+			return true;
+		}
+		return current.mightContain(digest)
+				|| (previous != null && previous.mightContain(digest));
+	}
+
+	/**
+	 * Records a processed message.
+	 * @param digest Digest of the message.
+	 * @return false if the digest has been recorded recently
+	 */
+	public synchronized boolean add(byte[] digest) {
+		if (digest.length != DIGEST_SIZE) {
+			throw new IllegalArgumentException("Invalid digest length " + digest.length);
+		}
+		if (recent.put(ByteBuffer.wrap(digest.clone()), Boolean.TRUE) != null) {
+			return false;
+		}
+		if (current.getInsertions() >= generationSize) {
+			previous = current;
+			current = newGeneration();
+		}
+		current.put(digest);
+		return true;
+	}
+
+	/**
+	 * Checks whether a message could not be decrypted with the same
+	 * contacts before.
+	 * @param digest Digest of the whole message including its signature.
+	 * @param contactsDigest Digest of the contacts, see {@link #digestContacts(Collection)}.
+	 * @return true if none of the contacts could decrypt the message
+	 */
+	public synchronized boolean isNotForUs(byte[] digest, byte[] contactsDigest) {
+		ByteBuffer tried = notForUs.get(ByteBuffer.wrap(digest));
+		return tried != null && tried.equals(ByteBuffer.wrap(contactsDigest));
+	}
+
+	/**
+	 * Records a message which could not be decrypted with any of the
+	 * contacts.
+	 * @param digest Digest of the whole message including its signature.
+	 * @param contactsDigest Digest of the tried contacts, see {@link #digestContacts(Collection)}.
+	 */
+	public synchronized void addNotForUs(byte[] digest, byte[] contactsDigest) {
+		if (digest.length != DIGEST_SIZE || contactsDigest.length != DIGEST_SIZE) {
+			throw new IllegalArgumentException("Invalid digest length");
+		}
+		notForUs.put(ByteBuffer.wrap(digest.clone()), ByteBuffer.wrap(contactsDigest.clone()));
+	}
+
+	/**
+	 * Calculates a digest of the key identifiers of contacts, which changes
+	 * when a contact is added or removed.
+	 * @param contacts Contacts messages are decrypted with.
+	 * @return SHA-256 digest independent of the order of the contacts
+	 */
+	public static byte[] digestContacts(Collection<Contact> contacts) {
+		List<String> keyIds = new ArrayList<>(contacts.size());
+		for (Contact contact : contacts) {
+			keyIds.add(contact.getKeyIdentifier());
+		}
+		Collections.sort(keyIds);
+		StringBuilder sb = new StringBuilder();
+		for (String keyId : keyIds) {
+			sb.append(keyId).append('\n');
+		}
+		return digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the number of digests in the LRU set.
+	 * @return number of recent digests
+	 */
+	public synchronized int size() {
+		return recent.size();
+	}
+
+	/**
+	 * Returns the number of messages known to be not for us.
+	 * @return number of digests in the negative cache
+	 */
+	public synchronized int getNotForUsSize() {
+		return notForUs.size();
+	}
+
+	public synchronized void clear() {
+		recent.clear();
+		notForUs.clear();
+		current = newGeneration();
+		previous = null;
+	}
+
+	/**
+	 * Writes the index to a file. The index is written to a temporary file
+	 * which replaces the file afterwards, so an interrupted write does not
+	 * lose the previous index.
+	 * @param file File to write to. It is replaced if it exists.
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+			out.writeInt(FILE_VERSION);
+			// least recently used first, so the order survives loading
+			out.writeInt(recent.size());
+			for (ByteBuffer digest : recent.keySet()) {
+				out.write(digest.array());
+			}
+			current.writeTo(out);
+			out.writeBoolean(previous != null);
+			if (previous != null) {
+				previous.writeTo(out);
+			}
+			out.writeInt(notForUs.size());
+			for (Map.Entry<ByteBuffer, ByteBuffer> entry : notForUs.entrySet()) {
+				out.write(entry.getKey().array());
+				out.write(entry.getValue().array());
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Replaces the index with the content of a file written by
+	 * {@link #save(File)}.
+	 * @param file File to read.
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public void load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FILE_VERSION) {
+				throw new IOException("Unsupported deduplication index version " + version);
+			}
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Invalid number of digests " + count);
+			}
+			List<byte[]> digests = new ArrayList<>(Math.min(count, capacity));
+			for (int i = 0; i < count; i++) {
+				byte[] digest = new byte[DIGEST_SIZE];
+				in.readFully(digest);
+				digests.add(digest);
+			}
+			BloomFilter loadedCurrent = BloomFilter.readFrom(in);
+			BloomFilter loadedPrevious = in.readBoolean() ? BloomFilter.readFrom(in) : null;
+			int notForUsCount = in.readInt();
+			if (notForUsCount < 0) {
+				throw new IOException("Invalid number of digests " + notForUsCount);
+			}
+			List<byte[]> notForUsDigests = new ArrayList<>(Math.min(notForUsCount, capacity) * 2);
+			for (int i = 0; i < notForUsCount * 2; i++) {
+				byte[] digest = new byte[DIGEST_SIZE];
+				in.readFully(digest);
+				notForUsDigests.add(digest);
+			}
+			synchronized (this) {
+				recent.clear();
+				for (byte[] digest : digests) {
+					recent.put(ByteBuffer.wrap(digest), Boolean.TRUE);
+				}
+				notForUs.clear();
+				for (int i = 0; i < notForUsDigests.size(); i += 2) {
+					notForUs.put(ByteBuffer.wrap(notForUsDigests.get(i)),
+							ByteBuffer.wrap(notForUsDigests.get(i + 1)));
+				}
+				current = loadedCurrent;
+				previous = loadedPrevious;
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated deduplication index", e);
+		}
+	}
+
+	private BloomFilter newGeneration() {
+		return new BloomFilter(generationSize, FALSE_POSITIVE_RATE);
+	}
+}
@@ -0,0 +1,624 @@
+package de.qabel.core.drop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.exceptions.QblDropInvalidURL;
+import de.qabel.core.http.DropHTTP;
+import de.qabel.core.http.DropTransport;
+import de.qabel.core.http.HTTPResult;
+
+/**
+ * Durable queue of outgoing drop messages. Messages are stored encrypted in
+ * a directory, one file per message, and are sent by a pool of sender
+ * threads. Failed sends are retried with exponential backoff until a
+ * maximum number of attempts, so messages survive transient server failures
+ * and restarts.
+ * <p>
+ * A message is sent when one of its drops accepted it. Messages requesting
+ * an acknowledgement stay in the outbox until the acknowledgement is
+ * passed to {@link #confirmDelivery(String, String)}, and are sent again if
+ * it does not arrive within the acknowledgement timeout.
+ */
+public class DropOutbox {
+	private final static Logger logger = LogManager.getLogger(DropOutbox.class.getName());
+
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 5 * 1000;
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+	public static final int DEFAULT_MAX_ATTEMPTS = 12;
+	public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 24 * 60 * 60 * 1000;
+
+	private static final String FILE_SUFFIX = ".drop";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_MESSAGE_SIZE = 1 << 20;
+
+	/**
+	 * Receives the final state of messages in the outbox.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a message without acknowledgement request has been
+		 * accepted by a drop server.
+		 * @param entry Sent message.
+		 */
+		void onSent(Entry entry);
+
+		/**
+		 * Called when the acknowledgement of a message has been received.
+		 * @param entry Delivered message.
+		 */
+		void onDelivered(Entry entry);
+
+		/**
+		 * Called when a message is given up after the maximum number of
+		 * attempts.
+		 * @param entry Failed message.
+		 */
+		void onFailed(Entry entry);
+	}
+
+	/**
+	 * Message in the outbox.
+	 */
+	public static class Entry {
+		private final String id;
+		private final String acknowledgeId;
+		private final String recipientKeyId;
+		private final long created;
+		private final List<DropURL> dropUrls;
+		private final byte[] message;
+		private int attempts;
+		private long nextAttempt;
+		private boolean sent;
+		/**
+		 * Incremented whenever the entry is rescheduled, so outdated
+		 * scheduled tasks can be detected.
+		 */
+		private int generation;
+
+		Entry(String id, String acknowledgeId, String recipientKeyId, long created,
+				List<DropURL> dropUrls, byte[] message) {
+			this.id = id;
+			this.acknowledgeId = acknowledgeId;
+			this.recipientKeyId = recipientKeyId;
+			this.created = created;
+			this.dropUrls = Collections.unmodifiableList(dropUrls);
+			this.message = message;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the acknowledge id of the message.
+		 * @return acknowledge id or {@link DropMessage#NOACK}
+		 */
+		public String getAcknowledgeId() {
+			return acknowledgeId;
+		}
+
+		/**
+		 * Returns the key identifier of the contact the message is sent to.
+		 * @return key identifier or an empty string if it is unknown
+		 */
+		public String getRecipientKeyId() {
+			return recipientKeyId;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public List<DropURL> getDropUrls() {
+			return dropUrls;
+		}
+
+		public synchronized int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * Returns whether a drop server accepted the message.
+		 * @return true if the message has been sent and waits for its acknowledgement
+		 */
+		public synchronized boolean isSent() {
+			return sent;
+		}
+
+		boolean isAcknowledgeRequested() {
+			return !DropMessage.NOACK.equals(acknowledgeId);
+		}
+
+		String getAcknowledgeKey() {
+			return getAcknowledgeKey(acknowledgeId, recipientKeyId);
+		}
+
+		static String getAcknowledgeKey(String acknowledgeId, String recipientKeyId) {
+			return acknowledgeId + '/' + recipientKeyId;
+		}
+	}
+
+	private final File directory;
+	private final DropTransport http;
+	private final DropServerHealthTracker healthTracker;
+	private final ScheduledExecutorService executor;
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Entry> entriesByAcknowledgeId = new ConcurrentHashMap<>();
+	private final SecureRandom random = new SecureRandom();
+	private volatile Listener listener;
+	private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+	private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private volatile long ackTimeoutMillis = DEFAULT_ACK_TIMEOUT_MILLIS;
+
+	/**
+	 * Opens an outbox and schedules the messages stored in it.
+	 * @param directory Directory to store the messages in, created if necessary.
+	 * @param threads Number of sender threads.
+	 * @throws IOException if the directory cannot be created
+	 */
+	public DropOutbox(File directory, int threads) throws IOException {
+		this(directory, threads, new DropHTTP(), new DropServerHealthTracker());
+	}
+
+	/**
+	 * Opens an outbox and schedules the messages stored in it.
+	 * @param directory Directory to store the messages in, created if necessary.
+	 * @param threads Number of sender threads.
+	 * @param http Transport to send the messages with.
+	 * @param healthTracker Health of the drop servers, shared with the DropController.
+	 * @throws IOException if the directory cannot be created
+	 */
+	public DropOutbox(File directory, int threads, DropTransport http,
+			DropServerHealthTracker healthTracker) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create outbox directory " + directory);
+		}
+		this.directory = directory;
+		this.http = http;
+		this.healthTracker = healthTracker;
+		executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "qabel-drop-outbox-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		load();
+	}
+
+	/**
+	 * Adds an encrypted message to the outbox. The message is stored before
+	 * this method returns and sent as soon as possible.
+	 * @param dropUrls Drops to send the message to.
+	 * @param message Assembled binary drop message.
+	 * @param acknowledgeId Acknowledge id of the message or {@link DropMessage#NOACK}.
+	 * @return outbox entry of the message
+	 * @throws IOException if the message cannot be stored
+	 */
+	public Entry enqueue(Collection<DropURL> dropUrls, byte[] message, String acknowledgeId)
+			throws IOException {
+		return enqueue(dropUrls, message, acknowledgeId, "");
+	}
+
+	/**
+	 * Adds an encrypted message for a contact to the outbox. The message is
+	 * stored before this method returns and sent as soon as possible.
+	 * @param dropUrls Drops to send the message to.
+	 * @param message Assembled binary drop message.
+	 * @param acknowledgeId Acknowledge id of the message or {@link DropMessage#NOACK}.
+	 * @param recipientKeyId Key identifier of the contact, to match its acknowledgement.
+	 * @return outbox entry of the message
+	 * @throws IOException if the message cannot be stored
+	 */
+	public Entry enqueue(Collection<DropURL> dropUrls, byte[] message, String acknowledgeId,
+			String recipientKeyId) throws IOException {
+		if (dropUrls.isEmpty()) {
+			throw new IllegalArgumentException("No drop to send the message to");
+		}
+		Entry entry = new Entry(UUID.randomUUID().toString(), acknowledgeId, recipientKeyId,
+				System.currentTimeMillis(), new ArrayList<DropURL>(dropUrls), message.clone());
+		store(entry);
+		add(entry);
+		schedule(entry, 0);
+		return entry;
+	}
+
+	/**
+	 * Confirms the delivery of a message which has been enqueued without
+	 * recipient, removing it from the outbox.
+	 * @param acknowledgeId Acknowledge id of the delivered message.
+	 * @return false if no message with the acknowledge id is in the outbox
+	 */
+	public boolean confirmDelivery(String acknowledgeId) {
+		return confirmDelivery(acknowledgeId, "");
+	}
+
+	/**
+	 * Confirms the delivery of a message to a contact, removing it from the
+	 * outbox.
+	 * @param acknowledgeId Acknowledge id of the delivered message.
+	 * @param recipientKeyId Key identifier of the contact which acknowledged the message.
+	 * @return false if no such message is in the outbox
+	 */
+	public boolean confirmDelivery(String acknowledgeId, String recipientKeyId) {
+		if (DropMessage.NOACK.equals(acknowledgeId)) {
+			return false;
+		}
+		Entry entry = entriesByAcknowledgeId.get(
+				Entry.getAcknowledgeKey(acknowledgeId, recipientKeyId));
+		if (entry == null || !remove(entry)) {
+			return false;
+		}
+		Listener l = listener;
+		if (l != null) {
+			l.onDelivered(entry);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the entry with the given id.
+	 * @param id Id of the entry.
+	 * @return entry or null if it is not in the outbox (anymore)
+	 */
+	public Entry getEntry(String id) {
+		return entries.get(id);
+	}
+
+	/**
+	 * Returns the number of messages in the outbox, including sent messages
+	 * waiting for their acknowledgement.
+	 * @return number of messages
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Configures the retries of failed sends. The n-th retry is delayed by
+	 * a random time between half and all of initialBackoff * 2^(n-1),
+	 * limited to maxBackoff.
+	 * @param initialBackoffMillis Delay of the first retry.
+	 * @param maxBackoffMillis Maximum delay of a retry.
+	 * @param maxAttempts Number of attempts before a message is given up.
+	 */
+	public void setRetryPolicy(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+		if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis || maxAttempts < 1) {
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Sets the time to wait for the acknowledgement of a sent message
+	 * before it is sent again.
+	 * @param ackTimeoutMillis Timeout in milliseconds.
+	 */
+	public void setAckTimeout(long ackTimeoutMillis) {
+		this.ackTimeoutMillis = ackTimeoutMillis;
+	}
+
+	/**
+	 * Stops the sender threads. Unsent messages stay stored and are sent
+	 * when the outbox is opened again.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.id, entry);
+		if (entry.isAcknowledgeRequested()) {
+			entriesByAcknowledgeId.put(entry.getAcknowledgeKey(), entry);
+		}
+	}
+
+	private boolean remove(Entry entry) {
+		if (!entries.remove(entry.id, entry)) {
+			return false;
+		}
+		if (entry.isAcknowledgeRequested()) {
+			entriesByAcknowledgeId.remove(entry.getAcknowledgeKey(), entry);
+		}
+		synchronized (entry) {
+			entry.generation++;
+		}
+		File file = getFile(entry.id);
+		if (file.exists() && !file.delete()) {
+			logger.warn("Cannot delete outbox entry " + file);
+		}
+		return true;
+	}
+
+	private void schedule(final Entry entry, long delayMillis) {
+		final int generation;
+		synchronized (entry) {
+			generation = ++entry.generation;
+		}
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						process(entry, generation);
+					} catch (RuntimeException e) {
+						logger.error("Sending outbox entry " + entry.id + " failed", e);
+					}
+				}
+			}, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Outbox is shut down, entry " + entry.id + " stays stored");
+		}
+	}
+
+	private void process(Entry entry, int generation) {
+		boolean sent;
+		synchronized (entry) {
+			if (entry.generation != generation || entries.get(entry.id) != entry) {
+				// outdated task or entry removed in the meantime
+				return;
+			}
+			sent = entry.sent;
+		}
+		if (sent) {
+			// acknowledgement did not arrive in time
+			logger.info("No acknowledgement for outbox entry " + entry.id + ", sending again");
+			synchronized (entry) {
+				entry.sent = false;
+			}
+			retry(entry);
+			return;
+		}
+
+		if (send(entry)) {
+			if (!entry.isAcknowledgeRequested()) {
+				if (remove(entry)) {
+					Listener l = listener;
+					if (l != null) {
+						l.onSent(entry);
+					}
+				}
+				return;
+			}
+			synchronized (entry) {
+				entry.sent = true;
+				entry.nextAttempt = System.currentTimeMillis() + ackTimeoutMillis;
+			}
+			persist(entry);
+			schedule(entry, ackTimeoutMillis);
+		} else {
+			retry(entry);
+		}
+	}
+
+	/**
+	 * Sends the message to all of its drops on available servers.
+	 * @return true if a drop accepted the message
+	 */
+	private boolean send(Entry entry) {
+		boolean accepted = false;
+		for (DropURL dropUrl : healthTracker.prioritize(entry.dropUrls)) {
+			if (!healthTracker.tryAcquire(dropUrl.getUrl())) {
+				continue;
+			}
+			long start = System.nanoTime();
+			HTTPResult<?> result = http.send(dropUrl.getUrl(), entry.message);
+			healthTracker.recordResult(dropUrl.getUrl(), result.getResponseCode(),
+					(System.nanoTime() - start) / 1000000);
+			accepted |= result.isOk();
+		}
+		return accepted;
+	}
+
+	private void retry(Entry entry) {
+		long delay;
+		synchronized (entry) {
+			entry.attempts++;
+			if (entry.attempts >= maxAttempts) {
+				delay = -1;
+			} else {
+				delay = getBackoff(entry.attempts);
+				entry.nextAttempt = System.currentTimeMillis() + delay;
+			}
+		}
+		if (delay < 0) {
+			logger.warn("Giving up outbox entry " + entry.id + " after "
+					+ entry.getAttempts() + " attempts");
+			if (remove(entry)) {
+				Listener l = listener;
+				if (l != null) {
+					l.onFailed(entry);
+				}
+			}
+			return;
+		}
+		persist(entry);
+		schedule(entry, delay);
+	}
+
+	/**
+	 * Returns the delay before the given retry, with jitter so clients
+	 * do not retry in lockstep after a server outage.
+	 */
+	long getBackoff(int retry) {
+		long backoff = initialBackoffMillis;
+		for (int i = 1; i < retry && backoff < maxBackoffMillis; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxBackoffMillis);
+		long half = backoff / 2;
+		synchronized (random) {
+			return half + (long) (random.nextDouble() * (backoff - half));
+		}
+	}
+
+	private void persist(Entry entry) {
+		try {
+			store(entry);
+		} catch (IOException e) {
+			// the entry is still sent, but would be sent again after a restart
+			logger.error("Cannot update outbox entry " + entry.id, e);
+		}
+	}
+
+	private void load() {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(FILE_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File file : files) {
+			Entry entry;
+			try {
+				entry = read(file);
+			} catch (IOException | QblDropInvalidURL e) {
+				logger.error("Discarding unreadable outbox entry " + file, e);
+				if (!file.delete()) {
+					logger.warn("Cannot delete outbox entry " + file);
+				}
+				continue;
+			}
+			add(entry);
+			schedule(entry, entry.nextAttempt - now);
+		}
+		if (files.length > 0) {
+			logger.info("Loaded " + entries.size() + " outbox entries");
+		}
+	}
+
+	private File getFile(String id) {
+		return new File(directory, id + FILE_SUFFIX);
+	}
+
+	/**
+	 * Writes the entry to a temporary file which then replaces the stored
+	 * entry, so a crash never leaves a partially written entry.
+	 */
+	private void store(Entry entry) throws IOException {
+		File file = getFile(entry.id);
+		File temp = new File(directory, entry.id + TEMP_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(entry.id);
+			out.writeUTF(entry.acknowledgeId);
+			out.writeUTF(entry.recipientKeyId);
+			out.writeLong(entry.created);
+			synchronized (entry) {
+				out.writeInt(entry.attempts);
+				out.writeLong(entry.nextAttempt);
+				out.writeBoolean(entry.sent);
+			}
+			out.writeInt(entry.dropUrls.size());
+			for (DropURL dropUrl : entry.dropUrls) {
+				out.writeUTF(dropUrl.toString());
+			}
+			out.writeInt(entry.message.length);
+			out.write(entry.message);
+		}
+		if (!entries.containsKey(entry.id) && entry.generation > 0) {
+			// removed while writing
+			Files.deleteIfExists(temp.toPath());
+			return;
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (!entries.containsKey(entry.id) && entry.generation > 0) {
+			// removed while moving
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	private Entry read(File file) throws IOException, QblDropInvalidURL {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unknown outbox entry version " + version);
+			}
+			String id = in.readUTF();
+			String acknowledgeId = in.readUTF();
+			String recipientKeyId = in.readUTF();
+			long created = in.readLong();
+			int attempts = in.readInt();
+			long nextAttempt = in.readLong();
+			boolean sent = in.readBoolean();
+			int urlCount = in.readInt();
+			if (urlCount < 1 || urlCount > 1000) {
+				throw new IOException("Invalid number of drop urls " + urlCount);
+			}
+			List<DropURL> dropUrls = new ArrayList<>(urlCount);
+			for (int i = 0; i < urlCount; i++) {
+				try {
+					dropUrls.add(new DropURL(in.readUTF()));
+				} catch (MalformedURLException e) {
+					throw new IOException("Invalid drop url", e);
+				}
+			}
+			int length = in.readInt();
+			if (length < 0 || length > MAX_MESSAGE_SIZE) {
+				throw new IOException("Invalid message length " + length);
+			}
+			byte[] message = new byte[length];
+			in.readFully(message);
+
+			Entry entry = new Entry(id, acknowledgeId, recipientKeyId, created, dropUrls, message);
+			entry.attempts = attempts;
+			entry.nextAttempt = nextAttempt;
+			entry.sent = sent;
+			return entry;
+		} catch (EOFException e) {
+			throw new IOException("Truncated outbox entry", e);
+		}
+	}
+}
@@ -2,18 +2,22 @@ package de.qabel.core.drop;
 
 import java.util.concurrent.LinkedBlockingQueue;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 public class DropQueueCallback<T extends ModelObject> extends
 		LinkedBlockingQueue<DropMessage<T>> implements DropCallback<T> {
 
 	private static final long serialVersionUID = -3961632733846834316L;
+	private final static Logger logger = LogManager.getLogger(DropQueueCallback.class.getName());
 
 	@Override
 	public void onDropMessage(DropMessage<T> message) {
 		try {
 			this.put(message);
 		} catch (InterruptedException e) {
-			// TODO: HANDLE THIS
-			e.printStackTrace();
+			logger.warn("Interrupted while queueing drop message, message dropped", e);
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -0,0 +1,291 @@
+package de.qabel.core.drop;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.crypto.AbstractBinaryDropMessage;
+import de.qabel.core.http.DropHTTP;
+import de.qabel.core.http.DropTransport;
+import de.qabel.core.http.HTTPResult;
+
+/**
+ * Receives drop messages in concurrent stages, so downloading and the
+ * decryption of large numbers of messages overlap:
+ * <ol>
+ * <li>the polling thread reads messages from the response while it is
+ * downloaded,</li>
+ * <li>a parser thread checks the binary format and discards known
+ * messages,</li>
+ * <li>a pool of crypto threads decrypts the messages,</li>
+ * <li>a dispatcher thread passes the decrypted messages to
+ * {@link DropController#handleDrop(DropMessage)} in the order they have
+ * been downloaded.</li>
+ * </ol>
+ * The stages are connected by bounded queues and the number of messages in
+ * the pipeline is limited, so a slow stage throttles the download.
+ */
+public class DropReceivePipeline {
+	private final static Logger logger = LogManager.getLogger(DropReceivePipeline.class.getName());
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * One retrieval of a drop.
+	 */
+	private static class Poll {
+		private final DropController.ReceiveContext context;
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final AtomicInteger dispatched = new AtomicInteger();
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		Poll(Collection<Contact> contacts) {
+			context = new DropController.ReceiveContext(contacts);
+		}
+
+		/**
+		 * Called when a message or the download has been finished.
+		 */
+		void finishOne() {
+			if (pending.decrementAndGet() == 0) {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Message passing through the pipeline.
+	 */
+	private static class Item {
+		private final Poll poll;
+		private final byte[] cipherMessage;
+		private long sequence;
+		private AbstractBinaryDropMessage binMessage;
+		private byte[] digest;
+		private byte[] messageDigest;
+		private DropMessage<?> dropMessage;
+
+		Item(Poll poll, byte[] cipherMessage) {
+			this.poll = poll;
+			this.cipherMessage = cipherMessage;
+		}
+	}
+
+	private final DropController controller;
+	private final DropTransport http;
+	private final Semaphore capacity;
+	private final BlockingQueue<Item> parseQueue;
+	private final BlockingQueue<Item> cryptoQueue;
+	private final BlockingQueue<Item> dispatchQueue = new LinkedBlockingQueue<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final Object sequenceLock = new Object();
+	private long nextSequence;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a pipeline with one crypto thread per processor and
+	 * {@link #DEFAULT_CAPACITY}.
+	 * @param controller Controller which decrypts and handles the messages.
+	 */
+	public DropReceivePipeline(DropController controller) {
+		this(controller, new DropHTTP(), Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates and starts a pipeline.
+	 * @param controller Controller which decrypts and handles the messages.
+	 * @param http Client to download the messages with.
+	 * @param cryptoThreads Number of threads decrypting messages.
+	 * @param capacity Maximum number of messages in the pipeline.
+	 */
+	public DropReceivePipeline(DropController controller, DropTransport http, int cryptoThreads, int capacity) {
+		if (cryptoThreads < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Invalid pipeline size");
+		}
+		this.controller = controller;
+		this.http = http;
+		this.capacity = new Semaphore(capacity);
+		parseQueue = new ArrayBlockingQueue<>(capacity);
+		cryptoQueue = new ArrayBlockingQueue<>(capacity);
+
+		start("qabel-drop-receive-parser", new Runnable() {
+			@Override
+			public void run() {
+				parse();
+			}
+		});
+		for (int i = 1; i <= cryptoThreads; i++) {
+			start("qabel-drop-receive-crypto-" + i, new Runnable() {
+				@Override
+				public void run() {
+					decrypt();
+				}
+			});
+		}
+		start("qabel-drop-receive-dispatcher", new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the messages of a drop and passes the decrypted messages to
+	 * the controller. Several drops can be retrieved concurrently.
+	 * @param url URL of the drop.
+	 * @param contacts Contacts to decrypt the messages with.
+	 * @return result of the download with the number of dispatched messages as data
+	 * @throws InterruptedException if the retrieval has been interrupted
+	 */
+	public HTTPResult<Integer> retrieve(URL url, Collection<Contact> contacts) throws InterruptedException {
+		if (stopped) {
+			throw new IllegalStateException("Receive pipeline has been shut down");
+		}
+		final Poll poll = new Poll(contacts);
+		HTTPResult<Integer> result;
+		try {
+			result = http.receiveMessages(url, 0, new DropTransport.MessageReceiver() {
+				@Override
+				public void onMessage(byte[] message) throws InterruptedException {
+					enqueue(poll, message);
+				}
+			});
+		} finally {
+			poll.finishOne();
+		}
+		while (!poll.done.await(100, TimeUnit.MILLISECONDS)) {
+			if (stopped) {
+				throw new IllegalStateException("Receive pipeline has been shut down");
+			}
+		}
+		result.setData(poll.dispatched.get());
+		return result;
+	}
+
+	/**
+	 * Stops all threads of the pipeline. Messages in the pipeline are not
+	 * handled anymore.
+	 */
+	public void shutdown() {
+		stopped = true;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	private void start(String name, Runnable stage) {
+		Thread thread = new Thread(stage, name);
+		thread.setDaemon(true);
+		threads.add(thread);
+		thread.start();
+	}
+
+	private void enqueue(Poll poll, byte[] message) throws InterruptedException {
+		Item item = new Item(poll, message);
+		capacity.acquire();
+		poll.pending.incrementAndGet();
+		try {
+			synchronized (sequenceLock) {
+				// sequence numbers have to reach the dispatcher without gaps
+				item.sequence = nextSequence;
+				parseQueue.put(item);
+				nextSequence++;
+			}
+		} catch (InterruptedException e) {
+			capacity.release();
+			poll.finishOne();
+			throw e;
+		}
+	}
+
+	private void parse() {
+		while (!stopped) {
+			Item item;
+			try {
+				item = parseQueue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			boolean decrypt = false;
+			try {
+				item.binMessage = controller.parseMessage(item.cipherMessage);
+				if (item.binMessage != null) {
+					item.digest = DropMessageDeduplicator.digest(item.binMessage.getSignedData());
+					item.messageDigest = DropMessageDeduplicator.digest(item.cipherMessage);
+					decrypt = !controller.isKnownMessage(item.digest, item.messageDigest,
+							item.poll.context);
+				}
+			} catch (RuntimeException e) {
+				logger.error("Parsing drop message failed", e);
+			}
+			try {
+				(decrypt ? cryptoQueue : dispatchQueue).put(item);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void decrypt() {
+		while (!stopped) {
+			Item item;
+			try {
+				item = cryptoQueue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				item.dropMessage = controller.decryptMessage(item.binMessage, item.digest,
+						item.messageDigest, item.poll.context);
+			} catch (RuntimeException e) {
+				logger.error("Decrypting drop message failed", e);
+			}
+			dispatchQueue.add(item);
+		}
+	}
+
+	/**
+	 * Dispatches the messages in the order of their sequence numbers.
+	 */
+	private void dispatch() {
+		Map<Long, Item> waiting = new HashMap<>();
+		long next = 0;
+		while (!stopped) {
+			Item item;
+			try {
+				item = dispatchQueue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			waiting.put(item.sequence, item);
+			while ((item = waiting.remove(next)) != null) {
+				next++;
+				if (item.dropMessage != null) {
+					try {
+						controller.handleDrop(item.dropMessage);
+						item.poll.dispatched.incrementAndGet();
+					} catch (RuntimeException e) {
+						logger.error("Handling drop message failed", e);
+					}
+				}
+				capacity.release();
+				item.poll.finishOne();
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package de.qabel.core.drop;
 
 import java.util.Arrays;
+import java.util.concurrent.Future;
 
 import de.qabel.core.config.Contact;
 
@@ -12,6 +13,7 @@ public class DropResultContact {
 	private Contact contact;
 	private int[] errorCode = new int[0];
 	private boolean success = false;
+	private Future<Boolean> acknowledgement;
 
 	/**
 	 * Constructor
@@ -67,6 +69,22 @@ public class DropResultContact {
 		return this.success;
 	}
 
+	/**
+	 * Get the acknowledgement of the message, if it has been sent with
+	 * {@link DropController#send(DropMessage, java.util.Collection)}
+	 * 
+	 * @return Future which yields true when the contact acknowledged the
+	 *         message and false on timeout, or null if no acknowledgement
+	 *         has been requested
+	 */
+	public Future<Boolean> getAcknowledgement() {
+		return this.acknowledgement;
+	}
+
+	void setAcknowledgement(Future<Boolean> acknowledgement) {
+		this.acknowledgement = acknowledgement;
+	}
+
 	private int[] addElement(int[] array, int element) {
 	    array  = Arrays.copyOf(array, array.length + 1);
 	    array[array.length - 1] = element;
@@ -0,0 +1,147 @@
+package de.qabel.core.drop;
+
+import java.net.URL;
+
+/**
+ * Health of one drop server: exponentially weighted moving averages (EWMA)
+ * of the latency and the error rate, and the state of its circuit breaker.
+ * <p>
+ * The circuit is opened after {@link DropServerHealthTracker#FAILURE_THRESHOLD}
+ * consecutive failures. While it is open, no requests are sent to the server.
+ * When the open period has passed, the circuit is half-open and a single
+ * request probes the server: if it succeeds, the circuit is closed again,
+ * if it fails, the circuit is opened for twice as long as before.
+ */
+public class DropServerHealth {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final URL probeUrl;
+	private State state = State.CLOSED;
+	private double latencyMillis = Double.NaN;
+	private double errorRate;
+	private int consecutiveFailures;
+	private long openMillis;
+	private long openUntil;
+	private long probeStarted;
+
+	DropServerHealth(URL probeUrl) {
+		this.probeUrl = probeUrl;
+	}
+
+	/**
+	 * Returns an URL of the server which can be requested to check whether
+	 * the server has recovered.
+	 * @return URL of a drop on the server
+	 */
+	public URL getProbeUrl() {
+		return probeUrl;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the average latency.
+	 * @return latency in milliseconds or NaN if no request succeeded yet
+	 */
+	public synchronized double getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * Returns the average error rate.
+	 * @return error rate between 0 and 1
+	 */
+	public synchronized double getErrorRate() {
+		return errorRate;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	synchronized void recordSuccess(long latency) {
+		latencyMillis = Double.isNaN(latencyMillis) ? latency
+				: average(latencyMillis, latency);
+		errorRate = average(errorRate, 0);
+		consecutiveFailures = 0;
+		state = State.CLOSED;
+		openMillis = 0;
+	}
+
+	/**
+	 * Records a failed request.
+	 * @return true if the circuit has been opened by this failure
+	 */
+	synchronized boolean recordFailure(long now) {
+		errorRate = average(errorRate, 1);
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN) {
+			openMillis = Math.min(openMillis * 2, DropServerHealthTracker.MAX_OPEN_MILLIS);
+		} else if (state == State.CLOSED
+				&& consecutiveFailures >= DropServerHealthTracker.FAILURE_THRESHOLD) {
+			openMillis = DropServerHealthTracker.MIN_OPEN_MILLIS;
+		} else {
+			return false;
+		}
+		state = State.OPEN;
+		openUntil = now + openMillis;
+		return true;
+	}
+
+	/**
+	 * Checks whether a request may be sent to the server. When the open
+	 * period has passed, this lets exactly one request through as a probe.
+	 */
+	synchronized boolean tryAcquire(long now) {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (now < openUntil) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+			probeStarted = now;
+			return true;
+		default:
+			// allow another probe if the result of the last one got lost
+			if (now - probeStarted < openMillis) {
+				return false;
+			}
+			probeStarted = now;
+			return true;
+		}
+	}
+
+	/**
+	 * Checks whether the server is expected to answer, without acquiring a
+	 * probe.
+	 */
+	synchronized boolean isAvailable(long now) {
+		return state == State.CLOSED || (state == State.OPEN && now >= openUntil);
+	}
+
+	/**
+	 * Returns the expected cost of a request, lower is better. Servers
+	 * without latency samples are tried optimistically.
+	 */
+	synchronized double getScore() {
+		double latency = Double.isNaN(latencyMillis) ? 0 : latencyMillis;
+		return latency * (1 + 4 * errorRate) + 1000 * errorRate;
+	}
+
+	private static double average(double average, double sample) {
+		return average + DropServerHealthTracker.ALPHA * (sample - average);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DropServerHealth [state=" + state + ", latencyMillis="
+				+ latencyMillis + ", errorRate=" + errorRate
+				+ ", consecutiveFailures=" + consecutiveFailures + "]";
+	}
+}
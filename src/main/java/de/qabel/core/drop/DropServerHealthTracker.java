@@ -0,0 +1,189 @@
+package de.qabel.core.drop;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tracks the health of drop servers from the results of the requests sent
+ * to them. Requests to servers which failed repeatedly are suppressed with
+ * circuit breaker semantics, see {@link DropServerHealth}, and healthy,
+ * fast servers are preferred.
+ * <p>
+ * Servers are identified by protocol, host and port of their URLs, so all
+ * drops on a server share its health. The tracker is thread-safe.
+ */
+public class DropServerHealthTracker {
+	private final static Logger logger = LogManager.getLogger(DropServerHealthTracker.class.getName());
+
+	/**
+	 * Weight of a new sample in the moving averages
+	 */
+	public static final double ALPHA = 0.2;
+	/**
+	 * Consecutive failures after which the circuit of a server is opened
+	 */
+	public static final int FAILURE_THRESHOLD = 3;
+	public static final long MIN_OPEN_MILLIS = 10 * 1000;
+	public static final long MAX_OPEN_MILLIS = 10 * 60 * 1000;
+
+	private final ConcurrentMap<String, DropServerHealth> servers = new ConcurrentHashMap<>();
+
+	/**
+	 * Records a request which has been answered.
+	 * @param url URL of the request.
+	 * @param responseCode Response code, 0 if the request failed without a response.
+	 * @param latencyMillis Time until the response code has been received.
+	 */
+	public void recordResult(URL url, int responseCode, long latencyMillis) {
+		if (isFailure(responseCode)) {
+			recordFailure(url);
+		} else {
+			getOrCreate(url).recordSuccess(latencyMillis);
+		}
+	}
+
+	/**
+	 * Records a request which failed without a response or with a server
+	 * error.
+	 * @param url URL of the request.
+	 */
+	public void recordFailure(URL url) {
+		if (getOrCreate(url).recordFailure(currentTimeMillis())) {
+			logger.info("Drop server " + getServerKey(url) + " is down");
+		}
+	}
+
+	/**
+	 * Checks whether a request to the server may be sent. Calling this for
+	 * a server whose circuit is about to be half-open acquires the probe
+	 * request, so the result of the request has to be recorded.
+	 * @param url URL of the request.
+	 * @return false if the server is down
+	 */
+	public boolean tryAcquire(URL url) {
+		DropServerHealth health = servers.get(getServerKey(url));
+		return health == null || health.tryAcquire(currentTimeMillis());
+	}
+
+	/**
+	 * Checks whether the server is expected to answer requests.
+	 * @param url URL of the server or of a drop on it.
+	 * @return false if the server is down
+	 */
+	public boolean isAvailable(URL url) {
+		DropServerHealth health = servers.get(getServerKey(url));
+		return health == null || health.isAvailable(currentTimeMillis());
+	}
+
+	/**
+	 * Returns the health of a server.
+	 * @param url URL of the server or of a drop on it.
+	 * @return health or null if no request to the server has been recorded
+	 */
+	public DropServerHealth getHealth(URL url) {
+		return servers.get(getServerKey(url));
+	}
+
+	/**
+	 * Sorts drop URLs by the health of their servers: available servers
+	 * first, ordered by latency and error rate. Servers with the same score
+	 * keep their order.
+	 * @param dropUrls Drop URLs to sort.
+	 * @return new sorted list
+	 */
+	public List<DropURL> prioritize(Collection<DropURL> dropUrls) {
+		long now = currentTimeMillis();
+		List<RankedDropURL> ranked = new ArrayList<>(dropUrls.size());
+		for (DropURL dropUrl : dropUrls) {
+			// rank once, the health may change concurrently while sorting
+			DropServerHealth health = servers.get(getServerKey(dropUrl.getUrl()));
+			ranked.add(health == null ? new RankedDropURL(dropUrl, true, 0)
+					: new RankedDropURL(dropUrl, health.isAvailable(now), health.getScore()));
+		}
+		Collections.sort(ranked);
+		List<DropURL> sorted = new ArrayList<>(ranked.size());
+		for (RankedDropURL r : ranked) {
+			sorted.add(r.dropUrl);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns the servers which are down and due for a probe request.
+	 * @return health of the servers to probe
+	 */
+	public List<DropServerHealth> getServersToProbe() {
+		long now = currentTimeMillis();
+		List<DropServerHealth> toProbe = new ArrayList<>();
+		for (DropServerHealth health : servers.values()) {
+			if (health.getState() != DropServerHealth.State.CLOSED
+					&& health.isAvailable(now)) {
+				toProbe.add(health);
+			}
+		}
+		return toProbe;
+	}
+
+	/**
+	 * Response codes indicating that the server is not working. Client
+	 * errors do not count against the server.
+	 */
+	static boolean isFailure(int responseCode) {
+		return responseCode <= 0 || responseCode >= 500;
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private DropServerHealth getOrCreate(URL url) {
+		String key = getServerKey(url);
+		DropServerHealth health = servers.get(key);
+		if (health == null) {
+			DropServerHealth newHealth = new DropServerHealth(url);
+			health = servers.putIfAbsent(key, newHealth);
+			if (health == null) {
+				health = newHealth;
+			}
+		}
+		return health;
+	}
+
+	private static class RankedDropURL implements Comparable<RankedDropURL> {
+		final DropURL dropUrl;
+		final boolean available;
+		final double score;
+
+		RankedDropURL(DropURL dropUrl, boolean available, double score) {
+			this.dropUrl = dropUrl;
+			this.available = available;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(RankedDropURL other) {
+			if (available != other.available) {
+				return available ? -1 : 1;
+			}
+			return Double.compare(score, other.score);
+		}
+	}
+
+	private static String getServerKey(URL url) {
+		try {
+			return new URL(url.getProtocol(), url.getHost(), url.getPort(), "").toString();
+		} catch (MalformedURLException e) {
+			// should not happen, the parts are taken from a valid URL
+			throw new RuntimeException("Invalid drop server URL", e);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package de.qabel.core.drop;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hashed timer wheel for large numbers of timeouts which are usually
+ * cancelled before they expire, like the timeouts of pending
+ * acknowledgements. Scheduling and cancelling are O(1), the timeouts are
+ * expired by a single thread with the resolution of one tick.
+ * <p>
+ * Tasks are run on the timer thread and have to be short. The thread is
+ * started with the first scheduled task.
+ */
+class TimerWheel {
+	private final static Logger logger = LogManager.getLogger(TimerWheel.class.getName());
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	interface Timeout {
+		/**
+		 * Cancels the task.
+		 * @return false if the task already expired or has been cancelled
+		 */
+		boolean cancel();
+
+		boolean isExpired();
+	}
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_CANCELLED = 1;
+	private static final int STATE_EXPIRED = 2;
+
+	private final long tickNanos;
+	private final List<Set<WheelTimeout>> wheel;
+	private final int mask;
+	private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	private final long startNanos;
+	private final Thread worker;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a timer wheel.
+	 * @param tickMillis Resolution of the timer.
+	 * @param ticksPerWheel Number of buckets, rounded up to a power of two.
+	 */
+	@SuppressWarnings("unchecked")
+	TimerWheel(long tickMillis, int ticksPerWheel) {
+		if (tickMillis <= 0 || ticksPerWheel <= 0) {
+			throw new IllegalArgumentException("Invalid tick duration or wheel size");
+		}
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(ticksPerWheel);
+		if (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		wheel = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			wheel.add(new HashSet<WheelTimeout>());
+		}
+		mask = size - 1;
+		startNanos = System.nanoTime();
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "qabel-timer-wheel");
+		worker.setDaemon(true);
+	}
+
+	/**
+	 * Schedules a task.
+	 * @param task Task to run when the timeout expires.
+	 * @param delayMillis Delay in milliseconds.
+	 * @return handle to cancel the task
+	 */
+	Timeout schedule(Runnable task, long delayMillis) {
+		if (stopped) {
+			throw new IllegalStateException("Timer wheel has been stopped");
+		}
+		if (started.compareAndSet(false, true)) {
+			worker.start();
+		}
+		long deadline = System.nanoTime() - startNanos
+				+ TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the timer. Pending tasks are not run.
+	 */
+	void stop() {
+		stopped = true;
+		worker.interrupt();
+	}
+
+	private void work() {
+		long tick = (System.nanoTime() - startNanos) / tickNanos;
+		while (!stopped) {
+			long sleepNanos = tickNanos * (tick + 1) - (System.nanoTime() - startNanos);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					if (stopped) {
+						return;
+					}
+					continue;
+				}
+			}
+			transferNewTimeouts(tick);
+			expireTimeouts(wheel.get((int) (tick & mask)));
+			tick++;
+		}
+	}
+
+	private void transferNewTimeouts(long tick) {
+		WheelTimeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.state.get() == STATE_CANCELLED) {
+				continue;
+			}
+			long expireTick = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (expireTick - tick) / wheel.size();
+			// timeouts which are already due expire with the current tick
+			wheel.get((int) (Math.max(expireTick, tick) & mask)).add(timeout);
+		}
+	}
+
+	private void expireTimeouts(Set<WheelTimeout> bucket) {
+		Iterator<WheelTimeout> it = bucket.iterator();
+		while (it.hasNext()) {
+			WheelTimeout timeout = it.next();
+			if (timeout.state.get() == STATE_CANCELLED) {
+				it.remove();
+			} else if (timeout.remainingRounds <= 0) {
+				it.remove();
+				timeout.expire();
+			} else {
+				timeout.remainingRounds--;
+			}
+		}
+	}
+
+	private static class WheelTimeout implements Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+		/**
+		 * Accessed by the timer thread only
+		 */
+		private long remainingRounds;
+
+		WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			return state.compareAndSet(STATE_INIT, STATE_CANCELLED);
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+
+		void expire() {
+			if (!state.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Timer task failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package de.qabel.core.http;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs blocking operations like the requests of {@link DropHTTP} and
+ * {@link StorageHTTP} with deadlines.
+ * <p>
+ * On runtimes with virtual threads (Java 21 and later) every operation runs
+ * on its own virtual thread, so thousands of concurrent requests need only
+ * little memory. Older runtimes use a bounded pool of platform threads.
+ * <p>
+ * Operations which exceed their deadline are cancelled: the thread is
+ * interrupted and the abort action of the operation is run, e.g.
+ * {@link DropHTTP#abort()}, which also ends blocked socket reads of
+ * platform threads. Related operations can be grouped in a
+ * {@link TaskScope}, which does not outlive the code that opened it.
+ */
+public class BlockingTaskExecutor {
+	private final static Logger logger = LogManager.getLogger(BlockingTaskExecutor.class.getName());
+
+	public static final int DEFAULT_MAX_PLATFORM_THREADS = 32;
+
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final ScheduledExecutorService deadlines;
+
+	/**
+	 * Creates an executor which uses virtual threads if the runtime
+	 * supports them, otherwise at most {@link #DEFAULT_MAX_PLATFORM_THREADS}
+	 * platform threads.
+	 */
+	public BlockingTaskExecutor() {
+		this(DEFAULT_MAX_PLATFORM_THREADS, true);
+	}
+
+	/**
+	 * Creates an executor.
+	 * @param maxPlatformThreads Size of the platform thread pool if virtual threads are not used.
+	 * @param preferVirtualThreads Use virtual threads if the runtime supports them.
+	 */
+	public BlockingTaskExecutor(int maxPlatformThreads, boolean preferVirtualThreads) {
+		if (maxPlatformThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads " + maxPlatformThreads);
+		}
+		ExecutorService virtualExecutor = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+		if (virtualExecutor != null) {
+			executor = virtualExecutor;
+			virtualThreads = true;
+		} else {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new DaemonThreadFactory("qabel-blocking-"));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+			virtualThreads = false;
+		}
+		deadlines = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("qabel-deadlines-"));
+		logger.debug("Running blocking operations on " + (virtualThreads ? "virtual" : "platform")
+				+ " threads");
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task via reflection,
+	 * so the code still runs on runtimes without virtual threads.
+	 * @return executor or null if virtual threads are not supported
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// e.g. virtual threads are a disabled preview feature
+			logger.debug("Virtual threads are not available", e.getCause());
+			return null;
+		} catch (IllegalAccessException | RuntimeException e) {
+			logger.warn("Cannot create virtual thread executor", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether operations run on virtual threads.
+	 * @return true if virtual threads are used, false for platform threads
+	 */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Runs a blocking operation with a deadline.
+	 * @param task Operation to run.
+	 * @param abort Action which ends the blocking operation when it is cancelled, may be null.
+	 * @param timeoutMillis Time after which the operation is cancelled, 0 for no deadline.
+	 * @return future of the result of the operation
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	public <T> Future<T> submit(Callable<T> task, Runnable abort, long timeoutMillis) {
+		final BlockingTask<T> blockingTask = new BlockingTask<>(task, abort);
+		executor.execute(blockingTask);
+		if (timeoutMillis > 0 && !blockingTask.isDone()) {
+			blockingTask.deadline = deadlines.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (blockingTask.cancel(true)) {
+						logger.debug("Blocking operation cancelled after deadline");
+					}
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		return blockingTask;
+	}
+
+	/**
+	 * Opens a scope for related operations sharing one deadline.
+	 * @param timeoutMillis Time after which all unfinished operations are cancelled, 0 for no deadline.
+	 * @return new scope, to be closed by the caller
+	 */
+	public <T> TaskScope<T> openScope(long timeoutMillis) {
+		return new TaskScope<>(timeoutMillis);
+	}
+
+	/**
+	 * Cancels all running operations and stops the threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		deadlines.shutdownNow();
+	}
+
+	/**
+	 * Group of operations which are forked and joined by the same thread.
+	 * When the scope is closed, operations which are still running are
+	 * cancelled, so no operation outlives the scope.
+	 *
+	 * @param <T> Result type of the operations.
+	 */
+	public class TaskScope<T> implements AutoCloseable {
+		private final long deadlineNanos;
+		private final List<Future<T>> futures = new ArrayList<>();
+
+		TaskScope(long timeoutMillis) {
+			deadlineNanos = timeoutMillis > 0
+					? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+		}
+
+		/**
+		 * Starts an operation in the scope.
+		 * @param task Operation to run.
+		 * @return future of the result
+		 */
+		public Future<T> fork(Callable<T> task) {
+			return fork(task, null);
+		}
+
+		/**
+		 * Starts an operation in the scope.
+		 * @param task Operation to run.
+		 * @param abort Action which ends the blocking operation when it is cancelled, may be null.
+		 * @return future of the result
+		 */
+		public Future<T> fork(Callable<T> task, Runnable abort) {
+			long timeoutMillis = 0;
+			if (deadlineNanos != 0) {
+				timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+			}
+			Future<T> future = submit(task, abort, timeoutMillis);
+			futures.add(future);
+			return future;
+		}
+
+		/**
+		 * Waits until all operations are finished or the deadline has
+		 * passed. Unfinished operations are cancelled.
+		 * @return futures of all operations, in the order they were forked
+		 * @throws InterruptedException if the waiting thread has been
+		 *         interrupted, all operations are cancelled then
+		 */
+		public List<Future<T>> join() throws InterruptedException {
+			try {
+				for (Future<T> future : futures) {
+					try {
+						if (deadlineNanos == 0) {
+							future.get();
+						} else {
+							future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+						}
+					} catch (TimeoutException e) {
+						future.cancel(true);
+					} catch (ExecutionException | CancellationException e) {
+						// failed operations are reported by their future
+					}
+				}
+			} catch (InterruptedException e) {
+				close();
+				throw e;
+			}
+			return Collections.unmodifiableList(futures);
+		}
+
+		/**
+		 * Cancels all unfinished operations.
+		 */
+		@Override
+		public void close() {
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Task which runs its abort action when it is cancelled and releases
+	 * its deadline when it is done.
+	 */
+	private static class BlockingTask<T> extends FutureTask<T> {
+		private final Runnable abort;
+		private volatile Future<?> deadline;
+
+		BlockingTask(Callable<T> callable, Runnable abort) {
+			super(callable);
+			this.abort = abort;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled && abort != null) {
+				try {
+					abort.run();
+				} catch (RuntimeException e) {
+					logger.warn("Aborting blocking operation failed", e);
+				}
+			}
+			return cancelled;
+		}
+
+		@Override
+		protected void done() {
+			Future<?> d = deadline;
+			if (d != null) {
+				d.cancel(false);
+			}
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package de.qabel.core.http;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.stream.EntityState;
 import org.apache.james.mime4j.stream.MimeTokenStream;
@@ -13,12 +15,29 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import de.qabel.core.metrics.MeteredInputStream;
+import de.qabel.core.metrics.Metrics;
 
-public class DropHTTP {
+/**
+ * Blocking {@link DropTransport} based on {@link HttpURLConnection}.
+ */
+public class DropHTTP implements DropTransport {
+	private final static Logger logger = LogManager.getLogger(DropHTTP.class.getName());
 
 	String dateFormat;
+	private final Set<HttpURLConnection> activeConnections =
+			Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+	private int connectTimeoutMillis;
+	private int readTimeoutMillis;
 
+	@Override
 	public HTTPResult<?> send(URL url, byte[] message) {
 		HTTPResult<?> result = new HTTPResult<>();
 		HttpURLConnection conn = (HttpURLConnection) this.setupConnection(url);
@@ -28,18 +47,21 @@ public class DropHTTP {
 
 		// conn.setFixedLengthStreamingMode();
 		DataOutputStream out;
+		long start = System.nanoTime();
 		try {
 			out = new DataOutputStream(conn.getOutputStream());
 			out.write(message);
 			out.flush();
 			out.close();
+			Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_SENT, url)).add(message.length);
 			result.setResponseCode(conn.getResponseCode());
 			result.setOk(conn.getResponseCode() == 200);
+			Metrics.recordHttpResponse(url, start, result.getResponseCode());
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.warn("Sending drop message to " + url + " failed", e);
+			Metrics.recordHttpError(url);
 		} finally {
-			conn.disconnect();
+			release(conn);
 
 		}
 		return result;
@@ -50,35 +72,85 @@ public class DropHTTP {
 	}
 
 	public HTTPResult<Collection<byte[]>> receiveMessages(URL url, long sinceDate) {
+		final Collection<byte[]> messages = new ArrayList<byte[]>();
+		HTTPResult<Integer> received;
+		try {
+			received = receiveMessages(url, sinceDate, new MessageReceiver() {
+				@Override
+				public void onMessage(byte[] message) {
+					messages.add(message);
+				}
+			});
+		} catch (InterruptedException e) {
+			// collecting the messages does not block
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupt should not happen", e);
+		}
 		HTTPResult<Collection<byte[]>> result = new HTTPResult<>();
+		result.setResponseCode(received.getResponseCode());
+		result.setOk(received.isOk());
+		result.setData(messages);
+		return result;
+	}
+
+	/**
+	 * Receives the messages of a drop. The request blocks the calling
+	 * thread, the returned future is already done.
+	 * @param url URL of the drop.
+	 * @param sinceDate Only receive messages newer than this date, 0 for all messages.
+	 * @return done future of the result with the received messages as data
+	 */
+	@Override
+	public Future<HTTPResult<Collection<byte[]>>> receiveMessagesAsync(final URL url, final long sinceDate) {
+		FutureTask<HTTPResult<Collection<byte[]>>> task = new FutureTask<>(
+				new Callable<HTTPResult<Collection<byte[]>>>() {
+					@Override
+					public HTTPResult<Collection<byte[]>> call() {
+						return receiveMessages(url, sinceDate);
+					}
+				});
+		task.run();
+		return task;
+	}
+
+	/**
+	 * Receives the messages of a drop and passes each message to the
+	 * receiver as soon as it has been read, so messages can be processed
+	 * while the rest of the response is downloaded.
+	 * @param url URL of the drop.
+	 * @param sinceDate Only receive messages newer than this date, 0 for all messages.
+	 * @param receiver Receiver of the messages.
+	 * @return result with the number of received messages as data
+	 * @throws InterruptedException if the receiver has been interrupted
+	 */
+	@Override
+	public HTTPResult<Integer> receiveMessages(URL url, long sinceDate, MessageReceiver receiver)
+			throws InterruptedException {
+		HTTPResult<Integer> result = new HTTPResult<>();
 		HttpURLConnection conn = (HttpURLConnection) this.setupConnection(url);
 		conn.setIfModifiedSince(sinceDate);
-		Collection<byte[]> messages = new ArrayList<byte[]>();
+		int count = 0;
+		long start = System.nanoTime();
 		try {
 			conn.setRequestMethod("GET");
 			result.setResponseCode(conn.getResponseCode());
 			result.setOk(conn.getResponseCode() == 200);
+			Metrics.recordHttpResponse(url, start, result.getResponseCode());
+			result.setLastModified(conn.getLastModified());
 			if (result.isOk()) {
-				InputStream inputstream = conn.getInputStream();
-				MimeTokenStream stream = new MimeTokenStream();
-				stream.parseHeadless(inputstream, conn.getContentType());
-				for (EntityState state = stream.getState();
-					 state != EntityState.T_END_OF_STREAM;
-					 state = stream.next()) {
-					if (state == EntityState.T_BODY) {
-						byte[] message = IOUtils.toByteArray(stream.getInputStream());
-						messages.add(message);
-					}		
-				}
+				InputStream inputstream = new MeteredInputStream(conn.getInputStream(),
+						Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_RECEIVED, url)));
+				count = readMessages(inputstream, conn.getContentType(), receiver);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.warn("Receiving drop messages from " + url + " failed", e);
+			Metrics.recordHttpError(url);
 		} catch (MimeException e) {
-			e.printStackTrace();
+			logger.warn("Invalid multipart response from " + url, e);
 		} finally {
-			conn.disconnect();
+			release(conn);
 		}
-		result.setData(messages);
+		result.setData(count);
 		return result;
 	}
 
@@ -86,31 +158,104 @@ public class DropHTTP {
 		return this.head(url, 0);
 	}
 
+	@Override
 	public HTTPResult<?> head(URL url, long sinceDate) {
 		HTTPResult<?> result = new HTTPResult<>();
 		HttpURLConnection conn = (HttpURLConnection) this.setupConnection(url);
 		conn.setIfModifiedSince(sinceDate);
+		long start = System.nanoTime();
 		try {
 			conn.setRequestMethod("GET");
 			result.setResponseCode(conn.getResponseCode());
 			result.setOk(conn.getResponseCode() == 200);
+			Metrics.recordHttpResponse(url, start, result.getResponseCode());
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.warn("Checking drop " + url + " failed", e);
+			Metrics.recordHttpError(url);
 		} finally {
-			conn.disconnect();
+			release(conn);
 		}
 		return result;
 	}
 
+	/**
+	 * Reads the messages of a multipart response.
+	 * @param in Response body.
+	 * @param contentType Content type of the response with the multipart boundary.
+	 * @param receiver Receiver of the messages.
+	 * @return number of messages read
+	 * @throws IOException
+	 * @throws MimeException if the response is not a valid multipart message
+	 * @throws InterruptedException if the receiver has been interrupted
+	 */
+	static int readMessages(InputStream in, String contentType, MessageReceiver receiver)
+			throws IOException, MimeException, InterruptedException {
+		int count = 0;
+		MimeTokenStream stream = new MimeTokenStream();
+		stream.parseHeadless(in, contentType);
+		for (EntityState state = stream.getState();
+			 state != EntityState.T_END_OF_STREAM;
+			 state = stream.next()) {
+			if (state == EntityState.T_BODY) {
+				receiver.onMessage(IOUtils.toByteArray(stream.getInputStream()));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Aborts the running requests by closing their connections, e.g. when
+	 * the deadline of a request has passed. Blocked reads and writes of the
+	 * requests fail then.
+	 */
+	public void abort() {
+		for (HttpURLConnection conn : activeConnections) {
+			release(conn);
+		}
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Sets the timeout for opening connections.
+	 * @param connectTimeoutMillis Timeout in milliseconds, 0 for no timeout.
+	 */
+	public void setConnectTimeout(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getReadTimeout() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * Sets the timeout for every read from a connection.
+	 * @param readTimeoutMillis Timeout in milliseconds, 0 for no timeout.
+	 */
+	public void setReadTimeout(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
 	private URLConnection setupConnection(URL url) {
 		URLConnection conn = null;
 		try {
 			conn = url.openConnection();
+			conn.setConnectTimeout(connectTimeoutMillis);
+			conn.setReadTimeout(readTimeoutMillis);
+			if (conn instanceof HttpURLConnection) {
+				activeConnections.add((HttpURLConnection) conn);
+			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Cannot open connection to " + url, e);
 		}
 		return conn;
 	}
+
+	private void release(HttpURLConnection conn) {
+		activeConnections.remove(conn);
+		conn.disconnect();
+	}
 }
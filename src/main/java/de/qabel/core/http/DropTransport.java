@@ -0,0 +1,63 @@
+package de.qabel.core.http;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+/**
+ * Transport for the requests to drop servers. {@link DropHTTP} is the
+ * blocking implementation based on {@link java.net.HttpURLConnection},
+ * {@link NioDropTransport} multiplexes many requests on one thread.
+ */
+public interface DropTransport {
+	/**
+	 * Receives drop messages one by one while they are downloaded.
+	 */
+	interface MessageReceiver {
+		/**
+		 * Called for every received message.
+		 * @param message Raw binary drop message.
+		 * @throws InterruptedException if waiting for the message to be processed has been interrupted
+		 */
+		void onMessage(byte[] message) throws InterruptedException;
+	}
+
+	/**
+	 * Posts a message to a drop.
+	 * @param url URL of the drop.
+	 * @param message Raw binary drop message.
+	 * @return result of the request
+	 */
+	HTTPResult<?> send(URL url, byte[] message);
+
+	/**
+	 * Receives the messages of a drop and passes each message to the
+	 * receiver.
+	 * @param url URL of the drop.
+	 * @param sinceDate Only receive messages newer than this date, 0 for all messages.
+	 * @param receiver Receiver of the messages.
+	 * @return result with the number of received messages as data
+	 * @throws InterruptedException if the receiver or the waiting thread has been interrupted
+	 */
+	HTTPResult<Integer> receiveMessages(URL url, long sinceDate, MessageReceiver receiver)
+			throws InterruptedException;
+
+	/**
+	 * Starts to receive the messages of a drop. Non-blocking transports
+	 * return before the response has been received, so many drops can be
+	 * polled at the same time. Failed requests are reported as results which
+	 * are not ok.
+	 * @param url URL of the drop.
+	 * @param sinceDate Only receive messages newer than this date, 0 for all messages.
+	 * @return future of the result with the received messages as data
+	 */
+	Future<HTTPResult<Collection<byte[]>>> receiveMessagesAsync(URL url, long sinceDate);
+
+	/**
+	 * Checks whether a drop has messages newer than a date.
+	 * @param url URL of the drop.
+	 * @param sinceDate Date to check against, 0 to only check the drop server.
+	 * @return result of the request, 304 if there are no new messages
+	 */
+	HTTPResult<?> head(URL url, long sinceDate);
+}
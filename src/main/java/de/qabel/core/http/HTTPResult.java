@@ -4,6 +4,9 @@ public class HTTPResult<T> {
 	int responseCode = 0;
 	boolean ok = false;
 	T data;
+	long contentLength = -1;
+	String eTag;
+	long lastModified = 0;
 
 	public boolean isOk() {
 		return ok;
@@ -28,4 +31,40 @@ public class HTTPResult<T> {
 	public void setData(T data) {
 		this.data = data;
 	}
+
+	/**
+	 * Returns the length of the response body.
+	 * @return length in bytes or -1 if unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public void setContentLength(long contentLength) {
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * Returns the ETag of the response.
+	 * @return ETag or null if the server did not send one
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	public void setETag(String eTag) {
+		this.eTag = eTag;
+	}
+
+	/**
+	 * Returns the last modification time of the requested resource.
+	 * @return milliseconds since the epoch or 0 if unknown
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
 }
@@ -0,0 +1,755 @@
+package de.qabel.core.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.metrics.Metrics;
+
+/**
+ * Non-blocking {@link DropTransport} which multiplexes the requests of all
+ * threads on one selector thread, so hundreds of drops can be polled with
+ * If-Modified-Since at the same time without a thread per request.
+ * <p>
+ * {@link #receiveMessagesAsync(URL, long)} starts a poll and returns
+ * immediately; the blocking methods of {@link DropTransport} wait for their
+ * request. Every request uses its own connection which is closed by the
+ * server after the response.
+ * <p>
+ * Only plain HTTP is multiplexed. TLS is not implemented, so requests to
+ * https drops are passed to a blocking {@link DropHTTP}: they block the
+ * calling thread, also in {@link #receiveMessagesAsync(URL, long)} which
+ * only returns after the response, and drops on https servers are polled
+ * one after another.
+ */
+public class NioDropTransport implements DropTransport, Closeable {
+	private final static Logger logger = LogManager.getLogger(NioDropTransport.class.getName());
+
+	public static final int DEFAULT_TIMEOUT_MILLIS = 60 * 1000;
+	public static final int DEFAULT_MAX_RESPONSE_SIZE = 64 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+	private static final String LAST_CHUNK = "\r\n0\r\n\r\n";
+
+	private final Selector selector;
+	private final Thread selectorThread;
+	private final Queue<Exchange> newExchanges = new ConcurrentLinkedQueue<>();
+	/**
+	 * Running exchanges, only accessed by the selector thread.
+	 */
+	private final Set<Exchange> exchanges = new HashSet<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final DropHTTP fallback = new DropHTTP();
+	private volatile int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	private volatile int maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a transport and starts its selector thread.
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public NioDropTransport() throws IOException {
+		selector = Selector.open();
+		selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSelector();
+			}
+		}, "qabel-drop-nio");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	public int getTimeout() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Sets the time after which a request fails, from connecting to the end
+	 * of the response.
+	 * @param timeoutMillis Timeout in milliseconds.
+	 */
+	public void setTimeout(int timeoutMillis) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("Invalid timeout " + timeoutMillis);
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public int getMaxResponseSize() {
+		return maxResponseSize;
+	}
+
+	/**
+	 * Sets the size of the largest response which is accepted.
+	 * @param maxResponseSize Size in bytes.
+	 */
+	public void setMaxResponseSize(int maxResponseSize) {
+		if (maxResponseSize <= 0) {
+			throw new IllegalArgumentException("Invalid response size " + maxResponseSize);
+		}
+		this.maxResponseSize = maxResponseSize;
+	}
+
+	@Override
+	public HTTPResult<?> send(URL url, byte[] message) {
+		if (!isMultiplexed(url)) {
+			return fallback.send(url, message);
+		}
+		HTTPResult<?> result = new HTTPResult<>();
+		try {
+			Response response = await(execute("POST", url, 0, message));
+			Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_SENT, url)).add(message.length);
+			result.setResponseCode(response.code);
+			result.setOk(response.code == 200);
+		} catch (IOException e) {
+			logger.warn("Sending drop message to " + url + " failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	@Override
+	public HTTPResult<Integer> receiveMessages(URL url, long sinceDate, MessageReceiver receiver)
+			throws InterruptedException {
+		if (!isMultiplexed(url)) {
+			return fallback.receiveMessages(url, sinceDate, receiver);
+		}
+		HTTPResult<Integer> result = new HTTPResult<>();
+		int count = 0;
+		try {
+			Response response = await(execute("GET", url, sinceDate, null));
+			setResult(result, response);
+			if (result.isOk()) {
+				count = readMessages(response, receiver);
+			}
+		} catch (IOException e) {
+			logger.warn("Receiving drop messages from " + url + " failed", e);
+		} catch (MimeException e) {
+			logger.warn("Invalid multipart response from " + url, e);
+		}
+		result.setData(count);
+		return result;
+	}
+
+	/**
+	 * Starts to receive the messages of a drop without waiting for the
+	 * response. Requests which are not multiplexed block until the response
+	 * has been received. Failed requests are reported as results which are
+	 * not ok.
+	 * @param url URL of the drop.
+	 * @param sinceDate Only receive messages newer than this date, 0 for all messages.
+	 * @return future of the result with the received messages as data
+	 */
+	@Override
+	public Future<HTTPResult<Collection<byte[]>>> receiveMessagesAsync(URL url, long sinceDate) {
+		if (!isMultiplexed(url)) {
+			return fallback.receiveMessagesAsync(url, sinceDate);
+		}
+		try {
+			return new ReceiveFuture(url, execute("GET", url, sinceDate, null));
+		} catch (IOException e) {
+			logger.warn("Receiving drop messages from " + url + " failed", e);
+			return new ReceiveFuture(url, failedExchange(url, e));
+		}
+	}
+
+	@Override
+	public HTTPResult<?> head(URL url, long sinceDate) {
+		if (!isMultiplexed(url)) {
+			return fallback.head(url, sinceDate);
+		}
+		HTTPResult<?> result = new HTTPResult<>();
+		try {
+			setResult(result, await(execute("GET", url, sinceDate, null)));
+		} catch (IOException e) {
+			logger.warn("Checking drop " + url + " failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	/**
+	 * Stops the selector thread. Running requests fail.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private static boolean isMultiplexed(URL url) {
+		return "http".equalsIgnoreCase(url.getProtocol());
+	}
+
+	private static void setResult(HTTPResult<?> result, Response response) {
+		result.setResponseCode(response.code);
+		result.setOk(response.code == 200);
+		result.setContentLength(response.body.length);
+		result.setETag(response.headers.get("etag"));
+		result.setLastModified(parseDate(response.headers.get("last-modified")));
+	}
+
+	private static int readMessages(Response response, MessageReceiver receiver)
+			throws IOException, MimeException, InterruptedException {
+		return DropHTTP.readMessages(new ByteArrayInputStream(response.body),
+				response.headers.get("content-type"), receiver);
+	}
+
+	private static Response await(Exchange exchange) throws IOException, InterruptedException {
+		try {
+			return exchange.get();
+		} catch (InterruptedException e) {
+			exchange.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			throw (IOException) e.getCause();
+		}
+	}
+
+	private Exchange execute(String method, URL url, long sinceDate, byte[] body) throws IOException {
+		if (closed) {
+			throw new IOException("Transport has been closed");
+		}
+		String host = url.getHost();
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		// resolved by the calling thread, so lookups do not block the selector
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved()) {
+			throw new UnknownHostException(host);
+		}
+		String path = url.getFile().isEmpty() ? "/" : url.getFile();
+		StringBuilder sb = new StringBuilder();
+		sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(host);
+		if (url.getPort() != -1) {
+			sb.append(':').append(port);
+		}
+		sb.append("\r\n");
+		sb.append("Connection: close\r\n");
+		if (sinceDate > 0) {
+			sb.append("If-Modified-Since: ").append(formatDate(sinceDate)).append("\r\n");
+		}
+		if (body != null) {
+			sb.append("Content-Type: application/octet-stream\r\n");
+			sb.append("Content-Length: ").append(body.length).append("\r\n");
+		}
+		sb.append("\r\n");
+		byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+		ByteBuffer request = ByteBuffer.allocate(head.length + (body == null ? 0 : body.length));
+		request.put(head);
+		if (body != null) {
+			request.put(body);
+		}
+		request.flip();
+
+		Exchange exchange = new Exchange(url, address, request);
+		newExchanges.add(exchange);
+		selector.wakeup();
+		return exchange;
+	}
+
+	private Exchange failedExchange(URL url, IOException e) {
+		Exchange exchange = new Exchange(url, null, null);
+		exchange.fail(e);
+		return exchange;
+	}
+
+	private void runSelector() {
+		while (!closed) {
+			try {
+				selector.select(selectTimeout());
+			} catch (IOException e) {
+				logger.error("Selecting drop connections failed", e);
+				failAll(e);
+				continue;
+			}
+			registerNewExchanges();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Exchange exchange = (Exchange) key.attachment();
+				try {
+					handle(exchange, key);
+				} catch (IOException e) {
+					exchange.fail(e);
+				} catch (RuntimeException e) {
+					// a malformed response must not stop the other exchanges
+					logger.error("Handling response from " + exchange.url + " failed", e);
+					exchange.fail(new IOException(e));
+				}
+			}
+			removeFinishedExchanges();
+		}
+		failAll(new IOException("Transport has been closed"));
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.warn("Closing selector failed", e);
+		}
+	}
+
+	private long selectTimeout() {
+		long now = System.nanoTime();
+		long timeout = 0;
+		for (Exchange exchange : exchanges) {
+			long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(exchange.deadlineNanos - now));
+			timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+		}
+		return timeout;
+	}
+
+	private void registerNewExchanges() {
+		Exchange exchange;
+		while ((exchange = newExchanges.poll()) != null) {
+			if (exchange.isDone()) {
+				continue;
+			}
+			try {
+				exchange.channel = SocketChannel.open();
+				exchange.channel.configureBlocking(false);
+				int ops = exchange.channel.connect(exchange.address)
+						? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+				exchange.channel.register(selector, ops, exchange);
+			} catch (IOException e) {
+				exchange.fail(e);
+			}
+			exchanges.add(exchange);
+		}
+	}
+
+	private void handle(Exchange exchange, SelectionKey key) throws IOException {
+		if (!key.isValid() || exchange.isDone()) {
+			return;
+		}
+		if (key.isConnectable() && exchange.channel.finishConnect()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+		} else if (key.isWritable()) {
+			exchange.channel.write(exchange.request);
+			if (!exchange.request.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		} else if (key.isReadable()) {
+			readBuffer.clear();
+			int read = exchange.channel.read(readBuffer);
+			if (read > 0) {
+				Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_RECEIVED, exchange.url)).add(read);
+				if (exchange.length + read > maxResponseSize) {
+					throw new IOException("Response exceeds " + maxResponseSize + " bytes");
+				}
+				exchange.append(readBuffer.array(), read);
+			}
+			exchange.onData(read < 0);
+		}
+	}
+
+	private void removeFinishedExchanges() {
+		long now = System.nanoTime();
+		Iterator<Exchange> it = exchanges.iterator();
+		while (it.hasNext()) {
+			Exchange exchange = it.next();
+			if (!exchange.isDone() && now - exchange.deadlineNanos >= 0) {
+				exchange.fail(new SocketTimeoutException("Request to " + exchange.url + " timed out"));
+			}
+			if (exchange.isDone()) {
+				exchange.closeChannel();
+				it.remove();
+			}
+		}
+	}
+
+	private void failAll(IOException e) {
+		Exchange exchange;
+		while ((exchange = newExchanges.poll()) != null) {
+			exchange.fail(e);
+		}
+		for (Exchange running : exchanges) {
+			running.fail(e);
+			running.closeChannel();
+		}
+		exchanges.clear();
+	}
+
+	private static String formatDate(long date) {
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(date));
+	}
+
+	private static long parseDate(String date) {
+		if (date == null) {
+			return 0;
+		}
+		try {
+			return new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US).parse(date).getTime();
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Parsed HTTP response.
+	 */
+	private static class Response {
+		private final int code;
+		private final Map<String, String> headers;
+		private final byte[] body;
+
+		Response(int code, Map<String, String> headers, byte[] body) {
+			this.code = code;
+			this.headers = headers;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * One request and its response. The connection is only used by the
+	 * selector thread, the future can be completed by any thread.
+	 */
+	private class Exchange implements Future<Response> {
+		private final URL url;
+		private final InetSocketAddress address;
+		private final ByteBuffer request;
+		private final long startNanos = System.nanoTime();
+		private final long deadlineNanos;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private SocketChannel channel;
+		private byte[] data = new byte[BUFFER_SIZE];
+		private int length;
+		private int bodyStart = -1;
+		private int code;
+		private Map<String, String> headers;
+		private volatile Response response;
+		private volatile IOException failure;
+		private volatile boolean cancelled;
+
+		Exchange(URL url, InetSocketAddress address, ByteBuffer request) {
+			this.url = url;
+			this.address = address;
+			this.request = request;
+			deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		}
+
+		void append(byte[] bytes, int count) {
+			if (length + count > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+			}
+			System.arraycopy(bytes, 0, data, length, count);
+			length += count;
+		}
+
+		/**
+		 * Completes the exchange as soon as the response is complete.
+		 * @param eof Whether the server has closed the connection.
+		 */
+		void onData(boolean eof) throws IOException {
+			if (bodyStart < 0) {
+				parseHeader();
+			}
+			if (bodyStart >= 0) {
+				byte[] body = parseBody(eof);
+				if (body != null) {
+					complete(new Response(code, headers, body));
+					return;
+				}
+			}
+			if (eof) {
+				throw new EOFException("Incomplete response from " + url);
+			}
+		}
+
+		private void parseHeader() throws IOException {
+			int end = indexOf(data, length, 0, "\r\n\r\n");
+			if (end < 0) {
+				return;
+			}
+			String[] lines = new String(data, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+			String[] status = lines[0].split(" ", 3);
+			if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+				throw new IOException("Invalid status line from " + url + ": " + lines[0]);
+			}
+			try {
+				code = Integer.parseInt(status[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid status line from " + url + ": " + lines[0]);
+			}
+			headers = new HashMap<>();
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon > 0) {
+					headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+							lines[i].substring(colon + 1).trim());
+				}
+			}
+			bodyStart = end + 4;
+		}
+
+		/**
+		 * Extracts the body of the response.
+		 * @return body or null if it has not been received completely
+		 */
+		private byte[] parseBody(boolean eof) throws IOException {
+			if (code / 100 == 1 || code == 204 || code == 304) {
+				return new byte[0];
+			}
+			if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+				// decoded once, when the last chunk has arrived
+				if (!eof && indexOf(data, length, Math.max(0, length - LAST_CHUNK.length()), LAST_CHUNK) < 0) {
+					return null;
+				}
+				return decodeChunks();
+			}
+			String contentLength = headers.get("content-length");
+			if (contentLength != null) {
+				int size;
+				try {
+					size = Integer.parseInt(contentLength);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid content length from " + url);
+				}
+				if (size < 0) {
+					throw new IOException("Invalid content length from " + url);
+				}
+				if (length - bodyStart < size) {
+					return null;
+				}
+				return Arrays.copyOfRange(data, bodyStart, bodyStart + size);
+			}
+			return eof ? Arrays.copyOfRange(data, bodyStart, length) : null;
+		}
+
+		private byte[] decodeChunks() throws IOException {
+			byte[] body = new byte[0];
+			int pos = bodyStart;
+			while (true) {
+				int lineEnd = indexOf(data, length, pos, "\r\n");
+				if (lineEnd < 0) {
+					return null;
+				}
+				String sizeLine = new String(data, pos, lineEnd - pos, StandardCharsets.ISO_8859_1);
+				int extension = sizeLine.indexOf(';');
+				int size;
+				try {
+					size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size from " + url);
+				}
+				if (size < 0) {
+					throw new IOException("Invalid chunk size from " + url);
+				}
+				if (size == 0) {
+					return body;
+				}
+				int chunkStart = lineEnd + 2;
+				if (length < (long) chunkStart + size + 2) {
+					return null;
+				}
+				int offset = body.length;
+				body = Arrays.copyOf(body, offset + size);
+				System.arraycopy(data, chunkStart, body, offset, size);
+				pos = chunkStart + size + 2;
+			}
+		}
+
+		void complete(Response response) {
+			if (finished.compareAndSet(false, true)) {
+				this.response = response;
+				Metrics.recordHttpResponse(url, startNanos, response.code);
+				done.countDown();
+			}
+		}
+
+		void fail(IOException e) {
+			if (finished.compareAndSet(false, true)) {
+				failure = e;
+				Metrics.recordHttpError(url);
+				done.countDown();
+			}
+		}
+
+		void closeChannel() {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.debug("Closing connection to " + url + " failed", e);
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!finished.compareAndSet(false, true)) {
+				return false;
+			}
+			cancelled = true;
+			done.countDown();
+			// the selector thread closes the connection
+			selector.wakeup();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return finished.get();
+		}
+
+		@Override
+		public Response get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Response get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Response result() throws ExecutionException {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Future of a poll which converts the response to a result.
+	 */
+	private static class ReceiveFuture implements Future<HTTPResult<Collection<byte[]>>> {
+		private final URL url;
+		private final Exchange exchange;
+
+		ReceiveFuture(URL url, Exchange exchange) {
+			this.url = url;
+			this.exchange = exchange;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return exchange.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return exchange.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return exchange.isDone();
+		}
+
+		@Override
+		public HTTPResult<Collection<byte[]>> get() throws InterruptedException {
+			try {
+				return toResult(exchange.get());
+			} catch (ExecutionException e) {
+				return failed(e);
+			}
+		}
+
+		@Override
+		public HTTPResult<Collection<byte[]>> get(long timeout, TimeUnit unit)
+				throws InterruptedException, TimeoutException {
+			try {
+				return toResult(exchange.get(timeout, unit));
+			} catch (ExecutionException e) {
+				return failed(e);
+			}
+		}
+
+		private HTTPResult<Collection<byte[]>> toResult(Response response) throws InterruptedException {
+			HTTPResult<Collection<byte[]>> result = new HTTPResult<>();
+			final Collection<byte[]> messages = new ArrayList<>();
+			setResult(result, response);
+			if (result.isOk()) {
+				try {
+					readMessages(response, new MessageReceiver() {
+						@Override
+						public void onMessage(byte[] message) {
+							messages.add(message);
+						}
+					});
+				} catch (IOException | MimeException e) {
+					logger.warn("Invalid multipart response from " + url, e);
+				}
+			}
+			result.setData(messages);
+			return result;
+		}
+
+		private HTTPResult<Collection<byte[]>> failed(ExecutionException e) {
+			logger.warn("Receiving drop messages from " + url + " failed", e.getCause());
+			HTTPResult<Collection<byte[]>> result = new HTTPResult<>();
+			result.setData(new ArrayList<byte[]>());
+			return result;
+		}
+	}
+
+	private static int indexOf(byte[] data, int length, int from, String pattern) {
+		byte[] bytes = pattern.getBytes(StandardCharsets.ISO_8859_1);
+		outer:
+		for (int i = from; i <= length - bytes.length; i++) {
+			for (int j = 0; j < bytes.length; j++) {
+				if (data[i + j] != bytes[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+}
@@ -5,13 +5,17 @@ import com.google.gson.JsonParser;
 
 import de.qabel.core.config.StorageServer;
 import de.qabel.core.config.StorageVolume;
+import de.qabel.core.metrics.MeteredInputStream;
+import de.qabel.core.metrics.MeteredOutputStream;
+import de.qabel.core.metrics.Metrics;
 
 import java.io.*;
 import java.net.*;
 
 public class StorageHTTP {
-	private HttpURLConnection connection;
+	private volatile HttpURLConnection connection;
 	private StorageServer server;
+	private long requestStart;
 	
 	public StorageHTTP(StorageServer server) {
 		this.server = server;
@@ -26,7 +30,7 @@ public class StorageHTTP {
 		this.setupConnection("_new");
 		connection.setDoOutput(true);
 		connection.setRequestMethod("POST");
-		int responseCode = connection.getResponseCode();
+		int responseCode = getResponseCode();
 		HTTPResult<StorageVolume> result = new HTTPResult<>();
 		result.setResponseCode(responseCode);
 		if(responseCode == 201) {
@@ -47,7 +51,7 @@ public class StorageHTTP {
 	public HTTPResult<?> probeStorageVolume(String publicIdentifier) throws IOException {
 		this.setupConnection(publicIdentifier);
 		connection.setRequestMethod("GET");
-		int responseCode = connection.getResponseCode();
+		int responseCode = getResponseCode();
 		HTTPResult<?> result = new HTTPResult<>();
 		result.setResponseCode(responseCode);
 		result.setOk(responseCode == 200);
@@ -72,7 +76,8 @@ public class StorageHTTP {
 		connection.setRequestMethod("POST");
 		connection.setDoOutput(true);
 		connection.setRequestProperty("X-Qabel-Token", token);
-		return connection.getOutputStream();
+		return new MeteredOutputStream(connection.getOutputStream(),
+				Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_SENT, server.getUrl())));
 	}
 
 	/**
@@ -87,7 +92,7 @@ public class StorageHTTP {
 		OutputStream out = connection.getOutputStream();
 		out.flush();
 		out.close();
-		int responseCode = connection.getResponseCode();
+		int responseCode = getResponseCode();
 		HTTPResult<?> result = new HTTPResult<>();
 		result.setResponseCode(responseCode);
 		result.setOk(responseCode == 200);
@@ -103,18 +108,81 @@ public class StorageHTTP {
 	 * @throws IOException If something went wrong with the connection
 	 */
 	public HTTPResult<InputStream> retrieveBlob(String publicIdentifier, String blobName) throws IOException {
+		return retrieveBlob(publicIdentifier, blobName, 0);
+	}
+
+	/**
+	 * Retrieves a blob/file from the url (baseUrl + publicIdentifier + blobName) starting at the given offset.
+	 * If the offset is greater than 0 a range request is sent. The server may ignore the range and answer
+	 * with the complete blob, which is indicated by the response code 200 instead of 206.
+	 * @param publicIdentifier Where the file should be received from.
+	 * @param blobName The blob name, which should be downloaded.
+	 * @param offset Number of bytes to skip at the beginning of the blob.
+	 * @return HTTPResult
+	 * @throws IOException If something went wrong with the connection or the server answered with an unexpected range
+	 */
+	public HTTPResult<InputStream> retrieveBlob(String publicIdentifier, String blobName, long offset) throws IOException {
+		return retrieveBlob(publicIdentifier, blobName, offset, null, 0);
+	}
+
+	/**
+	 * Retrieves a blob/file from the url (baseUrl + publicIdentifier + blobName) if it has been
+	 * modified. If the blob has not been modified since the given ETag or modification time was
+	 * reported, the server answers with 304 without sending the blob.
+	 * @param publicIdentifier Where the file should be received from.
+	 * @param blobName The blob name, which should be downloaded.
+	 * @param offset Number of bytes to skip at the beginning of the blob.
+	 * @param eTag ETag of the known version of the blob or null.
+	 * @param lastModified Modification time of the known version of the blob or 0.
+	 * @return HTTPResult
+	 * @throws IOException If something went wrong with the connection or the server answered with an unexpected range
+	 */
+	public HTTPResult<InputStream> retrieveBlob(String publicIdentifier, String blobName, long offset,
+			String eTag, long lastModified) throws IOException {
 		this.setupConnection(publicIdentifier, blobName);
 		connection.setRequestMethod("GET");
-		int responseCode = connection.getResponseCode();
+		if (offset > 0) {
+			connection.setRequestProperty("Range", "bytes=" + offset + "-");
+		}
+		if (eTag != null) {
+			connection.setRequestProperty("If-None-Match", eTag);
+		}
+		if (lastModified > 0) {
+			connection.setIfModifiedSince(lastModified);
+		}
+		int responseCode = getResponseCode();
 		HTTPResult<InputStream> result = new HTTPResult<>();
 		result.setResponseCode(responseCode);
-		result.setOk(responseCode == 200);
+		result.setOk(responseCode == 200 || (offset > 0 && responseCode == 206));
+		if (responseCode == 206) {
+			String contentRange = connection.getHeaderField("Content-Range");
+			if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+				this.abort();
+				throw new IOException("Unexpected content range in response: " + contentRange);
+			}
+		}
 		if (result.isOk()) {
-			result.setData(connection.getInputStream());
+			result.setContentLength(connection.getContentLengthLong());
+			result.setETag(connection.getHeaderField("ETag"));
+			result.setLastModified(connection.getLastModified());
+			result.setData(new MeteredInputStream(connection.getInputStream(),
+					Metrics.counter(Metrics.perServer(Metrics.HTTP_BYTES_RECEIVED, server.getUrl()))));
 		}
 		return result;
 	}
 
+	/**
+	 * Aborts the currently running request, e.g. an upload or the download of a blob.
+	 * Blocked reads or writes on the streams of the request fail with an IOException.
+	 * May be called from any thread. The StorageHTTP must not be used afterwards.
+	 */
+	public void abort() {
+		HttpURLConnection activeConnection = connection;
+		if (activeConnection != null) {
+			activeConnection.disconnect();
+		}
+	}
+
 	/**
 	 * Deletes a blob or the whole Qabel Storage Volume.
 	 * @param publicIdentifier Where the file should be received from.
@@ -127,7 +195,7 @@ public class StorageHTTP {
 		this.setupConnection(publicIdentifier, blobName);
 		connection.setRequestProperty("X-Qabel-Token", revokeToken);
 		connection.setRequestMethod("DELETE");
-		int responseCode = connection.getResponseCode();
+		int responseCode = getResponseCode();
 		HTTPResult<?> result = new HTTPResult<>();
 		result.setResponseCode(responseCode);
 		result.setOk(responseCode == 204);
@@ -143,19 +211,57 @@ public class StorageHTTP {
 			resourcePath.append(blobName);
 		}
 		connection = (HttpURLConnection)addPathToURL(server.getUrl(), resourcePath.toString()).openConnection();
+		requestStart = System.nanoTime();
 	}
 	
 	private void setupConnection(String publicIdentifier) throws IOException {
 		this.setupConnection(publicIdentifier, null);
 	}
 	
+	/**
+	 * Waits for the response code of the current request and records the
+	 * latency of the request.
+	 */
+	private int getResponseCode() throws IOException {
+		try {
+			int responseCode = connection.getResponseCode();
+			Metrics.recordHttpResponse(server.getUrl(), requestStart, responseCode);
+			return responseCode;
+		} catch (IOException e) {
+			Metrics.recordHttpError(server.getUrl());
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the connection of the finished request. The response is consumed
+	 * instead of disconnecting, so the underlying socket is kept alive and reused
+	 * by the next request to the same server.
+	 */
 	private void closeConnection() {
 		if (connection != null) {
-			connection.disconnect();
+			releaseConnection(connection);
 			connection = null;
 		}
 	}
 
+	private static void releaseConnection(HttpURLConnection connection) {
+		try {
+			InputStream response = (connection.getResponseCode() >= 400)
+					? connection.getErrorStream() : connection.getInputStream();
+			if (response != null) {
+				byte[] buffer = new byte[1024];
+				while (response.read(buffer) >= 0) {
+					// discard remaining response
+				}
+				response.close();
+			}
+		} catch (IOException e) {
+			// response already consumed or connection broken, socket is not reused
+			connection.disconnect();
+		}
+	}
+
 	/**
 	 * Parses the response and returns it.
 	 * @param inputStream From which we parse the response.
@@ -0,0 +1,23 @@
+package de.qabel.core.metrics;
+
+/**
+ * Monotonically increasing count of events or bytes.
+ */
+public interface Counter {
+	/**
+	 * Increments the counter by one.
+	 */
+	void inc();
+
+	/**
+	 * Increments the counter.
+	 * @param n Amount to add.
+	 */
+	void add(long n);
+
+	/**
+	 * Returns the current count.
+	 * @return count
+	 */
+	long getCount();
+}
@@ -0,0 +1,25 @@
+package de.qabel.core.metrics;
+
+/**
+ * Distribution of recorded values like latencies in nanoseconds or numbers
+ * of attempts.
+ */
+public interface Histogram {
+	/**
+	 * Records a value.
+	 * @param value Non-negative value to record.
+	 */
+	void update(long value);
+
+	/**
+	 * Records the time elapsed since the given start.
+	 * @param startNanos Start time taken from {@link System#nanoTime()}.
+	 */
+	void updateSince(long startNanos);
+
+	/**
+	 * Returns the current distribution.
+	 * @return snapshot of the histogram
+	 */
+	HistogramSnapshot getSnapshot();
+}
@@ -0,0 +1,79 @@
+package de.qabel.core.metrics;
+
+/**
+ * Immutable summary of a {@link Histogram}. Percentiles are approximations
+ * with the resolution of the histogram's buckets.
+ */
+public class HistogramSnapshot {
+	private final long count;
+	private final long sum;
+	private final long min;
+	private final long max;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+
+	public HistogramSnapshot(long count, long sum, long min, long max,
+			long p50, long p90, long p99) {
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+		mean = count == 0 ? 0 : (double) sum / count;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the smallest recorded value.
+	 * @return minimum or 0 if no value has been recorded
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * @return maximum or 0 if no value has been recorded
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the arithmetic mean of the recorded values.
+	 * @return mean or 0 if no value has been recorded
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	public long getMedian() {
+		return p50;
+	}
+
+	public long get90thPercentile() {
+		return p90;
+	}
+
+	public long get99thPercentile() {
+		return p99;
+	}
+
+	@Override
+	public String toString() {
+		return "HistogramSnapshot [count=" + count + ", min=" + min + ", max="
+				+ max + ", mean=" + mean + ", p50=" + p50 + ", p90="
+				+ p90 + ", p99=" + p99 + "]";
+	}
+}
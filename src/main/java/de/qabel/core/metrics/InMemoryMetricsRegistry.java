@@ -0,0 +1,158 @@
+package de.qabel.core.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry keeping all metrics in memory, without any external service.
+ * <p>
+ * Histograms count values in buckets of powers of two, so recording a value
+ * is a few atomic operations and needs constant memory. Percentiles are
+ * therefore accurate to a factor of two, which is enough to tell a
+ * millisecond from a second.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+	private final ConcurrentMap<String, AtomicCounter> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, BucketHistogram> histograms = new ConcurrentHashMap<>();
+
+	@Override
+	public Counter counter(String name) {
+		AtomicCounter counter = counters.get(name);
+		if (counter == null) {
+			AtomicCounter newCounter = new AtomicCounter();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		BucketHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			BucketHistogram newHistogram = new BucketHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	@Override
+	public MetricsSnapshot getSnapshot() {
+		Map<String, Long> counterValues = new HashMap<>();
+		for (Map.Entry<String, AtomicCounter> entry : counters.entrySet()) {
+			counterValues.put(entry.getKey(), entry.getValue().getCount());
+		}
+		Map<String, HistogramSnapshot> histogramValues = new HashMap<>();
+		for (Map.Entry<String, BucketHistogram> entry : histograms.entrySet()) {
+			histogramValues.put(entry.getKey(), entry.getValue().getSnapshot());
+		}
+		return new MetricsSnapshot(counterValues, histogramValues);
+	}
+
+	@Override
+	public void reset() {
+		counters.clear();
+		histograms.clear();
+	}
+
+	private static class AtomicCounter implements Counter {
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void inc() {
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void add(long n) {
+			count.addAndGet(n);
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	static class BucketHistogram implements Histogram {
+		/**
+		 * Bucket 0 counts the value 0, bucket i the values from 2^(i-1) to
+		 * 2^i - 1.
+		 */
+		private static final int BUCKETS = 64;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+		@Override
+		public void update(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long current;
+			while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+				// retry
+			}
+			while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+				// retry
+			}
+		}
+
+		@Override
+		public void updateSince(long startNanos) {
+			update(System.nanoTime() - startNanos);
+		}
+
+		@Override
+		public HistogramSnapshot getSnapshot() {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			if (total == 0) {
+				return new HistogramSnapshot(0, 0, 0, 0, 0, 0, 0);
+			}
+			long minValue = min.get();
+			long maxValue = max.get();
+			return new HistogramSnapshot(total, sum.get(), minValue, maxValue,
+					percentile(counts, total, 0.5, minValue, maxValue),
+					percentile(counts, total, 0.9, minValue, maxValue),
+					percentile(counts, total, 0.99, minValue, maxValue));
+		}
+
+		/**
+		 * Returns the upper bound of the bucket containing the percentile,
+		 * limited to the recorded range.
+		 */
+		private static long percentile(long[] counts, long total, double quantile,
+				long minValue, long maxValue) {
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					long upperBound = i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+					return Math.max(minValue, Math.min(maxValue, upperBound));
+				}
+			}
+			return maxValue;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package de.qabel.core.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream adding the number of written bytes to a counter.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+	private final Counter counter;
+
+	public MeteredOutputStream(OutputStream out, Counter counter) {
+		super(out);
+		this.counter = counter;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		counter.inc();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// FilterOutputStream would write byte by byte
+		out.write(b, off, len);
+		counter.add(len);
+	}
+}
@@ -0,0 +1,109 @@
+package de.qabel.core.metrics;
+
+import java.net.URL;
+
+/**
+ * Access to the metrics registry used by Qabel core and the names of the
+ * metrics recorded on the hot paths. By default an
+ * {@link InMemoryMetricsRegistry} is used, a different implementation, e.g.
+ * an adapter to a monitoring system, can be plugged in with
+ * {@link #setRegistry(MetricsRegistry)}.
+ * <p>
+ * Latencies are recorded in nanoseconds.
+ */
+public class Metrics {
+	/** Drop messages uploaded successfully */
+	public static final String DROP_MESSAGES_SENT = "drop.messages.sent";
+	/** Drop messages which could not be uploaded */
+	public static final String DROP_MESSAGES_SEND_FAILED = "drop.messages.send_failed";
+	/** Drop messages downloaded from drop servers */
+	public static final String DROP_MESSAGES_RECEIVED = "drop.messages.received";
+	/** Downloaded drop messages which could be decrypted */
+	public static final String DROP_MESSAGES_DECRYPTED = "drop.messages.decrypted";
+	/** Downloaded drop messages which were malformed or not for us */
+	public static final String DROP_MESSAGES_DISCARDED = "drop.messages.discarded";
+	/** Downloaded drop messages which have been processed before */
+	public static final String DROP_MESSAGES_DUPLICATE = "drop.messages.duplicate";
+	/** Downloaded drop messages which none of the contacts could decrypt before */
+	public static final String DROP_MESSAGES_NOT_FOR_US = "drop.messages.not_for_us";
+	/** Identities tried to decrypt one downloaded drop message */
+	public static final String DROP_TRIAL_DECRYPTIONS = "drop.trial_decryptions";
+
+	public static final String CRYPTO_RSA_SIGN = "crypto.rsa.sign";
+	public static final String CRYPTO_RSA_VERIFY = "crypto.rsa.verify";
+	public static final String CRYPTO_RSA_ENCRYPT = "crypto.rsa.encrypt";
+	public static final String CRYPTO_RSA_DECRYPT = "crypto.rsa.decrypt";
+	public static final String CRYPTO_AES_ENCRYPT = "crypto.aes.encrypt";
+	public static final String CRYPTO_AES_DECRYPT = "crypto.aes.decrypt";
+
+	/** Latency until the response code has been received, per server */
+	public static final String HTTP_LATENCY = "http.latency";
+	/** Responses per status code and server */
+	public static final String HTTP_STATUS = "http.status";
+	/** Requests failed without a response, per server */
+	public static final String HTTP_ERRORS = "http.errors";
+	public static final String HTTP_BYTES_SENT = "http.bytes_sent";
+	public static final String HTTP_BYTES_RECEIVED = "http.bytes_received";
+
+	private static volatile MetricsRegistry registry = new InMemoryMetricsRegistry();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Returns the registry metrics are recorded in.
+	 * @return registry
+	 */
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Replaces the registry metrics are recorded in.
+	 * @param registry New registry.
+	 */
+	public static void setRegistry(MetricsRegistry registry) {
+		if (registry == null) {
+			throw new IllegalArgumentException("Registry must not be null");
+		}
+		Metrics.registry = registry;
+	}
+
+	public static Counter counter(String name) {
+		return registry.counter(name);
+	}
+
+	public static Histogram histogram(String name) {
+		return registry.histogram(name);
+	}
+
+	/**
+	 * Returns the name of a metric recorded per server.
+	 * @param name Name of the metric.
+	 * @param url URL of the server or of a resource on it.
+	 * @return name qualified with host and port of the server
+	 */
+	public static String perServer(String name, URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return name + "." + url.getHost() + ":" + port;
+	}
+
+	/**
+	 * Records the response of a HTTP request.
+	 * @param url URL of the request.
+	 * @param startNanos Start of the request, taken from {@link System#nanoTime()}.
+	 * @param responseCode Response code received.
+	 */
+	public static void recordHttpResponse(URL url, long startNanos, int responseCode) {
+		histogram(perServer(HTTP_LATENCY, url)).updateSince(startNanos);
+		counter(perServer(HTTP_STATUS + "." + responseCode, url)).inc();
+	}
+
+	/**
+	 * Records a HTTP request which failed without a response.
+	 * @param url URL of the request.
+	 */
+	public static void recordHttpError(URL url) {
+		counter(perServer(HTTP_ERRORS, url)).inc();
+	}
+}
@@ -0,0 +1,38 @@
+package de.qabel.core.metrics;
+
+/**
+ * Registry of named metrics. Implementations have to be thread-safe,
+ * because metrics are updated from every thread doing drop, storage or
+ * crypto operations.
+ * <p>
+ * Requesting a metric by a name used before returns the same metric, so
+ * callers can look up metrics on every update instead of keeping them.
+ *
+ * @see Metrics
+ */
+public interface MetricsRegistry {
+	/**
+	 * Returns the counter with the given name, creating it if necessary.
+	 * @param name Name of the counter.
+	 * @return counter
+	 */
+	Counter counter(String name);
+
+	/**
+	 * Returns the histogram with the given name, creating it if necessary.
+	 * @param name Name of the histogram.
+	 * @return histogram
+	 */
+	Histogram histogram(String name);
+
+	/**
+	 * Returns the current values of all metrics.
+	 * @return snapshot of the registry
+	 */
+	MetricsSnapshot getSnapshot();
+
+	/**
+	 * Removes all metrics.
+	 */
+	void reset();
+}
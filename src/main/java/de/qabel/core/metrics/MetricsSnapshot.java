@@ -0,0 +1,100 @@
+package de.qabel.core.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Immutable copy of the values of all metrics of a registry at one point in
+ * time.
+ */
+public class MetricsSnapshot {
+	private final long timestamp;
+	private final SortedMap<String, Long> counters;
+	private final SortedMap<String, HistogramSnapshot> histograms;
+
+	/**
+	 * Creates a snapshot taken now.
+	 * @param counters Counts by counter name.
+	 * @param histograms Histogram snapshots by histogram name.
+	 */
+	public MetricsSnapshot(Map<String, Long> counters,
+			Map<String, HistogramSnapshot> histograms) {
+		timestamp = System.currentTimeMillis();
+		this.counters = Collections.unmodifiableSortedMap(
+				new TreeMap<String, Long>(counters));
+		this.histograms = Collections.unmodifiableSortedMap(
+				new TreeMap<String, HistogramSnapshot>(histograms));
+	}
+
+	/**
+	 * Returns the time the snapshot has been taken.
+	 * @return milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the counts sorted by counter name.
+	 * @return unmodifiable map of counts
+	 */
+	public SortedMap<String, Long> getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Returns the histograms sorted by name.
+	 * @return unmodifiable map of histogram snapshots
+	 */
+	public SortedMap<String, HistogramSnapshot> getHistograms() {
+		return histograms;
+	}
+
+	/**
+	 * Returns the count of a counter.
+	 * @param name Name of the counter.
+	 * @return count or 0 if the counter does not exist
+	 */
+	public long getCount(String name) {
+		Long count = counters.get(name);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Returns the snapshot of a histogram.
+	 * @param name Name of the histogram.
+	 * @return histogram snapshot or null if the histogram does not exist
+	 */
+	public HistogramSnapshot getHistogram(String name) {
+		return histograms.get(name);
+	}
+
+	/**
+	 * Serializes the snapshot to JSON.
+	 * @return JSON representation
+	 */
+	public String toJson() {
+		return createGson().toJson(this);
+	}
+
+	/**
+	 * Writes the snapshot as JSON.
+	 * @param writer Writer to dump the snapshot to.
+	 * @throws IOException
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		createGson().toJson(this, writer);
+		writer.flush();
+	}
+
+	private static Gson createGson() {
+		return new GsonBuilder().setPrettyPrinting().create();
+	}
+}
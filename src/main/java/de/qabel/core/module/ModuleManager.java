@@ -11,10 +11,14 @@ import java.net.URLClassLoader;
 import java.util.Set;
 import java.util.HashSet;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import de.qabel.core.config.Settings;
 import de.qabel.core.drop.DropController;
 
 public class ModuleManager {
+	private final static Logger logger = LogManager.getLogger(ModuleManager.class.getName());
 
 	private static ModuleManager defaultModuleManager = null;
 
@@ -95,7 +99,7 @@ public class ModuleManager {
 			cld.addURL(jar.toURI().toURL());
 			startModule(Class.forName(className, true, cld));
 		} catch (MalformedURLException e) {
-			e.printStackTrace();
+			logger.fatal("Invalid module jar URL " + jar, e);
 			// Should not happen!
 			System.exit(1);
 		}
@@ -0,0 +1,142 @@
+package de.qabel.core.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits an InputStream into content defined chunks. Chunk boundaries are
+ * determined by a gear based rolling hash over the last 64 bytes, thus an
+ * insertion or deletion only affects the chunks around the modification
+ * and all other chunks stay identical.
+ */
+public class ContentDefinedChunker {
+	/**
+	 * Default minimum chunk size. Chunks are padded to at least
+	 * StorageBlob.MINIMUM_SIZE_BYTES anyway, so smaller chunks would waste
+	 * upload volume.
+	 */
+	public static final int DEFAULT_MINIMUM_CHUNK_SIZE = StorageBlob.MINIMUM_SIZE_BYTES / 2;
+	public static final int DEFAULT_AVERAGE_CHUNK_SIZE = StorageBlob.MINIMUM_SIZE_BYTES;
+	public static final int DEFAULT_MAXIMUM_CHUNK_SIZE = StorageBlob.MAXIMUM_SIZE_BYTES;
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Gear table of the rolling hash. The table has to be identical on all
+	 * clients, otherwise chunk boundaries and thus deduplication would differ.
+	 * It is therefore generated from a fixed seed.
+	 */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		long seed = 0x516162656c434443L;
+		for (int i = 0; i < GEAR.length; i++) {
+			// splitmix64
+			seed += 0x9E3779B97F4A7C15L;
+			long z = seed;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			GEAR[i] = z ^ (z >>> 31);
+		}
+	}
+
+	private final InputStream input;
+	private final int minimumSize, maximumSize;
+	private final long boundaryMask;
+	private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+	private int bufferPos, bufferFill;
+	private boolean exhausted;
+
+	/**
+	 * Creates a chunker with the default chunk sizes which are suitable for
+	 * StorageBlobs.
+	 *
+	 * @param input InputStream to split into chunks.
+	 */
+	public ContentDefinedChunker(InputStream input) {
+		this(input, DEFAULT_MINIMUM_CHUNK_SIZE, DEFAULT_AVERAGE_CHUNK_SIZE, DEFAULT_MAXIMUM_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a chunker with custom chunk sizes.
+	 *
+	 * @param input InputStream to split into chunks.
+	 * @param minimumSize Minimum size of a chunk in bytes. Only the last chunk may be smaller.
+	 * @param averageSize Expected average chunk size in bytes. averageSize - minimumSize
+	 *            has to be a power of two.
+	 * @param maximumSize Maximum size of a chunk in bytes.
+	 */
+	public ContentDefinedChunker(InputStream input, int minimumSize, int averageSize, int maximumSize) {
+		if (minimumSize <= 0 || minimumSize >= averageSize || averageSize >= maximumSize) {
+			throw new IllegalArgumentException("Chunk sizes have to satisfy 0 < minimum < average < maximum.");
+		}
+		int spread = averageSize - minimumSize;
+		if ((spread & -spread) != spread) {
+			throw new IllegalArgumentException("Average minus minimum chunk size " + spread
+					+ " is not a power of two");
+		}
+		this.input = input;
+		this.minimumSize = minimumSize;
+		this.maximumSize = maximumSize;
+		// a boundary is found if the top bits of the hash are zero, which
+		// happens with a probability of 1 / (averageSize - minimumSize)
+		int boundaryBits = Integer.numberOfTrailingZeros(spread);
+		this.boundaryMask = (boundaryBits == 0) ? 0 : -1L << (64 - boundaryBits);
+	}
+
+	/**
+	 * Reads the next chunk from the InputStream.
+	 *
+	 * @return the next chunk or null if the InputStream is exhausted.
+	 * @throws IOException if reading from the InputStream failed.
+	 */
+	public byte[] nextChunk() throws IOException {
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream(minimumSize);
+		long hash = 0;
+		int chunkSize = 0;
+
+		while (fillBuffer()) {
+			int start = bufferPos;
+			boolean boundary = false;
+			while (bufferPos < bufferFill) {
+				hash = (hash << 1) + GEAR[buffer[bufferPos++] & 0xff];
+				chunkSize++;
+				if (chunkSize >= maximumSize
+						|| (chunkSize >= minimumSize && (hash & boundaryMask) == 0)) {
+					boundary = true;
+					break;
+				}
+			}
+			chunk.write(buffer, start, bufferPos - start);
+			if (boundary) {
+				break;
+			}
+		}
+
+		if (chunkSize == 0) {
+			return null;
+		}
+		return chunk.toByteArray();
+	}
+
+	private boolean fillBuffer() throws IOException {
+		if (bufferPos < bufferFill) {
+			return true;
+		}
+		if (exhausted) {
+			return false;
+		}
+		int read;
+		do {
+			read = input.read(buffer, 0, buffer.length);
+		} while (read == 0);
+		if (read < 0) {
+			exhausted = true;
+			input.close();
+			return false;
+		}
+		bufferPos = 0;
+		bufferFill = read;
+		return true;
+	}
+}
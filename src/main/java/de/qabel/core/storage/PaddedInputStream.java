@@ -93,17 +93,31 @@ public class PaddedInputStream extends InputStream {
 
 	private void setPaddedSize() throws IOException {
 		if (this.paddedSize == 0) {
-			long paddedSize = this.lowerBoundary;
+			long paddedSize = getPaddedSize(this.totalReadBytes, this.lowerBoundary, this.upperBoundary);
 
-			while (this.totalReadBytes > paddedSize && paddedSize <= this.upperBoundary) {
-				paddedSize *= 2;
-			}
-
-			if (paddedSize > this.upperBoundary) {
+			if (paddedSize == -1) {
 				throw new IOException("Maximum size exceeded.");
 			}
 
 			this.paddedSize = paddedSize;
 		}
 	}
+
+	/**
+	 * Returns the size a stream is padded to within a padding range.
+	 *
+	 * @param size Size of the unpadded stream in bytes.
+	 * @param lowerBound Lower bound power of two of the padding range in bytes.
+	 * @param upperBound Upper bound power of two of the padding range in bytes.
+	 * @return padded size in bytes or -1 if the size exceeds the upper bound.
+	 */
+	static long getPaddedSize(long size, long lowerBound, long upperBound) {
+		long paddedSize = lowerBound;
+
+		while (size > paddedSize && paddedSize <= upperBound) {
+			paddedSize *= 2;
+		}
+
+		return paddedSize > upperBound ? -1 : paddedSize;
+	}
 }
@@ -1,15 +1,36 @@
 package de.qabel.core.storage;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.SecretKey;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
 
 import de.qabel.core.config.StorageServer;
 import de.qabel.core.config.StorageVolume;
@@ -21,6 +42,7 @@ import de.qabel.core.http.StorageHTTP;
 
 public class StorageAction {
 	private final static Logger logger = LogManager.getLogger(StorageAction.class.getName());
+	private static volatile StorageBlobCache blobCache;
 
 	/**
 	 * Creates a new storage volume on the given storage server.
@@ -122,16 +144,48 @@ public class StorageAction {
 	 */
 	public static void uploadBlob(StorageVolume volume, StorageBlob blob, SecretKey key) throws IOException,
 			InvalidKeyException, QblStorageInvalidToken {
+		uploadBlob(volume, blob, key, new StorageConnection());
+	}
+
+	/**
+	 * Uploads storage blob to server. The progress of the upload is reported by
+	 * the given connection, which can also be used to cancel the upload.
+	 * 
+	 * @param volume volume to put blob in.
+	 * @param blob blob to upload.
+	 * @param key secret key used for encryption.
+	 * @param connection connection tracking the upload.
+	 * @throws IOException
+	 * @throws InterruptedIOException if the upload has been cancelled.
+	 * @throws InvalidKeyException
+	 * @throws QblStorageInvalidToken if write token is invalid.
+	 */
+	public static void uploadBlob(StorageVolume volume, StorageBlob blob, SecretKey key,
+			StorageConnection connection) throws IOException, InvalidKeyException, QblStorageInvalidToken {
 		StorageHTTP http = new StorageHTTP(volume.getStorageServer());
 		CryptoUtils cryptoUtils = new CryptoUtils();
+		HTTPResult<?> result;
 
-		
-
-		OutputStream out = http.prepareUpload(volume.getPublicIdentifier(),
-				blob.getName(), volume.getToken());
-		cryptoUtils.encryptStreamAuthenticatedSymmetric(blob.getInputStream(),
-				out, key, null);
-		HTTPResult<?> result = http.finishUpload();
+		invalidateCache(volume, blob.getName());
+		connection.startRequest(http, 0);
+		try {
+			OutputStream out = connection.track(http.prepareUpload(volume.getPublicIdentifier(),
+					blob.getName(), volume.getToken()));
+			if (!cryptoUtils.encryptStreamAuthenticatedSymmetric(blob.getInputStream(),
+					out, key, null)) {
+				http.abort();
+				if (connection.isCancelled()) {
+					throw new InterruptedIOException("Upload of blob " + blob.getName() + " has been cancelled.");
+				}
+				throw new IOException("Upload of blob " + blob.getName() + " failed.");
+			}
+			result = http.finishUpload();
+		} catch (IOException e) {
+			http.abort();
+			throw e;
+		} finally {
+			connection.finishRequest();
+		}
 
 		if (!result.isOk()) {
 			switch (result.getResponseCode()) {
@@ -167,48 +221,232 @@ public class StorageAction {
 	 */
 	public static File retrieveBlob(StorageVolume volume, String blobName, SecretKey key) throws IOException,
 			InvalidKeyException, QblStorageInvalidBlobName {
+		File partFile = File.createTempFile("blob", ".part");
+		try {
+			return retrieveBlob(volume, blobName, key, partFile, new StorageConnection());
+		} finally {
+			partFile.delete();
+		}
+	}
+
+	/**
+	 * Retrieve blob from storage server, resuming a previously interrupted download.
+	 * The encrypted blob is downloaded into the given part file first. If the part file
+	 * already contains data, only the missing bytes are requested with a range request.
+	 * The part file is kept if the download is interrupted, so calling this method
+	 * again with the same part file resumes the download. Decryption and validation of
+	 * the authentication tag happen when the blob is complete; afterwards the part file
+	 * is deleted.
+	 * 
+	 * @param volume storage volume containing the blob.
+	 * @param blobName name of the blob.
+	 * @param key secret key to decrypt the downloaded blob.
+	 * @param partFile file containing the already downloaded part of the encrypted blob.
+	 * @param connection connection tracking the download.
+	 * @return file containing the decrypted blob or null if the blob could not be authenticated.
+	 * @throws IOException
+	 * @throws InterruptedIOException if the download has been cancelled.
+	 * @throws InvalidKeyException
+	 * @throws QblStorageInvalidBlobName if given name contains non-Base64url characters.
+	 */
+	public static File retrieveBlob(StorageVolume volume, String blobName, SecretKey key, File partFile,
+			StorageConnection connection) throws IOException, InvalidKeyException, QblStorageInvalidBlobName {
 		StorageHTTP http = new StorageHTTP(volume.getStorageServer());
 		CryptoUtils cryptoUtils = new CryptoUtils();
 
 		StorageBlob.checkBlobName(blobName);
-		HTTPResult<InputStream> result = http.retrieveBlob(volume.getPublicIdentifier(),
-				blobName);
+		StorageBlobCache cache = blobCache;
+		String publicIdentifier = volume.getPublicIdentifier();
+		long offset = partFile.length();
+		String cachedETag = null;
+		long cachedLastModified = 0;
+		if (cache != null && offset == 0) {
+			StorageBlobCache.CacheEntry entry = cache.getEntry(publicIdentifier, blobName);
+			// decrypted blobs cached for another key must not be revalidated and returned
+			if (entry != null && cache.matchesKey(entry, key)) {
+				if (cache.isFresh(entry)) {
+					File cachedFile = readFromCache(cache, publicIdentifier, blobName, key);
+					if (cachedFile != null) {
+						return cachedFile;
+					}
+				} else {
+					cachedETag = entry.getETag();
+					cachedLastModified = entry.getLastModified();
+				}
+			}
+		}
 
-		if (!result.isOk()) {
-			switch (result.getResponseCode()) {
-			case 400:
-				logger.error("Blob retrieval failed because of syntactically invalid request url.");
-				throw new RuntimeException("Unexpected response from storage server");
-			case 404:
-				logger.error("Blob retrieval failed because of unlocatable blob.");
-				throw new RuntimeException("Unexpected response from storage server");
-			default:
-				logger.error("Blob retrieval failed with unexpected response " + result.getResponseCode());
-				throw new RuntimeException("Unexpected response from storage server");
+		String eTag = null;
+		long lastModified = 0;
+		boolean notModified = false;
+		connection.startRequest(http, offset);
+		try {
+			HTTPResult<InputStream> result = http.retrieveBlob(publicIdentifier,
+					blobName, offset, cachedETag, cachedLastModified);
+			eTag = result.getETag();
+			lastModified = result.getLastModified();
+
+			if (!result.isOk()) {
+				switch (result.getResponseCode()) {
+				case 304:
+					logger.debug("Cached blob " + blobName + " is up to date.");
+					http.abort();
+					notModified = true;
+					break;
+				case 400:
+					logger.error("Blob retrieval failed because of syntactically invalid request url.");
+					throw new RuntimeException("Unexpected response from storage server");
+				case 404:
+					logger.error("Blob retrieval failed because of unlocatable blob.");
+					throw new RuntimeException("Unexpected response from storage server");
+				case 416:
+					if (offset == 0) {
+						logger.error("Blob retrieval failed with unexpected response 416");
+						throw new RuntimeException("Unexpected response from storage server");
+					}
+					// part file already contains the complete blob
+					logger.debug("Blob " + blobName + " has already been downloaded completely.");
+					http.abort();
+					break;
+				default:
+					logger.error("Blob retrieval failed with unexpected response " + result.getResponseCode());
+					throw new RuntimeException("Unexpected response from storage server");
+				}
+			} else {
+				boolean resumed = result.getResponseCode() == 206;
+				if (!resumed) {
+					// server sent the complete blob
+					offset = 0;
+					connection.startRequest(http, 0);
+				}
+				if (result.getContentLength() >= 0) {
+					connection.setTotalBytes(offset + result.getContentLength());
+				}
+				logger.debug("Downloading blob " + blobName + " from offset " + offset);
+				try (InputStream input = connection.track(result.getData());
+						OutputStream output = new FileOutputStream(partFile, resumed)) {
+					byte[] buffer = new byte[4096];
+					int read;
+					while ((read = input.read(buffer)) > 0) {
+						output.write(buffer, 0, read);
+					}
+				}
 			}
+		} catch (IOException e) {
+			http.abort();
+			throw e;
+		} finally {
+			connection.finishRequest();
+		}
+
+		if (notModified) {
+			cache.markValidated(publicIdentifier, blobName);
+			File cachedFile = readFromCache(cache, publicIdentifier, blobName, key);
+			if (cachedFile != null) {
+				return cachedFile;
+			}
+			// cached blob vanished in the meantime, retrieve it again
+			return retrieveBlob(volume, blobName, key, partFile, connection);
 		}
 
-		InputStream input = result.getData();
 		File decryptedDataFile = File.createTempFile("blob", ".dec");
 		boolean decryptionSuccessful = false;
-		try {
+		try (InputStream input = new FileInputStream(partFile)) {
 			decryptionSuccessful = cryptoUtils.decryptFileAuthenticatedSymmetricAndValidateTag(input,
 					decryptedDataFile, key);
-		} finally {
-			if (input != null) {
-				input.close();
+			if (decryptionSuccessful && cache != null) {
+				File cachedForm = (cache.getPolicy() == StorageBlobCache.Policy.CIPHERTEXT)
+						? partFile : decryptedDataFile;
+				try {
+					cache.put(publicIdentifier, blobName, cachedForm, eTag, lastModified, key);
+				} catch (IOException e) {
+					logger.warn("Blob " + blobName + " could not be cached.", e);
+				}
 			}
+		} finally {
 			if (!decryptionSuccessful) {
 				// something went wrong during decryption
 				// delete file to avoid leakage of unauthenticated data
 				decryptedDataFile.delete();
 				decryptedDataFile = null;
 			}
+			// the downloaded data is either consumed or corrupted
+			partFile.delete();
 		}
 
 		return decryptedDataFile;
 	}
 
+	/**
+	 * Reads a blob from the cache.
+	 *
+	 * @return file containing the decrypted blob or null if the blob is not cached, invalid
+	 *         or cached for another key.
+	 */
+	private static File readFromCache(StorageBlobCache cache, String publicIdentifier, String blobName,
+			SecretKey key) throws IOException, InvalidKeyException {
+		StorageBlobCache.CacheEntry entry = cache.getEntry(publicIdentifier, blobName);
+		if (entry == null || !cache.matchesKey(entry, key)) {
+			return null;
+		}
+		InputStream cached = cache.open(publicIdentifier, blobName);
+		if (cached == null) {
+			return null;
+		}
+		File decryptedDataFile = File.createTempFile("blob", ".dec");
+		boolean readSuccessful = false;
+		try (InputStream input = cached) {
+			if (cache.getPolicy() == StorageBlobCache.Policy.CIPHERTEXT) {
+				readSuccessful = new CryptoUtils().decryptFileAuthenticatedSymmetricAndValidateTag(input,
+						decryptedDataFile, key);
+			} else {
+				Files.copy(input, decryptedDataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				readSuccessful = true;
+			}
+		} finally {
+			if (!readSuccessful) {
+				logger.warn("Cached blob " + blobName + " is invalid.");
+				decryptedDataFile.delete();
+				decryptedDataFile = null;
+				cache.remove(publicIdentifier, blobName);
+			}
+		}
+		if (readSuccessful) {
+			logger.debug("Blob " + blobName + " read from cache.");
+		}
+		return decryptedDataFile;
+	}
+
+	private static void invalidateCache(StorageVolume volume, String blobName) {
+		StorageBlobCache cache = blobCache;
+		if (cache != null) {
+			cache.remove(volume.getPublicIdentifier(), blobName);
+		}
+	}
+
+	/**
+	 * Sets the cache which is consulted before blobs are retrieved from the storage
+	 * server. Uploaded and deleted blobs are removed from the cache. The
+	 * index of a replaced cache is flushed.
+	 *
+	 * @param cache blob cache or null to disable caching.
+	 */
+	public static void setBlobCache(StorageBlobCache cache) {
+		StorageBlobCache previous = blobCache;
+		blobCache = cache;
+		if (previous != null && previous != cache) {
+			previous.flush();
+		}
+	}
+
+	/**
+	 * Returns the cache consulted before blobs are retrieved.
+	 * @return blob cache or null if caching is disabled.
+	 */
+	public static StorageBlobCache getBlobCache() {
+		return blobCache;
+	}
+
 	/**
 	 * Deletes blob from storage server.
 	 * 
@@ -222,6 +460,7 @@ public class StorageAction {
 			QblStorageInvalidBlobName {
 		StorageHTTP http = new StorageHTTP(volume.getStorageServer());
 		StorageBlob.checkBlobName(blobName);
+		invalidateCache(volume, blobName);
 		HTTPResult<?> result = http.delete(volume.getPublicIdentifier(), blobName,
 				volume.getRevokeToken());
 
@@ -245,4 +484,202 @@ public class StorageAction {
 			}
 		}
 	}
+
+	/**
+	 * Deletes many blobs from the storage server. The deletions are distributed over
+	 * the given number of workers. Each worker sends its requests one after another
+	 * over a kept alive connection, thus no connection is established per blob.
+	 * Blobs which do not exist on the server are regarded as deleted.
+	 * 
+	 * @param volume storage volume containing the blobs.
+	 * @param blobNames names of the blobs to be deleted.
+	 * @param concurrency maximum number of concurrent requests.
+	 * @return names of the blobs which could not be deleted.
+	 * @throws IOException if interrupted while waiting for the deletions.
+	 * @throws QblStorageInvalidToken if the token is invalid. Remaining deletions are skipped.
+	 * @throws QblStorageInvalidBlobName if a name contains non-Base64url characters. No blob is deleted.
+	 */
+	public static Set<String> deleteBlobs(StorageVolume volume, Collection<String> blobNames,
+			int concurrency) throws IOException, QblStorageInvalidToken, QblStorageInvalidBlobName {
+		return deleteBlobs(volume, blobNames, concurrency, new HashSet<String>());
+	}
+
+	/**
+	 * Deletes many blobs from the storage server like
+	 * {@link #deleteBlobs(StorageVolume, Collection, int)} and reports every
+	 * deleted blob as soon as it has been deleted. When an exception is
+	 * thrown, the running requests have finished, so the reported blobs are
+	 * exactly the deleted ones.
+	 *
+	 * @param volume storage volume containing the blobs.
+	 * @param blobNames names of the blobs to be deleted.
+	 * @param concurrency maximum number of concurrent requests.
+	 * @param deleted set the names of the deleted blobs are added to, synchronized on while adding.
+	 * @return names of the blobs which could not be deleted.
+	 * @throws IOException if interrupted while waiting for the deletions.
+	 * @throws QblStorageInvalidToken if the token is invalid. Remaining deletions are skipped.
+	 * @throws QblStorageInvalidBlobName if a name contains non-Base64url characters. No blob is deleted.
+	 */
+	public static Set<String> deleteBlobs(final StorageVolume volume, Collection<String> blobNames,
+			int concurrency, final Set<String> deleted)
+			throws IOException, QblStorageInvalidToken, QblStorageInvalidBlobName {
+		for (String blobName : blobNames) {
+			StorageBlob.checkBlobName(blobName);
+		}
+		final Queue<String> pending = new ConcurrentLinkedQueue<>(blobNames);
+		final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+		final AtomicBoolean invalidToken = new AtomicBoolean();
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		int workers = Math.max(1, Math.min(concurrency, blobNames.size()));
+
+		List<Callable<Void>> tasks = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					StorageHTTP http = new StorageHTTP(volume.getStorageServer());
+					String blobName;
+					while (!invalidToken.get() && !interrupted.get() && (blobName = pending.poll()) != null) {
+						invalidateCache(volume, blobName);
+						try {
+							HTTPResult<?> result = http.delete(volume.getPublicIdentifier(), blobName,
+									volume.getRevokeToken());
+							if (result.isOk() || result.getResponseCode() == 404) {
+								synchronized (deleted) {
+									deleted.add(blobName);
+								}
+								continue;
+							}
+							failed.add(blobName);
+							if (result.getResponseCode() == 403) {
+								logger.error("Blob deletion failed because of invalid token.");
+								invalidToken.set(true);
+							} else {
+								logger.error("Deletion of blob " + blobName + " failed with unexpected response "
+										+ result.getResponseCode());
+							}
+						} catch (IOException e) {
+							logger.warn("Deletion of blob " + blobName + " failed.", e);
+							failed.add(blobName);
+							// state of the broken connection is undefined
+							http = new StorageHTTP(volume.getStorageServer());
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			interrupted.set(true);
+			executor.shutdown();
+			// running requests are finished, so their deletions are reported
+			boolean terminated = false;
+			while (!terminated) {
+				try {
+					terminated = executor.awaitTermination(1, TimeUnit.MINUTES);
+				} catch (InterruptedException ignored) {
+					// already interrupted
+				}
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while deleting blobs.");
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (invalidToken.get()) {
+			throw new QblStorageInvalidToken();
+		}
+		logger.debug("Deleted " + (blobNames.size() - failed.size()) + " of " + blobNames.size() + " blobs.");
+		return failed;
+	}
+
+	/**
+	 * Uploads data split into content defined chunks. Every chunk is stored in its own blob
+	 * whose name and key are derived from the volume key and the chunk content. Chunks
+	 * already contained in the chunk index are not uploaded again. Waits while the
+	 * {@link StorageGarbageCollector} collects the index.
+	 *
+	 * @param volume volume to put the chunks in.
+	 * @param input data to upload.
+	 * @param volumeKey secret key of the volume used to derive the chunk keys.
+	 * @param index index of the chunks already uploaded to the volume. Updated with the uploaded chunks.
+	 * @return manifest required to retrieve the data.
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws QblStorageInvalidToken if write token is invalid.
+	 */
+	public static StorageChunkManifest uploadChunked(StorageVolume volume, InputStream input, SecretKey volumeKey,
+			StorageChunkIndex index) throws IOException, InvalidKeyException, QblStorageInvalidToken {
+		ContentDefinedChunker chunker = new ContentDefinedChunker(input);
+		StorageChunkManifest manifest = new StorageChunkManifest();
+		int uploaded = 0, skipped = 0;
+		byte[] data;
+
+		index.getLock().readLock().lock();
+		try {
+			while ((data = chunker.nextChunk()) != null) {
+				StorageChunk chunk = StorageChunk.fromData(data, volumeKey);
+				if (index.contains(chunk)) {
+					skipped++;
+				} else {
+					StorageBlob blob;
+					try {
+						blob = new StorageBlob(data, chunk.getBlobName());
+					} catch (QblStorageInvalidBlobName e) {
+						// should not happen since chunk names are hex encoded
+						logger.error("Derived chunk name is invalid.", e);
+						throw new RuntimeException("Derived chunk name is invalid.", e);
+					}
+					uploadBlob(volume, blob, chunk.deriveKey(volumeKey));
+					index.add(chunk);
+					uploaded++;
+				}
+				manifest.addChunk(chunk);
+			}
+		} finally {
+			index.getLock().readLock().unlock();
+		}
+
+		logger.debug("Chunked upload finished. Uploaded chunks: " + uploaded + " Skipped chunks: " + skipped);
+		return manifest;
+	}
+
+	/**
+	 * Retrieves and reassembles data uploaded with uploadChunked().
+	 *
+	 * @param volume storage volume containing the chunks.
+	 * @param manifest manifest returned by the upload.
+	 * @param volumeKey secret key of the volume used to derive the chunk keys.
+	 * @param output stream to write the reassembled data to.
+	 * @throws IOException if a chunk could not be retrieved or is corrupted.
+	 * @throws InvalidKeyException
+	 * @throws QblStorageInvalidBlobName if the manifest contains an invalid blob name.
+	 */
+	public static void retrieveChunked(StorageVolume volume, StorageChunkManifest manifest, SecretKey volumeKey,
+			OutputStream output) throws IOException, InvalidKeyException, QblStorageInvalidBlobName {
+		for (StorageChunk chunk : manifest.getChunks()) {
+			File chunkFile = retrieveBlob(volume, chunk.getBlobName(), chunk.deriveKey(volumeKey));
+			if (chunkFile == null) {
+				throw new IOException("Decryption of chunk " + chunk.getBlobName() + " failed.");
+			}
+			byte[] data = new byte[chunk.getSize()];
+			try (DataInputStream input = new DataInputStream(new FileInputStream(chunkFile))) {
+				// blob contains the padded chunk
+				input.readFully(data);
+			} finally {
+				chunkFile.delete();
+			}
+			byte[] digest = new CryptoUtils().getSHA512sum(data);
+			if (!MessageDigest.isEqual(digest, Hex.decode(chunk.getDigest()))) {
+				logger.error("Content of chunk " + chunk.getBlobName() + " does not match its digest.");
+				throw new IOException("Chunk " + chunk.getBlobName() + " is corrupted.");
+			}
+			output.write(data);
+		}
+	}
 }
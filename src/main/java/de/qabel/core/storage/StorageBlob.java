@@ -5,8 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.UUID;
 
-import org.bouncycastle.util.encoders.DecoderException;
-import org.bouncycastle.util.encoders.UrlBase64;
 
 import de.qabel.core.exceptions.QblStorageInvalidBlobName;
 
@@ -61,13 +59,27 @@ public class StorageBlob {
 	}
 
 	static void checkBlobName(String name) throws QblStorageInvalidBlobName {
-		try {
-			UrlBase64.decode(name + "."); // add terminating dot
-		} catch (DecoderException e) {
-			throw new QblStorageInvalidBlobName();
+		// checked per character, decoding names of arbitrary length is not
+		// accepted by all BouncyCastle versions
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+					|| c == '-' || c == '_')) {
+				throw new QblStorageInvalidBlobName();
+			}
 		}
 	}
 
+	/**
+	 * Returns the size of a blob with the given content size after padding.
+	 *
+	 * @param size Size of the content in bytes.
+	 * @return padded size in bytes or -1 if the content exceeds the maximum blob size.
+	 */
+	public static long getPaddedSize(long size) {
+		return PaddedInputStream.getPaddedSize(size, MINIMUM_SIZE_BYTES, MAXIMUM_SIZE_BYTES);
+	}
+
 	public InputStream getInputStream() throws IOException {
 		return paddedStream;
 	}
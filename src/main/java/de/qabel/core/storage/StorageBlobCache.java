@@ -0,0 +1,484 @@
+package de.qabel.core.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import de.qabel.core.crypto.CryptoUtils;
+
+/**
+ * Size bounded on-disk cache of retrieved blobs. Blobs are identified by the
+ * public identifier of their volume and their name. Depending on the policy
+ * the cache either stores the encrypted blobs as retrieved from the server or
+ * the decrypted blobs. If the cache exceeds its maximum size, the least
+ * recently used blobs are evicted.
+ * <p>
+ * Decrypted blobs are bound to the key they have been decrypted with, so
+ * they are only returned to callers which know the key.
+ * <p>
+ * Changes of the index are written in batches, at most every
+ * {@link #INDEX_SAVE_INTERVAL} milliseconds or after
+ * {@link #INDEX_SAVE_CHANGES} changes, and by {@link #flush()}. Blobs whose
+ * entries have not been written when the process ends are deleted when the
+ * cache is opened again.
+ */
+public class StorageBlobCache {
+	private final static Logger logger = LogManager.getLogger(StorageBlobCache.class.getName());
+
+	/**
+	 * Defines in which form blobs are stored in the cache.
+	 */
+	public enum Policy {
+		/**
+		 * Blobs are stored encrypted and decrypted on every read.
+		 */
+		CIPHERTEXT,
+		/**
+		 * Blobs are stored decrypted. Reads are cheaper, but the plaintext is
+		 * kept on disk. Entries can only be read with the key the blob has
+		 * been decrypted with.
+		 */
+		PLAINTEXT
+	}
+
+	private static final String INDEX_FILE_NAME = "index.json";
+	private static final String TEMP_SUFFIX = ".tmp";
+	/**
+	 * Maximum time in milliseconds changes of the index are kept unsaved.
+	 */
+	public static final long INDEX_SAVE_INTERVAL = 5000;
+	/**
+	 * Maximum number of unsaved changes of the index.
+	 */
+	public static final int INDEX_SAVE_CHANGES = 100;
+	private static final String BLOB_FILE_SUFFIX = ".blob";
+	private static final int KEY_SIZE_BYTE = 32;
+	private static final byte[] KEY_CHECK_LABEL = "qabel blob cache key check".getBytes(StandardCharsets.UTF_8);
+
+	private final File directory;
+	private final long maximumSize;
+	private final Policy policy;
+	private volatile long revalidationInterval;
+	private long size;
+	private int unsavedChanges;
+	private long lastSaved;
+	/**
+	 * Cache entries by cache key in access order, the least recently used entry first.
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Opens the cache in the given directory. Blobs cached in the directory by
+	 * a previous instance are reused if they have been stored with the same policy.
+	 *
+	 * @param directory Directory to store the cached blobs in. Created if it does not exist.
+	 * @param maximumSize Maximum size of all cached blobs in bytes.
+	 * @param policy Form in which blobs are stored.
+	 * @throws IOException if the directory could not be created.
+	 */
+	public StorageBlobCache(File directory, long maximumSize, Policy policy) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cache directory " + directory + " could not be created.");
+		}
+		this.directory = directory;
+		this.maximumSize = maximumSize;
+		this.policy = policy;
+		loadIndex();
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the time in milliseconds a cached blob is used without validating it
+	 * against the server.
+	 * @return revalidation interval in milliseconds
+	 */
+	public long getRevalidationInterval() {
+		return revalidationInterval;
+	}
+
+	/**
+	 * Sets the time in milliseconds a cached blob is used without validating it
+	 * against the server. With the default of 0 every cached blob is validated
+	 * with a conditional request before it is used. Blobs that are never
+	 * modified, like the chunks of a chunked upload, can use a large interval.
+	 *
+	 * @param revalidationInterval revalidation interval in milliseconds
+	 */
+	public void setRevalidationInterval(long revalidationInterval) {
+		this.revalidationInterval = revalidationInterval;
+	}
+
+	/**
+	 * Returns the size of all cached blobs.
+	 * @return size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the cache entry of a blob.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 * @return cache entry or null if the blob is not cached.
+	 */
+	public synchronized CacheEntry getEntry(String publicIdentifier, String blobName) {
+		return entries.get(cacheKey(publicIdentifier, blobName));
+	}
+
+	/**
+	 * Checks whether a cache entry may be used without validating it against the server.
+	 *
+	 * @param entry Cache entry to check.
+	 * @return true if the entry has been validated within the revalidation interval.
+	 */
+	public boolean isFresh(CacheEntry entry) {
+		return System.currentTimeMillis() - entry.validated < revalidationInterval;
+	}
+
+	/**
+	 * Checks whether a cached blob may be returned to a caller knowing the
+	 * given key. Encrypted blobs are authenticated when they are decrypted,
+	 * decrypted blobs have to have been stored with the same key.
+	 *
+	 * @param entry Cache entry to check.
+	 * @param key Key of the blob supplied by the caller.
+	 * @return true if the entry may be read with the key.
+	 * @throws InvalidKeyException if the key is invalid.
+	 */
+	public boolean matchesKey(CacheEntry entry, SecretKey key) throws InvalidKeyException {
+		if (policy == Policy.CIPHERTEXT) {
+			return true;
+		}
+		return entry.keyCheck != null
+				&& MessageDigest.isEqual(Hex.decode(entry.keyCheck), keyCheck(key));
+	}
+
+	/**
+	 * Opens a cached blob for reading and marks it as recently used.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 * @return stream of the cached blob or null if the blob is not cached.
+	 */
+	public synchronized InputStream open(String publicIdentifier, String blobName) {
+		String key = cacheKey(publicIdentifier, blobName);
+		CacheEntry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			return new FileInputStream(blobFile(key));
+		} catch (FileNotFoundException e) {
+			logger.warn("Cached blob " + blobName + " is missing.");
+			removeEntry(key);
+			indexChanged();
+			return null;
+		}
+	}
+
+	/**
+	 * Marks a cached blob as validated against the server.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 */
+	public synchronized void markValidated(String publicIdentifier, String blobName) {
+		CacheEntry entry = entries.get(cacheKey(publicIdentifier, blobName));
+		if (entry != null) {
+			entry.validated = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Stores a copy of a blob in the cache. Least recently used blobs are evicted
+	 * if the maximum cache size is exceeded. Blobs larger than the maximum cache
+	 * size are not cached. Decrypted blobs stored without a key cannot be read
+	 * with {@link #matchesKey(CacheEntry, SecretKey)}.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 * @param file File containing the blob in the form defined by the policy.
+	 * @param eTag ETag of the blob reported by the server or null.
+	 * @param lastModified Last modification time reported by the server or 0.
+	 * @throws IOException if the blob could not be copied into the cache.
+	 */
+	public void put(String publicIdentifier, String blobName, File file, String eTag,
+			long lastModified) throws IOException {
+		put(publicIdentifier, blobName, file, eTag, lastModified, null);
+	}
+
+	/**
+	 * Stores a copy of a blob in the cache, bound to the key of the blob.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 * @param file File containing the blob in the form defined by the policy.
+	 * @param eTag ETag of the blob reported by the server or null.
+	 * @param lastModified Last modification time reported by the server or 0.
+	 * @param blobKey Key the blob has been decrypted with or null.
+	 * @throws IOException if the blob could not be copied into the cache.
+	 */
+	public synchronized void put(String publicIdentifier, String blobName, File file, String eTag,
+			long lastModified, SecretKey blobKey) throws IOException {
+		String keyCheck = null;
+		if (blobKey != null && policy == Policy.PLAINTEXT) {
+			try {
+				keyCheck = Hex.toHexString(keyCheck(blobKey));
+			} catch (InvalidKeyException e) {
+				throw new IOException("Invalid blob key", e);
+			}
+		}
+		String key = cacheKey(publicIdentifier, blobName);
+		removeEntry(key);
+		long fileSize = file.length();
+		if (fileSize > maximumSize) {
+			indexChanged();
+			return;
+		}
+		Files.copy(file.toPath(), blobFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		CacheEntry entry = new CacheEntry(key, fileSize, eTag, lastModified);
+		entry.keyCheck = keyCheck;
+		entries.put(key, entry);
+		size += fileSize;
+		evict();
+		indexChanged();
+	}
+
+	/**
+	 * Removes a blob from the cache.
+	 *
+	 * @param publicIdentifier Public identifier of the volume containing the blob.
+	 * @param blobName Name of the blob.
+	 */
+	public synchronized void remove(String publicIdentifier, String blobName) {
+		if (removeEntry(cacheKey(publicIdentifier, blobName))) {
+			indexChanged();
+		}
+	}
+
+	/**
+	 * Removes all blobs from the cache.
+	 */
+	public synchronized void clear() {
+		for (String key : new ArrayList<>(entries.keySet())) {
+			removeEntry(key);
+		}
+		saveIndex();
+	}
+
+	/**
+	 * Writes unsaved changes of the index.
+	 */
+	public synchronized void flush() {
+		if (unsavedChanges > 0) {
+			saveIndex();
+		}
+	}
+
+	private void evict() {
+		Iterator<CacheEntry> iterator = entries.values().iterator();
+		while (size > maximumSize && iterator.hasNext()) {
+			CacheEntry entry = iterator.next();
+			iterator.remove();
+			size -= entry.size;
+			deleteBlobFile(entry.key);
+		}
+	}
+
+	private boolean removeEntry(String key) {
+		CacheEntry entry = entries.remove(key);
+		if (entry == null) {
+			return false;
+		}
+		size -= entry.size;
+		deleteBlobFile(key);
+		return true;
+	}
+
+	private void deleteBlobFile(String key) {
+		File file = blobFile(key);
+		if (file.exists() && !file.delete()) {
+			logger.warn("Cached blob " + file + " could not be deleted.");
+		}
+	}
+
+	private File blobFile(String key) {
+		return new File(directory, key + BLOB_FILE_SUFFIX);
+	}
+
+	/**
+	 * Records a change of the index and writes the index if there are too
+	 * many unsaved changes or they are too old.
+	 */
+	private void indexChanged() {
+		unsavedChanges++;
+		if (unsavedChanges >= INDEX_SAVE_CHANGES
+				|| System.currentTimeMillis() - lastSaved >= INDEX_SAVE_INTERVAL) {
+			saveIndex();
+		}
+	}
+
+	/**
+	 * Writes the cache index to a temporary file which replaces the previous
+	 * index afterwards, so an interrupted write does not lose the index.
+	 * Failures are only logged since the index can be rebuilt by fetching the
+	 * blobs again.
+	 */
+	private void saveIndex() {
+		Index index = new Index(policy, new ArrayList<>(entries.values()));
+		File indexFile = new File(directory, INDEX_FILE_NAME);
+		File tempFile = new File(directory, INDEX_FILE_NAME + TEMP_SUFFIX);
+		try {
+			try (FileOutputStream out = new FileOutputStream(tempFile)) {
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				new Gson().toJson(index, writer);
+				writer.flush();
+				out.getFD().sync();
+			}
+			try {
+				Files.move(tempFile.toPath(), indexFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.warn("Cache index could not be written.", e);
+		}
+		unsavedChanges = 0;
+		lastSaved = System.currentTimeMillis();
+	}
+
+	private void loadIndex() {
+		File indexFile = new File(directory, INDEX_FILE_NAME);
+		Index index = null;
+		if (indexFile.exists()) {
+			try (Reader reader = new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)) {
+				index = new Gson().fromJson(reader, Index.class);
+			} catch (IOException | JsonParseException e) {
+				logger.warn("Cache index could not be read, starting with an empty cache.", e);
+			}
+		}
+		// blobs stored with another policy cannot be used
+		if (index != null && index.policy == policy && index.entries != null) {
+			for (CacheEntry entry : index.entries) {
+				if (blobFile(entry.key).length() == entry.size) {
+					entries.put(entry.key, entry);
+					size += entry.size;
+				}
+			}
+		}
+		// delete blobs which are not in the index, e.g. stored after the
+		// index has been written last
+		for (File file : directory.listFiles()) {
+			String name = file.getName();
+			if (name.endsWith(BLOB_FILE_SUFFIX) && !entries.containsKey(
+					name.substring(0, name.length() - BLOB_FILE_SUFFIX.length()))) {
+				file.delete();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Calculates a keyed digest identifying a blob key without revealing it.
+	 */
+	private static byte[] keyCheck(SecretKey key) throws InvalidKeyException {
+		return new CryptoUtils().calcHmac(KEY_CHECK_LABEL, key);
+	}
+
+	private static String cacheKey(String publicIdentifier, String blobName) {
+		byte[] digest = new CryptoUtils().getSHA512sum(publicIdentifier + "/" + blobName);
+		return Hex.toHexString(digest, 0, KEY_SIZE_BYTE);
+	}
+
+	/**
+	 * Metadata of a cached blob.
+	 */
+	public static class CacheEntry {
+		private final String key;
+		private final long size;
+		private final String eTag;
+		private final long lastModified;
+		private long validated;
+		/**
+		 * Keyed digest of the blob key, only set for decrypted blobs.
+		 */
+		private String keyCheck;
+
+		CacheEntry(String key, long size, String eTag, long lastModified) {
+			this.key = key;
+			this.size = size;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.validated = System.currentTimeMillis();
+		}
+
+		/**
+		 * Returns the ETag of the cached blob.
+		 * @return ETag or null if the server did not send one
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Returns the last modification time of the cached blob.
+		 * @return milliseconds since the epoch or 0 if the server did not send it
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the size of the cached blob.
+		 * @return size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Serialized form of the cache index.
+	 */
+	private static class Index {
+		private final Policy policy;
+		private final List<CacheEntry> entries;
+
+		Index(Policy policy, List<CacheEntry> entries) {
+			this.policy = policy;
+			this.entries = entries;
+		}
+	}
+}
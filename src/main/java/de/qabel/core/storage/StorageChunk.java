@@ -0,0 +1,121 @@
+package de.qabel.core.storage;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.util.encoders.Hex;
+
+import de.qabel.core.crypto.CryptoUtils;
+
+/**
+ * A chunk of a content defined chunked upload. The blob name and the blob key
+ * of a chunk are derived from the volume key and the digest of the chunk
+ * content (convergent encryption per volume). Identical chunks therefore
+ * always end up in the same blob and only have to be uploaded once.
+ */
+public class StorageChunk {
+	private static final String KEY_ALGORITHM = "AES";
+	private static final int KEY_SIZE_BYTE = 32;
+	private static final int NAME_SIZE_BYTE = 16;
+
+	private final String digest;
+	private final String blobName;
+	private final int size;
+
+	StorageChunk(String digest, String blobName, int size) {
+		this.digest = digest;
+		this.blobName = blobName;
+		this.size = size;
+	}
+
+	/**
+	 * Creates the chunk description of the given chunk data.
+	 *
+	 * @param data Plain chunk content.
+	 * @param volumeKey Secret key of the volume the chunk is stored in.
+	 * @return chunk description.
+	 * @throws InvalidKeyException if the volume key is invalid.
+	 */
+	static StorageChunk fromData(byte[] data, SecretKey volumeKey) throws InvalidKeyException {
+		CryptoUtils cryptoUtils = new CryptoUtils();
+		byte[] digest = cryptoUtils.getSHA512sum(data);
+		byte[] keyMaterial = cryptoUtils.calcHmac(digest, volumeKey);
+		String blobName = Hex.toHexString(
+				Arrays.copyOfRange(keyMaterial, KEY_SIZE_BYTE, KEY_SIZE_BYTE + NAME_SIZE_BYTE));
+		return new StorageChunk(Hex.toHexString(digest), blobName, data.length);
+	}
+
+	/**
+	 * Derives the secret key used to encrypt this chunk.
+	 *
+	 * @param volumeKey Secret key of the volume the chunk is stored in.
+	 * @return secret key of the chunk.
+	 * @throws InvalidKeyException if the volume key is invalid.
+	 */
+	SecretKey deriveKey(SecretKey volumeKey) throws InvalidKeyException {
+		CryptoUtils cryptoUtils = new CryptoUtils();
+		byte[] keyMaterial = cryptoUtils.calcHmac(Hex.decode(digest), volumeKey);
+		return new SecretKeySpec(keyMaterial, 0, KEY_SIZE_BYTE, KEY_ALGORITHM);
+	}
+
+	/**
+	 * Returns the SHA512 digest of the chunk content as hex string.
+	 * @return chunk digest
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the name of the blob containing this chunk.
+	 * @return blob name
+	 */
+	public String getBlobName() {
+		return blobName;
+	}
+
+	/**
+	 * Returns the unpadded size of the chunk.
+	 * @return size in bytes
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((blobName == null) ? 0 : blobName.hashCode());
+		result = prime * result + ((digest == null) ? 0 : digest.hashCode());
+		result = prime * result + size;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		StorageChunk other = (StorageChunk) obj;
+		if (blobName == null) {
+			if (other.blobName != null)
+				return false;
+		} else if (!blobName.equals(other.blobName))
+			return false;
+		if (digest == null) {
+			if (other.digest != null)
+				return false;
+		} else if (!digest.equals(other.digest))
+			return false;
+		if (size != other.size)
+			return false;
+		return true;
+	}
+}
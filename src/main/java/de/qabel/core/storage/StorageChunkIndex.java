@@ -0,0 +1,122 @@
+package de.qabel.core.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Local index of the chunks already uploaded to one storage volume. It is
+ * used to skip the upload of unchanged chunks.
+ */
+public class StorageChunkIndex {
+	private static final Type CHUNK_LIST_TYPE = new TypeToken<List<StorageChunk>>() {}.getType();
+
+	private final Map<String, StorageChunk> chunks = new HashMap<>();
+	/**
+	 * Held for reading by chunked uploads and for writing by the garbage
+	 * collector, so no upload skips a chunk which is being deleted.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Returns the lock shared by chunked uploads and the garbage collector.
+	 * @return lock of the index
+	 */
+	ReadWriteLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Checks whether the given chunk has already been uploaded.
+	 *
+	 * @param chunk Chunk to check.
+	 * @return true if the chunk is known to be stored on the volume.
+	 */
+	public synchronized boolean contains(StorageChunk chunk) {
+		return chunk.equals(chunks.get(chunk.getBlobName()));
+	}
+
+	/**
+	 * Records the chunk as uploaded.
+	 *
+	 * @param chunk Uploaded chunk.
+	 * @return true if the chunk was not known before.
+	 */
+	public synchronized boolean add(StorageChunk chunk) {
+		return chunks.put(chunk.getBlobName(), chunk) == null;
+	}
+
+	/**
+	 * Removes the chunk stored in the given blob from the index.
+	 *
+	 * @param blobName Name of the blob containing the chunk.
+	 * @return the removed chunk or null if it was not indexed.
+	 */
+	public synchronized StorageChunk remove(String blobName) {
+		return chunks.remove(blobName);
+	}
+
+	/**
+	 * Returns a copy of all indexed chunks.
+	 * @return indexed chunks
+	 */
+	public synchronized Collection<StorageChunk> getChunks() {
+		return Collections.unmodifiableList(new ArrayList<>(chunks.values()));
+	}
+
+	/**
+	 * Writes the index to a file.
+	 *
+	 * @param file File to write the index to.
+	 * @throws IOException if the file could not be written.
+	 */
+	public void save(File file) throws IOException {
+		Collection<StorageChunk> snapshot = getChunks();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			new Gson().toJson(snapshot, CHUNK_LIST_TYPE, writer);
+		}
+	}
+
+	/**
+	 * Reads an index previously written with save().
+	 *
+	 * @param file File to read the index from.
+	 * @return the read index or an empty index if the file does not exist.
+	 * @throws IOException if the file could not be read.
+	 * @throws JsonParseException if the file does not contain a valid index.
+	 */
+	public static StorageChunkIndex load(File file) throws IOException, JsonParseException {
+		StorageChunkIndex index = new StorageChunkIndex();
+		if (!file.exists()) {
+			return index;
+		}
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			List<StorageChunk> chunks = new Gson().fromJson(reader, CHUNK_LIST_TYPE);
+			if (chunks != null) {
+				for (StorageChunk chunk : chunks) {
+					index.add(chunk);
+				}
+			}
+		}
+		return index;
+	}
+}
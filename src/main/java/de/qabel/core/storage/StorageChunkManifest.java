@@ -0,0 +1,62 @@
+package de.qabel.core.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of chunks a content defined chunked upload consists of.
+ * The manifest is required to reassemble the uploaded data.
+ */
+public class StorageChunkManifest {
+	private final List<StorageChunk> chunks = new ArrayList<>();
+
+	void addChunk(StorageChunk chunk) {
+		chunks.add(chunk);
+	}
+
+	/**
+	 * Returns the chunks in upload order.
+	 * @return unmodifiable list of chunks
+	 */
+	public List<StorageChunk> getChunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+
+	/**
+	 * Returns the size of the reassembled data.
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		long size = 0;
+		for (StorageChunk chunk : chunks) {
+			size += chunk.getSize();
+		}
+		return size;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((chunks == null) ? 0 : chunks.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		StorageChunkManifest other = (StorageChunkManifest) obj;
+		if (chunks == null) {
+			if (other.chunks != null)
+				return false;
+		} else if (!chunks.equals(other.chunks))
+			return false;
+		return true;
+	}
+}
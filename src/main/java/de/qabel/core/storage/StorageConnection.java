@@ -1,10 +1,21 @@
 package de.qabel.core.storage;
 
+import de.qabel.core.http.StorageHTTP;
 import de.qabel.core.module.ModuleManager;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.Set;
 import java.util.HashSet;
 
+/**
+ * Handle of a single blob transfer. It reports the progress of the transfer
+ * and allows to cancel it from any thread.
+ */
 public class StorageConnection {
 /**
  * <pre>
@@ -13,7 +24,7 @@ public class StorageConnection {
  *           storageConnection        &lt;       storageResponseListener
  * </pre>
  */
-private StorageResponseListener storageResponseListener;
+private volatile StorageResponseListener storageResponseListener;
 
 public void setStorageResponseListener(StorageResponseListener value) {
    this.storageResponseListener = value;
@@ -23,10 +34,151 @@ public StorageResponseListener getStorageResponseListener() {
    return this.storageResponseListener;
 }
 
-public void cancel() {
-   // TODO implement this operation
-   throw new UnsupportedOperationException("not implemented");
-}
+	/**
+	 * Minimum number of transferred bytes between two progress notifications.
+	 */
+	private static final long PROGRESS_INTERVAL_BYTES = 64 * 1024;
+
+	private volatile boolean cancelled;
+	private volatile StorageHTTP http;
+	private volatile long transferredBytes;
+	private volatile long totalBytes = -1;
+	private long reportedBytes;
+
+	/**
+	 * Cancels the transfer. A running request is aborted and all further
+	 * reads and writes of the transfer fail with an InterruptedIOException.
+	 * Data of an interrupted download is kept and used to resume it.
+	 */
+	public void cancel() {
+		cancelled = true;
+		StorageHTTP activeHttp = http;
+		if (activeHttp != null) {
+			activeHttp.abort();
+		}
+	}
+
+	/**
+	 * Returns whether the transfer has been cancelled.
+	 * @return true if cancel() has been called.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of bytes transferred so far. For resumed downloads
+	 * the previously downloaded bytes are included.
+	 * @return transferred bytes
+	 */
+	public long getTransferredBytes() {
+		return transferredBytes;
+	}
+
+	/**
+	 * Returns the total number of bytes of the transfer.
+	 * @return total bytes or -1 if unknown
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Starts a new request of this transfer.
+	 *
+	 * @param http StorageHTTP executing the request.
+	 * @param transferredBytes Number of bytes already transferred before this request.
+	 * @throws InterruptedIOException if the transfer has already been cancelled.
+	 */
+	void startRequest(StorageHTTP http, long transferredBytes) throws InterruptedIOException {
+		this.http = http;
+		this.transferredBytes = transferredBytes;
+		this.reportedBytes = transferredBytes;
+		checkCancelled();
+	}
+
+	/**
+	 * Finishes the current request of this transfer.
+	 */
+	void finishRequest() {
+		http = null;
+	}
+
+	void setTotalBytes(long totalBytes) {
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Wraps an InputStream to count the read bytes and to stop reading when
+	 * the transfer has been cancelled.
+	 *
+	 * @param in InputStream to track.
+	 * @return tracked InputStream.
+	 */
+	InputStream track(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				checkCancelled();
+				int b = super.read();
+				if (b >= 0) {
+					addTransferredBytes(1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				checkCancelled();
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					addTransferredBytes(read);
+				}
+				return read;
+			}
+		};
+	}
+
+	/**
+	 * Wraps an OutputStream to count the written bytes and to stop writing
+	 * when the transfer has been cancelled.
+	 *
+	 * @param out OutputStream to track.
+	 * @return tracked OutputStream.
+	 */
+	OutputStream track(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				checkCancelled();
+				out.write(b);
+				addTransferredBytes(1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				checkCancelled();
+				out.write(b, off, len);
+				addTransferredBytes(len);
+			}
+		};
+	}
+
+	private void addTransferredBytes(long bytes) {
+		transferredBytes += bytes;
+		StorageResponseListener listener = storageResponseListener;
+		if (listener != null && (transferredBytes - reportedBytes >= PROGRESS_INTERVAL_BYTES
+				|| transferredBytes == totalBytes)) {
+			reportedBytes = transferredBytes;
+			listener.onProgress(this, transferredBytes, totalBytes);
+		}
+	}
+
+	private void checkCancelled() throws InterruptedIOException {
+		if (cancelled) {
+			throw new InterruptedIOException("Transfer has been cancelled.");
+		}
+	}
 
 	/**
 	 * <pre>
@@ -1,9 +1,45 @@
 package de.qabel.core.storage;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executes storage requests asynchronously on a bounded pool of worker
+ * threads. The number of requests running concurrently against one storage
+ * server is limited, further requests for that server are queued.
+ */
 public class StorageController {
+	private final static Logger logger = LogManager.getLogger(StorageController.class.getName());
+
+	public static final int DEFAULT_WORKER_THREADS = 4;
+	public static final int DEFAULT_REQUESTS_PER_SERVER = 2;
+	private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+	private final ThreadPoolExecutor executor;
+	private final int requestsPerServer;
+	/**
+	 * Requests waiting for a free slot, by url of the storage server.
+	 */
+	private final Map<String, Queue<Task>> pendingTasks = new HashMap<>();
+	/**
+	 * Number of running requests, by url of the storage server.
+	 */
+	private final Map<String, Integer> runningTasks = new HashMap<>();
+
 	/**
 	 * <pre>
 	 *           1..1     0..*
@@ -11,20 +47,196 @@ public class StorageController {
 	 *           &lt;       storageConnection
 	 * </pre>
 	 */
-	// TODO implement this operation
-public StorageResponseListener startRequest(StorageResponseListener listener) {
-   // TODO implement this operation
-   throw new UnsupportedOperationException("not implemented");
-}
+	private final Set<StorageConnection> storageConnection =
+			Collections.synchronizedSet(new HashSet<StorageConnection>());
+
+	/**
+	 * Creates a StorageController with the default number of worker threads
+	 * and concurrent requests per server.
+	 */
+	public StorageController() {
+		this(DEFAULT_WORKER_THREADS, DEFAULT_REQUESTS_PER_SERVER);
+	}
+
+	/**
+	 * Creates a StorageController.
+	 *
+	 * @param workerThreads Maximum number of worker threads.
+	 * @param requestsPerServer Maximum number of concurrent requests to the same storage server.
+	 */
+	public StorageController(int workerThreads, int requestsPerServer) {
+		if (workerThreads <= 0 || requestsPerServer <= 0) {
+			throw new IllegalArgumentException("Worker threads and requests per server have to be positive.");
+		}
+		this.requestsPerServer = requestsPerServer;
+		executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+				WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new WorkerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
 
+	/**
+	 * Schedules a storage request. The listener is informed about the progress
+	 * and the result of the request.
+	 *
+	 * @param request Request to execute.
+	 * @param listener Listener receiving the events of the request.
+	 * @return connection which can be used to cancel the request.
+	 */
+	public StorageConnection startRequest(StorageRequest request, StorageResponseListener listener) {
+		StorageConnection connection = new StorageConnection();
+		connection.setStorageResponseListener(listener);
+		Task task = new Task(serverKey(request), request, connection);
+		getStorageConnection().add(connection);
 
-	private Set<StorageConnection> storageConnection;
+		synchronized (this) {
+			if (executor.isShutdown()) {
+				getStorageConnection().remove(connection);
+				throw new IllegalStateException("StorageController has been shut down.");
+			}
+			Integer running = runningTasks.get(task.server);
+			if (running == null) {
+				running = 0;
+			}
+			if (running < requestsPerServer) {
+				runningTasks.put(task.server, running + 1);
+				executor.execute(task);
+			} else {
+				Queue<Task> pending = pendingTasks.get(task.server);
+				if (pending == null) {
+					pending = new ArrayDeque<>();
+					pendingTasks.put(task.server, pending);
+				}
+				pending.add(task);
+			}
+		}
+		return connection;
+	}
 
+	/**
+	 * Returns the connections of all scheduled and running requests.
+	 * @return connections of unfinished requests
+	 */
 	public Set<StorageConnection> getStorageConnection() {
-		if (this.storageConnection == null) {
-			this.storageConnection = new HashSet<StorageConnection>();
-		}
 		return this.storageConnection;
 	}
 
+	/**
+	 * Cancels all requests and stops the worker threads.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			executor.shutdown();
+		}
+		synchronized (storageConnection) {
+			for (StorageConnection connection : storageConnection) {
+				connection.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Called by a worker when a task finished. Starts the next pending task of the
+	 * same server in place of the finished one.
+	 */
+	private synchronized void finishTask(Task task) {
+		Queue<Task> pending = pendingTasks.get(task.server);
+		if (pending != null && executor.isShutdown()) {
+			// controller has been shut down, report pending tasks as cancelled
+			pendingTasks.remove(task.server);
+			for (Task cancelled : pending) {
+				cancelled.connection.cancel();
+				notifyCancel(cancelled.connection);
+			}
+			pending = null;
+		}
+		Task next = (pending == null) ? null : pending.poll();
+		if (pending != null && pending.isEmpty()) {
+			pendingTasks.remove(task.server);
+		}
+		if (next != null) {
+			executor.execute(next);
+			return;
+		}
+		int running = runningTasks.get(task.server) - 1;
+		if (running == 0) {
+			runningTasks.remove(task.server);
+		} else {
+			runningTasks.put(task.server, running);
+		}
+	}
+
+	private void notifyCancel(StorageConnection connection) {
+		getStorageConnection().remove(connection);
+		StorageResponseListener listener = connection.getStorageResponseListener();
+		if (listener != null) {
+			listener.onCancel(connection);
+		}
+	}
+
+	private static String serverKey(StorageRequest request) {
+		return request.getVolume().getStorageServer().getUrl().toString();
+	}
+
+	private class Task implements Runnable {
+		private final String server;
+		private final StorageRequest request;
+		private final StorageConnection connection;
+
+		Task(String server, StorageRequest request, StorageConnection connection) {
+			this.server = server;
+			this.request = request;
+			this.connection = connection;
+		}
+
+		@Override
+		public void run() {
+			try {
+				execute();
+			} finally {
+				finishTask(this);
+			}
+		}
+
+		private void execute() {
+			StorageResponseListener listener = connection.getStorageResponseListener();
+			if (connection.isCancelled()) {
+				notifyCancel(connection);
+				return;
+			}
+			File result;
+			try {
+				result = request.execute(connection);
+			} catch (Exception e) {
+				getStorageConnection().remove(connection);
+				if (connection.isCancelled()) {
+					logger.debug("Storage request has been cancelled.");
+					if (listener != null) {
+						listener.onCancel(connection);
+					}
+				} else {
+					logger.warn("Storage request failed.", e);
+					if (listener != null) {
+						listener.onFailure(connection, e);
+					}
+				}
+				return;
+			}
+			getStorageConnection().remove(connection);
+			if (listener != null) {
+				listener.onSuccess(connection, result);
+			}
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "StorageController-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
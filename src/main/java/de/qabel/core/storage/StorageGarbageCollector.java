@@ -0,0 +1,154 @@
+package de.qabel.core.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.qabel.core.config.StorageVolume;
+import de.qabel.core.exceptions.QblStorageInvalidBlobName;
+import de.qabel.core.exceptions.QblStorageInvalidToken;
+
+/**
+ * Removes the chunks of a storage volume which are no longer referenced by
+ * any manifest of a chunked upload.
+ * <p>
+ * A collection holds the lock of the chunk index exclusively, so
+ * {@link StorageAction#uploadChunked} with the same index waits until it
+ * has finished and does not skip chunks which are being deleted.
+ */
+public class StorageGarbageCollector {
+	private final static Logger logger = LogManager.getLogger(StorageGarbageCollector.class.getName());
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	private final StorageVolume volume;
+	private final StorageChunkIndex index;
+	private int concurrency = DEFAULT_CONCURRENCY;
+
+	/**
+	 * Creates a garbage collector for a storage volume.
+	 *
+	 * @param volume Volume to clean up.
+	 * @param index Index of the chunks uploaded to the volume. Deleted chunks are removed from the index.
+	 */
+	public StorageGarbageCollector(StorageVolume volume, StorageChunkIndex index) {
+		this.volume = volume;
+		this.index = index;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent delete requests.
+	 * @param concurrency number of concurrent requests
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Deletes all indexed chunks which are not referenced by any of the given
+	 * manifests. The manifests have to contain all data still in use on the
+	 * volume, otherwise chunks in use are deleted. Deleted chunks are removed
+	 * from the index even if the collection fails.
+	 *
+	 * @param manifests Manifests of all chunked uploads still in use.
+	 * @return summary of the reclaimed chunks.
+	 * @throws IOException if interrupted while deleting.
+	 * @throws QblStorageInvalidToken if the token of the volume is invalid.
+	 */
+	public Result collect(Collection<StorageChunkManifest> manifests) throws IOException, QblStorageInvalidToken {
+		Lock lock = index.getLock().writeLock();
+		lock.lock();
+		try {
+			return collectLocked(manifests);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Result collectLocked(Collection<StorageChunkManifest> manifests)
+			throws IOException, QblStorageInvalidToken {
+		Set<String> referenced = new HashSet<>();
+		for (StorageChunkManifest manifest : manifests) {
+			for (StorageChunk chunk : manifest.getChunks()) {
+				referenced.add(chunk.getBlobName());
+			}
+		}
+		Map<String, StorageChunk> unreferenced = new HashMap<>();
+		for (StorageChunk chunk : index.getChunks()) {
+			if (!referenced.contains(chunk.getBlobName())) {
+				unreferenced.put(chunk.getBlobName(), chunk);
+			}
+		}
+
+		Set<String> deleted = new HashSet<>();
+		Set<String> failed;
+		try {
+			failed = StorageAction.deleteBlobs(volume, unreferenced.keySet(), concurrency, deleted);
+		} catch (QblStorageInvalidBlobName e) {
+			// should not happen since chunk names are hex encoded
+			logger.error("Indexed chunk name is invalid.", e);
+			throw new RuntimeException("Indexed chunk name is invalid.", e);
+		} finally {
+			// deleted chunks have to be uploaded again, also after a failure
+			for (String blobName : deleted) {
+				index.remove(blobName);
+			}
+		}
+
+		long reclaimedBytes = 0;
+		for (String blobName : deleted) {
+			reclaimedBytes += StorageBlob.getPaddedSize(unreferenced.get(blobName).getSize());
+		}
+		logger.info("Garbage collection deleted " + deleted.size() + " chunks with " + reclaimedBytes + " bytes, "
+				+ failed.size() + " deletions failed.");
+		return new Result(deleted.size(), reclaimedBytes, failed);
+	}
+
+	/**
+	 * Summary of a garbage collection run.
+	 */
+	public static class Result {
+		private final int deletedChunks;
+		private final long reclaimedBytes;
+		private final Set<String> failedBlobs;
+
+		Result(int deletedChunks, long reclaimedBytes, Set<String> failedBlobs) {
+			this.deletedChunks = deletedChunks;
+			this.reclaimedBytes = reclaimedBytes;
+			this.failedBlobs = Collections.unmodifiableSet(new HashSet<>(failedBlobs));
+		}
+
+		/**
+		 * Returns the number of deleted chunks.
+		 * @return deleted chunks
+		 */
+		public int getDeletedChunks() {
+			return deletedChunks;
+		}
+
+		/**
+		 * Returns the size of the deleted blobs including their padding.
+		 * @return reclaimed bytes
+		 */
+		public long getReclaimedBytes() {
+			return reclaimedBytes;
+		}
+
+		/**
+		 * Returns the names of the unreferenced blobs which could not be deleted.
+		 * They stay in the chunk index and are retried by the next run.
+		 * @return names of the failed blobs
+		 */
+		public Set<String> getFailedBlobs() {
+			return failedBlobs;
+		}
+	}
+}
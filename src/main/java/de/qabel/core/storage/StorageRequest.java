@@ -0,0 +1,99 @@
+package de.qabel.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+
+import javax.crypto.SecretKey;
+
+import de.qabel.core.config.StorageVolume;
+import de.qabel.core.exceptions.QblException;
+
+/**
+ * Storage operation which can be scheduled on a StorageController.
+ */
+public abstract class StorageRequest {
+	private final StorageVolume volume;
+
+	StorageRequest(StorageVolume volume) {
+		this.volume = volume;
+	}
+
+	/**
+	 * Returns the volume the request operates on.
+	 * @return storage volume
+	 */
+	public StorageVolume getVolume() {
+		return volume;
+	}
+
+	/**
+	 * Executes the request in the calling thread.
+	 *
+	 * @param connection Connection tracking the progress of the request.
+	 * @return Resulting file or null if the request has no result file.
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws QblException
+	 */
+	abstract File execute(StorageConnection connection) throws IOException, InvalidKeyException, QblException;
+
+	/**
+	 * Creates a request uploading a blob.
+	 *
+	 * @param volume volume to put blob in.
+	 * @param blob blob to upload.
+	 * @param key secret key used for encryption.
+	 * @return upload request.
+	 */
+	public static StorageRequest upload(StorageVolume volume, final StorageBlob blob, final SecretKey key) {
+		return new StorageRequest(volume) {
+			@Override
+			File execute(StorageConnection connection) throws IOException, InvalidKeyException, QblException {
+				StorageAction.uploadBlob(getVolume(), blob, key, connection);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Creates a request downloading a blob. The download is resumable, see
+	 * StorageAction.retrieveBlob().
+	 *
+	 * @param volume storage volume containing the blob.
+	 * @param blobName name of the blob.
+	 * @param key secret key to decrypt the downloaded blob.
+	 * @param partFile file containing the already downloaded part of the encrypted blob.
+	 * @return download request.
+	 */
+	public static StorageRequest download(StorageVolume volume, final String blobName, final SecretKey key,
+			final File partFile) {
+		return new StorageRequest(volume) {
+			@Override
+			File execute(StorageConnection connection) throws IOException, InvalidKeyException, QblException {
+				File file = StorageAction.retrieveBlob(getVolume(), blobName, key, partFile, connection);
+				if (file == null) {
+					throw new IOException("Blob " + blobName + " could not be authenticated.");
+				}
+				return file;
+			}
+		};
+	}
+
+	/**
+	 * Creates a request deleting a blob.
+	 *
+	 * @param volume storage volume containing the blob.
+	 * @param blobName name of blob to be deleted.
+	 * @return delete request.
+	 */
+	public static StorageRequest delete(StorageVolume volume, final String blobName) {
+		return new StorageRequest(volume) {
+			@Override
+			File execute(StorageConnection connection) throws IOException, InvalidKeyException, QblException {
+				StorageAction.deleteBlob(getVolume(), blobName);
+				return null;
+			}
+		};
+	}
+}
@@ -1,17 +1,42 @@
 package de.qabel.core.storage;
 
-public interface StorageResponseListener {
+import java.io.File;
+
 /**
- * <pre>
- *           0..1     0..1
- * StorageResponseListener ------------------------- StorageConnection
- *           storageResponseListener        &gt;       storageConnection
- * </pre>
+ * Receives the events of a storage request started with
+ * StorageController.startRequest(). All methods are called from a worker
+ * thread of the StorageController.
  */
-public void setStorageConnection(StorageConnection value);
+public interface StorageResponseListener {
+	/**
+	 * Called repeatedly while data is transferred.
+	 *
+	 * @param connection Connection of the request.
+	 * @param transferredBytes Number of bytes transferred so far.
+	 * @param totalBytes Total number of bytes or -1 if unknown.
+	 */
+	public void onProgress(StorageConnection connection, long transferredBytes, long totalBytes);
 
-public StorageConnection getStorageConnection();
+	/**
+	 * Called when the request finished successfully.
+	 *
+	 * @param connection Connection of the request.
+	 * @param file Decrypted blob for downloads, null for uploads and deletions.
+	 */
+	public void onSuccess(StorageConnection connection, File file);
 
-public StorageBlob onStorageResponse(String/*No type specified*/ blob);
+	/**
+	 * Called when the request failed.
+	 *
+	 * @param connection Connection of the request.
+	 * @param e Cause of the failure.
+	 */
+	public void onFailure(StorageConnection connection, Exception e);
 
+	/**
+	 * Called when the request has been cancelled with StorageConnection.cancel().
+	 *
+	 * @param connection Connection of the request.
+	 */
+	public void onCancel(StorageConnection connection);
 }
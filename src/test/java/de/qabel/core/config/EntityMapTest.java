@@ -0,0 +1,284 @@
+package de.qabel.core.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.qabel.core.crypto.QblPrimaryPublicKey;
+
+public class EntityMapTest {
+
+	private static class TestEntity extends Entity {
+		private final long keyId;
+
+		TestEntity(long keyId) {
+			super(null);
+			this.keyId = keyId;
+		}
+
+		@Override
+		public QblPrimaryPublicKey getPrimaryPublicKey() {
+			return null;
+		}
+
+		@Override
+		public long getKeyId() {
+			return keyId;
+		}
+
+		@Override
+		public String getKeyIdentifier() {
+			return String.format("%016X", keyId);
+		}
+	}
+
+	private static class TestEntityMap extends EntityMap<TestEntity> {
+	}
+
+	@Test
+	public void behavesLikeMap() {
+		Random random = new Random(1);
+		TestEntityMap entityMap = new TestEntityMap();
+		Map<Long, TestEntity> reference = new HashMap<>();
+		List<Long> keyIds = new ArrayList<>();
+
+		for (int i = 0; i < 20000; i++) {
+			long keyId;
+			if (keyIds.isEmpty() || random.nextInt(3) > 0) {
+				// use few distinct upper bits to provoke collisions
+				keyId = random.nextInt(100000) | ((long) random.nextInt(4) << 60);
+				keyIds.add(keyId);
+				TestEntity entity = new TestEntity(keyId);
+				Assert.assertEquals(!reference.containsKey(keyId), entityMap.add(entity));
+				if (!reference.containsKey(keyId)) {
+					reference.put(keyId, entity);
+				}
+			} else {
+				keyId = keyIds.get(random.nextInt(keyIds.size()));
+				TestEntity entity = reference.remove(keyId);
+				Assert.assertEquals(entity != null, entityMap.remove(entity));
+			}
+			Assert.assertEquals(reference.size(), entityMap.size());
+		}
+		for (Long keyId : keyIds) {
+			Assert.assertSame(reference.get(keyId), entityMap.getByKeyId(keyId));
+		}
+		int iterated = 0;
+		for (TestEntity entity : entityMap.getEntities()) {
+			Assert.assertSame(reference.get(entity.getKeyId()), entity);
+			iterated++;
+		}
+		Assert.assertEquals(reference.size(), iterated);
+	}
+
+	@Test
+	public void lookupByKeyIdentifier() {
+		TestEntityMap entityMap = new TestEntityMap();
+		TestEntity entity = new TestEntity(0xFEDCBA9876543210L);
+		entityMap.add(entity);
+		Assert.assertSame(entity, entityMap.getByKeyIdentifier("FEDCBA9876543210"));
+		Assert.assertNull(entityMap.getByKeyIdentifier("FEDCBA987654321"));
+		Assert.assertNull(entityMap.getByKeyIdentifier("XEDCBA9876543210"));
+		Assert.assertNull(entityMap.getByKeyIdentifier(null));
+	}
+
+	@Test
+	public void entitiesAreSnapshot() {
+		TestEntityMap entityMap = new TestEntityMap();
+		Set<TestEntity> empty = entityMap.getEntities();
+		TestEntity entity = new TestEntity(42);
+		entityMap.add(entity);
+		Set<TestEntity> snapshot = entityMap.getEntities();
+		Assert.assertTrue(empty.isEmpty());
+		Assert.assertEquals(1, snapshot.size());
+		Assert.assertTrue(snapshot.contains(entity));
+		Assert.assertFalse(snapshot.contains(new TestEntity(43)));
+		entityMap.remove(entity);
+		Assert.assertEquals(1, snapshot.size());
+		Assert.assertTrue(entityMap.getEntities().isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void entitiesViewIsUnmodifiable() {
+		TestEntityMap entityMap = new TestEntityMap();
+		entityMap.getEntities().add(new TestEntity(1));
+	}
+
+	@Test
+	public void modificationDuringIteration() {
+		TestEntityMap entityMap = new TestEntityMap();
+		entityMap.add(new TestEntity(1));
+		entityMap.add(new TestEntity(2));
+		Iterator<TestEntity> iterator = entityMap.getEntities().iterator();
+		iterator.next();
+		entityMap.add(new TestEntity(3));
+		entityMap.remove(entityMap.getByKeyId(1));
+		iterator.next();
+		Assert.assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void batchUpdates() {
+		TestEntityMap entityMap = new TestEntityMap();
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			entities.add(new TestEntity(i));
+		}
+		entityMap.add(entities.get(0));
+		Assert.assertEquals(999, entityMap.addAll(entities));
+		Assert.assertEquals(1000, entityMap.size());
+		Assert.assertEquals(0, entityMap.addAll(entities));
+		Assert.assertEquals(500, entityMap.removeAll(entities.subList(0, 500)));
+		Assert.assertEquals(500, entityMap.size());
+		Assert.assertNull(entityMap.getByKeyId(0));
+		Assert.assertSame(entities.get(999), entityMap.getByKeyId(999));
+	}
+
+	@Test
+	public void batchIsPublishedOnClose() throws Exception {
+		final TestEntityMap entityMap = new TestEntityMap();
+		entityMap.add(new TestEntity(1));
+		final AtomicReference<Integer> seenSize = new AtomicReference<>();
+		EntityMap<TestEntity>.Batch batch = entityMap.startBatch();
+		try {
+			entityMap.add(new TestEntity(2));
+			entityMap.remove(entityMap.getByKeyId(1));
+			Assert.assertEquals(1, entityMap.size());
+			Assert.assertNotNull(entityMap.getByKeyId(2));
+			Assert.assertEquals(1, entityMap.getEntities().size());
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					if (entityMap.getByKeyId(1) != null && entityMap.getByKeyId(2) == null) {
+						seenSize.set(entityMap.size());
+					}
+				}
+			};
+			reader.start();
+			reader.join();
+		} finally {
+			batch.close();
+		}
+		// other threads see the table from before the batch
+		Assert.assertEquals(Integer.valueOf(1), seenSize.get());
+		Assert.assertNull(entityMap.getByKeyId(1));
+		Assert.assertNotNull(entityMap.getByKeyId(2));
+	}
+
+	@Test
+	public void writersWaitForBatch() throws Exception {
+		final TestEntityMap entityMap = new TestEntityMap();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				entityMap.add(new TestEntity(2));
+			}
+		};
+		EntityMap<TestEntity>.Batch batch = entityMap.startBatch();
+		try {
+			entityMap.add(new TestEntity(1));
+			writer.start();
+			writer.join(200);
+			Assert.assertTrue(writer.isAlive());
+		} finally {
+			batch.close();
+		}
+		writer.join();
+		Assert.assertEquals(2, entityMap.size());
+	}
+
+	@Test(timeout = 10000)
+	public void loadingManyEntitiesIsLinear() {
+		// a copy of the whole table per add takes minutes for this many entities
+		int count = 100000;
+		List<TestEntity> entities = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			entities.add(new TestEntity(i * 0x9E3779B97F4A7C15L));
+		}
+		TestEntityMap bulk = new TestEntityMap();
+		Assert.assertEquals(count, bulk.addAll(entities));
+		TestEntityMap batched = new TestEntityMap();
+		EntityMap<TestEntity>.Batch batch = batched.startBatch();
+		try {
+			for (TestEntity entity : entities) {
+				batched.add(entity);
+			}
+		} finally {
+			batch.close();
+		}
+		Assert.assertEquals(count, batched.size());
+		Assert.assertEquals(bulk, batched);
+	}
+
+	@Test
+	public void concurrentReadersSeeConsistentSnapshots() throws Exception {
+		final TestEntityMap entityMap = new TestEntityMap();
+		final List<TestEntity> batch = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			batch.add(new TestEntity(i));
+		}
+		final TestEntity permanent = new TestEntity(-1);
+		entityMap.add(permanent);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<String> failure = new AtomicReference<>();
+		List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					while (running.get() && failure.get() == null) {
+						if (entityMap.getByKeyId(-1) != permanent) {
+							failure.set("Permanent entity not found");
+						}
+						// batches are applied atomically, snapshots contain all or none of them
+						int size = 0;
+						for (TestEntity entity : entityMap.getEntities()) {
+							size++;
+						}
+						if (size != 1 && size != 101) {
+							failure.set("Inconsistent snapshot of size " + size);
+						}
+					}
+				}
+			};
+			readers.add(reader);
+			reader.start();
+		}
+		for (int i = 0; i < 2000; i++) {
+			entityMap.addAll(batch);
+			entityMap.removeAll(batch);
+		}
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		Assert.assertNull(failure.get());
+	}
+
+	@Test
+	public void equalityIsOrderIndependent() {
+		TestEntityMap first = new TestEntityMap();
+		TestEntityMap second = new TestEntityMap();
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			entities.add(new TestEntity(i));
+		}
+		for (int i = 0; i < 100; i++) {
+			first.add(entities.get(i));
+			second.add(entities.get(99 - i));
+		}
+		Assert.assertEquals(first, second);
+		Assert.assertEquals(first.hashCode(), second.hashCode());
+		second.remove(second.getByKeyId(0));
+		Assert.assertNotEquals(first, second);
+	}
+}
@@ -0,0 +1,129 @@
+package de.qabel.core.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.crypto.QblKeyFactory;
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+import de.qabel.core.drop.DropURL;
+
+public class SyncedSettingsBinaryFormatTest {
+	private File directory;
+	private SyncedSettings settings;
+	private SyncedSettingsBinaryFormat format;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("qabel-settings").toFile();
+		format = new SyncedSettingsBinaryFormat();
+		settings = new SyncedSettings();
+		QblPrimaryKeyPair key = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		key.generateEncKeyPair();
+		key.generateSignKeyPair();
+		Collection<DropURL> drops = new ArrayList<DropURL>();
+		drops.add(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012c"));
+		Identity identity = new Identity("alias", drops, key);
+		identity.setUpdated(1234L);
+		settings.getIdentities().add(identity);
+		settings.getAccounts().add(new Account("provider", "user", "auth"));
+		settings.getDropServers().add(new DropServer(
+				new URL("https://drop.qabel.de/0123456789012345678901234567890123456789123"), "auth", true));
+
+		QblPrimaryKeyPair contactKey = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		contactKey.generateEncKeyPair();
+		contactKey.generateSignKeyPair();
+		Contact contact = new Contact(identity, null, contactKey.getQblPrimaryPublicKey());
+		contact.addEncryptionPublicKey(contactKey.getQblEncPublicKeys().get(0));
+		contact.addSignaturePublicKey(contactKey.getQblSignPublicKeys().get(0));
+		contact.addDrop(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012d"));
+		settings.getContacts().add(contact);
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void writeAndRead() throws Exception {
+		File file = new File(directory, "settings.bin");
+		format.write(settings, file);
+		SyncedSettings read = format.read(file);
+		Assert.assertEquals(settings, read);
+
+		Contact original = settings.getContacts().getContacts().iterator().next();
+		Contact contact = read.getContacts().getContacts().iterator().next();
+		Assert.assertEquals(read.getIdentities().getIdentities().iterator().next(), contact.getContactOwner());
+		Assert.assertEquals(original.getEncryptionPublicKeys(), contact.getEncryptionPublicKeys());
+		Assert.assertEquals(original.getSignPublicKeys(), contact.getSignPublicKeys());
+	}
+
+	@Test
+	public void unmaterializedKeysAreWrittenAgain() throws Exception {
+		File file = new File(directory, "settings.bin");
+		format.write(settings, file);
+		// sub keys of the read contact have not been accessed yet
+		format.write(format.read(file), file);
+		Assert.assertEquals(settings, format.read(file));
+	}
+
+	@Test
+	public void convertBothWays() throws Exception {
+		File json = new File(directory, "settings.json");
+		File binary = new File(directory, "settings.bin");
+		File converted = new File(directory, "converted.json");
+		Files.write(json.toPath(), settings.toJson().getBytes("UTF-8"));
+
+		format.convertJsonToBinary(json, binary);
+		Assert.assertTrue(binary.length() < json.length());
+		Assert.assertEquals(settings, format.read(binary));
+
+		format.convertBinaryToJson(binary, converted);
+		Assert.assertEquals(settings, SyncedSettings.fromJson(
+				new String(Files.readAllBytes(converted.toPath()), "UTF-8")));
+	}
+
+	@Test
+	public void unknownSectionsAreSkipped() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		format.write(settings, bytes);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(100);
+		out.writeInt(3);
+		out.write(new byte[] { 1, 2, 3 });
+		Assert.assertEquals(settings, format.read(ByteBuffer.wrap(bytes.toByteArray())));
+	}
+
+	@Test(expected = IOException.class)
+	public void otherMajorVersionIsRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		format.write(settings, bytes);
+		byte[] data = bytes.toByteArray();
+		data[5] = (byte) (SyncedSettingsBinaryFormat.MAJOR_VERSION + 1);
+		format.read(ByteBuffer.wrap(data));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedFileIsRejected() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		format.write(settings, bytes);
+		byte[] data = bytes.toByteArray();
+		format.read(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 10)));
+	}
+}
@@ -0,0 +1,126 @@
+package de.qabel.core.config;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.crypto.QblKeyFactory;
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+import de.qabel.core.drop.DropURL;
+
+public class SyncedSettingsDeltaTest {
+	private SyncedSettings first;
+	private SyncedSettings second;
+	private SyncedSettingsDelta firstDelta;
+	private SyncedSettingsDelta secondDelta;
+
+	@Before
+	public void setUp() throws Exception {
+		first = new SyncedSettings();
+		second = new SyncedSettings();
+		firstDelta = new SyncedSettingsDelta(first);
+		secondDelta = new SyncedSettingsDelta(second);
+	}
+
+	@Test
+	public void changesetContainsOnlyChanges() throws Exception {
+		Account old = new Account("provider", "old", "auth");
+		old.setCreated(1000L);
+		first.getAccounts().add(old);
+		Account recent = new Account("provider", "recent", "auth");
+		recent.setCreated(1000L);
+		recent.setUpdated(3000L);
+		first.getAccounts().add(recent);
+
+		SyncedSettingsChangeset changeset = transfer(firstDelta.createChangeset(2000));
+		Assert.assertEquals(1, changeset.size());
+		Assert.assertEquals(1, secondDelta.merge(changeset));
+		Assert.assertEquals(1, second.getAccounts().getAccounts().size());
+		Assert.assertEquals(recent, second.getAccounts().getAccounts().iterator().next());
+
+		Assert.assertEquals(1, secondDelta.merge(transfer(firstDelta.createChangeset(0))));
+		Assert.assertEquals(first.getAccounts(), second.getAccounts());
+		Assert.assertEquals(0, secondDelta.merge(transfer(firstDelta.createChangeset(0))));
+	}
+
+	@Test
+	public void deletionsArePropagated() throws Exception {
+		DropServer server = new DropServer(new URL("https://drop.qabel.de"), "auth", true);
+		first.getDropServers().add(server);
+		SyncedSettingsChangeset changeset = firstDelta.createChangeset(0);
+		secondDelta.merge(transfer(changeset));
+		Assert.assertEquals(1, second.getDropServers().getDropServers().size());
+
+		Thread.sleep(2);
+		first.getDropServers().remove(server);
+		SyncedSettingsChangeset deletion = transfer(firstDelta.createChangeset(changeset.getUntil()));
+		Assert.assertEquals(1, deletion.size());
+		Assert.assertEquals(1, secondDelta.merge(deletion));
+		Assert.assertTrue(second.getDropServers().getDropServers().isEmpty());
+
+		// outdated copy of the deleted server is not resurrected
+		Assert.assertEquals(0, firstDelta.merge(transfer(changeset)));
+		Assert.assertTrue(first.getDropServers().getDropServers().isEmpty());
+
+		Assert.assertEquals(2, firstDelta.pruneTombstones(System.currentTimeMillis() + 1)
+				+ secondDelta.pruneTombstones(System.currentTimeMillis() + 1));
+		Assert.assertTrue(firstDelta.createChangeset(0).isEmpty());
+	}
+
+	@Test
+	public void latestChangeWins() throws Exception {
+		Account account = new Account("provider", "user", "auth");
+		account.setCreated(1000L);
+		first.getAccounts().add(account);
+		secondDelta.merge(transfer(firstDelta.createChangeset(0)));
+
+		Account firstUpdate = first.getAccounts().getAccounts().iterator().next();
+		firstUpdate.setAuth("first");
+		firstUpdate.setUpdated(2000L);
+		Account secondUpdate = second.getAccounts().getAccounts().iterator().next();
+		secondUpdate.setAuth("second");
+		secondUpdate.setUpdated(3000L);
+
+		SyncedSettingsChangeset fromFirst = transfer(firstDelta.createChangeset(1500));
+		SyncedSettingsChangeset fromSecond = transfer(secondDelta.createChangeset(1500));
+		Assert.assertEquals(0, secondDelta.merge(fromFirst));
+		Assert.assertEquals(1, firstDelta.merge(fromSecond));
+		Assert.assertEquals("second", first.getAccounts().getAccounts().iterator().next().getAuth());
+		Assert.assertEquals("second", second.getAccounts().getAccounts().iterator().next().getAuth());
+	}
+
+	@Test
+	public void entitiesAreSynced() throws Exception {
+		QblPrimaryKeyPair key = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		key.generateEncKeyPair();
+		key.generateSignKeyPair();
+		Collection<DropURL> drops = new ArrayList<DropURL>();
+		drops.add(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012c"));
+		Identity identity = new Identity("alias", drops, key);
+		first.getIdentities().add(identity);
+
+		QblPrimaryKeyPair contactKey = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		contactKey.generateEncKeyPair();
+		contactKey.generateSignKeyPair();
+		Contact contact = new Contact(identity, null, contactKey.getQblPrimaryPublicKey());
+		contact.addEncryptionPublicKey(contactKey.getQblEncPublicKeys().get(0));
+		contact.addSignaturePublicKey(contactKey.getQblSignPublicKeys().get(0));
+		contact.addDrop(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012d"));
+		first.getContacts().add(contact);
+
+		Assert.assertEquals(2, secondDelta.merge(transfer(firstDelta.createChangeset(0))));
+		Contact synced = second.getContacts().getByKeyId(contact.getKeyId());
+		Assert.assertNotNull(synced);
+		Assert.assertEquals(identity, synced.getContactOwner());
+		Assert.assertEquals(first.getIdentities(), second.getIdentities());
+		Assert.assertEquals(first.getContacts(), second.getContacts());
+	}
+
+	private static SyncedSettingsChangeset transfer(SyncedSettingsChangeset changeset) throws Exception {
+		return SyncedSettingsChangeset.fromJson(changeset.toJson());
+	}
+}
@@ -0,0 +1,141 @@
+package de.qabel.core.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.crypto.QblKeyFactory;
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+import de.qabel.core.drop.DropURL;
+
+public class SyncedSettingsStoreTest {
+	private File directory;
+	private File file;
+	private SyncedSettings settings;
+	private Identity identity;
+	private Contact contact;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("qabel-settings").toFile();
+		file = new File(directory, "settings.json");
+		settings = new SyncedSettings();
+		QblPrimaryKeyPair key = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		key.generateEncKeyPair();
+		key.generateSignKeyPair();
+		Collection<DropURL> drops = new ArrayList<DropURL>();
+		drops.add(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012c"));
+		identity = new Identity("alias", drops, key);
+		settings.getIdentities().add(identity);
+		settings.getDropServers().add(new DropServer(
+				new URL("https://drop.qabel.de/0123456789012345678901234567890123456789123"), "auth", true));
+		contact = createContact();
+		settings.getContacts().add(contact);
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		SyncedSettingsStore store = new SyncedSettingsStore(file);
+		store.save(settings);
+		Assert.assertTrue(file.exists());
+		Assert.assertFalse(store.getJournalFile().exists());
+		Assert.assertEquals(settings, new SyncedSettingsStore(file).load());
+	}
+
+	@Test
+	public void loadWithoutFile() throws Exception {
+		SyncedSettings loaded = new SyncedSettingsStore(file).load();
+		Assert.assertEquals(0, loaded.getContacts().size());
+	}
+
+	@Test
+	public void changesAreJournaled() throws Exception {
+		SyncedSettingsStore store = new SyncedSettingsStore(file);
+		store.save(settings);
+		long fileSize = file.length();
+
+		Assert.assertEquals(0, store.saveChanges(settings));
+		Contact added = createContact();
+		settings.getContacts().add(added);
+		// entities changed within the millisecond of a save are journaled again by the next save
+		Thread.sleep(2);
+		Assert.assertEquals(1, store.saveChanges(settings));
+		settings.getContacts().remove(contact);
+		Assert.assertEquals(1, store.saveChanges(settings));
+		Assert.assertEquals(0, store.saveChanges(settings));
+		Assert.assertEquals(fileSize, file.length());
+		Assert.assertTrue(store.getJournalFile().exists());
+
+		SyncedSettings loaded = new SyncedSettingsStore(file).load();
+		Assert.assertEquals(1, loaded.getContacts().size());
+		Contact loadedContact = loaded.getContacts().getByKeyId(added.getKeyId());
+		Assert.assertNotNull(loadedContact);
+		Assert.assertEquals(identity, loadedContact.getContactOwner());
+		Assert.assertEquals(settings, loaded);
+	}
+
+	@Test
+	public void otherChangesCauseFullSave() throws Exception {
+		SyncedSettingsStore store = new SyncedSettingsStore(file);
+		store.save(settings);
+		settings.getContacts().add(createContact());
+		Assert.assertEquals(1, store.saveChanges(settings));
+		settings.getAccounts().add(new Account("provider", "user", "auth"));
+		Assert.assertEquals(-1, store.saveChanges(settings));
+		Assert.assertFalse(store.getJournalFile().exists());
+		Assert.assertEquals(settings, new SyncedSettingsStore(file).load());
+	}
+
+	@Test
+	public void journalIsCompacted() throws Exception {
+		SyncedSettingsStore store = new SyncedSettingsStore(file);
+		store.setCompactionThreshold(1);
+		store.save(settings);
+		settings.getContacts().add(createContact());
+		Assert.assertEquals(1, store.saveChanges(settings));
+		settings.getContacts().add(createContact());
+		Assert.assertEquals(-1, store.saveChanges(settings));
+		Assert.assertFalse(store.getJournalFile().exists());
+		Assert.assertEquals(settings, new SyncedSettingsStore(file).load());
+	}
+
+	@Test
+	public void incompleteJournalRecordIsIgnored() throws Exception {
+		SyncedSettingsStore store = new SyncedSettingsStore(file);
+		store.save(settings);
+		settings.getContacts().add(createContact());
+		store.saveChanges(settings);
+		try (FileOutputStream out = new FileOutputStream(store.getJournalFile(), true)) {
+			out.write("{\"op\":\"put\",\"type\":\"contact\",\"item\":{\"ke".getBytes(StandardCharsets.UTF_8));
+		}
+		Assert.assertEquals(settings, new SyncedSettingsStore(file).load());
+	}
+
+	private Contact createContact() throws Exception {
+		QblPrimaryKeyPair key = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		key.generateEncKeyPair();
+		key.generateSignKeyPair();
+		Contact contact = new Contact(identity, null, key.getQblPrimaryPublicKey());
+		contact.addEncryptionPublicKey(key.getQblEncPublicKeys().get(0));
+		contact.addSignaturePublicKey(key.getQblSignPublicKeys().get(0));
+		contact.addDrop(new DropURL("https://inbox.qabel.de/123456789012345678901234567890123456789012d"));
+		return contact;
+	}
+}
@@ -0,0 +1,159 @@
+package de.qabel.core.crypto;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
+import de.qabel.core.drop.DropMessage;
+import de.qabel.core.drop.ModelObject;
+
+public class BinaryDropMessageV1Test {
+	private Identity alice, bob;
+	private Contact bobAtAlice, aliceAtBob;
+
+	static class TestMessage extends ModelObject {
+		public String content;
+
+		public TestMessage(String content) {
+			this.content = content;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		alice = new Identity("Alice", null, kf.generateQblPrimaryKeyPair());
+		bob = new Identity("Bob", null, kf.generateQblPrimaryKeyPair());
+		bobAtAlice = new Contact(alice, null, bob.getPrimaryKeyPair().getQblPrimaryPublicKey());
+		aliceAtBob = new Contact(bob, null, alice.getPrimaryKeyPair().getQblPrimaryPublicKey());
+	}
+
+	@Test
+	public void assembleDisassembleTest() throws Exception {
+		assertTrue(BinaryDropMessageV1.isSupportedFor(bobAtAlice));
+
+		byte[] message = new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice);
+		assertEquals(1, message[0]);
+
+		DropMessage<?> dropMessage = new BinaryDropMessageV1(message).disassembleMessageFrom(aliceAtBob);
+		assertNotNull(dropMessage);
+		assertEquals("baz", ((TestMessage) dropMessage.getData()).content);
+	}
+
+	@Test
+	public void wrongSenderTest() throws Exception {
+		Identity eve = new Identity("Eve", null, QblKeyFactory.getInstance().generateQblPrimaryKeyPair());
+		Contact eveAtBob = new Contact(bob, null, eve.getPrimaryKeyPair().getQblPrimaryPublicKey());
+
+		byte[] message = new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice);
+		assertNull(new BinaryDropMessageV1(message).disassembleMessageFrom(eveAtBob));
+	}
+
+	@Test
+	public void decryptOncePerIdentityTest() throws Exception {
+		Identity eve = new Identity("Eve", null, QblKeyFactory.getInstance().generateQblPrimaryKeyPair());
+		Contact eveAtBob = new Contact(bob, null, eve.getPrimaryKeyPair().getQblPrimaryPublicKey());
+		BinaryDropMessageV1 received = new BinaryDropMessageV1(
+				new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice));
+
+		assertFalse(received.decryptFor(alice));
+		assertTrue(received.decryptFor(bob));
+		assertNull(received.disassembleDecryptedMessageFrom(eveAtBob));
+		DropMessage<?> dropMessage = received.disassembleDecryptedMessageFrom(aliceAtBob);
+		assertNotNull(dropMessage);
+		assertEquals("baz", ((TestMessage) dropMessage.getData()).content);
+	}
+
+	@Test
+	public void ownerIsComparedByKeyTest() throws Exception {
+		// another instance of the same identity, e.g. after a settings sync
+		Identity bobCopy = new Identity("Bob", null, bob.getPrimaryKeyPair());
+		BinaryDropMessageV1 received = new BinaryDropMessageV1(
+				new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice));
+
+		assertTrue(received.decryptFor(bobCopy));
+		DropMessage<?> dropMessage = received.disassembleDecryptedMessageFrom(aliceAtBob);
+		assertNotNull(dropMessage);
+		assertEquals("baz", ((TestMessage) dropMessage.getData()).content);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void disassembleWithoutDecryptionTest() throws Exception {
+		BinaryDropMessageV1 received = new BinaryDropMessageV1(
+				new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice));
+		received.disassembleDecryptedMessageFrom(aliceAtBob);
+	}
+
+	@Test
+	public void signedDataTest() throws Exception {
+		BinaryDropMessageV1 assembled = new BinaryDropMessageV1(createMessage());
+		byte[] message = assembled.assembleMessageFor(bobAtAlice);
+		BinaryDropMessageV1 received = new BinaryDropMessageV1(message);
+		assertArrayEquals(assembled.getSignedData(), received.getSignedData());
+		assertEquals(message.length - 64, received.getSignedData().length);
+	}
+
+	@Test
+	public void tamperedMessageTest() throws Exception {
+		byte[] message = new BinaryDropMessageV1(createMessage()).assembleMessageFor(bobAtAlice);
+		message[100] ^= 1;
+		assertNull(new BinaryDropMessageV1(message).disassembleMessageFrom(aliceAtBob));
+	}
+
+	@Test
+	public void smallerThanV0Test() throws Exception {
+		DropMessage<TestMessage> dropMessage = createMessage();
+		byte[] v0 = new BinaryDropMessageV0(dropMessage).assembleMessageFor(bobAtAlice);
+		byte[] v1 = new BinaryDropMessageV1(dropMessage).assembleMessageFor(bobAtAlice);
+		assertTrue(v1.length < v0.length);
+	}
+
+	@Test
+	public void ecKeySerializationTest() throws Exception {
+		QblPrimaryKeyPair keyPair = alice.getPrimaryKeyPair();
+		QblPrimaryPublicKey publicKey = keyPair.getQblPrimaryPublicKey();
+
+		Gson gson = new GsonBuilder()
+				.registerTypeAdapter(QblPrimaryKeyPair.class, new QblPrimaryKeyPairTypeAdapter())
+				.registerTypeAdapter(QblPrimaryPublicKey.class, new QblPrimaryPublicKeyTypeAdapter())
+				.create();
+		QblPrimaryKeyPair jsonKeyPair = gson.fromJson(gson.toJson(keyPair), QblPrimaryKeyPair.class);
+		assertEquals(keyPair.getECKeyPair(), jsonKeyPair.getECKeyPair());
+		QblPrimaryPublicKey jsonPublicKey = gson.fromJson(gson.toJson(publicKey), QblPrimaryPublicKey.class);
+		assertEquals(publicKey.getECPublicKey(), jsonPublicKey.getECPublicKey());
+
+		QblKeyBinaryFormat format = new QblKeyBinaryFormat();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		format.writePrimaryKeyPair(new DataOutputStream(bytes), keyPair);
+		QblPrimaryKeyPair binaryKeyPair = format.readPrimaryKeyPair(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(keyPair.getECKeyPair(), binaryKeyPair.getECKeyPair());
+		bytes.reset();
+		format.writePrimaryPublicKey(new DataOutputStream(bytes), publicKey);
+		QblPrimaryPublicKey binaryPublicKey = format.readPrimaryPublicKey(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(publicKey.getECPublicKey(), binaryPublicKey.getECPublicKey());
+	}
+
+	@Test
+	public void unsignedECKeyIsIgnoredTest() throws Exception {
+		QblPrimaryPublicKey publicKey = alice.getPrimaryKeyPair().getQblPrimaryPublicKey();
+		QblECPublicKey ecKey = publicKey.getECPublicKey();
+		QblPrimaryPublicKey forged = new QblPrimaryPublicKey(publicKey.getModulus(), publicKey.getPublicExponent());
+		forged.setPendingECPublicKey(new QblECPublicKey(ecKey.getAgreementKey(),
+				new QblECKeyPair().getQblECPublicKey().getSigningKey(), ecKey.getPrimaryKeySignature()));
+		assertNull(forged.getECPublicKey());
+	}
+
+	private DropMessage<TestMessage> createMessage() {
+		return new DropMessage<TestMessage>(alice, new TestMessage("baz"));
+	}
+}
@@ -2,6 +2,8 @@ package de.qabel.core.crypto;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.spec.InvalidKeySpecException;
@@ -129,4 +131,54 @@ public class QblKeyFactoryTest {
 		assertEquals(signPrimaryKeySignature, qppk.getSignPublicKeys().get(0)
 				.getPrimaryKeySignature());
 	}
+
+	@Test
+	public void signatureCacheTest() throws InvalidKeyException {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		QblPrimaryKeyPair qpkp = kf.generateQblPrimaryKeyPair();
+		QblEncPublicKey qepk = qpkp.getQblEncPublicKeys().get(0);
+		QblPrimaryPublicKey qppk = qpkp.getQblPrimaryPublicKey();
+		QblSubKeySignatureCache cache = kf.getSignatureCache();
+
+		assertTrue(kf.rsaValidateKeySignature(qepk, qppk));
+		assertTrue(cache.isVerified(qppk.getPublicKeyFingerprint(),
+				qepk.getPublicKeyFingerprint(), qepk.getPrimaryKeySignature()));
+
+		// a cached sub key with another signature is validated again
+		byte[] forged = qepk.getPrimaryKeySignature().clone();
+		forged[0] ^= 1;
+		QblEncPublicKey forgedKey = new QblEncPublicKey(qepk.getModulus(),
+				qepk.getPublicExponent(), forged);
+		assertFalse(cache.isVerified(qppk.getPublicKeyFingerprint(),
+				forgedKey.getPublicKeyFingerprint(), forged));
+		assertFalse(kf.rsaValidateKeySignature(forgedKey, qppk));
+	}
+
+	@Test
+	public void signatureCachePersistenceTest() throws IOException {
+		QblPrimaryKeyPair qpkp = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		QblSignPublicKey qspk = qpkp.getQblSignPublicKeys().get(0);
+		byte[] primaryFingerprint = qpkp.getPublicKeyFingerprint();
+
+		QblSubKeySignatureCache cache = new QblSubKeySignatureCache(2);
+		cache.putVerified(primaryFingerprint, qspk.getPublicKeyFingerprint(),
+				qspk.getPrimaryKeySignature());
+		File file = File.createTempFile("signatures", ".cache");
+		try {
+			cache.save(file);
+			QblSubKeySignatureCache loaded = new QblSubKeySignatureCache(2);
+			assertEquals(1, loaded.load(file));
+			assertTrue(loaded.isVerified(primaryFingerprint, qspk.getPublicKeyFingerprint(),
+					qspk.getPrimaryKeySignature()));
+		} finally {
+			file.delete();
+		}
+
+		// least recently used entries are evicted
+		cache.putVerified(new byte[] { 1 }, new byte[] { 2 }, new byte[] { 3 });
+		cache.putVerified(new byte[] { 4 }, new byte[] { 5 }, new byte[] { 6 });
+		assertEquals(2, cache.size());
+		assertFalse(cache.isVerified(primaryFingerprint, qspk.getPublicKeyFingerprint(),
+				qspk.getPrimaryKeySignature()));
+	}
 }
@@ -0,0 +1,62 @@
+package de.qabel.core.crypto;
+
+import static org.junit.Assert.*;
+
+import java.security.InvalidKeyException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QblKeyPoolTest {
+	private static final long TIMEOUT = 60000;
+
+	private QblKeyPool pool;
+
+	@After
+	public void tearDown() {
+		QblKeyFactory.getInstance().setKeyPool(null);
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void poolIsFilledAndRefilled() throws Exception {
+		pool = new QblKeyPool(3, 2);
+		waitForSize(3);
+		assertNotNull(pool.take());
+		waitForSize(3);
+	}
+
+	@Test
+	public void primaryKeyPairUsesPooledKeys() throws Exception {
+		pool = new QblKeyPool(3, 3);
+		waitForSize(3);
+		QblKeyFactory.getInstance().setKeyPool(pool);
+
+		QblPrimaryKeyPair qpkp = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		assertEquals(1, qpkp.getEncKeyPairs().size());
+		assertEquals(1, qpkp.getSignKeyPairs().size());
+		QblPrimaryPublicKey qppk = qpkp.getQblPrimaryPublicKey();
+		assertTrue(QblKeyFactory.getInstance().rsaValidateKeySignature(
+				qpkp.getQblEncPublicKeys().get(0), qppk));
+		assertTrue(QblKeyFactory.getInstance().rsaValidateKeySignature(
+				qpkp.getQblSignPublicKeys().get(0), qppk));
+	}
+
+	@Test
+	public void emptyPoolGeneratesOnDemand() throws InvalidKeyException {
+		pool = new QblKeyPool(0, 1);
+		QblKeyFactory.getInstance().setKeyPool(pool);
+		assertNotNull(QblKeyFactory.getInstance().generateQblPrimaryKeyPair());
+		assertEquals(0, pool.size());
+	}
+
+	private void waitForSize(int size) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (pool.size() < size) {
+			assertTrue("Pool not filled in time", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -2,12 +2,16 @@ package de.qabel.core.crypto;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.junit.Test;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 
 public class QblKeySerializationTest {
 
@@ -41,4 +45,85 @@ public class QblKeySerializationTest {
 		
 		assertEquals(qppk, deserializedQppk);
 	}
+
+	@Test
+	public void lazyMaterializationTest() throws IOException {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		QblPrimaryKeyPair qpkp = kf.generateQblPrimaryKeyPair();
+		QblPrimaryPublicKey qppk = qpkp.getQblPrimaryPublicKey();
+		QblPrimaryPublicKeyTypeAdapter adapter = new QblPrimaryPublicKeyTypeAdapter();
+		String json = adapter.toJson(qppk);
+
+		QblPrimaryPublicKey deserializedQppk = adapter.fromJson(json);
+		assertEquals(qppk.getKeyId(), deserializedQppk.getKeyId());
+		assertNotNull(deserializedQppk.getPendingSubKeys());
+		// serializing again does not materialize the sub keys
+		assertEquals(json, adapter.toJson(deserializedQppk));
+		assertNotNull(deserializedQppk.getPendingSubKeys());
+
+		assertEquals(qppk.getEncPublicKeys(), deserializedQppk.getEncPublicKeys());
+		assertNull(deserializedQppk.getPendingSubKeys());
+		assertEquals(qppk.getSignPublicKeys(), deserializedQppk.getSignPublicKeys());
+		assertEquals(qppk.getRSAPublicKey(), deserializedQppk.getRSAPublicKey());
+		assertEquals(json, adapter.toJson(deserializedQppk));
+	}
+
+	@Test
+	public void comparingDoesNotMaterializeTest() throws IOException {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		QblPrimaryPublicKey qppk = kf.generateQblPrimaryKeyPair().getQblPrimaryPublicKey();
+		QblPrimaryPublicKeyTypeAdapter adapter = new QblPrimaryPublicKeyTypeAdapter();
+		String json = adapter.toJson(qppk);
+
+		QblPrimaryPublicKey first = adapter.fromJson(json);
+		QblPrimaryPublicKey second = adapter.fromJson(json);
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+		assertEquals(qppk, first);
+		assertEquals(qppk.hashCode(), first.hashCode());
+		assertNotNull(first.getPendingSubKeys());
+		assertNotNull(second.getPendingSubKeys());
+
+		QblPrimaryPublicKey other = adapter.fromJson(
+				adapter.toJson(kf.generateQblPrimaryKeyPair().getQblPrimaryPublicKey()));
+		assertNotEquals(second, other);
+		assertNotNull(other.getPendingSubKeys());
+	}
+
+	@Test
+	public void equalityIsStableWhenMaterializingTest() {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		QblPrimaryKeyPair qpkp = kf.generateQblPrimaryKeyPair();
+		QblPrimaryKeyPair other = kf.generateQblPrimaryKeyPair();
+		QblPrimaryPublicKeyTypeAdapter adapter = new QblPrimaryPublicKeyTypeAdapter();
+		JsonObject json = adapter.toJsonTree(qpkp.getQblPrimaryPublicKey()).getAsJsonObject();
+		// dropped when the sub keys are attached
+		json.add("public_enc_keys", adapter.toJsonTree(other.getQblPrimaryPublicKey())
+				.getAsJsonObject().get("public_enc_keys"));
+
+		QblPrimaryPublicKey deserializedQppk = adapter.fromJsonTree(json);
+		Set<QblPrimaryPublicKey> keys = new HashSet<>();
+		keys.add(deserializedQppk);
+		int hashCode = deserializedQppk.hashCode();
+		assertTrue(deserializedQppk.getEncPublicKeys().isEmpty());
+		assertEquals(hashCode, deserializedQppk.hashCode());
+		assertTrue(keys.contains(deserializedQppk));
+		assertEquals(qpkp.getQblPrimaryPublicKey(), deserializedQppk);
+	}
+
+	@Test
+	public void invalidSubKeyIsDroppedTest() {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		QblPrimaryKeyPair qpkp = kf.generateQblPrimaryKeyPair();
+		QblPrimaryKeyPair other = kf.generateQblPrimaryKeyPair();
+		QblPrimaryPublicKeyTypeAdapter adapter = new QblPrimaryPublicKeyTypeAdapter();
+		JsonObject json = adapter.toJsonTree(qpkp.getQblPrimaryPublicKey()).getAsJsonObject();
+		// sub keys of another primary key have no valid signature
+		json.add("public_enc_keys", adapter.toJsonTree(other.getQblPrimaryPublicKey())
+				.getAsJsonObject().get("public_enc_keys"));
+
+		QblPrimaryPublicKey deserializedQppk = adapter.fromJsonTree(json);
+		assertTrue(deserializedQppk.getEncPublicKeys().isEmpty());
+		assertEquals(1, deserializedQppk.getSignPublicKeys().size());
+	}
 }
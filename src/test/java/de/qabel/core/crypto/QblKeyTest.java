@@ -1,10 +1,21 @@
 package de.qabel.core.crypto;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.DatatypeConverter;
 
 import org.junit.Test;
 
@@ -84,4 +95,45 @@ public class QblKeyTest {
 		assertFalse(QblKeyFactory.getInstance().rsaValidateKeySignature(
 				qkp2.getQblSignPublicKeys().get(0), qkp1.getQblPrimaryPublicKey()));
 	}
+
+	@Test
+	public void keyIdentifierTest() {
+		QblPrimaryKeyPair qpkp = new QblPrimaryKeyPair();
+		QblPrimaryPublicKey qppk = qpkp.getQblPrimaryPublicKey();
+		byte[] fingerprint = qppk.getPublicKeyFingerprint();
+		byte[] keyIdentifier = Arrays.copyOfRange(fingerprint, fingerprint.length - 8, fingerprint.length);
+
+		assertEquals(DatatypeConverter.printHexBinary(keyIdentifier), qppk.getReadableKeyIdentifier());
+		assertEquals(ByteBuffer.wrap(keyIdentifier).getLong(), qppk.getKeyId());
+		// identifiers are cached and interned
+		assertSame(qppk.getReadableKeyIdentifier(), qppk.getReadableKeyIdentifier());
+		QblPrimaryPublicKey copy = new QblPrimaryPublicKey(qppk.getRSAPublicKey());
+		assertSame(qppk.getReadableKeyIdentifier(), copy.getReadableKeyIdentifier());
+		assertEquals(qppk.getKeyId(), copy.getKeyId());
+	}
+
+	@Test
+	public void concurrentFingerprintTest() throws Exception {
+		final RSAPublicKey publicKey = new QblPrimaryKeyPair().getQblPrimaryPublicKey().getRSAPublicKey();
+		final byte[] expected = QblKeyFactory.getInstance().getFingerprint(publicKey);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Callable<Boolean> task = new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					for (int i = 0; i < 100; i++) {
+						if (!Arrays.equals(expected, QblKeyFactory.getInstance().getFingerprint(publicKey))) {
+							return false;
+						}
+					}
+					return true;
+				}
+			};
+			for (Future<Boolean> result : executor.invokeAll(Arrays.asList(task, task, task, task))) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,157 @@
+package de.qabel.core.drop;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
+import de.qabel.core.crypto.QblKeyFactory;
+import de.qabel.core.crypto.QblPrimaryKeyPair;
+
+public class DropAcknowledgementEngineTest {
+	private static final String DROP = "http://localhost:6000/123456789012345678901234567890123456789012c";
+
+	private StubDropController alice, bob;
+	/**
+	 * Bob as known by Alice and Alice as known by Bob
+	 */
+	private Contact bobAtAlice, aliceAtBob;
+
+	static class TestMessage extends ModelObject {
+		public String content;
+
+		public TestMessage(String content) {
+			this.content = content;
+		}
+	}
+
+	/**
+	 * Collects sent messages instead of sending them to a drop server.
+	 */
+	static class StubDropController extends DropController {
+		final BlockingQueue<DropMessage<?>> sent = new LinkedBlockingQueue<>();
+		volatile boolean failing;
+
+		@Override
+		public <T extends ModelObject> DropResultContact sendAndForget(DropMessage<T> message, Contact contact) {
+			sent.add(message);
+			DropResultContact result = new DropResultContact(contact);
+			result.addErrorCode(failing ? 503 : 200);
+			return result;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		QblPrimaryKeyPair aliceKey = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		QblPrimaryKeyPair bobKey = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
+		Identity aliceIdentity = new Identity("Alice", null, aliceKey);
+		Identity bobIdentity = new Identity("Bob", null, bobKey);
+		Collection<DropURL> drops = Arrays.asList(new DropURL(DROP));
+		bobAtAlice = new Contact(aliceIdentity, drops, bobKey.getQblPrimaryPublicKey());
+		aliceAtBob = new Contact(bobIdentity, drops, aliceKey.getQblPrimaryPublicKey());
+
+		alice = new StubDropController();
+		bob = new StubDropController();
+		bob.getAcknowledgementEngine().setBatchDelay(100);
+	}
+
+	@After
+	public void tearDown() {
+		alice.getAcknowledgementEngine().shutdown();
+		bob.getAcknowledgementEngine().shutdown();
+	}
+
+	@Test
+	public void acknowledgementCompletesFuture() throws Exception {
+		DropMessage<TestMessage> message = new DropMessage<>(
+				bobAtAlice.getContactOwner(), new TestMessage("foo"));
+		DropResult result = alice.send(message, Collections.singletonList(bobAtAlice));
+		assertTrue(result.isSuccess());
+		assertNotEquals(DropMessage.NOACK, message.getAcknowledgeID());
+		Future<Boolean> acknowledgement = result.getList().get(0).getAcknowledgement();
+		assertFalse(acknowledgement.isDone());
+		assertEquals(1, alice.getAcknowledgementEngine().getPendingCount());
+
+		bob.handleDrop(receive(alice.sent.take(), aliceAtBob));
+		DropMessage<?> ack = bob.sent.poll(5, TimeUnit.SECONDS);
+		assertNotNull(ack);
+		assertEquals(DropMessage.NOACK, ack.getAcknowledgeID());
+
+		alice.handleDrop(receive(ack, bobAtAlice));
+		assertTrue(acknowledgement.get(1, TimeUnit.SECONDS));
+		assertEquals(0, alice.getAcknowledgementEngine().getPendingCount());
+		// acknowledgements are not acknowledged again
+		assertNull(alice.sent.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void acknowledgementsAreBatched() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			DropMessage<TestMessage> message = new DropMessage<>(
+					bobAtAlice.getContactOwner(), new TestMessage("foo" + i));
+			message.enableAcknowledgeing(true);
+			bob.handleDrop(receive(message, aliceAtBob));
+		}
+		DropMessage<?> ack = bob.sent.poll(5, TimeUnit.SECONDS);
+		assertEquals(3, ((DropAcknowledgement) ack.getData()).getAcknowledgeIds().size());
+		assertNull(bob.sent.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void fullBatchIsSentImmediately() throws Exception {
+		bob.getAcknowledgementEngine().setBatchDelay(60 * 1000);
+		for (int i = 0; i < DropAcknowledgementEngine.MAX_BATCH_SIZE; i++) {
+			bob.getAcknowledgementEngine().queueAcknowledgement(aliceAtBob, "ack-" + i);
+		}
+		DropMessage<?> ack = bob.sent.poll(5, TimeUnit.SECONDS);
+		assertNotNull(ack);
+		assertEquals(DropAcknowledgementEngine.MAX_BATCH_SIZE,
+				((DropAcknowledgement) ack.getData()).getAcknowledgeIds().size());
+	}
+
+	@Test
+	public void unacknowledgedMessageTimesOut() throws Exception {
+		alice.setAcknowledgementTimeout(200);
+		DropMessage<TestMessage> message = new DropMessage<>(
+				bobAtAlice.getContactOwner(), new TestMessage("foo"));
+		DropResult result = alice.send(message, Collections.singletonList(bobAtAlice));
+
+		assertFalse(result.getList().get(0).getAcknowledgement().get(5, TimeUnit.SECONDS));
+		assertEquals(0, alice.getAcknowledgementEngine().getPendingCount());
+	}
+
+	@Test
+	public void failedSendIsNotAcknowledged() throws Exception {
+		alice.failing = true;
+		DropMessage<TestMessage> message = new DropMessage<>(
+				bobAtAlice.getContactOwner(), new TestMessage("foo"));
+		DropResult result = alice.send(message, Collections.singletonList(bobAtAlice));
+
+		assertFalse(result.isSuccess());
+		Future<Boolean> acknowledgement = result.getList().get(0).getAcknowledgement();
+		assertTrue(acknowledgement.isDone());
+		assertFalse(acknowledgement.get());
+	}
+
+	/**
+	 * Simulates the retrieval of a sent message.
+	 */
+	private static <T extends ModelObject> DropMessage<T> receive(DropMessage<T> message, Contact sender) {
+		DropMessage<T> received = new DropMessage<>(sender.getKeyIdentifier(), message.getData(),
+				message.getCreationDate(), message.getAcknowledgeID());
+		assertTrue(received.registerSender(sender));
+		return received;
+	}
+}
@@ -4,19 +4,33 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import de.qabel.core.config.Contact;
 import de.qabel.core.config.Contacts;
+import de.qabel.core.config.DropServer;
+import de.qabel.core.config.DropServers;
 import de.qabel.core.config.Identities;
 import de.qabel.core.config.Identity;
 import de.qabel.core.crypto.*;
 import de.qabel.core.exceptions.QblDropInvalidURL;
 import de.qabel.core.exceptions.QblDropPayloadSizeException;
+import de.qabel.core.http.DropTransport;
+import de.qabel.core.http.HTTPResult;
 
 import org.junit.*;
 
 import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class DropControllerTest {
     private static final String iUrl = "http://localhost:6000/123456789012345678901234567890123456789012c";
@@ -35,6 +49,54 @@ public class DropControllerTest {
         }
     }
     
+    /**
+     * Non-blocking transport whose polls only finish when the polls of all
+     * drops have been started.
+     */
+    static class AwaitingTransport implements DropTransport {
+        final Map<URL, byte[]> messages = new HashMap<>();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch started;
+
+        AwaitingTransport(int drops) {
+            started = new CountDownLatch(drops);
+        }
+
+        @Override
+        public Future<HTTPResult<Collection<byte[]>>> receiveMessagesAsync(final URL url, long sinceDate) {
+            started.countDown();
+            return executor.submit(new Callable<HTTPResult<Collection<byte[]>>>() {
+                @Override
+                public HTTPResult<Collection<byte[]>> call() throws InterruptedException {
+                    HTTPResult<Collection<byte[]>> result = new HTTPResult<>();
+                    if (started.await(10, TimeUnit.SECONDS)) {
+                        result.setResponseCode(200);
+                        result.setOk(true);
+                        result.setData(Collections.singletonList(messages.get(url)));
+                    } else {
+                        result.setData(Collections.<byte[]>emptyList());
+                    }
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        public HTTPResult<?> send(URL url, byte[] message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public HTTPResult<Integer> receiveMessages(URL url, long sinceDate, MessageReceiver receiver) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public HTTPResult<?> head(URL url, long sinceDate) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     @Before
     public void setup() throws MalformedURLException, QblDropInvalidURL, InvalidKeyException {
     	QblPrimaryKeyPair qpkpSender = QblKeyFactory.getInstance().generateQblPrimaryKeyPair();
@@ -92,6 +154,34 @@ public class DropControllerTest {
         retrieveTest();
     }
 
+    @Test
+    public void retrieveStartsAllPollsBeforeCollecting() throws Exception {
+        AwaitingTransport transport = new AwaitingTransport(3);
+        DropServers servers = new DropServers();
+        for (int i = 0; i < 3; i++) {
+            URL url = new URL("http://localhost:600" + i + "/123456789012345678901234567890123456789012c");
+            servers.add(new DropServer(url, null, true));
+            transport.messages.put(url, new BinaryDropMessageV1(new DropMessage<TestMessage>(
+                    sender, new TestMessage("message " + i))).assembleMessageFor(recipientContact));
+        }
+        DropQueueCallback<TestMessage> received = new DropQueueCallback<>();
+        controller.register(TestMessage.class, received);
+        controller.setDropServers(servers);
+        controller.setContacts(contacts);
+        controller.setTransport(transport);
+        controller.setPollTimeout(5000);
+        try {
+            controller.retrieve();
+        } finally {
+            transport.executor.shutdownNow();
+        }
+        // a poll which is collected before the others are started times out
+        Assert.assertEquals(3, received.size());
+        for (DropServer server : servers.getDropServers()) {
+            Assert.assertTrue(server.isActive());
+        }
+    }
+
     public void retrieveTest() throws MalformedURLException, QblDropInvalidURL {
         Collection<DropMessage<?>> result = controller.retrieve(
         		new DropURL(cUrl).getUrl(), contacts.getContacts());
@@ -0,0 +1,138 @@
+package de.qabel.core.drop;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
+import de.qabel.core.crypto.QblKeyFactory;
+
+public class DropMessageDeduplicatorTest {
+	private DropMessageDeduplicator deduplicator;
+
+	@Before
+	public void setUp() {
+		deduplicator = new DropMessageDeduplicator(10);
+	}
+
+	@Test
+	public void recognizesProcessedMessages() {
+		byte[] digest = message(1);
+		assertFalse(deduplicator.contains(digest));
+		assertTrue(deduplicator.add(digest));
+		assertTrue(deduplicator.contains(digest));
+		assertTrue(deduplicator.contains(digest.clone()));
+		assertFalse(deduplicator.add(digest));
+		assertFalse(deduplicator.contains(message(2)));
+	}
+
+	@Test
+	public void evictedDigestsAreRememberedByBloomFilter() {
+		for (int i = 0; i < 20; i++) {
+			deduplicator.add(message(i));
+		}
+		assertEquals(10, deduplicator.size());
+		for (int i = 0; i < 20; i++) {
+			assertTrue(deduplicator.contains(message(i)));
+		}
+	}
+
+	@Test
+	public void oldGenerationsAreForgotten() {
+		// capacity 10 gives bloom filter generations of 40 digests
+		for (int i = 0; i < 200; i++) {
+			deduplicator.add(message(i));
+		}
+		int remembered = 0;
+		for (int i = 0; i < 40; i++) {
+			if (deduplicator.contains(message(i))) {
+				remembered++;
+			}
+		}
+		assertEquals(0, remembered);
+		assertTrue(deduplicator.contains(message(199)));
+	}
+
+	@Test
+	public void survivesRestart() throws Exception {
+		for (int i = 0; i < 30; i++) {
+			deduplicator.add(message(i));
+		}
+		File file = File.createTempFile("dedup", null);
+		try {
+			deduplicator.save(file);
+			DropMessageDeduplicator loaded = new DropMessageDeduplicator(10);
+			loaded.load(file);
+			assertEquals(10, loaded.size());
+			for (int i = 0; i < 30; i++) {
+				assertTrue(loaded.contains(message(i)));
+			}
+			assertFalse(loaded.contains(message(30)));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void notForUsIsBoundToContacts() {
+		Identity owner = new Identity("Alice", null, QblKeyFactory.getInstance().generateQblPrimaryKeyPair());
+		Contact bob = createContact(owner);
+		Contact carol = createContact(owner);
+		List<Contact> contacts = new ArrayList<>(Arrays.asList(bob, carol));
+		byte[] contactsDigest = DropMessageDeduplicator.digestContacts(contacts);
+		Collections.reverse(contacts);
+		assertArrayEquals(contactsDigest, DropMessageDeduplicator.digestContacts(contacts));
+
+		byte[] digest = message(1);
+		assertFalse(deduplicator.isNotForUs(digest, contactsDigest));
+		deduplicator.addNotForUs(digest, contactsDigest);
+		assertTrue(deduplicator.isNotForUs(digest, contactsDigest));
+		assertFalse(deduplicator.contains(digest));
+
+		// a new contact may be able to decrypt the message
+		contacts.add(createContact(owner));
+		assertFalse(deduplicator.isNotForUs(digest,
+				DropMessageDeduplicator.digestContacts(contacts)));
+	}
+
+	@Test
+	public void notForUsSurvivesRestart() throws Exception {
+		byte[] contactsDigest = message(100);
+		deduplicator.addNotForUs(message(1), contactsDigest);
+		File file = File.createTempFile("dedup", null);
+		try {
+			deduplicator.save(file);
+			DropMessageDeduplicator loaded = new DropMessageDeduplicator(10);
+			loaded.load(file);
+			assertEquals(1, loaded.getNotForUsSize());
+			assertTrue(loaded.isNotForUs(message(1), contactsDigest));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void clearForgetsEverything() {
+		deduplicator.add(message(1));
+		deduplicator.clear();
+		assertEquals(0, deduplicator.size());
+		assertFalse(deduplicator.contains(message(1)));
+	}
+
+	private static Contact createContact(Identity owner) {
+		return new Contact(owner, null, QblKeyFactory.getInstance()
+				.generateQblPrimaryKeyPair().getQblPrimaryPublicKey());
+	}
+
+	private static byte[] message(int i) {
+		return DropMessageDeduplicator.digest(("message " + i).getBytes());
+	}
+}
@@ -0,0 +1,172 @@
+package de.qabel.core.drop;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.http.DropHTTP;
+import de.qabel.core.http.HTTPResult;
+
+public class DropOutboxTest {
+	private static final byte[] MESSAGE = new byte[] { 1, 2, 3 };
+
+	private File directory;
+	private DropOutbox outbox;
+	private List<DropURL> dropUrls;
+	private CountDownLatch sent, delivered, failed;
+
+	/**
+	 * Fails the given number of sends, then accepts all messages.
+	 */
+	static class FlakyDropHTTP extends DropHTTP {
+		final AtomicInteger failures;
+		final AtomicInteger sends = new AtomicInteger();
+
+		FlakyDropHTTP(int failures) {
+			this.failures = new AtomicInteger(failures);
+		}
+
+		@Override
+		public HTTPResult<?> send(URL url, byte[] message) {
+			sends.incrementAndGet();
+			HTTPResult<?> result = new HTTPResult<>();
+			if (failures.getAndDecrement() > 0) {
+				result.setResponseCode(503);
+			} else {
+				result.setResponseCode(200);
+				result.setOk(true);
+			}
+			return result;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("outbox").toFile();
+		dropUrls = Arrays.asList(new DropURL(
+				"http://localhost:6000/123456789012345678901234567890123456789012c"));
+		sent = new CountDownLatch(1);
+		delivered = new CountDownLatch(1);
+		failed = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		if (outbox != null) {
+			outbox.shutdown();
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void retriesUntilAccepted() throws Exception {
+		FlakyDropHTTP http = new FlakyDropHTTP(2);
+		outbox = open(http);
+
+		DropOutbox.Entry entry = outbox.enqueue(dropUrls, MESSAGE, DropMessage.NOACK);
+		assertTrue(sent.await(10, TimeUnit.SECONDS));
+		assertEquals(2, entry.getAttempts());
+		assertEquals(3, http.sends.get());
+		assertEquals(0, outbox.size());
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void givesUpAfterMaxAttempts() throws Exception {
+		outbox = open(new FlakyDropHTTP(Integer.MAX_VALUE));
+
+		outbox.enqueue(dropUrls, MESSAGE, DropMessage.NOACK);
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		assertEquals(0, outbox.size());
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void survivesRestart() throws Exception {
+		FlakyDropHTTP http = new FlakyDropHTTP(Integer.MAX_VALUE);
+		outbox = open(http);
+		outbox.setRetryPolicy(1000, 1000, 5);
+		DropOutbox.Entry entry = outbox.enqueue(dropUrls, MESSAGE, DropMessage.NOACK);
+		while (entry.getAttempts() == 0) {
+			Thread.sleep(10);
+		}
+		outbox.shutdown();
+		assertEquals(1, directory.listFiles().length);
+
+		outbox = open(new FlakyDropHTTP(0));
+		assertEquals(1, outbox.size());
+		assertTrue(sent.await(10, TimeUnit.SECONDS));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void acknowledgementConfirmsDelivery() throws Exception {
+		outbox = open(new FlakyDropHTTP(0));
+
+		DropOutbox.Entry entry = outbox.enqueue(dropUrls, MESSAGE, "ack-1");
+		long end = System.currentTimeMillis() + 10000;
+		while (!entry.isSent()) {
+			assertTrue(System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+		assertEquals(1, outbox.size());
+		assertEquals(1, sent.getCount());
+
+		assertFalse(outbox.confirmDelivery("unknown"));
+		assertTrue(outbox.confirmDelivery("ack-1"));
+		assertTrue(delivered.await(1, TimeUnit.SECONDS));
+		assertEquals(0, outbox.size());
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void backoffIsCapped() throws Exception {
+		outbox = open(new FlakyDropHTTP(0));
+		outbox.setRetryPolicy(100, 1000, 10);
+		long first = outbox.getBackoff(1);
+		assertTrue(first >= 50 && first <= 100);
+		long third = outbox.getBackoff(3);
+		assertTrue(third >= 200 && third <= 400);
+		long capped = outbox.getBackoff(30);
+		assertTrue(capped >= 500 && capped <= 1000);
+	}
+
+	private DropOutbox open(DropHTTP http) throws Exception {
+		DropOutbox outbox = new DropOutbox(directory, 2, http, new DropServerHealthTracker());
+		outbox.setRetryPolicy(1, 10, 3);
+		outbox.setListener(new DropOutbox.Listener() {
+			@Override
+			public void onSent(DropOutbox.Entry entry) {
+				sent.countDown();
+			}
+
+			@Override
+			public void onDelivered(DropOutbox.Entry entry) {
+				delivered.countDown();
+			}
+
+			@Override
+			public void onFailed(DropOutbox.Entry entry) {
+				failed.countDown();
+			}
+		});
+		return outbox;
+	}
+}
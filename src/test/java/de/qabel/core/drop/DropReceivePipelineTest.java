@@ -0,0 +1,190 @@
+package de.qabel.core.drop;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.config.Contact;
+import de.qabel.core.config.Identity;
+import de.qabel.core.crypto.BinaryDropMessageV1;
+import de.qabel.core.crypto.QblKeyFactory;
+import de.qabel.core.http.DropHTTP;
+import de.qabel.core.http.HTTPResult;
+
+public class DropReceivePipelineTest {
+	private static final int MESSAGES = 30;
+
+	private Contact bobAtAlice, aliceAtBob;
+	private DropController controller;
+	private DropQueueCallback<TestMessage> received;
+	private DropReceivePipeline pipeline;
+	private URL url;
+
+	static class TestMessage extends ModelObject {
+		public String content;
+
+		public TestMessage(String content) {
+			this.content = content;
+		}
+	}
+
+	/**
+	 * Serves a fixed list of messages.
+	 */
+	static class StubDropHTTP extends DropHTTP {
+		final List<byte[]> messages = new ArrayList<>();
+
+		@Override
+		public HTTPResult<Integer> receiveMessages(URL url, long sinceDate, MessageReceiver receiver)
+				throws InterruptedException {
+			for (byte[] message : messages) {
+				receiver.onMessage(message);
+			}
+			HTTPResult<Integer> result = new HTTPResult<>();
+			result.setResponseCode(200);
+			result.setOk(true);
+			result.setData(messages.size());
+			return result;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		QblKeyFactory kf = QblKeyFactory.getInstance();
+		Identity alice = new Identity("Alice", null, kf.generateQblPrimaryKeyPair());
+		Identity bob = new Identity("Bob", null, kf.generateQblPrimaryKeyPair());
+		bobAtAlice = new Contact(alice, null, bob.getPrimaryKeyPair().getQblPrimaryPublicKey());
+		aliceAtBob = new Contact(bob, null, alice.getPrimaryKeyPair().getQblPrimaryPublicKey());
+		url = new URL("http://localhost:6000/123456789012345678901234567890123456789012c");
+
+		controller = new DropController();
+		received = new DropQueueCallback<>();
+		controller.register(TestMessage.class, received);
+	}
+
+	@After
+	public void tearDown() {
+		if (pipeline != null) {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void messagesAreDispatchedInOrder() throws Exception {
+		StubDropHTTP http = new StubDropHTTP();
+		for (int i = 0; i < MESSAGES; i++) {
+			http.messages.add(assemble("message " + i));
+			if (i == 10) {
+				http.messages.add(new byte[] { 42, 1, 2, 3 });
+			}
+		}
+		// retrieved twice in the same response
+		http.messages.add(http.messages.get(3));
+		pipeline = new DropReceivePipeline(controller, http, 4, 8);
+
+		HTTPResult<Integer> result = pipeline.retrieve(url, Collections.singletonList(aliceAtBob));
+		assertTrue(result.isOk());
+		assertEquals(MESSAGES, (int) result.getData());
+		assertEquals(MESSAGES, received.size());
+		for (int i = 0; i < MESSAGES; i++) {
+			DropMessage<TestMessage> message = received.take();
+			assertEquals("message " + i, message.getData().content);
+			assertEquals(aliceAtBob, message.getSender());
+		}
+	}
+
+	@Test
+	public void knownMessagesAreSkipped() throws Exception {
+		StubDropHTTP http = new StubDropHTTP();
+		http.messages.add(assemble("foo"));
+		pipeline = new DropReceivePipeline(controller, http, 2, 4);
+
+		assertEquals(1, (int) pipeline.retrieve(url, Collections.singletonList(aliceAtBob)).getData());
+		assertEquals(0, (int) pipeline.retrieve(url, Collections.singletonList(aliceAtBob)).getData());
+		// not for an unknown sender, remembered in the negative cache
+		assertEquals(0, (int) pipeline.retrieve(url, Collections.<Contact>emptyList()).getData());
+		assertEquals(1, received.size());
+	}
+
+	@Test
+	public void forgedSignatureDoesNotSuppressMessage() throws Exception {
+		byte[] message = assemble("foo");
+		byte[] forged = message.clone();
+		// garbage signature over the same signed data
+		forged[forged.length - 1] ^= 1;
+		StubDropHTTP http = new StubDropHTTP();
+		http.messages.add(forged);
+		pipeline = new DropReceivePipeline(controller, http, 2, 4);
+
+		List<Contact> contacts = Collections.singletonList(aliceAtBob);
+		assertEquals(0, (int) pipeline.retrieve(url, contacts).getData());
+		http.messages.clear();
+		http.messages.add(message);
+		assertEquals(1, (int) pipeline.retrieve(url, contacts).getData());
+		assertEquals("foo", received.take().getData().content);
+	}
+
+	@Test
+	public void contactsOfEqualIdentityInstances() throws Exception {
+		Identity bob = aliceAtBob.getContactOwner();
+		Identity bobCopy = new Identity("Bob", null, bob.getPrimaryKeyPair());
+		Identity eve = new Identity("Eve", null, QblKeyFactory.getInstance().generateQblPrimaryKeyPair());
+		Contact eveAtBob = new Contact(bob, null, eve.getPrimaryKeyPair().getQblPrimaryPublicKey());
+		Contact aliceAtBobCopy = new Contact(bobCopy, null,
+				aliceAtBob.getPrimaryPublicKey());
+		StubDropHTTP http = new StubDropHTTP();
+		http.messages.add(assemble("foo"));
+		pipeline = new DropReceivePipeline(controller, http, 2, 4);
+
+		List<Contact> contacts = new ArrayList<>();
+		contacts.add(eveAtBob);
+		contacts.add(aliceAtBobCopy);
+		assertEquals(1, (int) pipeline.retrieve(url, contacts).getData());
+		assertEquals(aliceAtBobCopy, received.take().getSender());
+	}
+
+	@Test
+	public void concurrentPollsComplete() throws Exception {
+		final StubDropHTTP http = new StubDropHTTP();
+		for (int i = 0; i < MESSAGES; i++) {
+			http.messages.add(assemble("message " + i));
+		}
+		pipeline = new DropReceivePipeline(controller, http, 2, 4);
+		final List<Contact> contacts = Collections.singletonList(aliceAtBob);
+		final int[] dispatched = new int[2];
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						dispatched[index] = pipeline.retrieve(url, contacts).getData();
+					} catch (InterruptedException e) {
+						// fails below
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+		// every message is dispatched once
+		assertEquals(MESSAGES, dispatched[0] + dispatched[1]);
+		assertEquals(MESSAGES, received.size());
+	}
+
+	private byte[] assemble(String content) throws Exception {
+		DropMessage<TestMessage> message = new DropMessage<>(
+				bobAtAlice.getContactOwner(), new TestMessage(content));
+		return new BinaryDropMessageV1(message).assembleMessageFor(bobAtAlice);
+	}
+}
@@ -0,0 +1,111 @@
+package de.qabel.core.drop;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DropServerHealthTrackerTest {
+	private static final String DROP_ID = "/123456789012345678901234567890123456789012c";
+
+	private long now;
+	private DropServerHealthTracker tracker;
+	private DropURL fast, slow, broken;
+
+	@Before
+	public void setUp() throws Exception {
+		now = 1000000;
+		tracker = new DropServerHealthTracker() {
+			@Override
+			long currentTimeMillis() {
+				return now;
+			}
+		};
+		fast = new DropURL("http://fast.example.org" + DROP_ID);
+		slow = new DropURL("http://slow.example.org" + DROP_ID);
+		broken = new DropURL("http://broken.example.org" + DROP_ID);
+	}
+
+	@Test
+	public void circuitOpensAfterConsecutiveFailures() {
+		URL url = broken.getUrl();
+		for (int i = 0; i < DropServerHealthTracker.FAILURE_THRESHOLD - 1; i++) {
+			tracker.recordResult(url, 503, 10);
+		}
+		assertTrue(tracker.tryAcquire(url));
+		tracker.recordResult(url, 0, 10);
+		assertEquals(DropServerHealth.State.OPEN, tracker.getHealth(url).getState());
+		assertFalse(tracker.isAvailable(url));
+		assertFalse(tracker.tryAcquire(url));
+	}
+
+	@Test
+	public void clientErrorsDoNotCount() {
+		URL url = fast.getUrl();
+		for (int i = 0; i < DropServerHealthTracker.FAILURE_THRESHOLD * 2; i++) {
+			tracker.recordResult(url, 404, 10);
+		}
+		assertEquals(DropServerHealth.State.CLOSED, tracker.getHealth(url).getState());
+	}
+
+	@Test
+	public void halfOpenProbeClosesCircuit() {
+		URL url = broken.getUrl();
+		openCircuit(url);
+		assertTrue(tracker.getServersToProbe().isEmpty());
+
+		now += DropServerHealthTracker.MIN_OPEN_MILLIS;
+		assertEquals(1, tracker.getServersToProbe().size());
+		assertTrue(tracker.tryAcquire(url));
+		// only one probe at a time
+		assertFalse(tracker.tryAcquire(url));
+
+		tracker.recordResult(url, 200, 10);
+		assertEquals(DropServerHealth.State.CLOSED, tracker.getHealth(url).getState());
+		assertTrue(tracker.tryAcquire(url));
+	}
+
+	@Test
+	public void failedProbeDoublesOpenPeriod() {
+		URL url = broken.getUrl();
+		openCircuit(url);
+		now += DropServerHealthTracker.MIN_OPEN_MILLIS;
+		assertTrue(tracker.tryAcquire(url));
+		tracker.recordFailure(url);
+		assertEquals(DropServerHealth.State.OPEN, tracker.getHealth(url).getState());
+
+		now += DropServerHealthTracker.MIN_OPEN_MILLIS;
+		assertFalse(tracker.tryAcquire(url));
+		now += DropServerHealthTracker.MIN_OPEN_MILLIS;
+		assertTrue(tracker.tryAcquire(url));
+	}
+
+	@Test
+	public void healthyServersArePrioritized() {
+		tracker.recordResult(fast.getUrl(), 200, 10);
+		tracker.recordResult(slow.getUrl(), 200, 500);
+		openCircuit(broken.getUrl());
+
+		List<DropURL> sorted = tracker.prioritize(Arrays.asList(broken, slow, fast));
+		assertEquals(Arrays.asList(fast, slow, broken), sorted);
+	}
+
+	@Test
+	public void latencyIsAveraged() {
+		URL url = slow.getUrl();
+		tracker.recordResult(url, 200, 100);
+		tracker.recordResult(url, 200, 200);
+		assertEquals(100 + DropServerHealthTracker.ALPHA * 100,
+				tracker.getHealth(url).getLatencyMillis(), 0.001);
+	}
+
+	private void openCircuit(URL url) {
+		for (int i = 0; i < DropServerHealthTracker.FAILURE_THRESHOLD; i++) {
+			tracker.recordFailure(url);
+		}
+	}
+}
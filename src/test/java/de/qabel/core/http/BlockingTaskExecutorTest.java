@@ -0,0 +1,167 @@
+package de.qabel.core.http;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockingTaskExecutorTest {
+	private BlockingTaskExecutor executor;
+
+	/**
+	 * Blocks until it is interrupted.
+	 */
+	static class BlockingCall implements Callable<String> {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+
+		@Override
+		public String call() throws InterruptedException {
+			started.countDown();
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+			return "too late";
+		}
+	}
+
+	static class Result implements Callable<String> {
+		private final String result;
+
+		Result(String result) {
+			this.result = result;
+		}
+
+		@Override
+		public String call() {
+			return result;
+		}
+	}
+
+	static class CountingAbort implements Runnable {
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch aborted = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			count.incrementAndGet();
+			aborted.countDown();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void virtualThreadsAreUsedIfSupported() {
+		boolean supported;
+		try {
+			Thread.class.getMethod("ofVirtual");
+			supported = true;
+		} catch (NoSuchMethodException e) {
+			supported = false;
+		}
+		executor = new BlockingTaskExecutor();
+		assertEquals(supported, executor.usesVirtualThreads());
+		executor.shutdown();
+		executor = new BlockingTaskExecutor(1, false);
+		assertFalse(executor.usesVirtualThreads());
+	}
+
+	@Test
+	public void operationIsCancelledAtDeadline() throws Exception {
+		executor = new BlockingTaskExecutor();
+		BlockingCall call = new BlockingCall();
+		CountingAbort abort = new CountingAbort();
+		Future<String> future = executor.submit(call, abort, 100);
+		assertTrue(call.interrupted.await(10, TimeUnit.SECONDS));
+		assertTrue(future.isCancelled());
+		assertTrue(abort.aborted.await(10, TimeUnit.SECONDS));
+		assertEquals(1, abort.count.get());
+	}
+
+	@Test
+	public void finishedOperationIsNotAborted() throws Exception {
+		executor = new BlockingTaskExecutor();
+		CountingAbort abort = new CountingAbort();
+		Future<String> future = executor.submit(new Result("foo"), abort, 100);
+		assertEquals("foo", future.get());
+		Thread.sleep(200);
+		assertEquals(0, abort.count.get());
+	}
+
+	@Test
+	public void joinCancelsOperationsAfterDeadline() throws Exception {
+		executor = new BlockingTaskExecutor();
+		BlockingCall call = new BlockingCall();
+		CountingAbort abort = new CountingAbort();
+		List<Future<String>> futures;
+		try (BlockingTaskExecutor.TaskScope<String> scope = executor.openScope(200)) {
+			scope.fork(new Result("foo"));
+			scope.fork(call, abort);
+			scope.fork(new Result("bar"));
+			futures = scope.join();
+		}
+		assertEquals(3, futures.size());
+		assertEquals("foo", futures.get(0).get());
+		assertTrue(futures.get(1).isCancelled());
+		assertEquals("bar", futures.get(2).get());
+		assertTrue(call.interrupted.await(10, TimeUnit.SECONDS));
+		assertTrue(abort.aborted.await(10, TimeUnit.SECONDS));
+		assertEquals(1, abort.count.get());
+	}
+
+	@Test
+	public void closingScopeCancelsOperations() throws Exception {
+		executor = new BlockingTaskExecutor();
+		BlockingCall call = new BlockingCall();
+		Future<String> future;
+		try (BlockingTaskExecutor.TaskScope<String> scope = executor.openScope(0)) {
+			future = scope.fork(call);
+			assertTrue(call.started.await(10, TimeUnit.SECONDS));
+		}
+		assertTrue(future.isCancelled());
+		assertTrue(call.interrupted.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void platformThreadsAreBounded() throws Exception {
+		executor = new BlockingTaskExecutor(2, false);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		try (BlockingTaskExecutor.TaskScope<String> scope = executor.openScope(10000)) {
+			for (int i = 0; i < 8; i++) {
+				scope.fork(new Callable<String>() {
+					@Override
+					public String call() throws InterruptedException {
+						int now = running.incrementAndGet();
+						synchronized (maxRunning) {
+							maxRunning.set(Math.max(maxRunning.get(), now));
+						}
+						Thread.sleep(20);
+						running.decrementAndGet();
+						return "done";
+					}
+				});
+			}
+			for (Future<String> future : scope.join()) {
+				assertEquals("done", future.get());
+			}
+		}
+		assertTrue(maxRunning.get() <= 2);
+	}
+}
@@ -0,0 +1,300 @@
+package de.qabel.core.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class NioDropTransportTest {
+	private static final String BOUNDARY = "qabelboundary";
+	private static final long LAST_MODIFIED = 1400000000000L;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private NioDropTransport transport;
+	private final List<byte[]> posted = new ArrayList<>();
+	private String base;
+
+	/**
+	 * Serves two messages and answers 304 to requests with an
+	 * If-Modified-Since date which is not older than the messages.
+	 */
+	class DropHandler implements HttpHandler {
+		private final boolean chunked;
+
+		DropHandler(boolean chunked) {
+			this.chunked = chunked;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			if ("POST".equals(exchange.getRequestMethod())) {
+				synchronized (posted) {
+					posted.add(IOUtils.toByteArray(exchange.getRequestBody()));
+				}
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+				return;
+			}
+			String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+			if (since != null && parseDate(since) >= LAST_MODIFIED) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = multipart("first message", "second message");
+			exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary=" + BOUNDARY);
+			exchange.getResponseHeaders().set("Last-Modified", formatDate(LAST_MODIFIED));
+			exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				// written in parts, so the client receives several reads
+				for (int i = 0; i < body.length; i += 16) {
+					out.write(body, i, Math.min(16, body.length - i));
+					out.flush();
+				}
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 512);
+		server.createContext("/drop", new DropHandler(false));
+		server.createContext("/chunked", new DropHandler(true));
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(2000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		serverExecutor = Executors.newFixedThreadPool(8);
+		server.setExecutor(serverExecutor);
+		server.start();
+		base = "http://localhost:" + server.getAddress().getPort();
+		transport = new NioDropTransport();
+	}
+
+	@After
+	public void tearDown() {
+		transport.close();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void receivesMessages() throws Exception {
+		for (String path : new String[] { "/drop", "/chunked" }) {
+			HTTPResult<Collection<byte[]>> result = transport.receiveMessagesAsync(
+					new URL(base + path), 0).get();
+			assertTrue(result.isOk());
+			assertEquals(LAST_MODIFIED, result.getLastModified());
+			assertMessages(result.getData());
+		}
+	}
+
+	@Test
+	public void transportsReceiveTheSameMessages() throws Exception {
+		DropTransport[] transports = { transport, new DropHTTP() };
+		for (DropTransport t : transports) {
+			final List<byte[]> messages = new ArrayList<>();
+			HTTPResult<Integer> result = t.receiveMessages(new URL(base + "/drop"), 0,
+					new DropTransport.MessageReceiver() {
+						@Override
+						public void onMessage(byte[] message) {
+							messages.add(message);
+						}
+					});
+			assertEquals(200, result.getResponseCode());
+			assertEquals(2, (int) result.getData());
+			assertMessages(messages);
+		}
+	}
+
+	@Test
+	public void notModifiedSince() throws Exception {
+		HTTPResult<Collection<byte[]>> result = transport.receiveMessagesAsync(
+				new URL(base + "/drop"), LAST_MODIFIED).get();
+		assertEquals(304, result.getResponseCode());
+		assertFalse(result.isOk());
+		assertTrue(result.getData().isEmpty());
+		assertEquals(304, transport.head(new URL(base + "/drop"), LAST_MODIFIED).getResponseCode());
+		assertEquals(200, transport.head(new URL(base + "/drop"), LAST_MODIFIED - 1000).getResponseCode());
+	}
+
+	@Test
+	public void sendsMessage() throws Exception {
+		HTTPResult<?> result = transport.send(new URL(base + "/drop"), "foo".getBytes());
+		assertTrue(result.isOk());
+		assertEquals(1, posted.size());
+		assertArrayEquals("foo".getBytes(), posted.get(0));
+	}
+
+	@Test
+	public void multiplexesManyPolls() throws Exception {
+		List<Future<HTTPResult<Collection<byte[]>>>> polls = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			polls.add(transport.receiveMessagesAsync(new URL(base + (i % 2 == 0 ? "/drop" : "/chunked")), 0));
+		}
+		for (Future<HTTPResult<Collection<byte[]>>> poll : polls) {
+			HTTPResult<Collection<byte[]>> result = poll.get();
+			assertTrue(result.isOk());
+			assertMessages(result.getData());
+		}
+	}
+
+	@Test
+	public void requestTimesOut() throws Exception {
+		transport.setTimeout(200);
+		long start = System.currentTimeMillis();
+		HTTPResult<?> result = transport.head(new URL(base + "/slow"), 0);
+		assertFalse(result.isOk());
+		assertEquals(0, result.getResponseCode());
+		assertTrue(System.currentTimeMillis() - start < 1500);
+	}
+
+	@Test
+	public void pollCanBeCancelled() throws Exception {
+		Future<HTTPResult<Collection<byte[]>>> poll = transport.receiveMessagesAsync(
+				new URL(base + "/slow"), 0);
+		assertTrue(poll.cancel(true));
+		assertTrue(poll.isCancelled());
+		assertTrue(poll.isDone());
+	}
+
+	@Test
+	public void negativeSizesFail() throws Exception {
+		String[] responses = {
+				"HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n",
+				"HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-1\r\nfoo\r\n0\r\n\r\n" };
+		for (String response : responses) {
+			try (ServerSocket stub = new ServerSocket(0)) {
+				Thread serving = serve(stub, response);
+				HTTPResult<Collection<byte[]>> result = transport.receiveMessagesAsync(
+						new URL("http://localhost:" + stub.getLocalPort() + "/drop"), 0)
+						.get(5, TimeUnit.SECONDS);
+				assertFalse(result.isOk());
+				assertTrue(result.getData().isEmpty());
+				serving.join(5000);
+			}
+			// the transport keeps serving other exchanges
+			HTTPResult<Collection<byte[]>> result = transport.receiveMessagesAsync(
+					new URL(base + "/drop"), 0).get(5, TimeUnit.SECONDS);
+			assertTrue(result.isOk());
+			assertMessages(result.getData());
+		}
+	}
+
+	@Test
+	public void refusedConnectionFails() throws Exception {
+		int port = server.getAddress().getPort();
+		server.stop(0);
+		HTTPResult<Collection<byte[]>> result = transport.receiveMessagesAsync(
+				new URL("http://localhost:" + port + "/drop"), 0).get();
+		assertFalse(result.isOk());
+		assertTrue(result.getData().isEmpty());
+	}
+
+	/**
+	 * Answers one request with a raw response and keeps the connection open
+	 * until the client closes it.
+	 */
+	private static Thread serve(final ServerSocket stub, final String response) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try (Socket socket = stub.accept()) {
+					InputStream in = socket.getInputStream();
+					// skip the request head
+					int matched = 0;
+					int b;
+					while (matched < 4 && (b = in.read()) >= 0) {
+						matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+					}
+					socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+					socket.getOutputStream().flush();
+					while (in.read() >= 0) {
+						// wait for the client to close the connection
+					}
+				} catch (IOException e) {
+					// the test fails on the client side
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static void assertMessages(Collection<byte[]> messages) {
+		List<String> contents = new ArrayList<>();
+		for (byte[] message : messages) {
+			contents.add(new String(message, StandardCharsets.UTF_8));
+		}
+		assertEquals(2, contents.size());
+		assertEquals("first message", contents.get(0));
+		assertEquals("second message", contents.get(1));
+	}
+
+	private static byte[] multipart(String... messages) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (String message : messages) {
+			out.write(("--" + BOUNDARY + "\r\nContent-Type: application/octet-stream\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+			out.write(message.getBytes(StandardCharsets.UTF_8));
+			out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		out.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+		return out.toByteArray();
+	}
+
+	private static SimpleDateFormat httpDateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	private static String formatDate(long date) {
+		return httpDateFormat().format(new Date(date));
+	}
+
+	private static long parseDate(String date) {
+		try {
+			return httpDateFormat().parse(date).getTime();
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+}
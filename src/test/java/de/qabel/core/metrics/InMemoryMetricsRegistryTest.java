@@ -0,0 +1,101 @@
+package de.qabel.core.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import de.qabel.core.crypto.CryptoUtils;
+
+public class InMemoryMetricsRegistryTest {
+	private MetricsRegistry originalRegistry;
+	private InMemoryMetricsRegistry registry;
+
+	@Before
+	public void setUp() {
+		originalRegistry = Metrics.getRegistry();
+		registry = new InMemoryMetricsRegistry();
+		Metrics.setRegistry(registry);
+	}
+
+	@After
+	public void tearDown() {
+		Metrics.setRegistry(originalRegistry);
+	}
+
+	@Test
+	public void counterTest() {
+		registry.counter("a").inc();
+		registry.counter("a").add(41);
+		assertSame(registry.counter("a"), registry.counter("a"));
+		assertEquals(42, registry.getSnapshot().getCount("a"));
+		assertEquals(0, registry.getSnapshot().getCount("unknown"));
+	}
+
+	@Test
+	public void histogramTest() {
+		Histogram histogram = registry.histogram("h");
+		for (int i = 1; i <= 100; i++) {
+			histogram.update(i);
+		}
+		HistogramSnapshot snapshot = registry.getSnapshot().getHistogram("h");
+		assertEquals(100, snapshot.getCount());
+		assertEquals(5050, snapshot.getSum());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(100, snapshot.getMax());
+		assertEquals(50.5, snapshot.getMean(), 0.001);
+		// percentiles are accurate to a factor of two
+		assertTrue(snapshot.getMedian() >= 50 && snapshot.getMedian() < 100);
+		assertTrue(snapshot.get99thPercentile() >= 99 && snapshot.get99thPercentile() <= 100);
+	}
+
+	@Test
+	public void emptyHistogramTest() {
+		registry.histogram("h");
+		HistogramSnapshot snapshot = registry.getSnapshot().getHistogram("h");
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMax());
+	}
+
+	@Test
+	public void jsonTest() throws Exception {
+		registry.counter("a").inc();
+		registry.histogram("h").update(7);
+		StringWriter writer = new StringWriter();
+		registry.getSnapshot().writeJson(writer);
+
+		JsonObject json = new JsonParser().parse(writer.toString()).getAsJsonObject();
+		assertEquals(1, json.getAsJsonObject("counters").get("a").getAsLong());
+		assertEquals(7, json.getAsJsonObject("histograms").getAsJsonObject("h").get("max").getAsLong());
+	}
+
+	@Test
+	public void perServerTest() throws Exception {
+		assertEquals("http.latency.localhost:6000",
+				Metrics.perServer(Metrics.HTTP_LATENCY, new URL("http://localhost:6000/drop")));
+		assertEquals("http.latency.example.org:443",
+				Metrics.perServer(Metrics.HTTP_LATENCY, new URL("https://example.org/")));
+	}
+
+	@Test
+	public void cryptoOperationsAreRecordedTest() throws Exception {
+		CryptoUtils cu = new CryptoUtils();
+		byte[] cipherText = cu.encryptAuthenticatedSymmetric(new byte[100], cu.generateSymmetricKey());
+		assertNotNull(cipherText);
+		assertEquals(1, registry.getSnapshot().getHistogram(Metrics.CRYPTO_AES_ENCRYPT).getCount());
+	}
+
+	@Test
+	public void resetTest() {
+		registry.counter("a").inc();
+		registry.reset();
+		assertTrue(registry.getSnapshot().getCounters().isEmpty());
+	}
+}
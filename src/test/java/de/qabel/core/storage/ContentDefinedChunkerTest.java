@@ -0,0 +1,117 @@
+package de.qabel.core.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.qabel.core.exceptions.QblStorageInvalidBlobName;
+
+public class ContentDefinedChunkerTest {
+	private static final int MIN = 256, AVG = 1280, MAX = 4096;
+	private static final String KEY_HEX = "feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308";
+
+	private static byte[] randomData(int size) {
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		return data;
+	}
+
+	private static List<byte[]> chunk(byte[] data) throws IOException {
+		ContentDefinedChunker chunker = new ContentDefinedChunker(new ByteArrayInputStream(data), MIN, AVG, MAX);
+		List<byte[]> chunks = new ArrayList<>();
+		byte[] chunk;
+		while ((chunk = chunker.nextChunk()) != null) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	@Test
+	public void chunksReassembleToInput() throws IOException {
+		byte[] data = randomData(100000);
+		List<byte[]> chunks = chunk(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < chunks.size(); i++) {
+			byte[] chunk = chunks.get(i);
+			Assert.assertTrue(chunk.length <= MAX);
+			if (i < chunks.size() - 1) {
+				Assert.assertTrue(chunk.length >= MIN);
+			}
+			out.write(chunk);
+		}
+		Assert.assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void emptyInputHasNoChunks() throws IOException {
+		Assert.assertTrue(chunk(new byte[0]).isEmpty());
+	}
+
+	@Test
+	public void insertionOnlyAffectsNearbyChunks() throws IOException {
+		byte[] data = randomData(100000);
+		byte[] modified = new byte[data.length + 3];
+		modified[0] = 1;
+		modified[1] = 2;
+		modified[2] = 3;
+		System.arraycopy(data, 0, modified, 3, data.length);
+
+		List<byte[]> original = chunk(data);
+		List<byte[]> changed = chunk(modified);
+		// compare from the end, all chunks but the first ones have to be identical
+		int equalChunks = 0;
+		for (int i = 1; i <= Math.min(original.size(), changed.size()); i++) {
+			if (!java.util.Arrays.equals(original.get(original.size() - i), changed.get(changed.size() - i))) {
+				break;
+			}
+			equalChunks++;
+		}
+		Assert.assertTrue(original.size() > 10);
+		Assert.assertTrue(equalChunks >= original.size() - 2);
+	}
+
+	@Test
+	public void chunkNamesAreConvergent() throws InvalidKeyException, QblStorageInvalidBlobName {
+		SecretKey key = new SecretKeySpec(Hex.decode(KEY_HEX), "AES");
+		byte[] data = randomData(1000);
+		StorageChunk chunk = StorageChunk.fromData(data, key);
+		StorageChunk sameChunk = StorageChunk.fromData(data.clone(), key);
+		Assert.assertEquals(chunk, sameChunk);
+		Assert.assertArrayEquals(chunk.deriveKey(key).getEncoded(), sameChunk.deriveKey(key).getEncoded());
+		StorageBlob.checkBlobName(chunk.getBlobName());
+
+		SecretKey otherKey = new SecretKeySpec(new byte[32], "AES");
+		Assert.assertNotEquals(chunk.getBlobName(), StorageChunk.fromData(data, otherKey).getBlobName());
+	}
+
+	@Test
+	public void chunkIndexPersistence() throws InvalidKeyException, IOException {
+		SecretKey key = new SecretKeySpec(Hex.decode(KEY_HEX), "AES");
+		StorageChunkIndex index = new StorageChunkIndex();
+		StorageChunk chunk = StorageChunk.fromData(randomData(1000), key);
+		Assert.assertTrue(index.add(chunk));
+		Assert.assertFalse(index.add(chunk));
+
+		File file = File.createTempFile("chunks", ".json");
+		try {
+			index.save(file);
+			StorageChunkIndex loaded = StorageChunkIndex.load(file);
+			Assert.assertTrue(loaded.contains(chunk));
+			Assert.assertEquals(1, loaded.getChunks().size());
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package de.qabel.core.storage;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.InvalidKeyException;
+
+import javax.crypto.SecretKey;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.crypto.CryptoUtils;
+
+public class StorageBlobCacheTest {
+	private static final String VOLUME = "volume";
+	private File directory;
+	private File blob;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("cache").toFile();
+		blob = File.createTempFile("blob", ".tmp");
+		Files.write(blob.toPath(), new byte[100]);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		blob.delete();
+	}
+
+	@Test
+	public void cachedBlobCanBeRead() throws IOException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.CIPHERTEXT);
+		Assert.assertNull(cache.open(VOLUME, "a"));
+		cache.put(VOLUME, "a", blob, "\"etag\"", 1234);
+
+		StorageBlobCache.CacheEntry entry = cache.getEntry(VOLUME, "a");
+		Assert.assertEquals("\"etag\"", entry.getETag());
+		Assert.assertEquals(1234, entry.getLastModified());
+		Assert.assertNull(cache.getEntry("otherVolume", "a"));
+		try (InputStream in = cache.open(VOLUME, "a")) {
+			byte[] content = new byte[100];
+			new DataInputStream(in).readFully(content);
+			Assert.assertArrayEquals(new byte[100], content);
+			Assert.assertEquals(-1, in.read());
+		}
+		cache.remove(VOLUME, "a");
+		Assert.assertNull(cache.open(VOLUME, "a"));
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void leastRecentlyUsedBlobIsEvicted() throws IOException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 250, StorageBlobCache.Policy.CIPHERTEXT);
+		cache.put(VOLUME, "a", blob, null, 0);
+		cache.put(VOLUME, "b", blob, null, 0);
+		cache.open(VOLUME, "a").close();
+		cache.put(VOLUME, "c", blob, null, 0);
+
+		Assert.assertNotNull(cache.getEntry(VOLUME, "a"));
+		Assert.assertNull(cache.getEntry(VOLUME, "b"));
+		Assert.assertNotNull(cache.getEntry(VOLUME, "c"));
+		Assert.assertEquals(200, cache.getSize());
+	}
+
+	@Test
+	public void indexIsPersisted() throws IOException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.PLAINTEXT);
+		cache.put(VOLUME, "a", blob, "\"etag\"", 0);
+		cache.flush();
+
+		StorageBlobCache reopened = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.PLAINTEXT);
+		Assert.assertEquals("\"etag\"", reopened.getEntry(VOLUME, "a").getETag());
+		Assert.assertEquals(100, reopened.getSize());
+
+		StorageBlobCache otherPolicy = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.CIPHERTEXT);
+		Assert.assertNull(otherPolicy.getEntry(VOLUME, "a"));
+		Assert.assertEquals(0, otherPolicy.getSize());
+	}
+
+	@Test
+	public void indexIsWrittenInBatches() throws IOException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 100000, StorageBlobCache.Policy.CIPHERTEXT);
+		cache.put(VOLUME, "a", blob, null, 0);
+		cache.put(VOLUME, "b", blob, null, 0);
+		// only the first change has been written, the blob of b is deleted on open
+		StorageBlobCache reopened = new StorageBlobCache(directory, 100000, StorageBlobCache.Policy.CIPHERTEXT);
+		Assert.assertNotNull(reopened.getEntry(VOLUME, "a"));
+		Assert.assertNull(reopened.getEntry(VOLUME, "b"));
+		Assert.assertEquals(1, directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".blob");
+			}
+		}).length);
+
+		// the first change is written, then every INDEX_SAVE_CHANGES changes
+		for (int i = 0; i <= StorageBlobCache.INDEX_SAVE_CHANGES; i++) {
+			reopened.put(VOLUME, "blob" + i, blob, null, 0);
+		}
+		reopened = new StorageBlobCache(directory, 100000, StorageBlobCache.Policy.CIPHERTEXT);
+		Assert.assertNotNull(reopened.getEntry(VOLUME, "blob" + StorageBlobCache.INDEX_SAVE_CHANGES));
+
+		reopened.put(VOLUME, "c", blob, null, 0);
+		reopened.flush();
+		reopened = new StorageBlobCache(directory, 100000, StorageBlobCache.Policy.CIPHERTEXT);
+		Assert.assertNotNull(reopened.getEntry(VOLUME, "c"));
+	}
+
+	@Test
+	public void freshnessDependsOnRevalidationInterval() throws IOException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.CIPHERTEXT);
+		cache.put(VOLUME, "a", blob, null, 0);
+		Assert.assertFalse(cache.isFresh(cache.getEntry(VOLUME, "a")));
+		cache.setRevalidationInterval(60000);
+		Assert.assertTrue(cache.isFresh(cache.getEntry(VOLUME, "a")));
+	}
+
+	@Test
+	public void plaintextIsBoundToKey() throws IOException, InvalidKeyException {
+		CryptoUtils cryptoUtils = new CryptoUtils();
+		SecretKey key = cryptoUtils.generateSymmetricKey();
+		SecretKey otherKey = cryptoUtils.generateSymmetricKey();
+		StorageBlobCache cache = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.PLAINTEXT);
+		cache.put(VOLUME, "a", blob, null, 0, key);
+		cache.put(VOLUME, "b", blob, null, 0);
+
+		Assert.assertTrue(cache.matchesKey(cache.getEntry(VOLUME, "a"), key));
+		Assert.assertFalse(cache.matchesKey(cache.getEntry(VOLUME, "a"), otherKey));
+		// entries without a key cannot be read
+		Assert.assertFalse(cache.matchesKey(cache.getEntry(VOLUME, "b"), key));
+		cache.flush();
+
+		StorageBlobCache reopened = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.PLAINTEXT);
+		Assert.assertTrue(reopened.matchesKey(reopened.getEntry(VOLUME, "a"), key));
+		Assert.assertFalse(reopened.matchesKey(reopened.getEntry(VOLUME, "a"), otherKey));
+	}
+
+	@Test
+	public void ciphertextIsAuthenticatedOnRead() throws IOException, InvalidKeyException {
+		StorageBlobCache cache = new StorageBlobCache(directory, 1000, StorageBlobCache.Policy.CIPHERTEXT);
+		cache.put(VOLUME, "a", blob, null, 0);
+		Assert.assertTrue(cache.matchesKey(cache.getEntry(VOLUME, "a"), new CryptoUtils().generateSymmetricKey()));
+	}
+}
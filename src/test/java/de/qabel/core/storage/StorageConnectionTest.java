@@ -0,0 +1,56 @@
+package de.qabel.core.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StorageConnectionTest {
+
+	@Test
+	public void progressIsTracked() throws IOException {
+		StorageConnection connection = new StorageConnection();
+		connection.startRequest(null, 10);
+		InputStream in = connection.track(new ByteArrayInputStream(new byte[100]));
+		Assert.assertEquals(50, in.read(new byte[50]));
+		Assert.assertEquals(60, connection.getTransferredBytes());
+		in.read();
+		Assert.assertEquals(61, connection.getTransferredBytes());
+
+		connection.startRequest(null, 0);
+		OutputStream out = connection.track(new ByteArrayOutputStream());
+		out.write(new byte[20]);
+		out.write(1);
+		Assert.assertEquals(21, connection.getTransferredBytes());
+	}
+
+	@Test(expected = InterruptedIOException.class)
+	public void cancelledReadFails() throws IOException {
+		StorageConnection connection = new StorageConnection();
+		InputStream in = connection.track(new ByteArrayInputStream(new byte[100]));
+		in.read();
+		connection.cancel();
+		Assert.assertTrue(connection.isCancelled());
+		in.read();
+	}
+
+	@Test(expected = InterruptedIOException.class)
+	public void cancelledWriteFails() throws IOException {
+		StorageConnection connection = new StorageConnection();
+		OutputStream out = connection.track(new ByteArrayOutputStream());
+		connection.cancel();
+		out.write(new byte[10]);
+	}
+
+	@Test(expected = InterruptedIOException.class)
+	public void cancelledConnectionCannotStart() throws IOException {
+		StorageConnection connection = new StorageConnection();
+		connection.cancel();
+		connection.startRequest(null, 0);
+	}
+}
@@ -0,0 +1,145 @@
+package de.qabel.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.qabel.core.config.StorageServer;
+import de.qabel.core.config.StorageVolume;
+
+public class StorageControllerTest {
+	private StorageController controller;
+	private StorageVolume volume;
+	private StorageVolume otherVolume;
+
+	@Before
+	public void setUp() throws IOException {
+		controller = new StorageController(4, 2);
+		volume = new StorageVolume(new StorageServer(new URL("http://localhost:8000/data"), ""), "a", "t", "r");
+		otherVolume = new StorageVolume(new StorageServer(new URL("http://localhost:8001/data"), ""), "b", "t", "r");
+	}
+
+	@After
+	public void tearDown() {
+		controller.shutdown();
+	}
+
+	@Test
+	public void concurrencyPerServerIsLimited() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		RecordingListener listener = new RecordingListener(6);
+
+		for (int i = 0; i < 6; i++) {
+			controller.startRequest(new StorageRequest(volume) {
+				@Override
+				File execute(StorageConnection connection) throws IOException {
+					int now = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), now));
+					}
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					running.decrementAndGet();
+					return null;
+				}
+			}, listener);
+		}
+		// requests to another server are not blocked by the limit
+		RecordingListener otherListener = new RecordingListener(1);
+		controller.startRequest(new StorageRequest(otherVolume) {
+			@Override
+			File execute(StorageConnection connection) {
+				return null;
+			}
+		}, otherListener);
+		Assert.assertTrue(otherListener.done.await(5, TimeUnit.SECONDS));
+
+		Thread.sleep(100);
+		Assert.assertEquals(2, running.get());
+		release.countDown();
+		Assert.assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, maxRunning.get());
+		Assert.assertEquals(6, listener.successes.get());
+		Assert.assertTrue(controller.getStorageConnection().isEmpty());
+	}
+
+	@Test
+	public void failuresAndCancellationsAreReported() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		RecordingListener listener = new RecordingListener(3);
+
+		StorageRequest blocking = new StorageRequest(volume) {
+			@Override
+			File execute(StorageConnection connection) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return null;
+			}
+		};
+		controller.startRequest(blocking, listener);
+		controller.startRequest(new StorageRequest(volume) {
+			@Override
+			File execute(StorageConnection connection) throws IOException {
+				throw new IOException("failed");
+			}
+		}, listener);
+		// pending because of the limit of two requests per server
+		StorageConnection pending = controller.startRequest(blocking, listener);
+		pending.cancel();
+		release.countDown();
+
+		Assert.assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, listener.successes.get());
+		Assert.assertEquals(1, listener.failures.get());
+		Assert.assertEquals(1, listener.cancellations.get());
+	}
+
+	private static class RecordingListener implements StorageResponseListener {
+		final CountDownLatch done;
+		final AtomicInteger successes = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final AtomicInteger cancellations = new AtomicInteger();
+
+		RecordingListener(int requests) {
+			done = new CountDownLatch(requests);
+		}
+
+		@Override
+		public void onProgress(StorageConnection connection, long transferredBytes, long totalBytes) {
+		}
+
+		@Override
+		public void onSuccess(StorageConnection connection, File file) {
+			successes.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(StorageConnection connection, Exception e) {
+			failures.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void onCancel(StorageConnection connection) {
+			cancellations.incrementAndGet();
+			done.countDown();
+		}
+	}
+}
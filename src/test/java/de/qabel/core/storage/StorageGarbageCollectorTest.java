@@ -0,0 +1,130 @@
+package de.qabel.core.storage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.qabel.core.config.StorageServer;
+import de.qabel.core.config.StorageVolume;
+import de.qabel.core.exceptions.QblStorageInvalidToken;
+
+public class StorageGarbageCollectorTest {
+	private HttpServer server;
+	private StorageVolume volume;
+	private final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * Number of deletions after which the token is rejected.
+	 */
+	private volatile int deletionLimit = Integer.MAX_VALUE;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/data", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				String blobName = path.substring(path.lastIndexOf('/') + 1);
+				int status;
+				if (!"DELETE".equals(exchange.getRequestMethod())) {
+					status = 405;
+				} else if (!"revoke".equals(exchange.getRequestHeaders().getFirst("X-Qabel-Token"))
+						|| deleted.size() >= deletionLimit) {
+					status = 403;
+				} else if (!deleted.add(blobName)) {
+					status = 404;
+				} else {
+					status = 204;
+				}
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/data");
+		volume = new StorageVolume(new StorageServer(url, ""), "volume", "token", "revoke");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void deleteBlobs() throws Exception {
+		deleted.add("old");
+		Set<String> failed = StorageAction.deleteBlobs(volume, Arrays.asList("aaa", "bbb", "ccc", "old"), 2);
+		Assert.assertTrue(failed.isEmpty());
+		Assert.assertTrue(deleted.containsAll(Arrays.asList("aaa", "bbb", "ccc")));
+	}
+
+	@Test(expected = QblStorageInvalidToken.class)
+	public void deleteBlobsWithInvalidToken() throws Exception {
+		volume.setRevokeToken("invalid");
+		StorageAction.deleteBlobs(volume, Arrays.asList("aaa", "bbb"), 2);
+	}
+
+	@Test
+	public void unreferencedChunksAreDeleted() throws IOException, InvalidKeyException, QblStorageInvalidToken {
+		SecretKey key = new SecretKeySpec(new byte[32], "AES");
+		StorageChunk used = StorageChunk.fromData(new byte[] { 1 }, key);
+		StorageChunk unused = StorageChunk.fromData(new byte[] { 2, 3 }, key);
+		StorageChunkIndex index = new StorageChunkIndex();
+		index.add(used);
+		index.add(unused);
+		StorageChunkManifest manifest = new StorageChunkManifest();
+		manifest.addChunk(used);
+
+		StorageGarbageCollector.Result result = new StorageGarbageCollector(volume, index)
+				.collect(Collections.singletonList(manifest));
+
+		Assert.assertEquals(1, result.getDeletedChunks());
+		Assert.assertEquals(StorageBlob.MINIMUM_SIZE_BYTES, result.getReclaimedBytes());
+		Assert.assertTrue(result.getFailedBlobs().isEmpty());
+		Assert.assertEquals(Collections.singleton(unused.getBlobName()), deleted);
+		Assert.assertTrue(index.contains(used));
+		Assert.assertFalse(index.contains(unused));
+	}
+
+	@Test
+	public void deletedChunksAreRemovedWhenCollectionFails() throws IOException, InvalidKeyException {
+		SecretKey key = new SecretKeySpec(new byte[32], "AES");
+		StorageChunkIndex index = new StorageChunkIndex();
+		for (byte i = 0; i < 3; i++) {
+			index.add(StorageChunk.fromData(new byte[] { i }, key));
+		}
+		deletionLimit = 1;
+		StorageGarbageCollector collector = new StorageGarbageCollector(volume, index);
+		collector.setConcurrency(1);
+
+		try {
+			collector.collect(Collections.<StorageChunkManifest>emptyList());
+			Assert.fail("Invalid token not reported");
+		} catch (QblStorageInvalidToken e) {
+			// the token is rejected after the first deletion
+		}
+
+		Assert.assertEquals(1, deleted.size());
+		Assert.assertEquals(2, index.getChunks().size());
+		for (StorageChunk chunk : index.getChunks()) {
+			Assert.assertFalse(deleted.contains(chunk.getBlobName()));
+		}
+	}
+}